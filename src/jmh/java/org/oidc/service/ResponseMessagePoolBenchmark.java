@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.msg.Message;
+import org.oidc.msg.oidc.JsonResponseDescriptor;
+import org.oidc.service.base.MessageFactory;
+import org.oidc.service.base.MessagePool;
+import org.oidc.service.base.ServiceContext;
+import org.oidc.service.oidc.Webfinger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the per-call allocation of parsing a response into a fresh message against parsing it
+ * into a pooled one. Run with the GC profiler and compare gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseMessagePoolBenchmark {
+
+  private static final String RESPONSE = "{\"subject\":\"acct:foobar@example.com\",\"links\":"
+      + "[{\"rel\":\"http://openid.net/specs/connect/1.0/issuer\","
+      + "\"href\":\"https://example.com/op\"}]}";
+
+  private Webfinger unpooled;
+
+  private Webfinger pooled;
+
+  @Setup
+  public void setup() {
+    unpooled = new Webfinger(new ServiceContext());
+    pooled = new Webfinger(new ServiceContext());
+    pooled.setResponseMessagePool(new MessagePool(new MessageFactory() {
+      @Override
+      public Message newMessage() {
+        return new JsonResponseDescriptor();
+      }
+    }, 16, false));
+  }
+
+  @Benchmark
+  public Message parseFreshMessage() throws Exception {
+    unpooled.setResponseMessage(new JsonResponseDescriptor());
+    Message response = unpooled.parseResponse(RESPONSE);
+    unpooled.updateServiceContext(response);
+    return response;
+  }
+
+  @Benchmark
+  public Message parsePooledMessage() throws Exception {
+    Message response = pooled.parseResponse(RESPONSE);
+    pooled.updateServiceContext(response);
+    pooled.releaseResponseMessage(response);
+    return response;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.service.util.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the configuration loading time of a typical authorization service, with the processors
+ * resolved by the {@link RequestArgumentProcessorRegistry} and with reflection as before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestArgumentProcessorRegistryBenchmark {
+
+  private static final String PRE_CONSTRUCTORS = "org.oidc.service.base.processor.AddState "
+      + "org.oidc.service.base.processor.AddNonce "
+      + "org.oidc.service.base.processor.PickRedirectUri "
+      + "org.oidc.service.base.processor.AddResponseType "
+      + "org.oidc.service.base.processor.AddScope";
+
+  private static final String POST_CONSTRUCTORS =
+      "org.oidc.service.base.processor.AddRequestObject "
+      + "org.oidc.service.base.processor.StoreAuthenticationRequest "
+      + "org.oidc.service.base.processor.StoreNonce";
+
+  private final Properties properties = new Properties();
+
+  private final RequestArgumentProcessorRegistry reflective =
+      new RequestArgumentProcessorRegistry();
+
+  public RequestArgumentProcessorRegistryBenchmark() {
+    properties.setProperty(Constants.SERVICE_CONFIG_KEY_PRE_CONSTRUCTORS, PRE_CONSTRUCTORS);
+    properties.setProperty(Constants.SERVICE_CONFIG_KEY_POST_CONSTRUCTORS, POST_CONSTRUCTORS);
+  }
+
+  @Benchmark
+  public ServiceConfig registry() throws InvalidConfigurationPropertyException {
+    return new ServiceConfig(properties);
+  }
+
+  @Benchmark
+  public int reflection() throws InvalidConfigurationPropertyException {
+    int count = 0;
+    for (String name : (PRE_CONSTRUCTORS + " " + POST_CONSTRUCTORS).split(" ")) {
+      if (reflective.getProcessor(name) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.msg.DeserializationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the startup cost of loading a large bundle of {@link ServiceConfig}s, from the JSON
+ * source and from an up-to-date {@link ServiceConfigSnapshot}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ServiceConfigSnapshotBenchmark {
+
+  @Param({ "50", "500" })
+  public int configCount;
+
+  private Path directory;
+
+  private Path source;
+
+  private Path snapshot;
+
+  private byte[] content;
+
+  @Setup
+  public void setup() throws IOException, DeserializationException {
+    directory = Files.createTempDirectory("service-config");
+    source = directory.resolve("services.json");
+    snapshot = directory.resolve("services.snapshot");
+    StringBuilder builder = new StringBuilder("{");
+    for (int i = 0; i < configCount; i++) {
+      builder.append(i == 0 ? "" : ",").append("\"service").append(i).append("\": { ")
+          .append("\"name\": \"AUTHORIZATION\", \"http_method\": \"GET\", ")
+          .append("\"endpoint\": \"https://op").append(i).append(".example.com/authz\", ")
+          .append("\"pre_constructors\": [ \"org.oidc.service.base.processor.AddState\", ")
+          .append("\"org.oidc.service.base.processor.AddNonce\", ")
+          .append("\"org.oidc.service.base.processor.AddScope\" ], ")
+          .append("\"post_constructors\": [ \"org.oidc.service.base.processor.StoreNonce\" ], ")
+          .append("\"pre_construct\": { \"scope\": [ \"openid\", \"email\", \"profile\" ], ")
+          .append("\"max_age\": 3600 }, ")
+          .append("\"request_params\": { \"response_type\": \"code\", \"prompt\": \"login\" } }");
+    }
+    content = builder.append("}").toString().getBytes(StandardCharsets.UTF_8);
+    Files.write(source, content);
+    ServiceConfigSnapshot.load(source, snapshot);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(snapshot);
+    Files.deleteIfExists(source);
+    Files.deleteIfExists(directory);
+  }
+
+  @Benchmark
+  public Map<String, ServiceConfig> parseSource() throws DeserializationException {
+    return ServiceConfigSnapshot.parse(content, false);
+  }
+
+  @Benchmark
+  public Map<String, ServiceConfig> loadSnapshot() throws DeserializationException {
+    return ServiceConfigSnapshot.load(source, snapshot);
+  }
+}
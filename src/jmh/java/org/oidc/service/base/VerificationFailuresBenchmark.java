@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.msg.Message;
+import org.oidc.msg.oauth2.ResponseMessage;
+import org.oidc.service.data.InMemoryStateImpl;
+import org.oidc.service.oidc.Authentication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the cost of rejecting a forged callback in the authentication service, with and
+ * without the stackless mode of {@link VerificationFailures}. The depth adds frames below the
+ * service call, as a servlet container would, since capturing the stack trace costs more the
+ * deeper the stack is.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VerificationFailuresBenchmark {
+
+  @Param({ "false", "true" })
+  public boolean stackless;
+
+  @Param({ "0", "100" })
+  public int depth;
+
+  private Authentication service;
+
+  private Message errorResponse;
+
+  @Setup
+  public void setup() {
+    VerificationFailures.setStackless(stackless);
+    service = new Authentication(new ServiceContext(), new InMemoryStateImpl(), null);
+    errorResponse = new ResponseMessage();
+    errorResponse.getClaims().put("error", "access_denied");
+  }
+
+  @TearDown
+  public void tearDown() {
+    VerificationFailures.setStackless(false);
+  }
+
+  @Benchmark
+  public Exception rejectMissingResponse() {
+    return reject(null, depth);
+  }
+
+  @Benchmark
+  public Exception rejectErrorResponse() {
+    return reject(errorResponse, depth);
+  }
+
+  private Exception reject(Message response, int remaining) {
+    if (remaining > 0) {
+      return reject(response, remaining - 1);
+    }
+    try {
+      service.updateServiceContext(response, "forged");
+      return null;
+    } catch (Exception e) {
+      return e;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.common.SerializationType;
+import org.oidc.service.base.ServiceContext;
+import org.oidc.service.data.InMemoryStateImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of rejecting a forged authentication callback with an unknown state. The
+ * callback carries an ID token sized like a real one, which is never decoded as the state is
+ * checked first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthenticationCallbackBenchmark {
+
+  private Authentication service;
+
+  private String forgedCallback;
+
+  @Setup
+  public void setup() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setIssuer("https://op.example.com");
+    serviceContext.setClientId("client");
+    service = new Authentication(serviceContext, new InMemoryStateImpl(), null);
+    StringBuilder idToken = new StringBuilder("eyJhbGciOiJSUzI1NiJ9.");
+    for (int i = 0; i < 600; i++) {
+      idToken.append('A');
+    }
+    idToken.append(".signature");
+    forgedCallback = "https://rp.example.com/cb#code=abc&id_token=" + idToken
+        + "&state=forged-state-value";
+  }
+
+  @Benchmark
+  public Exception rejectUnknownState() {
+    try {
+      service.parseResponse(forgedCallback, SerializationType.URL_ENCODED, "");
+      return null;
+    } catch (Exception e) {
+      return e;
+    }
+  }
+}
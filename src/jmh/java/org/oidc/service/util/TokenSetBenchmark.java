@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the token membership and canonicalisation of {@link TokenSet} with the compiled
+ * patterns and the split-sort-join previously used by the request argument processors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TokenSetBenchmark {
+
+  public String scope = "email profile openid address";
+
+  public String responseType = "id_token token code";
+
+  @Benchmark
+  public boolean containsByPattern() {
+    return Pattern.compile("\\bopenid\\b").matcher(scope).find();
+  }
+
+  @Benchmark
+  public boolean containsByTokenSet() {
+    return TokenSet.containsToken(scope, "openid");
+  }
+
+  @Benchmark
+  public String canonicalBySorting() {
+    List<String> types = Arrays.asList(responseType.split(" "));
+    Collections.sort(types);
+    StringBuilder builder = new StringBuilder();
+    for (String type : types) {
+      builder.append(type).append(" ");
+    }
+    return builder.toString().trim();
+  }
+
+  @Benchmark
+  public TokenSet canonicalByTokenSet() {
+    return TokenSet.parse(responseType);
+  }
+}
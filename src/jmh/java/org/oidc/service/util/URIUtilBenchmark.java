@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.validator.routines.RegexValidator;
+import org.apache.commons.validator.routines.UrlValidator;
+import org.oidc.common.ValueException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares {@link URIUtil#normalizeUrl(String)} against the previous implementation that rewrote
+ * the input with regular expressions and built new validators on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class URIUtilBenchmark {
+
+  @Param({ "acct:joe@example.com", "joe@example.com", "https://example.com:8080/joe",
+      "example.com", "device:p1.example.com", "tel:+1234567890" })
+  public String resource;
+
+  @Benchmark
+  public String normalizeUrl() throws ValueException {
+    return URIUtil.normalizeUrl(resource);
+  }
+
+  @Benchmark
+  public String legacyNormalizeUrl() throws ValueException {
+    String url = resource;
+    if (legacyHasScheme(url)) {
+      // nothing to add
+    } else if (url.contains("@")) {
+      String[] hostArr = url.split("@");
+      String host = hostArr[hostArr.length - 1];
+      url = host.contains(":") || host.contains("/") || host.contains("?") ? "https://" + url
+          : "acct:" + url;
+    } else {
+      url = "https://" + url;
+    }
+    return url.split("#")[0];
+  }
+
+  private static boolean legacyHasScheme(String url) {
+    if (url.contains("tel:")) {
+      return url.matches("tel:\\+[0-9]{10,12}");
+    }
+    url = url.replace("_", "-");
+    url = url.replaceFirst("@", ".");
+    url = url.replaceFirst(".jp", ".com");
+    if (url.contains("acct:")) {
+      url = url.replaceFirst("acct:", "acct://");
+    } else if (url.contains("device:")) {
+      url = url.replaceFirst("device:", "device://");
+    } else if (url.contains("mailto:")) {
+      url = url.replaceFirst("mailto:", "mailto://");
+    }
+    String[] regexs = { "http", "https", "acct", "device", "mailto" };
+    RegexValidator validator = new RegexValidator(regexs, true);
+    UrlValidator urlValidator = new UrlValidator(regexs, validator, UrlValidator.ALLOW_ALL_SCHEMES);
+    return urlValidator.isValid(url);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.msg.DeserializationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares parsing an authorization response with {@link URL}, split arrays and
+ * {@link URLDecoder} against the single pass of {@link UrlEncodedParser}. Run with the GC profiler
+ * for the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlEncodedParserBenchmark {
+
+  @Param({ "https://rp.example.com/cb?code=SplxlOBeZQQYbYS6WxSbIA&state=af0ifjsldkj",
+      "https://rp.example.com/cb#access_token=2YotnFZFEjr1zCsicMWpAA&token_type=Bearer"
+          + "&expires_in=3600&scope=openid+profile+email&state=xyz%2Fabc" })
+  public String response;
+
+  @Benchmark
+  public Map<String, Object> urlAndSplit()
+      throws MalformedURLException, UnsupportedEncodingException {
+    URL url = new URL(response);
+    String info = url.getQuery() != null && !url.getQuery().isEmpty() ? url.getQuery()
+        : url.getRef();
+    Map<String, Object> claims = new HashMap<>();
+    for (String parameter : info.split("&")) {
+      String[] pair = parameter.split("=", 2);
+      claims.put(URLDecoder.decode(pair[0], "UTF-8"),
+          pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "");
+    }
+    return claims;
+  }
+
+  @Benchmark
+  public Map<String, Object> singlePass() throws MalformedURLException, DeserializationException {
+    final Map<String, Object> claims = new HashMap<>();
+    UrlEncodedParser.parse(UrlEncodedParser.getQueryOrFragment(response),
+        new UrlEncodedParser.ParameterHandler() {
+          @Override
+          public void parameter(String name, String value) {
+            claims.put(name, value);
+          }
+        });
+    return claims;
+  }
+}
@@ -20,5 +20,5 @@ package org.oidc.common;
  * The names of different services supported within the Oidcservice layer
  */
 public enum ServiceName {
-  AUTHORIZATION, ACCESS_TOKEN, REFRESH_ACCESS_TOKEN, PROVIDER_INFO_DISCOVERY, WEBFINGER, REGISTRATION, USER_INFO, CHECK_SESSION, CHECK_ID, END_SESSION;
+  AUTHORIZATION, ACCESS_TOKEN, REFRESH_ACCESS_TOKEN, PROVIDER_INFO_DISCOVERY, WEBFINGER, REGISTRATION, USER_INFO, CHECK_SESSION, CHECK_ID, END_SESSION, INTROSPECTION, REVOCATION;
 }
\ No newline at end of file
@@ -25,4 +25,18 @@ public class ValueException extends Exception {
   public ValueException(String message, Throwable cause) {
     super(message, cause);
   }
+
+  /**
+   * Constructor for subclasses that may skip capturing the stack trace.
+   * 
+   * @param message
+   *          The detail message.
+   * @param cause
+   *          The cause, may be null.
+   * @param writableStackTrace
+   *          Whether the stack trace is captured.
+   */
+  protected ValueException(String message, Throwable cause, boolean writableStackTrace) {
+    super(message, cause, false, writableStackTrace);
+  }
 }
@@ -37,7 +37,11 @@ import org.oidc.service.base.HttpArguments;
 import org.oidc.service.base.RequestArgumentProcessingException;
 import org.oidc.service.base.ServiceConfig;
 import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.ServiceContextSnapshot;
 import org.oidc.service.data.State;
+import org.oidc.service.metrics.ServiceEventListener;
+import org.oidc.service.metrics.ServiceEventType;
+import org.oidc.service.metrics.ServiceEvents;
 import org.oidc.service.util.ServiceUtil;
 
 /** Base class to extend services requiring client authentication. */
@@ -52,10 +56,10 @@ public abstract class AbstractAuthenticatedService extends AbstractService {
   public HttpArguments finalizeGetRequestParameters(HttpArguments httpArguments,
       Map<String, Object> requestArguments) throws RequestArgumentProcessingException {
     httpArguments.getHeader().setContentType("application/x-www-form-urlencoded");
-    String clientId = (String) serviceContext.getBehavior().getClaims().get("client_id");
-    String clientSecret = (String) serviceContext.getBehavior().getClaims().get("client_secret");
-    String method = (String) serviceContext.getBehavior().getClaims()
-        .get("token_endpoint_auth_method");
+    ServiceContextSnapshot context = serviceContext.getSnapshot();
+    String clientId = (String) context.getBehavior().getClaims().get("client_id");
+    String clientSecret = (String) context.getBehavior().getClaims().get("client_secret");
+    String method = (String) context.getBehavior().getClaims().get("token_endpoint_auth_method");
     if ("client_secret_basic".equals(method)) {
       String authorization = StringUtils
           .newStringUtf8(Base64.encodeBase64((clientId + ":" + clientSecret).getBytes()));
@@ -74,7 +78,13 @@ public abstract class AbstractAuthenticatedService extends AbstractService {
       String keyType = ServiceUtil.algorithmToKeytypeForJWS(algorithm);
       Map<String, String> args = new HashMap<String, String>();
       args.put("alg", algorithm);
-      List<Key> keys = getServiceContext().getKeyJar().getSigningKey(keyType, "", null, args);
+      ServiceEventListener listener = ServiceEvents.getListener();
+      long start = listener != null ? System.nanoTime() : 0L;
+      List<Key> keys = context.getKeyJar().getSigningKey(keyType, "", null, args);
+      if (listener != null) {
+        ServiceEvents.emit(listener, ServiceEventType.KEY_LOOKUP, serviceName,
+            getIssuerForEvents(), start, keys != null && !keys.isEmpty(), algorithm);
+      }
       if (keys == null || keys.size() == 0) {
         Error error = new Error();
         error.getDetails().add(new ErrorDetails("token_endpoint_auth_method",
@@ -84,9 +94,18 @@ public abstract class AbstractAuthenticatedService extends AbstractService {
       // TODO: configurable lifetime?
       Message message = new JwtMessage(clientId, getEndpoint(), 300);
       String jwt;
+      start = listener != null ? System.nanoTime() : 0L;
       try {
         jwt = message.toJwt(keys.get(0), algorithm, null, null, null, null, null, null);
+        if (listener != null) {
+          ServiceEvents.emit(listener, ServiceEventType.JWT_SIGNING, serviceName,
+              getIssuerForEvents(), start, true, algorithm);
+        }
       } catch (SerializationException e) {
+        if (listener != null) {
+          ServiceEvents.emit(listener, ServiceEventType.JWT_SIGNING, serviceName,
+              getIssuerForEvents(), start, false, algorithm);
+        }
         Error error = new Error();
         error.getDetails().add(new ErrorDetails("token_endpoint_auth_method",
             ErrorType.MISSING_REQUIRED_VALUE, "Could not build the JWT from the message", e));
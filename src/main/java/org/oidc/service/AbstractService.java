@@ -16,7 +16,6 @@
 
 package org.oidc.service;
 
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.List;
@@ -37,12 +36,21 @@ import org.oidc.msg.SerializationException;
 import org.oidc.msg.oauth2.ResponseMessage;
 import org.oidc.service.base.HttpArguments;
 import org.oidc.service.base.HttpHeader;
+import org.oidc.service.base.MessagePool;
 import org.oidc.service.base.RequestArgumentProcessingException;
 import org.oidc.service.base.RequestArgumentProcessor;
 import org.oidc.service.base.ServiceConfig;
 import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.VerificationFailures;
 import org.oidc.service.data.State;
+import org.oidc.service.metrics.NoopServiceMetrics;
+import org.oidc.service.metrics.ServiceEventListener;
+import org.oidc.service.metrics.ServiceEventType;
+import org.oidc.service.metrics.ServiceEvents;
+import org.oidc.service.metrics.ServiceMetrics;
+import org.oidc.service.metrics.ServiceOperation;
 import org.oidc.service.util.ServiceUtil;
+import org.oidc.service.util.UrlEncodedParser;
 
 /**
  * This is the base class for all services and provides default implementation for various methods.
@@ -157,6 +165,21 @@ public abstract class AbstractService implements Service {
    */
   protected ServiceConfig serviceConfig;
 
+  /**
+   * Optional pool for the response messages. If set, every response is parsed into a message
+   * acquired from the pool, and it should be given back via
+   * {@link #releaseResponseMessage(Message)} after {@link #updateServiceContext(Message, String)}.
+   * The pooled messages are only referenced by the caller, {@link #getResponseMessage()} keeps
+   * returning the template message of the service.
+   */
+  private MessagePool responseMessagePool;
+
+  /**
+   * The metrics sink for the service operations and request argument processors. Nothing is
+   * recorded by default.
+   */
+  private ServiceMetrics metrics = NoopServiceMetrics.INSTANCE;
+
   /**
    * Constants
    */
@@ -228,19 +251,36 @@ public abstract class AbstractService implements Service {
   /** {@inheritDoc} */
   public void updateServiceContext(Message response, String stateKey)
       throws MissingRequiredAttributeException, ValueException, InvalidClaimException {
+    if (!metrics.isEnabled()) {
+      checkAndUpdateServiceContext(response, stateKey);
+      return;
+    }
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      checkAndUpdateServiceContext(response, stateKey);
+      success = true;
+    } finally {
+      metrics.recordServiceCall(serviceName, ServiceOperation.UPDATE_SERVICE_CONTEXT,
+          System.nanoTime() - start, success, -1);
+    }
+  }
+
+  private void checkAndUpdateServiceContext(Message response, String stateKey)
+      throws MissingRequiredAttributeException, ValueException, InvalidClaimException {
     if (response == null) {
-      throw new ValueException("The response message is null");
+      throw VerificationFailures.value("The response message is null");
     }
     if (response instanceof ResponseMessage && response.getClaims().containsKey("error")) {
       this.responseMessage = response;
-      throw new ValueException("The response message is an error message");
+      throw VerificationFailures.value("The response message is an error message");
     }
     if (!this.expectedResponseClass.isInstance(response)) {
-      throw new ValueException("Unexpected response message type, not instance of "
+      throw VerificationFailures.value("Unexpected response message type, not instance of "
           + this.responseMessage.getClass().getName());
     }
     if (!response.verify()) {
-      throw new ValueException("The message validation failed: " +
+      throw VerificationFailures.value("The message validation failed: " +
           response.getError().getDetails());
     }
     doUpdateServiceContext(response, stateKey);
@@ -269,6 +309,30 @@ public abstract class AbstractService implements Service {
    **/
   public Message parseResponse(String responseBody, SerializationType serializationType,
       String stateKey) throws DeserializationException, InvalidClaimException {
+    ServiceEventListener listener = ServiceEvents.getListener();
+    if (!metrics.isEnabled() && listener == null) {
+      return parseResponseMessage(responseBody, serializationType, stateKey);
+    }
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      Message parsed = parseResponseMessage(responseBody, serializationType, stateKey);
+      success = parsed != errorResponseMessage;
+      return parsed;
+    } finally {
+      if (metrics.isEnabled()) {
+        metrics.recordServiceCall(serviceName, ServiceOperation.PARSE_RESPONSE,
+            System.nanoTime() - start, success, responseBody == null ? -1 : responseBody.length());
+      }
+      if (listener != null) {
+        ServiceEvents.emit(listener, ServiceEventType.RESPONSE_PARSING, serviceName,
+            getIssuerForEvents(), start, success, null);
+      }
+    }
+  }
+
+  private Message parseResponseMessage(String responseBody, SerializationType serializationType,
+      String stateKey) throws DeserializationException, InvalidClaimException {
     if (serializationType != null) {
       this.serializationType = serializationType;
     }
@@ -282,49 +346,181 @@ public abstract class AbstractService implements Service {
       }
     }
 
+    preValidateResponse(responseBody, urlInfo, stateKey);
+
     // TODO: the if else logic does not guarantee successful outcome. This and other things in this
     // abstract class need still tender care.
-    responseMessage = prepareMessageForVerification(this.responseMessage);
+    MessagePool pool = responseMessagePool;
+    Message pooled = pool != null ? pool.acquire() : null;
+    Message message;
+    if (pooled != null) {
+      // the pooled message is never stored in the service, it's only referenced by the caller
+      message = prepareMessageForVerification(pooled);
+    } else {
+      message = prepareMessageForVerification(this.responseMessage);
+      responseMessage = message;
+    }
+    boolean handedOut = false;
+    try {
+      Message parsed = doParseResponse(message, responseBody, urlInfo, stateKey);
+      handedOut = parsed != errorResponseMessage;
+      return parsed;
+    } finally {
+      if (pooled != null && !handedOut) {
+        // the caller never sees the pooled message if parsing failed or an error was returned
+        pool.release(pooled);
+      }
+    }
+  }
+
+  /**
+   * Checks the raw response before it is deserialized, so that responses that would be rejected
+   * anyway can be rejected before any JSON, Base64 or cryptographic work. Does nothing by default.
+   * 
+   * @param responseBody
+   *          The response body as given to the parseResponse methods.
+   * @param urlInfo
+   *          The query or the fragment of the response URL, null if the response is not URL
+   *          encoded.
+   * @param stateKey
+   *          The state key given to the parseResponse methods, may be null or empty.
+   * @throws InvalidClaimException
+   *           If the response is rejected.
+   */
+  protected void preValidateResponse(String responseBody, String urlInfo, String stateKey)
+      throws InvalidClaimException {
+  }
+
+  private Message doParseResponse(Message message, String responseBody, String urlInfo,
+      String stateKey) throws DeserializationException, InvalidClaimException {
+    if (message == null) {
+      throw VerificationFailures.deserialization("Missing or faulty response");
+    }
     try {
       if (SerializationType.URL_ENCODED.equals(this.serializationType)) {
-        responseMessage.fromUrlEncoded(urlInfo);
+        responseFromUrlEncoded(message, urlInfo);
       } else if (SerializationType.JSON.equals(this.serializationType)) {
-        responseMessage.fromJson(responseBody);
+        message.fromJson(responseBody);
       } else if (SerializationType.JWT.equals(this.serializationType)
-          && responseMessage instanceof CryptoMessage) {
-        CryptoMessage msg = (CryptoMessage) responseMessage;
-        responseMessage.fromJwt(responseBody, msg.getKeyJar(), msg.getIssuer(),
-            msg.getNoKidIssuers(), msg.getAllowMissingKid(), msg.getTrustJku());
+          && message instanceof CryptoMessage) {
+        responseFromJwt(message, responseBody);
       }
-    } catch (IOException e) {
-      throw new DeserializationException("Could not deserialize the given message", e);
     } catch (DeserializationException e) {
       // This might be encrypted/signed userinfo response i.e. declared as type JSON
-      if (responseMessage instanceof CryptoMessage) {
-        CryptoMessage msg = (CryptoMessage) responseMessage;
-        responseMessage.fromJwt(responseBody, msg.getKeyJar(), msg.getIssuer(),
-            msg.getNoKidIssuers(), msg.getAllowMissingKid(), msg.getTrustJku());
+      if (message instanceof CryptoMessage
+          && !SerializationType.URL_ENCODED.equals(this.serializationType)) {
+        responseFromJwt(message, responseBody);
       } else {
         throw e;
       }
     }
-    if (responseMessage == null) {
-      throw new DeserializationException("Missing or faulty response");
-    }
-    if (responseMessage instanceof ResponseMessage
-        && ((ResponseMessage) responseMessage).indicatesErrorResponseMessage()) {
-      errorResponseMessage.getClaims().putAll(responseMessage.getClaims());
+    if (message instanceof ResponseMessage
+        && ((ResponseMessage) message).indicatesErrorResponseMessage()) {
+      errorResponseMessage.getClaims().putAll(message.getClaims());
       if (!errorResponseMessage.verify()) {
-        throw new InvalidClaimException("The error response has unexpected contents: " 
+        throw VerificationFailures.invalidClaim("The error response has unexpected contents: "
             + errorResponseMessage.getError().getDetails());
       }
       return errorResponseMessage;
     }
-    if (!responseMessage.verify()) {
-      throw new InvalidClaimException("The response message has unexpected contents: "
-          +responseMessage.getError().getDetails());
+    if (!verifyResponse(message)) {
+      throw VerificationFailures.invalidClaim("The response message has unexpected contents: "
+          +message.getError().getDetails());
+    }
+    return postParseResponse(message, stateKey);
+  }
+
+  /**
+   * Fills the response message with the parameters decoded straight from the query or the
+   * fragment, without intermediate strings for the parameter segments. The previous claims and
+   * error details of the message are cleared. As required by RFC 6749 section 3.1, a repeated
+   * parameter is rejected.
+   */
+  private void responseFromUrlEncoded(Message message, String urlInfo)
+      throws DeserializationException {
+    final Map<String, Object> claims = message.getClaims();
+    claims.clear();
+    if (message.getError() != null) {
+      message.getError().getDetails().clear();
+    }
+    if (urlInfo == null) {
+      return;
+    }
+    UrlEncodedParser.parse(urlInfo, new UrlEncodedParser.ParameterHandler() {
+      @Override
+      public void parameter(String name, String value) throws DeserializationException {
+        if (claims.put(name, value) != null) {
+          throw VerificationFailures.deserialization("A response parameter is repeated");
+        }
+      }
+    });
+  }
+
+  private void responseFromJwt(Message message, String responseBody)
+      throws DeserializationException {
+    CryptoMessage msg = (CryptoMessage) message;
+    ServiceEventListener listener = ServiceEvents.getListener();
+    long start = listener != null ? System.nanoTime() : 0L;
+    boolean success = false;
+    try {
+      message.fromJwt(responseBody, msg.getKeyJar(), msg.getIssuer(),
+          msg.getNoKidIssuers(), msg.getAllowMissingKid(), msg.getTrustJku());
+      success = true;
+    } finally {
+      if (listener != null) {
+        ServiceEvents.emit(listener, ServiceEventType.JWT_VERIFICATION, serviceName,
+            getIssuerForEvents(), start, success, "response");
+      }
+    }
+  }
+
+  private boolean verifyResponse(Message message) {
+    ServiceEventListener listener = ServiceEvents.getListener();
+    if (listener == null || !(message instanceof CryptoMessage)) {
+      return message.verify();
+    }
+    // messages prepared for verification carry the keys, their verify() checks the embedded JWTs
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      success = message.verify();
+      return success;
+    } finally {
+      ServiceEvents.emit(listener, ServiceEventType.JWT_VERIFICATION, serviceName,
+          getIssuerForEvents(), start, success, "claims");
     }
-    return postParseResponse(responseMessage, stateKey);
+  }
+
+  /**
+   * Releases a response message returned by one of the parseResponse methods, once the caller
+   * does not need it anymore. Does nothing if no response message pool has been set. If the service
+   * keeps its responses after {@link #updateServiceContext(Message, String)} (see
+   * {@link #retainsResponseMessage()}), the message is only marked as retained in the pool.
+   * 
+   * @param response
+   *          The response message to release.
+   */
+  public void releaseResponseMessage(Message response) {
+    if (responseMessagePool == null || response == null || response == errorResponseMessage) {
+      return;
+    }
+    if (retainsResponseMessage()) {
+      responseMessagePool.retain(response);
+    } else {
+      responseMessagePool.release(response);
+    }
+  }
+
+  /**
+   * Whether the response message, or its claims, are referenced from the service context or the
+   * state database after {@link #updateServiceContext(Message, String)}. Such messages are never
+   * recycled by the response message pool. Services that only read from the response should
+   * override this method.
+   * 
+   * @return True by default.
+   */
+  protected boolean retainsResponseMessage() {
+    return true;
   }
 
   /**
@@ -385,11 +581,49 @@ public abstract class AbstractService implements Service {
   public HttpArguments getRequestParameters(Map<String, Object> requestParams)
       throws UnsupportedSerializationTypeException, RequestArgumentProcessingException,
       SerializationException {
+    ServiceEventListener listener = ServiceEvents.getListener();
+    if (!metrics.isEnabled() && listener == null) {
+      return buildRequestParameters(requestParams);
+    }
+    long start = System.nanoTime();
+    HttpArguments httpArguments = null;
+    try {
+      httpArguments = buildRequestParameters(requestParams);
+      return httpArguments;
+    } finally {
+      if (metrics.isEnabled()) {
+        int size = -1;
+        if (httpArguments != null) {
+          size = (httpArguments.getUrl() == null ? 0 : httpArguments.getUrl().length())
+              + (httpArguments.getBody() == null ? 0 : httpArguments.getBody().length());
+        }
+        metrics.recordServiceCall(serviceName, ServiceOperation.GET_REQUEST_PARAMETERS,
+            System.nanoTime() - start, httpArguments != null, size);
+      }
+      if (listener != null) {
+        ServiceEvents.emit(listener, ServiceEventType.REQUEST_CONSTRUCTION, serviceName,
+            getIssuerForEvents(), start, httpArguments != null, null);
+      }
+    }
+  }
+
+  /**
+   * Get the issuer used for tagging the {@link org.oidc.service.metrics.ServiceEvent}s.
+   * 
+   * @return The issuer of the service context, or null if not known.
+   */
+  protected String getIssuerForEvents() {
+    return serviceContext != null ? serviceContext.getIssuer() : null;
+  }
+
+  private HttpArguments buildRequestParameters(Map<String, Object> requestParams)
+      throws UnsupportedSerializationTypeException, RequestArgumentProcessingException,
+      SerializationException {
     if (requestParams == null) {
       requestParams = new HashMap<String, Object>();
     }
     if (getEndpoint() == null) {
-      setEndpoint(getServiceContext().getEndpoints().get(this.endpointName));
+      setEndpoint(getServiceContext().getSnapshot().getEndpoints().get(this.endpointName));
     }
     // Add request arguments from service configuration
     requestParams.putAll(this.requestParameters);
@@ -417,7 +651,7 @@ public abstract class AbstractService implements Service {
 
     if (HttpMethod.GET.equals(httpArguments.getHttpMethod())) {
       if (getEndpoint() != null) {
-        httpArguments.setUrl(getEndpoint() + "?" + requestMessage.toUrlEncoded());
+        httpArguments.setUrl(serializeGetRequest(getEndpoint(), requestMessage));
       }
     }
 
@@ -426,6 +660,23 @@ public abstract class AbstractService implements Service {
     return httpArguments;
   }
 
+  /**
+   * Serializes the request message to the URL of a GET request. By default the URL encoded
+   * message is appended to the endpoint as the query.
+   * 
+   * @param endpoint
+   *          The endpoint of the service.
+   * @param request
+   *          The request message.
+   * @return The URL of the request.
+   * @throws SerializationException
+   *           If the request message cannot be serialized.
+   */
+  protected String serializeGetRequest(String endpoint, Message request)
+      throws SerializationException {
+    return endpoint + "?" + request.toUrlEncoded();
+  }
+
   public abstract HttpArguments finalizeGetRequestParameters(HttpArguments httpArguments,
       Map<String, Object> requestArguments) throws RequestArgumentProcessingException;
 
@@ -433,7 +684,9 @@ public abstract class AbstractService implements Service {
       throws RequestArgumentProcessingException {
     if (this.preConstructors != null) {
       for (RequestArgumentProcessor processor : this.preConstructors) {
-        processor.processRequestArguments(requestArguments, this);
+        if (isPreConstructorNeeded(processor, requestArguments)) {
+          runProcessor(processor, requestArguments);
+        }
       }
     }
 
@@ -441,12 +694,45 @@ public abstract class AbstractService implements Service {
     setRequestMessage(doConstructRequest(requestArguments));
     if (this.postConstructors != null) {
       for (RequestArgumentProcessor processor : this.postConstructors) {
-        processor.processRequestArguments(getRequestMessage().getClaims(), this);
+        runProcessor(processor, getRequestMessage().getClaims());
       }
     }
     return getRequestMessage();
   }
 
+  /**
+   * Whether the pre-constructor needs to be run for the request arguments. Services that have
+   * already resolved the arguments added by a processor may skip it. All the pre-constructors are
+   * run by default.
+   * 
+   * @param processor
+   *          The pre-constructor.
+   * @param requestArguments
+   *          The request arguments.
+   * @return True if the pre-constructor is run, false if it's skipped.
+   */
+  protected boolean isPreConstructorNeeded(RequestArgumentProcessor processor,
+      Map<String, Object> requestArguments) {
+    return true;
+  }
+
+  private void runProcessor(RequestArgumentProcessor processor, Map<String, Object> arguments)
+      throws RequestArgumentProcessingException {
+    if (!metrics.isEnabled()) {
+      processor.processRequestArguments(arguments, this);
+      return;
+    }
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      processor.processRequestArguments(arguments, this);
+      success = true;
+    } finally {
+      metrics.recordProcessorCall(processor.getClass().getSimpleName(), System.nanoTime() - start,
+          success);
+    }
+  }
+
   protected abstract Message doConstructRequest(Map<String, Object> requestArguments)
       throws RequestArgumentProcessingException;
 
@@ -466,6 +752,34 @@ public abstract class AbstractService implements Service {
     this.responseMessage = responseMessage;
   }
 
+  public MessagePool getResponseMessagePool() {
+    return responseMessagePool;
+  }
+
+  /**
+   * Set the pool used for the response messages. Pooling is disabled by default.
+   * 
+   * @param responseMessagePool
+   *          The pool creating messages of the expected response class, or null to disable pooling.
+   */
+  public void setResponseMessagePool(MessagePool responseMessagePool) {
+    this.responseMessagePool = responseMessagePool;
+  }
+
+  public ServiceMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Set the metrics sink for the service operations and request argument processors.
+   * 
+   * @param metrics
+   *          The metrics sink, or null to stop recording.
+   */
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics == null ? NoopServiceMetrics.INSTANCE : metrics;
+  }
+
   public Class<? extends Message> getExpectedResponseClass() {
     return this.expectedResponseClass;
   }
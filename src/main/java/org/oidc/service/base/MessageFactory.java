@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import org.oidc.msg.Message;
+
+/**
+ * Creates new empty {@link Message} instances of a single type. Used by {@link MessagePool} when
+ * it has no released instance to hand out.
+ */
+public interface MessageFactory {
+
+  /**
+   * Creates a new empty message.
+   *
+   * @return A new message instance, never null.
+   */
+  public Message newMessage();
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.oidc.msg.Message;
+
+/**
+ * A bounded, thread-safe pool of reusable response {@link Message} instances. A message is
+ * acquired before a response is parsed into it and released once the caller is done with it. On
+ * release the claims map and the error details of the message are cleared, so that the next parse
+ * can fill the same instances again.
+ *
+ * <p>
+ * A message must be released at most once, and only if no reference to it (or to its claims map)
+ * is kept anywhere else, e.g. in the {@link org.oidc.service.data.State} database. Messages that
+ * are kept must be handed to {@link #retain(Message)} instead. The pool tracks the acquired
+ * messages by identity, so that a double release or the release of a message not acquired from
+ * it is ignored rather than handing the same message to two callers. The tracking holds the
+ * messages weakly, a message that is never released is left for the garbage collector.
+ * </p>
+ *
+ * <p>
+ * When leak detection is enabled, the pool tracks the allocation site of every acquired message
+ * until it is either released or retained. This is meant for debugging and tests, as it records a
+ * stack trace for every acquisition.
+ * </p>
+ */
+public class MessagePool {
+
+  /** System property that enables leak detection for pools constructed without explicit flag. */
+  public static final String LEAK_DETECTION_PROPERTY = "org.oidc.service.messagePool.leakDetection";
+
+  /** The factory used for creating new messages when the pool is empty. */
+  private final MessageFactory factory;
+
+  /** The maximum number of released messages kept in the pool. */
+  private final int capacity;
+
+  /** The released messages available for reuse. */
+  private final ConcurrentLinkedQueue<Message> available = new ConcurrentLinkedQueue<Message>();
+
+  /** The number of messages in the available queue. */
+  private final AtomicInteger availableCount = new AtomicInteger();
+
+  /** The number of messages created by the factory. */
+  private final AtomicLong createdCount = new AtomicLong();
+
+  /** The number of acquisitions served from the pool. */
+  private final AtomicLong reusedCount = new AtomicLong();
+
+  /** The messages acquired but neither released nor retained, held weakly by identity. */
+  private final Set<Message> acquired = Collections.newSetFromMap(new MapMaker().weakKeys()
+      .<Message, Boolean>makeMap());
+
+  /** Whether the allocation sites of outstanding messages are tracked. */
+  private final boolean leakDetection;
+
+  /** The allocation sites of the outstanding messages, only used with leak detection. */
+  private final Map<Message, Throwable> outstanding;
+
+  /**
+   * Constructor. Leak detection is enabled if the system property {@link #LEAK_DETECTION_PROPERTY}
+   * is set to true.
+   *
+   * @param factory
+   *          The factory used for creating new messages, must not be null.
+   * @param capacity
+   *          The maximum number of released messages kept in the pool.
+   */
+  public MessagePool(MessageFactory factory, int capacity) {
+    this(factory, capacity, Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param factory
+   *          The factory used for creating new messages, must not be null.
+   * @param capacity
+   *          The maximum number of released messages kept in the pool.
+   * @param leakDetection
+   *          Whether the allocation sites of the outstanding messages are tracked.
+   */
+  public MessagePool(MessageFactory factory, int capacity, boolean leakDetection) {
+    if (factory == null) {
+      throw new IllegalArgumentException("The message factory cannot be null");
+    }
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The capacity cannot be negative");
+    }
+    this.factory = factory;
+    this.capacity = capacity;
+    this.leakDetection = leakDetection;
+    this.outstanding = leakDetection
+        ? Collections.synchronizedMap(new IdentityHashMap<Message, Throwable>())
+        : null;
+  }
+
+  /**
+   * Acquires an empty message, either a previously released one or a new one from the factory.
+   *
+   * @return An empty message, never null.
+   */
+  public Message acquire() {
+    Message message = available.poll();
+    if (message == null) {
+      message = factory.newMessage();
+      createdCount.incrementAndGet();
+    } else {
+      availableCount.decrementAndGet();
+      reusedCount.incrementAndGet();
+    }
+    acquired.add(message);
+    if (leakDetection) {
+      outstanding.put(message, new Throwable("Message acquired from the pool"));
+    }
+    return message;
+  }
+
+  /**
+   * Releases the message back to the pool. Its claims and error details are cleared. If the pool
+   * is full, the message is left for the garbage collector.
+   *
+   * @param message
+   *          The message to release, ignored if null or if it is not outstanding from this pool.
+   */
+  public void release(Message message) {
+    if (message == null || !acquired.remove(message)) {
+      // double release or a foreign message, never let it be handed out twice
+      return;
+    }
+    if (leakDetection) {
+      outstanding.remove(message);
+    }
+    message.getClaims().clear();
+    if (message.getError() != null) {
+      message.getError().getDetails().clear();
+    }
+    if (availableCount.incrementAndGet() <= capacity) {
+      available.offer(message);
+    } else {
+      availableCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Marks the message as kept by the caller. It will never be returned to the pool and it's no
+   * longer reported as a leak.
+   *
+   * @param message
+   *          The message that is kept.
+   */
+  public void retain(Message message) {
+    if (message == null) {
+      return;
+    }
+    acquired.remove(message);
+    if (leakDetection) {
+      outstanding.remove(message);
+    }
+  }
+
+  /**
+   * Get the number of messages acquired but neither released nor retained. Only tracked with leak
+   * detection.
+   *
+   * @return The number of outstanding messages, or -1 if leak detection is not enabled.
+   */
+  public int getOutstandingCount() {
+    return leakDetection ? outstanding.size() : -1;
+  }
+
+  /**
+   * Get the allocation sites of the messages acquired but neither released nor retained. Only
+   * tracked with leak detection.
+   *
+   * @return The allocation sites of the outstanding messages, empty if leak detection is not
+   *         enabled.
+   */
+  public List<Throwable> getLeaks() {
+    List<Throwable> leaks = new ArrayList<Throwable>();
+    if (leakDetection) {
+      synchronized (outstanding) {
+        leaks.addAll(outstanding.values());
+      }
+    }
+    return leaks;
+  }
+
+  /**
+   * Whether the allocation sites of outstanding messages are tracked.
+   *
+   * @return True if leak detection is enabled, false otherwise.
+   */
+  public boolean isLeakDetection() {
+    return leakDetection;
+  }
+
+  /**
+   * Get the number of released messages currently available for reuse.
+   *
+   * @return The number of available messages.
+   */
+  public int getAvailableCount() {
+    return availableCount.get();
+  }
+
+  /**
+   * Get the number of messages created by the factory.
+   *
+   * @return The number of created messages.
+   */
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  /**
+   * Get the number of acquisitions that were served with a released message.
+   *
+   * @return The number of reused messages.
+   */
+  public long getReusedCount() {
+    return reusedCount.get();
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+/**
+ * Creates {@link RequestArgumentProcessor} instances for a processor name used in the service
+ * configuration. Factories are registered to the {@link RequestArgumentProcessorRegistry}, either
+ * explicitly or via {@link java.util.ServiceLoader} by listing the implementation class in
+ * <code>META-INF/services/org.oidc.service.base.RequestArgumentProcessorFactory</code>.
+ */
+public interface RequestArgumentProcessorFactory {
+
+  /**
+   * Get the name of the processor created by this factory, as used in the service configuration.
+   * Typically the fully qualified class name of the processor.
+   * 
+   * @return The name of the processor.
+   */
+  public String getProcessorName();
+
+  /**
+   * Creates a new processor instance.
+   * 
+   * @return A new processor, never null.
+   */
+  public RequestArgumentProcessor newProcessor();
+
+  /**
+   * Whether the processor keeps no state between the calls. A single instance of a stateless
+   * processor is shared by all the service configurations using it.
+   * 
+   * @return True if the processor is stateless and thread-safe, false otherwise.
+   */
+  public boolean isStateless();
+
+}
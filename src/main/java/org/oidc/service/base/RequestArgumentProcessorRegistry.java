@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.oidc.service.base.processor.AddClientBehaviourPreference;
+import org.oidc.service.base.processor.AddClientId;
+import org.oidc.service.base.processor.AddJwksUriOrJwks;
+import org.oidc.service.base.processor.AddNonce;
+import org.oidc.service.base.processor.AddOidcGrantTypes;
+import org.oidc.service.base.processor.AddPostLogoutRedirectUris;
+import org.oidc.service.base.processor.AddRedirectUris;
+import org.oidc.service.base.processor.AddRequestObject;
+import org.oidc.service.base.processor.AddRequestUri;
+import org.oidc.service.base.processor.AddResponseType;
+import org.oidc.service.base.processor.AddScope;
+import org.oidc.service.base.processor.AddState;
+import org.oidc.service.base.processor.ExtendAccessTokenRequestArguments;
+import org.oidc.service.base.processor.ExtendRefreshAccessTokenRequestArguments;
+import org.oidc.service.base.processor.ExtendUserInfoRequestArguments;
+import org.oidc.service.base.processor.PickRedirectUri;
+import org.oidc.service.base.processor.StoreAuthenticationRequest;
+import org.oidc.service.base.processor.StoreNonce;
+
+/**
+ * Resolves the {@link RequestArgumentProcessor} names used in the service configuration into
+ * processor instances. The processors of this library are registered without reflection, and
+ * further {@link RequestArgumentProcessorFactory} implementations are discovered with
+ * {@link ServiceLoader}. A single instance of each stateless processor is created and shared.
+ *
+ * <p>
+ * Names without a registered factory are still resolved as fully qualified class names with an
+ * accessible constructor without arguments, and a new instance is created for each lookup.
+ * </p>
+ */
+public class RequestArgumentProcessorRegistry {
+
+  /** The registry with the built-in and the discovered factories. */
+  private static final RequestArgumentProcessorRegistry DEFAULT = createDefault();
+
+  /** The registered factories, keyed by the processor name. */
+  private final ConcurrentMap<String, RequestArgumentProcessorFactory> factories =
+      new ConcurrentHashMap<String, RequestArgumentProcessorFactory>();
+
+  /** The shared instances of the stateless processors, keyed by the processor name. */
+  private final ConcurrentMap<String, RequestArgumentProcessor> singletons =
+      new ConcurrentHashMap<String, RequestArgumentProcessor>();
+
+  /**
+   * Get the registry with the built-in processors and the factories found by
+   * {@link ServiceLoader}.
+   * 
+   * @return The default registry.
+   */
+  public static RequestArgumentProcessorRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Registers the factory. An earlier factory with the same processor name is replaced.
+   * 
+   * @param factory
+   *          The factory to register, must not be null.
+   */
+  public void register(RequestArgumentProcessorFactory factory) {
+    if (factory == null || factory.getProcessorName() == null) {
+      throw new IllegalArgumentException("The factory and its processor name cannot be null");
+    }
+    factories.put(factory.getProcessorName(), factory);
+    singletons.remove(factory.getProcessorName());
+  }
+
+  /**
+   * Registers all the factories found by {@link ServiceLoader} with the given class loader.
+   * 
+   * @param classLoader
+   *          The class loader used for finding the factories.
+   * @return The number of registered factories.
+   */
+  public int registerServices(ClassLoader classLoader) {
+    int count = 0;
+    for (RequestArgumentProcessorFactory factory : ServiceLoader
+        .load(RequestArgumentProcessorFactory.class, classLoader)) {
+      register(factory);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Checks whether a factory is registered for the processor name.
+   * 
+   * @param processorName
+   *          The name of the processor.
+   * @return True if a factory is registered, false otherwise.
+   */
+  public boolean isRegistered(String processorName) {
+    return processorName != null && factories.containsKey(processorName);
+  }
+
+  /**
+   * Get the processor for the given name. Stateless processors are shared, others are created for
+   * each call.
+   * 
+   * @param processorName
+   *          The name of the processor, typically its fully qualified class name.
+   * @return The processor.
+   * @throws InvalidConfigurationPropertyException
+   *           If no processor can be resolved for the name.
+   */
+  public RequestArgumentProcessor getProcessor(String processorName)
+      throws InvalidConfigurationPropertyException {
+    if (processorName == null) {
+      throw new InvalidConfigurationPropertyException("The processor name cannot be null");
+    }
+    RequestArgumentProcessor processor = singletons.get(processorName);
+    if (processor != null) {
+      return processor;
+    }
+    RequestArgumentProcessorFactory factory = factories.get(processorName);
+    if (factory == null) {
+      return newInstance(processorName);
+    }
+    processor = factory.newProcessor();
+    if (processor == null) {
+      throw new InvalidConfigurationPropertyException(
+          "Could not instantiate the class for " + processorName);
+    }
+    if (factory.isStateless()) {
+      RequestArgumentProcessor existing = singletons.putIfAbsent(processorName, processor);
+      if (existing != null) {
+        return existing;
+      }
+    }
+    return processor;
+  }
+
+  /**
+   * Constructs a processor from its fully qualified class name with reflection.
+   * 
+   * @param processorName
+   *          The fully qualified class name of the processor.
+   * @return A new instance of the processor.
+   * @throws InvalidConfigurationPropertyException
+   *           If the class is not found or it's not an instance of the
+   *           {@link RequestArgumentProcessor} interface.
+   */
+  protected RequestArgumentProcessor newInstance(String processorName)
+      throws InvalidConfigurationPropertyException {
+    Object object;
+    try {
+      Class<?> rawClass = Class.forName(processorName);
+      object = rawClass.newInstance();
+    } catch (ClassNotFoundException e) {
+      throw new InvalidConfigurationPropertyException("Could not find a class for " + processorName,
+          e);
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new InvalidConfigurationPropertyException(
+          "Could not instantiate the class for " + processorName, e);
+    }
+    if (object instanceof RequestArgumentProcessor) {
+      return (RequestArgumentProcessor) object;
+    } else {
+      throw new InvalidConfigurationPropertyException(
+          "Incompatible class type for " + processorName);
+    }
+  }
+
+  /**
+   * Registers the processors of this library to the given registry. All of them are stateless, as
+   * their parameter requirements are only set during the construction.
+   * 
+   * @param registry
+   *          The registry where to register the processors.
+   */
+  public static void registerBuiltIns(RequestArgumentProcessorRegistry registry) {
+    registry.register(new BuiltIn(AddClientBehaviourPreference.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddClientBehaviourPreference();
+      }
+    });
+    registry.register(new BuiltIn(AddClientId.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddClientId();
+      }
+    });
+    registry.register(new BuiltIn(AddJwksUriOrJwks.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddJwksUriOrJwks();
+      }
+    });
+    registry.register(new BuiltIn(AddNonce.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddNonce();
+      }
+    });
+    registry.register(new BuiltIn(AddOidcGrantTypes.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddOidcGrantTypes();
+      }
+    });
+    registry.register(new BuiltIn(AddPostLogoutRedirectUris.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddPostLogoutRedirectUris();
+      }
+    });
+    registry.register(new BuiltIn(AddRedirectUris.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddRedirectUris();
+      }
+    });
+    registry.register(new BuiltIn(AddRequestObject.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddRequestObject();
+      }
+    });
+    registry.register(new BuiltIn(AddRequestUri.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddRequestUri();
+      }
+    });
+    registry.register(new BuiltIn(AddResponseType.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddResponseType();
+      }
+    });
+    registry.register(new BuiltIn(AddScope.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddScope();
+      }
+    });
+    registry.register(new BuiltIn(AddState.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new AddState();
+      }
+    });
+    registry.register(new BuiltIn(ExtendAccessTokenRequestArguments.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new ExtendAccessTokenRequestArguments();
+      }
+    });
+    registry.register(new BuiltIn(ExtendRefreshAccessTokenRequestArguments.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new ExtendRefreshAccessTokenRequestArguments();
+      }
+    });
+    registry.register(new BuiltIn(ExtendUserInfoRequestArguments.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new ExtendUserInfoRequestArguments();
+      }
+    });
+    registry.register(new BuiltIn(PickRedirectUri.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new PickRedirectUri();
+      }
+    });
+    registry.register(new BuiltIn(StoreAuthenticationRequest.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new StoreAuthenticationRequest();
+      }
+    });
+    registry.register(new BuiltIn(StoreNonce.class.getName()) {
+      @Override
+      public RequestArgumentProcessor newProcessor() {
+        return new StoreNonce();
+      }
+    });
+  }
+
+  private static RequestArgumentProcessorRegistry createDefault() {
+    RequestArgumentProcessorRegistry registry = new RequestArgumentProcessorRegistry();
+    registerBuiltIns(registry);
+    try {
+      registry.registerServices(RequestArgumentProcessorRegistry.class.getClassLoader());
+    } catch (ServiceConfigurationError e) {
+      // a broken provider must not prevent using the built-in processors
+    }
+    return registry;
+  }
+
+  /** Base for the factories of the built-in stateless processors. */
+  private abstract static class BuiltIn implements RequestArgumentProcessorFactory {
+
+    /** The name of the processor. */
+    private final String processorName;
+
+    BuiltIn(String processorName) {
+      this.processorName = processorName;
+    }
+
+    @Override
+    public String getProcessorName() {
+      return processorName;
+    }
+
+    @Override
+    public boolean isStateless() {
+      return true;
+    }
+  }
+}
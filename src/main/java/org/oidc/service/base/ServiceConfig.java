@@ -43,6 +43,12 @@ import com.google.common.base.Strings;
  */
 public class ServiceConfig {
 
+  /** The shared mapper for JSON configurations, thread-safe once configured. */
+  private static final ObjectMapper JSON_MAPPER = newMapper(new ObjectMapper());
+
+  /** The shared mapper for YAML configurations, thread-safe once configured. */
+  private static final ObjectMapper YAML_MAPPER = newMapper(new ObjectMapper(new YAMLFactory()));
+
   /**
    * The name for this service.
    */
@@ -248,19 +254,15 @@ public class ServiceConfig {
   }
 
   public String toYaml() throws SerializationException {
-    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-    SimpleModule module = new SimpleModule();
-    module.addSerializer(ServiceConfig.class, new ServiceConfigSerializer());
-    mapper.registerModule(module);
     try {
-      return mapper.writeValueAsString(this);
+      return YAML_MAPPER.writeValueAsString(this);
     } catch (JsonProcessingException e) {
       throw new SerializationException("Could not serialize this configuration to YAML", e);
     }
   }
 
   public static ServiceConfig fromYaml(String yaml) throws DeserializationException {
-    return deserialize(new ObjectMapper(new YAMLFactory()), yaml);
+    return readValue(YAML_MAPPER, yaml);
   }
 
   protected static ServiceConfig deserialize(ObjectMapper mapper, String content)
@@ -268,6 +270,30 @@ public class ServiceConfig {
     SimpleModule module = new SimpleModule();
     module.addDeserializer(ServiceConfig.class, new ServiceConfigDeserializer());
     mapper.registerModule(module);
+    return readValue(mapper, content);
+  }
+
+  /**
+   * Get the shared mapper for the given content type, with the (de)serializers for this class.
+   * 
+   * @param yaml
+   *          Whether the mapper for YAML is returned, otherwise the one for JSON.
+   * @return The shared mapper.
+   */
+  static ObjectMapper getMapper(boolean yaml) {
+    return yaml ? YAML_MAPPER : JSON_MAPPER;
+  }
+
+  private static ObjectMapper newMapper(ObjectMapper mapper) {
+    SimpleModule module = new SimpleModule();
+    module.addSerializer(ServiceConfig.class, new ServiceConfigSerializer());
+    module.addDeserializer(ServiceConfig.class, new ServiceConfigDeserializer());
+    mapper.registerModule(module);
+    return mapper;
+  }
+
+  private static ServiceConfig readValue(ObjectMapper mapper, String content)
+      throws DeserializationException {
     try {
       return mapper.readValue(content, ServiceConfig.class);
     } catch (IOException e) {
@@ -277,13 +303,24 @@ public class ServiceConfig {
   }
 
   public static ServiceConfig fromJson(String json) throws DeserializationException {
-    Map<String, Object> map = ServiceUtil.parseJsonStringToMap(json);
+    verify(ServiceUtil.parseJsonStringToMap(json));
+    return readValue(JSON_MAPPER, json);
+  }
+
+  /**
+   * Verifies the structure of a configuration deserialized from JSON into a map.
+   * 
+   * @param map
+   *          The contents of the configuration.
+   * @throws DeserializationException
+   *           If the contents are not a valid configuration.
+   */
+  static void verify(Map<String, Object> map) throws DeserializationException {
     ServiceConfigMessage message = new ServiceConfigMessage(map);
     if (!message.verify()) {
       throw new DeserializationException(
           "Invalid contents in the given JSON. " + message.getError().getDetails());
     }
-    return deserialize(new ObjectMapper(), json);
   }
   
   public String toString() {
@@ -39,6 +39,9 @@ import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
  */
 public class ServiceConfigDeserializer extends StdDeserializer<ServiceConfig> {
 
+  /** The mapper for converting the argument nodes into maps. */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
   public ServiceConfigDeserializer() {
     this(null);
   }
@@ -154,7 +157,6 @@ public class ServiceConfigDeserializer extends StdDeserializer<ServiceConfig> {
   
   protected Map<String, Object> getDeserializedMap(JsonNode node, String fieldName) {
     JsonNode mapNode = node.get(fieldName);
-    ObjectMapper mapper = new ObjectMapper();
-    return mapper.convertValue(mapNode, Map.class);
+    return MAPPER.convertValue(mapNode, Map.class);
   }
 }
@@ -38,8 +38,10 @@ public class ServiceConfigMessage extends AbstractMessage {
         ParameterVerification.SINGLE_OPTIONAL_STRING.getValue());
     paramVerDefs.put(Constants.SERVICE_CONFIG_KEY_DESERIALIZATION_TYPE,
         ParameterVerification.SINGLE_OPTIONAL_STRING.getValue());
-    paramVerDefs.put("pre_constructors", ParameterVerification.SINGLE_OPTIONAL_MAP.getValue());
-    paramVerDefs.put("post_constructors", ParameterVerification.SINGLE_OPTIONAL_MAP.getValue());
+    paramVerDefs.put(Constants.SERVICE_CONFIG_KEY_PRE_CONSTRUCTORS,
+        ParameterVerification.OPTIONAL_LIST_OF_STRINGS.getValue());
+    paramVerDefs.put(Constants.SERVICE_CONFIG_KEY_POST_CONSTRUCTORS,
+        ParameterVerification.OPTIONAL_LIST_OF_STRINGS.getValue());
     paramVerDefs.put("pre_construct", ParameterVerification.SINGLE_OPTIONAL_MAP.getValue());
     paramVerDefs.put("post_construct", ParameterVerification.SINGLE_OPTIONAL_MAP.getValue());
     paramVerDefs.put("request_params", ParameterVerification.SINGLE_OPTIONAL_MAP.getValue());
@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.oidc.common.ClientAuthenticationMethod;
+import org.oidc.common.HttpMethod;
+import org.oidc.common.SerializationType;
+import org.oidc.common.ServiceName;
+import org.oidc.msg.DeserializationException;
+import org.oidc.service.util.ServiceUtil;
+
+/**
+ * Compiles a bundle of {@link ServiceConfig}s into a compact binary snapshot that is loaded with a
+ * single memory-mapped read on the next startup, instead of parsing the JSON or YAML source again.
+ * The bundle is an object whose field names are the names of the configurations and whose values
+ * are the configurations in the format read by {@link ServiceConfigDeserializer}.
+ *
+ * <p>
+ * The snapshot starts with a magic number, the format version, the SHA-256 digest of the source
+ * it was compiled from and the SHA-256 digest of the rest of the snapshot. A snapshot with another
+ * version or source digest is ignored and rebuilt from the source, so editing the source is enough
+ * to get it re-parsed. A snapshot whose contents do not match their digest is corrupt, and it's
+ * rebuilt from the source as well. The processors are stored by their
+ * class names and resolved with {@link ServiceUtil#getRequestArgumentProcessor(String)} on load.
+ * </p>
+ */
+public final class ServiceConfigSnapshot {
+
+  /** The magic number at the beginning of a snapshot, "OIDC" in ASCII. */
+  static final int MAGIC = 0x4F494443;
+
+  /** The version of the snapshot format. */
+  static final int VERSION = 2;
+
+  /** The length of the source and content digests, in bytes. */
+  private static final int DIGEST_LENGTH = 32;
+
+  /** The type of a configuration converted into a map for its verification. */
+  private static final TypeReference<HashMap<String, Object>> MAP_TYPE =
+      new TypeReference<HashMap<String, Object>>() {
+      };
+
+  /** The tags of the values in the processor argument maps. */
+  private static final byte TAG_NULL = 0;
+  private static final byte TAG_STRING = 1;
+  private static final byte TAG_TRUE = 2;
+  private static final byte TAG_FALSE = 3;
+  private static final byte TAG_INT = 4;
+  private static final byte TAG_LONG = 5;
+  private static final byte TAG_DOUBLE = 6;
+  private static final byte TAG_LIST = 7;
+  private static final byte TAG_MAP = 8;
+  private static final byte TAG_BIG_INTEGER = 9;
+  private static final byte TAG_BIG_DECIMAL = 10;
+
+  private ServiceConfigSnapshot() {
+  }
+
+  /**
+   * Loads the configurations from the snapshot if it was compiled from the current source,
+   * otherwise parses the source and (re)writes the snapshot. A source whose file name ends with
+   * .yaml or .yml is parsed as YAML, otherwise as JSON.
+   * 
+   * @param source
+   *          The path of the JSON or YAML source.
+   * @param snapshot
+   *          The path of the binary snapshot, it doesn't need to exist.
+   * @return The configurations by their names, in the order of the source.
+   * @throws DeserializationException
+   *           If the source cannot be read or it contains an invalid configuration.
+   */
+  public static Map<String, ServiceConfig> load(Path source, Path snapshot)
+      throws DeserializationException {
+    byte[] content;
+    try {
+      content = Files.readAllBytes(source);
+    } catch (IOException e) {
+      throw new DeserializationException("Could not read the configuration from " + source, e);
+    }
+    byte[] digest = digest(content);
+    try {
+      Map<String, ServiceConfig> configs = read(snapshot, digest);
+      if (configs != null) {
+        return configs;
+      }
+    } catch (IOException e) {
+      // a corrupt snapshot is rebuilt from the source below
+    }
+    String fileName = source.getFileName().toString().toLowerCase();
+    Map<String, ServiceConfig> configs = parse(content,
+        fileName.endsWith(".yaml") || fileName.endsWith(".yml"));
+    try {
+      write(configs, digest, snapshot);
+    } catch (IOException e) {
+      // the snapshot only speeds up the next startup, the source is still used if it's missing
+    }
+    return configs;
+  }
+
+  /**
+   * Parses and validates a bundle of configurations.
+   * 
+   * @param content
+   *          The bundle in JSON or YAML.
+   * @param yaml
+   *          Whether the content is in YAML.
+   * @return The configurations by their names, in the order of the content.
+   * @throws DeserializationException
+   *           If the content is not a valid bundle.
+   */
+  public static Map<String, ServiceConfig> parse(byte[] content, boolean yaml)
+      throws DeserializationException {
+    ObjectMapper mapper = ServiceConfig.getMapper(yaml);
+    Map<String, ServiceConfig> configs = new LinkedHashMap<String, ServiceConfig>();
+    try {
+      JsonNode root = mapper.readTree(content);
+      if (root == null || !root.isObject()) {
+        throw new DeserializationException("The configuration bundle must be an object");
+      }
+      Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        if (!yaml) {
+          // verified as by ServiceConfig.fromJson
+          if (!field.getValue().isObject()) {
+            throw new DeserializationException(
+                "The configuration " + field.getKey() + " must be an object");
+          }
+          Map<String, Object> claims = mapper.convertValue(field.getValue(), MAP_TYPE);
+          ServiceConfig.verify(claims);
+        }
+        configs.put(field.getKey(),
+            mapper.readValue(mapper.treeAsTokens(field.getValue()), ServiceConfig.class));
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      throw new DeserializationException("Could not deserialize the configuration bundle", e);
+    }
+    return configs;
+  }
+
+  /**
+   * Writes the configurations into a snapshot. The snapshot is written into a temporary file that
+   * is then moved in place, so a concurrent reader never sees a partial snapshot.
+   * 
+   * @param configs
+   *          The configurations by their names.
+   * @param digest
+   *          The SHA-256 digest of the source of the configurations.
+   * @param snapshot
+   *          The path of the snapshot.
+   * @throws IOException
+   *           If the snapshot cannot be written or a processor argument has an unsupported type.
+   */
+  public static void write(Map<String, ServiceConfig> configs, byte[] digest, Path snapshot)
+      throws IOException {
+    if (digest == null || digest.length != DIGEST_LENGTH) {
+      throw new IllegalArgumentException("The digest must be " + DIGEST_LENGTH + " bytes");
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream(256 * configs.size() + 64);
+    DataOutputStream out = new DataOutputStream(body);
+    out.writeInt(configs.size());
+    for (Map.Entry<String, ServiceConfig> entry : configs.entrySet()) {
+      writeString(out, entry.getKey());
+      writeConfig(out, entry.getValue());
+    }
+    out.flush();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 8 + 2 * DIGEST_LENGTH);
+    out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.write(digest);
+    out.write(digest(body.toByteArray()));
+    body.writeTo(out);
+    out.flush();
+    Path absolute = snapshot.toAbsolutePath();
+    Path temporary = Files.createTempFile(absolute.getParent(),
+        absolute.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temporary, bytes.toByteArray());
+      try {
+        Files.move(temporary, absolute, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Reads the configurations from the snapshot.
+   * 
+   * @param snapshot
+   *          The path of the snapshot.
+   * @param digest
+   *          The SHA-256 digest of the current source, or null if the digest is not checked.
+   * @return The configurations by their names, or null if the snapshot doesn't exist, or if it has
+   *         another format version or source digest.
+   * @throws IOException
+   *           If the snapshot cannot be read, its contents do not match their digest, it's corrupt
+   *           otherwise or a processor cannot be resolved.
+   */
+  public static Map<String, ServiceConfig> read(Path snapshot, byte[] digest) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    try {
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Not a configuration snapshot: " + snapshot);
+      }
+      if (buffer.getInt() != VERSION) {
+        return null;
+      }
+      byte[] snapshotDigest = new byte[DIGEST_LENGTH];
+      buffer.get(snapshotDigest);
+      if (digest != null && !Arrays.equals(digest, snapshotDigest)) {
+        return null;
+      }
+      byte[] contentDigest = new byte[DIGEST_LENGTH];
+      buffer.get(contentDigest);
+      if (!Arrays.equals(contentDigest, digest(buffer.slice()))) {
+        throw new IOException("Corrupt configuration snapshot: " + snapshot);
+      }
+      int count = readCount(buffer);
+      Map<String, ServiceConfig> configs = new LinkedHashMap<String, ServiceConfig>();
+      for (int i = 0; i < count; i++) {
+        String name = readString(buffer);
+        configs.put(name, readConfig(buffer));
+      }
+      if (buffer.hasRemaining()) {
+        throw new IOException("Trailing bytes in the configuration snapshot: " + snapshot);
+      }
+      return configs;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated configuration snapshot: " + snapshot, e);
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid configuration snapshot: " + snapshot, e);
+    }
+  }
+
+  /**
+   * Calculates the SHA-256 digest of the source of the configurations.
+   * 
+   * @param content
+   *          The content of the source.
+   * @return The digest.
+   */
+  public static byte[] digest(byte[] content) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(content);
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] digest(ByteBuffer content) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(content);
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void writeConfig(DataOutputStream out, ServiceConfig config) throws IOException {
+    writeString(out, config.getServiceName() == null ? null : config.getServiceName().name());
+    writeString(out, config.getEndpoint());
+    writeString(out, config.getDefaultAuthenticationMethod() == null ? null
+        : config.getDefaultAuthenticationMethod().name());
+    writeString(out, config.getHttpMethod() == null ? null : config.getHttpMethod().name());
+    writeString(out,
+        config.getSerializationType() == null ? null : config.getSerializationType().name());
+    writeString(out,
+        config.getDeSerializationType() == null ? null : config.getDeSerializationType().name());
+    out.writeBoolean(config.isShouldAllowHttp());
+    out.writeBoolean(config.isShouldAllowNonStandardIssuer());
+    writeProcessors(out, config.getPreConstructors());
+    writeProcessors(out, config.getPostConstructors());
+    writeValue(out, config.getPreConstructorArgs());
+    writeValue(out, config.getPostConstructorArgs());
+    writeValue(out, config.getRequestParameters());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ServiceConfig readConfig(ByteBuffer buffer) throws IOException {
+    ServiceConfig config = new ServiceConfig();
+    try {
+      String value = readString(buffer);
+      config.setServiceName(value == null ? null : ServiceName.valueOf(value));
+      config.setEndpoint(readString(buffer));
+      value = readString(buffer);
+      config.setDefaultAuthenticationMethod(
+          value == null ? null : ClientAuthenticationMethod.valueOf(value));
+      value = readString(buffer);
+      config.setHttpMethod(value == null ? null : HttpMethod.valueOf(value));
+      value = readString(buffer);
+      config.setSerializationType(value == null ? null : SerializationType.valueOf(value));
+      value = readString(buffer);
+      config.setDeSerializationType(value == null ? null : SerializationType.valueOf(value));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown constant in the configuration snapshot", e);
+    }
+    config.setShouldAllowHttp(buffer.get() != 0);
+    config.setShouldAllowNonStandardIssuer(buffer.get() != 0);
+    config.setPreConstructors(readProcessors(buffer));
+    config.setPostConstructors(readProcessors(buffer));
+    config.setPreConstructorArgs((Map<String, Object>) readMap(buffer));
+    config.setPostConstructorArgs((Map<String, Object>) readMap(buffer));
+    config.setRequestParameters((Map<String, Object>) readMap(buffer));
+    return config;
+  }
+
+  private static void writeProcessors(DataOutputStream out,
+      List<RequestArgumentProcessor> processors) throws IOException {
+    if (processors == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(processors.size());
+    for (RequestArgumentProcessor processor : processors) {
+      writeString(out, processor.getClass().getName());
+    }
+  }
+
+  private static List<RequestArgumentProcessor> readProcessors(ByteBuffer buffer)
+      throws IOException {
+    int size = buffer.getInt();
+    if (size == -1) {
+      return null;
+    }
+    List<RequestArgumentProcessor> processors = new ArrayList<RequestArgumentProcessor>(
+        checkCount(size, buffer));
+    for (int i = 0; i < size; i++) {
+      processors.add(ServiceUtil.getRequestArgumentProcessor(readString(buffer)));
+    }
+    return processors;
+  }
+
+  private static Object readMap(ByteBuffer buffer) throws IOException {
+    Object value = readValue(buffer);
+    if (value != null && !(value instanceof Map)) {
+      throw new IOException("Unexpected argument map in the configuration snapshot");
+    }
+    return value;
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(TAG_NULL);
+    } else if (value instanceof String) {
+      out.writeByte(TAG_STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+    } else if (value instanceof Integer) {
+      out.writeByte(TAG_INT);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(TAG_LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      out.writeByte(TAG_DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof BigInteger) {
+      out.writeByte(TAG_BIG_INTEGER);
+      writeString(out, value.toString());
+    } else if (value instanceof BigDecimal) {
+      out.writeByte(TAG_BIG_DECIMAL);
+      writeString(out, value.toString());
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      out.writeByte(TAG_LIST);
+      out.writeInt(list.size());
+      for (Object item : list) {
+        writeValue(out, item);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(TAG_MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeString(out, String.valueOf(entry.getKey()));
+        writeValue(out, entry.getValue());
+      }
+    } else {
+      throw new IOException("Unsupported argument type " + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(ByteBuffer buffer) throws IOException {
+    byte tag = buffer.get();
+    switch (tag) {
+      case TAG_NULL:
+        return null;
+      case TAG_STRING:
+        return readString(buffer);
+      case TAG_TRUE:
+        return Boolean.TRUE;
+      case TAG_FALSE:
+        return Boolean.FALSE;
+      case TAG_INT:
+        return buffer.getInt();
+      case TAG_LONG:
+        return buffer.getLong();
+      case TAG_DOUBLE:
+        return buffer.getDouble();
+      case TAG_BIG_INTEGER:
+        return new BigInteger(readString(buffer));
+      case TAG_BIG_DECIMAL:
+        return new BigDecimal(readString(buffer));
+      case TAG_LIST:
+        int size = readCount(buffer);
+        List<Object> list = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(buffer));
+        }
+        return list;
+      case TAG_MAP:
+        int entries = readCount(buffer);
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < entries; i++) {
+          String key = readString(buffer);
+          map.put(key, readValue(buffer));
+        }
+        return map;
+      default:
+        throw new IOException("Unknown value tag " + tag + " in the configuration snapshot");
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) throws IOException {
+    int length = buffer.getInt();
+    if (length == -1) {
+      return null;
+    }
+    byte[] bytes = new byte[checkCount(length, buffer)];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int readCount(ByteBuffer buffer) throws IOException {
+    return checkCount(buffer.getInt(), buffer);
+  }
+
+  /** Every counted item takes at least one byte, which bounds the allocations for corrupt data. */
+  private static int checkCount(int count, ByteBuffer buffer) throws IOException {
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IOException("Invalid length " + count + " in the configuration snapshot");
+    }
+    return count;
+  }
+}
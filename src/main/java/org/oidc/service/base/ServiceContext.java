@@ -16,11 +16,14 @@
 
 package org.oidc.service.base;
 
+import com.auth0.msg.KeyBundle;
 import com.auth0.msg.KeyJar;
 import com.google.common.base.Strings;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -34,12 +37,24 @@ import org.oidc.msg.InvalidClaimException;
 import org.oidc.msg.oauth2.ASConfigurationResponse;
 import org.oidc.msg.oidc.RegistrationRequest;
 import org.oidc.msg.oidc.RegistrationResponse;
+import org.oidc.service.data.FileRequestObjectStore;
+import org.oidc.service.data.RequestObjectCache;
+import org.oidc.service.data.RequestObjectStore;
 import org.oidc.service.util.Constants;
 
 /**
  * This class keeps information that a client needs to be able to talk to a server. Some of this
  * information comes from configuration and some from dynamic provider info discovery or client
  * registration, but information is also picked up during the conversation with a server.
+ *
+ * <p>
+ * Services read the context through {@link #getSnapshot()}, an immutable view that is replaced
+ * whenever a setter is called. Writers should therefore publish changes by setting new instances
+ * rather than modifying the published ones in place. The maps and lists are copied by the setters
+ * and returned as unmodifiable views by the getters. Changes that belong together, such as the
+ * results of provider info discovery or client registration, are published at once with an
+ * {@link Update}, so that no snapshot ever holds only a part of them.
+ * </p>
  **/
 public class ServiceContext {
 
@@ -73,6 +88,17 @@ public class ServiceContext {
    */
   private String requestsDirectory;
 
+  /**
+   * The store for the request objects passed by reference. Stores the files under the
+   * requestsDirectory on the calling thread by default.
+   */
+  private RequestObjectStore requestObjectStore;
+
+  /**
+   * The cache of signed request objects, null if identical request objects are signed every time.
+   */
+  private RequestObjectCache requestObjectCache;
+
   /**
    * Divergence from the standard can be more or less severe. Less severe cases can be allowed but
    * only if it’s deemed OK. The only example of this right now is issuer mismatch. As an example:
@@ -152,6 +178,12 @@ public class ServiceContext {
    */
   private String jwksUri;
 
+  /** The current snapshot, null if it needs to be rebuilt. */
+  private volatile ServiceContextSnapshot snapshot;
+
+  /** The version of the context, incremented on every change. */
+  private long version;
+
   /**
    * Constructor.
    * 
@@ -163,6 +195,7 @@ public class ServiceContext {
     allow = new HashMap<>();
     this.keyJar = keyJar;
     requestsDirectory = "requests";
+    requestObjectStore = new FileRequestObjectStore();
   }
 
   /**
@@ -205,6 +238,45 @@ public class ServiceContext {
     }
   }
 
+  /**
+   * Get an immutable, consistent view of the current state of this context. Costs a single volatile
+   * read if the context has not been modified since the previous call.
+   *
+   * @return The current snapshot.
+   */
+  public ServiceContextSnapshot getSnapshot() {
+    ServiceContextSnapshot current = snapshot;
+    if (current != null) {
+      return current;
+    }
+    synchronized (this) {
+      if (snapshot == null) {
+        snapshot = new ServiceContextSnapshot(this, version, allow, redirectUris, callBack,
+            postLogoutRedirectUris, endpoints);
+      }
+      return snapshot;
+    }
+  }
+
+  /**
+   * Invalidates the current snapshot. Called by the setters.
+   */
+  protected synchronized void invalidateSnapshot() {
+    version++;
+    snapshot = null;
+  }
+
+  /**
+   * Start a batch update of this context. Nothing is visible to the readers of the context until
+   * {@link Update#publish()} is called, which then publishes all the changes with a single new
+   * snapshot.
+   *
+   * @return A new batch update.
+   */
+  public Update beginUpdate() {
+    return new Update();
+  }
+
   /**
    * Get Clock Skew allowed for expiration evaluations.
    * 
@@ -222,6 +294,7 @@ public class ServiceContext {
    */
   public void setClockSkew(long clockSkew) {
     this.clockSkew = clockSkew;
+    invalidateSnapshot();
   }
 
   /**
@@ -241,6 +314,7 @@ public class ServiceContext {
    */
   public void setKeyJar(KeyJar keyJar) {
     this.keyJar = keyJar;
+    invalidateSnapshot();
   }
 
   /**
@@ -261,6 +335,7 @@ public class ServiceContext {
   public void setProviderConfigurationResponse(
       ASConfigurationResponse providerConfigurationResponse) {
     this.providerConfigurationResponse = providerConfigurationResponse;
+    invalidateSnapshot();
   }
 
   /**
@@ -280,6 +355,7 @@ public class ServiceContext {
    */
   public void setRegistrationResponse(RegistrationResponse registrationResponse) {
     this.registrationResponse = registrationResponse;
+    invalidateSnapshot();
   }
 
   /**
@@ -299,6 +375,7 @@ public class ServiceContext {
    */
   public void setBaseUrl(String baseUrl) {
     this.baseUrl = baseUrl;
+    invalidateSnapshot();
   }
 
   /**
@@ -320,6 +397,48 @@ public class ServiceContext {
    */
   public void setRequestsDirectory(String requestsDirectory) {
     this.requestsDirectory = requestsDirectory;
+    invalidateSnapshot();
+  }
+
+  /**
+   * Get the store for the request objects passed by reference.
+   * 
+   * @return store for request objects
+   */
+  public RequestObjectStore getRequestObjectStore() {
+    return requestObjectStore;
+  }
+
+  /**
+   * Set the store for the request objects passed by reference.
+   * 
+   * @param requestObjectStore
+   *          store for request objects
+   */
+  public void setRequestObjectStore(RequestObjectStore requestObjectStore) {
+    this.requestObjectStore = requestObjectStore;
+    invalidateSnapshot();
+  }
+
+  /**
+   * Get the cache of signed request objects.
+   * 
+   * @return cache of signed request objects, null if not used
+   */
+  public RequestObjectCache getRequestObjectCache() {
+    return requestObjectCache;
+  }
+
+  /**
+   * Set the cache of signed request objects. With a cache, identical request objects are signed
+   * and stored only once, and the name of a stored object is derived from its content.
+   * 
+   * @param requestObjectCache
+   *          cache of signed request objects, null if not used
+   */
+  public void setRequestObjectCache(RequestObjectCache requestObjectCache) {
+    this.requestObjectCache = requestObjectCache;
+    invalidateSnapshot();
   }
 
   /**
@@ -333,10 +452,11 @@ public class ServiceContext {
    * doesn’t live up to this. And that by design. So, if you want to talk to those you have to allow
    * them to diverge from the standard.
    *
-   * @return divergence map
+   * @return unmodifiable divergence map, changed via {@link #setAllow(Map)} or
+   *         {@link #setAllowed(String, Boolean)}
    */
   public Map<String, Boolean> getAllow() {
-    return allow;
+    return allow == null ? null : Collections.unmodifiableMap(allow);
   }
 
   /**
@@ -354,7 +474,24 @@ public class ServiceContext {
    *          divergence map
    */
   public void setAllow(Map<String, Boolean> allow) {
-    this.allow = allow;
+    this.allow = allow == null ? null : new HashMap<String, Boolean>(allow);
+    invalidateSnapshot();
+  }
+
+  /**
+   * Set a single value of the divergence map. A new map is published, the current one is not
+   * modified.
+   * 
+   * @param key
+   *          the key, e.g. 'issuer_mismatch' or 'missing_kid'
+   * @param value
+   *          the value, null to clear the divergence
+   */
+  public void setAllowed(String key, Boolean value) {
+    Map<String, Boolean> updated = allow == null ? new HashMap<String, Boolean>()
+        : new HashMap<String, Boolean>(allow);
+    updated.put(key, value);
+    setAllow(updated);
   }
 
   /**
@@ -392,6 +529,7 @@ public class ServiceContext {
    */
   public void setBehavior(RegistrationResponse behavior) {
     this.behavior = behavior;
+    invalidateSnapshot();
   }
 
   /**
@@ -413,6 +551,7 @@ public class ServiceContext {
    */
   public void setClientPreferences(RegistrationRequest clientPreferences) {
     this.clientPreferences = clientPreferences;
+    invalidateSnapshot();
   }
 
   /**
@@ -432,6 +571,7 @@ public class ServiceContext {
    */
   public void setClientId(String clientId) {
     this.clientId = clientId;
+    invalidateSnapshot();
   }
 
   /**
@@ -451,6 +591,7 @@ public class ServiceContext {
    */
   public void setClientSecret(String clientSecret) {
     this.clientSecret = clientSecret;
+    invalidateSnapshot();
   }
 
   /**
@@ -470,6 +611,7 @@ public class ServiceContext {
    */
   public void setClientSecretExpiresAt(Date expiresAt) {
     clientSecretExpiresAt = expiresAt;
+    invalidateSnapshot();
   }
 
   /**
@@ -489,6 +631,7 @@ public class ServiceContext {
    */
   public void setRegistrationAccessToken(String accessToken) {
     registrationAccessToken = accessToken;
+    invalidateSnapshot();
   }
 
   /**
@@ -508,15 +651,16 @@ public class ServiceContext {
    */
   public void setIssuer(String issuer) {
     this.issuer = issuer;
+    invalidateSnapshot();
   }
 
   /**
    * Get unordered list of redirect URIs that the client expects to use.
    * 
-   * @return redirect URIs
+   * @return unmodifiable redirect URIs
    */
   public List<String> getRedirectUris() {
-    return redirectUris;
+    return redirectUris == null ? null : Collections.unmodifiableList(redirectUris);
   }
 
   /**
@@ -526,7 +670,8 @@ public class ServiceContext {
    *          redirect URIs
    */
   public void setRedirectUris(List<String> redirectUris) {
-    this.redirectUris = redirectUris;
+    this.redirectUris = redirectUris == null ? null : new ArrayList<String>(redirectUris);
+    invalidateSnapshot();
   }
 
   /**
@@ -535,10 +680,10 @@ public class ServiceContext {
    * modes: fragment (key is 'implicit'), queryString (key is 'code'), formPost (key is 'form_post')
    * In callback, we can keep the redirect URIs per response mode separate.
    * 
-   * @return map containing redirect URI per response mode
+   * @return unmodifiable map containing redirect URI per response mode
    */
   public Map<DataLocation, String> getCallBack() {
-    return callBack;
+    return callBack == null ? null : Collections.unmodifiableMap(callBack);
   }
 
   /**
@@ -551,17 +696,18 @@ public class ServiceContext {
    *          map containing redirect URI per response mode
    */
   public void setCallBack(Map<DataLocation, String> callBack) {
-    this.callBack = callBack;
+    this.callBack = callBack == null ? null : new HashMap<DataLocation, String>(callBack);
+    invalidateSnapshot();
   }
 
   /**
    * Get URLs to which the RP is requesting that the End-User's User Agent be redirected after a
    * logout has been performed.
    *
-   * @return redirect URIs
+   * @return unmodifiable redirect URIs
    */
   public List<String> getPostLogoutRedirectUris() {
-    return postLogoutRedirectUris;
+    return postLogoutRedirectUris == null ? null : Collections.unmodifiableList(postLogoutRedirectUris);
   }
 
   /**
@@ -572,16 +718,17 @@ public class ServiceContext {
    *          redirect URIs
    */
   public void setPostLogoutRedirectUris(List<String> uris) {
-    postLogoutRedirectUris = uris;
+    postLogoutRedirectUris = uris == null ? null : new ArrayList<String>(uris);
+    invalidateSnapshot();
   }
 
   /**
    * Get map of service endpoint URLs corresponding to the endpoint name.
    * 
-   * @return map of service endpoint URLs
+   * @return unmodifiable map of service endpoint URLs
    */
   public Map<EndpointName, String> getEndpoints() {
-    return endpoints;
+    return endpoints == null ? null : Collections.unmodifiableMap(endpoints);
   }
 
   /**
@@ -591,7 +738,8 @@ public class ServiceContext {
    *          of service endpoint URLs
    */
   public void setEndpoints(Map<EndpointName, String> map) {
-    endpoints = map;
+    endpoints = map == null ? null : new HashMap<EndpointName, String>(map);
+    invalidateSnapshot();
   }
 
   /**
@@ -611,5 +759,237 @@ public class ServiceContext {
    */
   public void setJwksUri(String uri) {
     jwksUri = uri;
+    invalidateSnapshot();
+  }
+
+  /**
+   * A batch of changes to the context that is published at once. The values not set in the batch
+   * are read from the context. Concurrent updates do not see each other: the one published last
+   * wins for the values it sets.
+   */
+  public final class Update {
+
+    private String issuer;
+    private boolean issuerSet;
+    private ASConfigurationResponse providerConfigurationResponse;
+    private boolean providerConfigurationResponseSet;
+    private RegistrationResponse registrationResponse;
+    private boolean registrationResponseSet;
+    private RegistrationResponse behavior;
+    private boolean behaviorSet;
+    private String clientId;
+    private boolean clientIdSet;
+    private String clientSecret;
+    private boolean clientSecretSet;
+    private Date clientSecretExpiresAt;
+    private boolean clientSecretExpiresAtSet;
+    private String registrationAccessToken;
+    private boolean registrationAccessTokenSet;
+    private Map<EndpointName, String> endpoints;
+    private boolean endpointsSet;
+    private KeyJar keyJar;
+    private boolean keyJarSet;
+
+    private Update() {
+    }
+
+    /** Get the issuer of this update, or of the context if not set. */
+    public String getIssuer() {
+      return issuerSet ? issuer : ServiceContext.this.getIssuer();
+    }
+
+    /** Set the issuer to be published. */
+    public Update setIssuer(String issuer) {
+      this.issuer = issuer;
+      issuerSet = true;
+      return this;
+    }
+
+    /** Get the provider configuration response of this update, or of the context if not set. */
+    public ASConfigurationResponse getProviderConfigurationResponse() {
+      return providerConfigurationResponseSet ? providerConfigurationResponse
+          : ServiceContext.this.getProviderConfigurationResponse();
+    }
+
+    /** Set the provider configuration response to be published. */
+    public Update setProviderConfigurationResponse(ASConfigurationResponse response) {
+      providerConfigurationResponse = response;
+      providerConfigurationResponseSet = true;
+      return this;
+    }
+
+    /** Get the registration response of this update, or of the context if not set. */
+    public RegistrationResponse getRegistrationResponse() {
+      return registrationResponseSet ? registrationResponse
+          : ServiceContext.this.getRegistrationResponse();
+    }
+
+    /** Set the registration response to be published. */
+    public Update setRegistrationResponse(RegistrationResponse response) {
+      registrationResponse = response;
+      registrationResponseSet = true;
+      return this;
+    }
+
+    /** Get the behavior of this update, or of the context if not set. */
+    public RegistrationResponse getBehavior() {
+      return behaviorSet ? behavior : ServiceContext.this.getBehavior();
+    }
+
+    /** Set the behavior to be published. */
+    public Update setBehavior(RegistrationResponse behavior) {
+      this.behavior = behavior;
+      behaviorSet = true;
+      return this;
+    }
+
+    /** Get the client identifier of this update, or of the context if not set. */
+    public String getClientId() {
+      return clientIdSet ? clientId : ServiceContext.this.getClientId();
+    }
+
+    /** Set the client identifier to be published. */
+    public Update setClientId(String clientId) {
+      this.clientId = clientId;
+      clientIdSet = true;
+      return this;
+    }
+
+    /** Get the client secret of this update, or of the context if not set. */
+    public String getClientSecret() {
+      return clientSecretSet ? clientSecret : ServiceContext.this.getClientSecret();
+    }
+
+    /** Set the client secret to be published. */
+    public Update setClientSecret(String clientSecret) {
+      this.clientSecret = clientSecret;
+      clientSecretSet = true;
+      return this;
+    }
+
+    /** Get the client secret expiration time of this update, or of the context if not set. */
+    public Date getClientSecretExpiresAt() {
+      return clientSecretExpiresAtSet ? clientSecretExpiresAt
+          : ServiceContext.this.getClientSecretExpiresAt();
+    }
+
+    /** Set the client secret expiration time to be published. */
+    public Update setClientSecretExpiresAt(Date expiresAt) {
+      clientSecretExpiresAt = expiresAt;
+      clientSecretExpiresAtSet = true;
+      return this;
+    }
+
+    /** Get the registration access token of this update, or of the context if not set. */
+    public String getRegistrationAccessToken() {
+      return registrationAccessTokenSet ? registrationAccessToken
+          : ServiceContext.this.getRegistrationAccessToken();
+    }
+
+    /** Set the registration access token to be published. */
+    public Update setRegistrationAccessToken(String accessToken) {
+      registrationAccessToken = accessToken;
+      registrationAccessTokenSet = true;
+      return this;
+    }
+
+    /** Get the service endpoint URLs of this update, or of the context if not set. */
+    public Map<EndpointName, String> getEndpoints() {
+      if (!endpointsSet) {
+        return ServiceContext.this.getEndpoints();
+      }
+      return endpoints == null ? null : Collections.unmodifiableMap(endpoints);
+    }
+
+    /** Set the service endpoint URLs to be published. */
+    public Update setEndpoints(Map<EndpointName, String> map) {
+      endpoints = map == null ? null : new HashMap<EndpointName, String>(map);
+      endpointsSet = true;
+      return this;
+    }
+
+    /** Get the key jar of this update, or of the context if not set. */
+    public KeyJar getKeyJar() {
+      return keyJarSet ? keyJar : ServiceContext.this.getKeyJar();
+    }
+
+    /** Set the key jar to be published. */
+    public Update setKeyJar(KeyJar keyJar) {
+      this.keyJar = keyJar;
+      keyJarSet = true;
+      return this;
+    }
+
+    /**
+     * Get a key jar of this update that may be modified in place. On the first call the key jar
+     * of the context is copied, or a new one is created if the context has none, and it's
+     * published with this update.
+     *
+     * @return The key jar of this update.
+     */
+    public KeyJar getModifiableKeyJar() {
+      if (!keyJarSet) {
+        setKeyJar(copy(ServiceContext.this.getKeyJar()));
+      } else if (keyJar == null) {
+        setKeyJar(new KeyJar());
+      }
+      return keyJar;
+    }
+
+    /**
+     * Publish the changes of this update with a single new snapshot.
+     */
+    public void publish() {
+      synchronized (ServiceContext.this) {
+        if (issuerSet) {
+          ServiceContext.this.issuer = issuer;
+        }
+        if (providerConfigurationResponseSet) {
+          ServiceContext.this.providerConfigurationResponse = providerConfigurationResponse;
+        }
+        if (registrationResponseSet) {
+          ServiceContext.this.registrationResponse = registrationResponse;
+        }
+        if (behaviorSet) {
+          ServiceContext.this.behavior = behavior;
+        }
+        if (clientIdSet) {
+          ServiceContext.this.clientId = clientId;
+        }
+        if (clientSecretSet) {
+          ServiceContext.this.clientSecret = clientSecret;
+        }
+        if (clientSecretExpiresAtSet) {
+          ServiceContext.this.clientSecretExpiresAt = clientSecretExpiresAt;
+        }
+        if (registrationAccessTokenSet) {
+          ServiceContext.this.registrationAccessToken = registrationAccessToken;
+        }
+        if (endpointsSet) {
+          ServiceContext.this.endpoints = endpoints;
+        }
+        if (keyJarSet) {
+          ServiceContext.this.keyJar = keyJar;
+        }
+        version++;
+        snapshot = new ServiceContextSnapshot(ServiceContext.this, version, allow, redirectUris,
+            callBack, postLogoutRedirectUris, ServiceContext.this.endpoints);
+      }
+    }
+
+    private KeyJar copy(KeyJar source) {
+      KeyJar copy = new KeyJar();
+      if (source != null && source.getOwners() != null) {
+        for (String owner : source.getOwners()) {
+          List<KeyBundle> bundles = source.getBundle(owner);
+          if (bundles != null) {
+            for (KeyBundle bundle : bundles) {
+              copy.addKeyBundle(owner, bundle);
+            }
+          }
+        }
+      }
+      return copy;
+    }
   }
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import com.auth0.msg.KeyBundle;
+import com.auth0.msg.KeyJar;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.common.EndpointName;
+import org.oidc.common.ValueException;
+import org.oidc.msg.Message;
+import org.oidc.msg.oauth2.ASConfigurationResponse;
+
+/**
+ * Manages the {@link ServiceContext}s of a client talking to many providers, keyed by the issuer
+ * and the client identifier. Contexts are loaded lazily with a {@link TenantLoader} on first use,
+ * and evicted after being idle or when the total estimated weight of the loaded contexts exceeds
+ * the budget.
+ *
+ * <p>
+ * The provider configuration, the endpoints and the key bundles of an issuer are shared between all
+ * the contexts of that issuer. Once one context of an issuer has its provider configuration, either
+ * from the loader or via {@link #publishProvider(ServiceContext)} after provider info discovery,
+ * the other contexts loaded for the same issuer get the same instances without a new discovery.
+ * The shared instances must be treated as read-only.
+ * </p>
+ */
+public class ServiceContextRegistry {
+
+  /** The default weight of a loaded context, in approximate bytes. */
+  private static final int BASE_WEIGHT = 2048;
+
+  /** The weight of a single claim or map entry, in approximate bytes. */
+  private static final int ENTRY_WEIGHT = 128;
+
+  /** The loaded contexts. */
+  private final LoadingCache<TenantKey, ServiceContext> tenants;
+
+  /** The shared provider data, keyed by issuer. */
+  private final Cache<String, SharedProvider> providers;
+
+  /** The loader for new contexts. */
+  private final TenantLoader loader;
+
+  /**
+   * Constructor.
+   *
+   * @param loader
+   *          The loader for the contexts not yet in the registry.
+   * @param maximumWeight
+   *          The budget for the total weight of the loaded contexts, in approximate bytes as
+   *          estimated by {@link #weigh(ServiceContext)}.
+   * @param idleTimeout
+   *          The time after which an unused context is evicted.
+   * @param unit
+   *          The unit of the idle timeout.
+   */
+  public ServiceContextRegistry(TenantLoader loader, long maximumWeight, long idleTimeout,
+      TimeUnit unit) {
+    this(loader, maximumWeight, idleTimeout, unit, Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param loader
+   *          The loader for the contexts not yet in the registry.
+   * @param maximumWeight
+   *          The budget for the total weight of the loaded contexts.
+   * @param idleTimeout
+   *          The time after which an unused context is evicted.
+   * @param unit
+   *          The unit of the idle timeout.
+   * @param ticker
+   *          The time source for the idle timeout.
+   */
+  ServiceContextRegistry(TenantLoader loader, long maximumWeight, long idleTimeout, TimeUnit unit,
+      Ticker ticker) {
+    if (loader == null) {
+      throw new IllegalArgumentException("The tenant loader cannot be null");
+    }
+    this.loader = loader;
+    this.tenants = CacheBuilder.newBuilder().maximumWeight(maximumWeight)
+        .weigher(new Weigher<TenantKey, ServiceContext>() {
+          @Override
+          public int weigh(TenantKey key, ServiceContext context) {
+            return ServiceContextRegistry.this.weigh(context);
+          }
+        }).expireAfterAccess(idleTimeout, unit).ticker(ticker).recordStats()
+        .build(new CacheLoader<TenantKey, ServiceContext>() {
+          @Override
+          public ServiceContext load(TenantKey key) throws Exception {
+            return loadTenant(key);
+          }
+        });
+    this.providers = CacheBuilder.newBuilder().expireAfterAccess(idleTimeout, unit).ticker(ticker)
+        .build();
+  }
+
+  /**
+   * Get the context for the given issuer and client, loading it if not yet in the registry.
+   * Concurrent calls for the same tenant load it only once.
+   *
+   * @param issuer
+   *          The issuer of the provider.
+   * @param clientId
+   *          The client identifier at the provider.
+   * @return The context, never null.
+   * @throws ValueException
+   *           If the context could not be loaded.
+   */
+  public ServiceContext get(String issuer, String clientId) throws ValueException {
+    try {
+      return tenants.get(new TenantKey(issuer, clientId));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new ValueException("Could not load the service context for issuer " + issuer
+          + " and client " + clientId, e.getCause());
+    }
+  }
+
+  /**
+   * Get the context for the given issuer and client if it is loaded.
+   *
+   * @param issuer
+   *          The issuer of the provider.
+   * @param clientId
+   *          The client identifier at the provider.
+   * @return The context, or null if not loaded.
+   */
+  public ServiceContext getIfPresent(String issuer, String clientId) {
+    return tenants.getIfPresent(new TenantKey(issuer, clientId));
+  }
+
+  /**
+   * Removes the context for the given issuer and client from the registry.
+   *
+   * @param issuer
+   *          The issuer of the provider.
+   * @param clientId
+   *          The client identifier at the provider.
+   */
+  public void invalidate(String issuer, String clientId) {
+    tenants.invalidate(new TenantKey(issuer, clientId));
+  }
+
+  /**
+   * Publishes the provider configuration, endpoints and issuer keys of the given context for
+   * sharing with the other contexts of the same issuer. Should be called after the provider info
+   * discovery of a context has completed. Does nothing if the context has no issuer or provider
+   * configuration.
+   *
+   * @param context
+   *          The context whose provider data is published.
+   */
+  public void publishProvider(ServiceContext context) {
+    String issuer = context.getIssuer();
+    ASConfigurationResponse configuration = context.getProviderConfigurationResponse();
+    if (issuer == null || configuration == null) {
+      return;
+    }
+    Map<EndpointName, String> endpoints = new EnumMap<EndpointName, String>(EndpointName.class);
+    if (context.getEndpoints() != null) {
+      endpoints.putAll(context.getEndpoints());
+    }
+    List<KeyBundle> bundles = new ArrayList<KeyBundle>();
+    if (context.getKeyJar() != null && context.getKeyJar().getBundle(issuer) != null) {
+      bundles.addAll(context.getKeyJar().getBundle(issuer));
+    }
+    providers.put(issuer, new SharedProvider(configuration, Collections.unmodifiableMap(endpoints),
+        Collections.unmodifiableList(bundles)));
+  }
+
+  /**
+   * Get the shared provider configuration of the given issuer.
+   *
+   * @param issuer
+   *          The issuer of the provider.
+   * @return The shared provider configuration, or null if none has been published.
+   */
+  public ASConfigurationResponse getProviderConfiguration(String issuer) {
+    SharedProvider provider = providers.getIfPresent(issuer);
+    return provider == null ? null : provider.configuration;
+  }
+
+  /**
+   * Get the number of loaded contexts.
+   *
+   * @return The number of loaded contexts.
+   */
+  public long size() {
+    return tenants.size();
+  }
+
+  /**
+   * Get the number of contexts evicted because of the weight budget or idleness.
+   *
+   * @return The number of evicted contexts.
+   */
+  public long getEvictionCount() {
+    return tenants.stats().evictionCount();
+  }
+
+  /**
+   * Runs the pending evictions. They are otherwise run as part of the normal registry operations.
+   */
+  public void cleanUp() {
+    tenants.cleanUp();
+    providers.cleanUp();
+  }
+
+  /**
+   * Estimates the memory retained by the context, excluding the shared provider data. Override for
+   * a more accurate estimate.
+   *
+   * @param context
+   *          The context to weigh.
+   * @return The estimated weight in approximate bytes.
+   */
+  protected int weigh(ServiceContext context) {
+    int entries = countClaims(context.getBehavior()) + countClaims(context.getClientPreferences())
+        + countClaims(context.getRegistrationResponse());
+    if (context.getEndpoints() != null) {
+      entries += context.getEndpoints().size();
+    }
+    if (context.getRedirectUris() != null) {
+      entries += context.getRedirectUris().size();
+    }
+    if (context.getProviderConfigurationResponse() != null && (context.getIssuer() == null
+        || providers.getIfPresent(context.getIssuer()) == null)) {
+      entries += countClaims(context.getProviderConfigurationResponse());
+    }
+    return BASE_WEIGHT + entries * ENTRY_WEIGHT;
+  }
+
+  private static int countClaims(Message message) {
+    return message == null || message.getClaims() == null ? 0 : message.getClaims().size();
+  }
+
+  private ServiceContext loadTenant(TenantKey key) throws Exception {
+    ServiceContext context = loader.load(key.issuer, key.clientId);
+    if (context == null) {
+      throw new ValueException("The loader returned no service context");
+    }
+    SharedProvider provider = providers.getIfPresent(key.issuer);
+    if (provider == null) {
+      if (context.getIssuer() == null) {
+        context.setIssuer(key.issuer);
+      }
+      publishProvider(context);
+      return context;
+    }
+    ServiceContext.Update update = context.beginUpdate();
+    if (update.getProviderConfigurationResponse() == null) {
+      update.setProviderConfigurationResponse(provider.configuration);
+    }
+    Map<EndpointName, String> endpoints = new HashMap<EndpointName, String>();
+    if (update.getEndpoints() != null) {
+      endpoints.putAll(update.getEndpoints());
+    }
+    for (Map.Entry<EndpointName, String> entry : provider.endpoints.entrySet()) {
+      if (!endpoints.containsKey(entry.getKey())) {
+        endpoints.put(entry.getKey(), entry.getValue());
+      }
+    }
+    update.setEndpoints(endpoints);
+    List<KeyBundle> existing = update.getKeyJar() == null ? null
+        : update.getKeyJar().getBundle(key.issuer);
+    if (existing == null || existing.isEmpty()) {
+      KeyJar keyJar = update.getModifiableKeyJar();
+      for (KeyBundle bundle : provider.bundles) {
+        keyJar.addKeyBundle(key.issuer, bundle);
+      }
+    }
+    if (update.getIssuer() == null) {
+      update.setIssuer(key.issuer);
+    }
+    update.publish();
+    return context;
+  }
+
+  /**
+   * Loads the context of a tenant that is not in the registry.
+   */
+  public interface TenantLoader {
+
+    /**
+     * Loads the context of the given issuer and client, e.g. from the configuration store. The
+     * provider data does not need to be set if another context of the same issuer exists.
+     *
+     * @param issuer
+     *          The issuer of the provider.
+     * @param clientId
+     *          The client identifier at the provider.
+     * @return The context, never null.
+     * @throws Exception
+     *           If the context could not be loaded.
+     */
+    public ServiceContext load(String issuer, String clientId) throws Exception;
+  }
+
+  /** The registry key of a context. */
+  private static final class TenantKey {
+
+    private final String issuer;
+
+    private final String clientId;
+
+    private TenantKey(String issuer, String clientId) {
+      this.issuer = issuer;
+      this.clientId = clientId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof TenantKey)) {
+        return false;
+      }
+      TenantKey key = (TenantKey) other;
+      return (issuer == null ? key.issuer == null : issuer.equals(key.issuer))
+          && (clientId == null ? key.clientId == null : clientId.equals(key.clientId));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (issuer == null ? 0 : issuer.hashCode())
+          + (clientId == null ? 0 : clientId.hashCode());
+    }
+  }
+
+  /** The provider data shared by all the contexts of an issuer. */
+  private static final class SharedProvider {
+
+    private final ASConfigurationResponse configuration;
+
+    private final Map<EndpointName, String> endpoints;
+
+    private final List<KeyBundle> bundles;
+
+    private SharedProvider(ASConfigurationResponse configuration,
+        Map<EndpointName, String> endpoints, List<KeyBundle> bundles) {
+      this.configuration = configuration;
+      this.endpoints = endpoints;
+      this.bundles = bundles;
+    }
+  }
+}
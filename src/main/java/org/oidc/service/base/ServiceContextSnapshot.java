@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import com.auth0.msg.KeyJar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.oidc.common.EndpointName;
+import org.oidc.msg.DataLocation;
+import org.oidc.msg.oauth2.ASConfigurationResponse;
+import org.oidc.msg.oidc.RegistrationRequest;
+import org.oidc.msg.oidc.RegistrationResponse;
+import org.oidc.service.data.RequestObjectCache;
+import org.oidc.service.data.RequestObjectStore;
+
+/**
+ * An immutable, consistent view of a {@link ServiceContext} at a given version. Obtained with
+ * {@link ServiceContext#getSnapshot()}, which costs a single volatile read unless the context has
+ * been changed since the previous snapshot.
+ *
+ * <p>
+ * The maps and lists are copied and cannot be modified. The messages and the key jar are shared
+ * with the context: they are published by replacing them via the setters of the context, and must
+ * not be modified in place once published.
+ * </p>
+ */
+public final class ServiceContextSnapshot {
+
+  private final long version;
+  private final long clockSkew;
+  private final KeyJar keyJar;
+  private final ASConfigurationResponse providerConfigurationResponse;
+  private final RegistrationResponse registrationResponse;
+  private final String baseUrl;
+  private final String requestsDirectory;
+  private final RequestObjectStore requestObjectStore;
+  private final RequestObjectCache requestObjectCache;
+  private final Map<String, Boolean> allow;
+  private final RegistrationResponse behavior;
+  private final RegistrationRequest clientPreferences;
+  private final String clientId;
+  private final String clientSecret;
+  private final Date clientSecretExpiresAt;
+  private final String registrationAccessToken;
+  private final String issuer;
+  private final List<String> redirectUris;
+  private final Map<DataLocation, String> callBack;
+  private final List<String> postLogoutRedirectUris;
+  private final Map<EndpointName, String> endpoints;
+  private final String jwksUri;
+
+  /**
+   * Constructor. The collections are copied, the rest is read from the context.
+   */
+  ServiceContextSnapshot(ServiceContext context, long version, Map<String, Boolean> allow,
+      List<String> redirectUris, Map<DataLocation, String> callBack,
+      List<String> postLogoutRedirectUris, Map<EndpointName, String> endpoints) {
+    this.version = version;
+    this.clockSkew = context.getClockSkew();
+    this.keyJar = context.getKeyJar();
+    this.providerConfigurationResponse = context.getProviderConfigurationResponse();
+    this.registrationResponse = context.getRegistrationResponse();
+    this.baseUrl = context.getBaseUrl();
+    this.requestsDirectory = context.getRequestsDirectory();
+    this.requestObjectStore = context.getRequestObjectStore();
+    this.requestObjectCache = context.getRequestObjectCache();
+    this.behavior = context.getBehavior();
+    this.clientPreferences = context.getClientPreferences();
+    this.clientId = context.getClientId();
+    this.clientSecret = context.getClientSecret();
+    this.clientSecretExpiresAt = context.getClientSecretExpiresAt();
+    this.registrationAccessToken = context.getRegistrationAccessToken();
+    this.issuer = context.getIssuer();
+    this.jwksUri = context.getJwksUri();
+    this.allow = allow == null ? null
+        : Collections.unmodifiableMap(new HashMap<String, Boolean>(allow));
+    this.redirectUris = copy(redirectUris);
+    this.callBack = callBack == null ? null
+        : Collections.unmodifiableMap(new HashMap<DataLocation, String>(callBack));
+    this.postLogoutRedirectUris = copy(postLogoutRedirectUris);
+    Map<EndpointName, String> endpointsCopy = new EnumMap<EndpointName, String>(
+        EndpointName.class);
+    if (endpoints != null) {
+      for (Map.Entry<EndpointName, String> entry : endpoints.entrySet()) {
+        // the context map is a HashMap, it may contain a null key
+        if (entry.getKey() != null) {
+          endpointsCopy.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    this.endpoints = Collections.unmodifiableMap(endpointsCopy);
+  }
+
+  private static List<String> copy(List<String> list) {
+    return list == null ? null : Collections.unmodifiableList(new ArrayList<String>(list));
+  }
+
+  /**
+   * Get the version of the context this snapshot was taken from. The version changes every time
+   * the context is modified.
+   *
+   * @return The version of the context.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public long getClockSkew() {
+    return clockSkew;
+  }
+
+  public KeyJar getKeyJar() {
+    return keyJar;
+  }
+
+  public ASConfigurationResponse getProviderConfigurationResponse() {
+    return providerConfigurationResponse;
+  }
+
+  public RegistrationResponse getRegistrationResponse() {
+    return registrationResponse;
+  }
+
+  public String getBaseUrl() {
+    return baseUrl;
+  }
+
+  public String getRequestsDirectory() {
+    return requestsDirectory;
+  }
+
+  public RequestObjectStore getRequestObjectStore() {
+    return requestObjectStore;
+  }
+
+  public RequestObjectCache getRequestObjectCache() {
+    return requestObjectCache;
+  }
+
+  /**
+   * Get the divergence map.
+   *
+   * @return The unmodifiable divergence map, may be null.
+   */
+  public Map<String, Boolean> getAllow() {
+    return allow;
+  }
+
+  /**
+   * Whether divergence map contains value true for the given key.
+   *
+   * @param key
+   *          to test. Either 'issuer_mismatch' or 'missing_kid'.
+   * @return true if divergence map contains value true for the given key. Other wise false.
+   */
+  public boolean isAllowed(String key) {
+    return allow != null && Boolean.TRUE.equals(allow.get(key));
+  }
+
+  public RegistrationResponse getBehavior() {
+    return behavior;
+  }
+
+  /**
+   * Get a claim from the RP behavior.
+   *
+   * @param claimName
+   *          The name of the claim.
+   * @return The claim value, or null if there is no behavior or no such claim.
+   */
+  public Object getBehaviorClaim(String claimName) {
+    return behavior == null || behavior.getClaims() == null ? null
+        : behavior.getClaims().get(claimName);
+  }
+
+  public RegistrationRequest getClientPreferences() {
+    return clientPreferences;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+
+  public String getClientSecret() {
+    return clientSecret;
+  }
+
+  public Date getClientSecretExpiresAt() {
+    return clientSecretExpiresAt;
+  }
+
+  public String getRegistrationAccessToken() {
+    return registrationAccessToken;
+  }
+
+  public String getIssuer() {
+    return issuer;
+  }
+
+  /**
+   * Get the redirect URIs.
+   *
+   * @return The unmodifiable redirect URIs, may be null.
+   */
+  public List<String> getRedirectUris() {
+    return redirectUris;
+  }
+
+  /**
+   * Get the redirect URI per response mode.
+   *
+   * @return The unmodifiable map of redirect URIs, may be null.
+   */
+  public Map<DataLocation, String> getCallBack() {
+    return callBack;
+  }
+
+  /**
+   * Get the post logout redirect URIs.
+   *
+   * @return The unmodifiable post logout redirect URIs, may be null.
+   */
+  public List<String> getPostLogoutRedirectUris() {
+    return postLogoutRedirectUris;
+  }
+
+  /**
+   * Get the service endpoint URLs.
+   *
+   * @return The unmodifiable map of endpoint URLs, never null.
+   */
+  public Map<EndpointName, String> getEndpoints() {
+    return endpoints;
+  }
+
+  public String getJwksUri() {
+    return jwksUri;
+  }
+}
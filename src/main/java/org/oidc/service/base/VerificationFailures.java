@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import org.oidc.common.ValueException;
+import org.oidc.msg.DeserializationException;
+import org.oidc.msg.InvalidClaimException;
+
+/**
+ * Creates the exceptions thrown when a response or a callback is rejected. In the stackless mode
+ * the exceptions are subclasses of the usual types that do not capture a stack trace, which is
+ * the dominating cost of a rejection when a client is flooded with forged callbacks. Callers
+ * catching the usual types are not affected, only the stack traces of the rejections are empty.
+ *
+ * <p>
+ * The stackless mode is enabled if the system property {@link #STACKLESS_PROPERTY} is set to
+ * true, or with {@link #setStackless(boolean)}. Unexpected failures, e.g. ones with a cause, keep
+ * their stack traces also in the stackless mode.
+ * </p>
+ */
+public final class VerificationFailures {
+
+  /** System property that enables the stackless mode. */
+  public static final String STACKLESS_PROPERTY = "org.oidc.service.stacklessVerificationFailures";
+
+  /** Whether the rejections are thrown without stack traces. */
+  private static volatile boolean stackless = Boolean.getBoolean(STACKLESS_PROPERTY);
+
+  private VerificationFailures() {
+  }
+
+  /**
+   * Whether the rejections are thrown without stack traces.
+   * 
+   * @return True in the stackless mode.
+   */
+  public static boolean isStackless() {
+    return stackless;
+  }
+
+  /**
+   * Sets whether the rejections are thrown without stack traces.
+   * 
+   * @param enabled
+   *          True for the stackless mode.
+   */
+  public static void setStackless(boolean enabled) {
+    stackless = enabled;
+  }
+
+  /**
+   * Creates an exception for a message with unexpected contents.
+   * 
+   * @param message
+   *          The detail message.
+   * @return The exception, without a stack trace in the stackless mode.
+   */
+  public static InvalidClaimException invalidClaim(String message) {
+    return stackless ? new StacklessInvalidClaimException(message)
+        : new InvalidClaimException(message);
+  }
+
+  /**
+   * Creates an exception for a response that cannot be parsed.
+   * 
+   * @param message
+   *          The detail message.
+   * @return The exception, without a stack trace in the stackless mode.
+   */
+  public static DeserializationException deserialization(String message) {
+    return stackless ? new StacklessDeserializationException(message)
+        : new DeserializationException(message);
+  }
+
+  /**
+   * Creates an exception for a response that cannot be used for updating the service context.
+   * 
+   * @param message
+   *          The detail message.
+   * @return The exception, without a stack trace in the stackless mode.
+   */
+  public static ValueException value(String message) {
+    return stackless ? new StacklessValueException(message) : new ValueException(message);
+  }
+
+  /** An {@link InvalidClaimException} without a stack trace. */
+  private static final class StacklessInvalidClaimException extends InvalidClaimException {
+
+    private static final long serialVersionUID = 1L;
+
+    StacklessInvalidClaimException(String message) {
+      super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  /** A {@link DeserializationException} without a stack trace. */
+  private static final class StacklessDeserializationException
+      extends DeserializationException {
+
+    private static final long serialVersionUID = 1L;
+
+    StacklessDeserializationException(String message) {
+      super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  /** A {@link ValueException} without a stack trace. */
+  private static final class StacklessValueException extends ValueException {
+
+    private static final long serialVersionUID = 1L;
+
+    StacklessValueException(String message) {
+      super(message, null, false);
+    }
+  }
+}
@@ -36,9 +36,9 @@ public class AddClientId extends AbstractRequestArgumentProcessor {
   @Override
   protected void processVerifiedArguments(Map<String, Object> requestArguments, Service service,
       Error error) throws RequestArgumentProcessingException {
-    if (!requestArguments.containsKey("client_id")
-        && service.getServiceContext().getClientId() != null) {
-      requestArguments.put("client_id", service.getServiceContext().getClientId());
+    String clientId = service.getServiceContext().getSnapshot().getClientId();
+    if (!requestArguments.containsKey("client_id") && clientId != null) {
+      requestArguments.put("client_id", clientId);
     }
   }
 }
\ No newline at end of file
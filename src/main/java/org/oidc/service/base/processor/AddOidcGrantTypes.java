@@ -18,7 +18,7 @@ package org.oidc.service.base.processor;
 
 import com.google.common.collect.ImmutableMap;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -29,6 +29,7 @@ import org.oidc.msg.ErrorType;
 import org.oidc.msg.ParameterVerification;
 import org.oidc.service.Service;
 import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.util.TokenSet;
 
 /** Class adds grant_types claim based on response_types unless the claim exists already.*/ 
 public class AddOidcGrantTypes extends AbstractRequestArgumentProcessor {
@@ -46,8 +47,7 @@ public class AddOidcGrantTypes extends AbstractRequestArgumentProcessor {
     List<String> responseTypes = (List<String>) requestArguments.get("response_types");
     Set<String> grantTypes = new HashSet<>();
     for (String responseType : responseTypes) {
-      String sortedType = getSortedResponseType(responseType);
-      List<String> grantType = RESPONSE_TYPES_TO_GRANT_TYPES.get(sortedType);
+      List<String> grantType = GRANT_TYPES_BY_RESPONSE_TYPE.get(TokenSet.parse(responseType));
       if (grantType == null) {
         ErrorDetails details = new ErrorDetails("response_types", ErrorType.VALUE_NOT_ALLOWED,
             "No corresponding grant_type cannot be found");
@@ -67,13 +67,17 @@ public class AddOidcGrantTypes extends AbstractRequestArgumentProcessor {
       .put("code token", Arrays.asList("authorization_code", "implicit"))
       .put("code id_token token", Arrays.asList("authorization_code", "implicit")).build();
 
-  protected String getSortedResponseType(String responseType) {
-    List<String> types = Arrays.asList(responseType.split(" "));
-    Collections.sort(types);
-    StringBuilder stringBuilder = new StringBuilder();
-    for (String type : types) {
-      stringBuilder.append(type).append(" ");
+  /** The grant types keyed by the response type as a token set, independent of the order. */
+  private static final Map<TokenSet, List<String>> GRANT_TYPES_BY_RESPONSE_TYPE =
+      new HashMap<TokenSet, List<String>>();
+
+  static {
+    for (Map.Entry<String, List<String>> entry : RESPONSE_TYPES_TO_GRANT_TYPES.entrySet()) {
+      GRANT_TYPES_BY_RESPONSE_TYPE.put(TokenSet.parse(entry.getKey()), entry.getValue());
     }
-    return stringBuilder.toString().trim();
+  }
+
+  protected String getSortedResponseType(String responseType) {
+    return TokenSet.parse(responseType).toString();
   }
 }
\ No newline at end of file
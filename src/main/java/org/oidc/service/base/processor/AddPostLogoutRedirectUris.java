@@ -16,6 +16,7 @@
 
 package org.oidc.service.base.processor;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -29,9 +30,9 @@ public class AddPostLogoutRedirectUris extends AbstractRequestArgumentProcessor
   protected void processVerifiedArguments(Map<String, Object> requestArguments, Service service,
       Error error) throws RequestArgumentProcessingException {
     if (!requestArguments.containsKey("post_logout_redirect_uris")) {
-      List<String> uris = service.getServiceContext().getPostLogoutRedirectUris();
+      List<String> uris = service.getServiceContext().getSnapshot().getPostLogoutRedirectUris();
       if (uris != null && !uris.isEmpty()) {
-        requestArguments.put("post_logout_redirect_uris", uris);
+        requestArguments.put("post_logout_redirect_uris", new ArrayList<String>(uris));
       }
     }
   }
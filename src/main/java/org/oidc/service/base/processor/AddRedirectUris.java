@@ -17,11 +17,13 @@
 package org.oidc.service.base.processor;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.oidc.msg.Error;
 import org.oidc.service.Service;
 import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.base.ServiceContextSnapshot;
 
 public class AddRedirectUris extends AbstractRequestArgumentProcessor {
 
@@ -29,11 +31,13 @@ public class AddRedirectUris extends AbstractRequestArgumentProcessor {
   protected void processVerifiedArguments(Map<String, Object> requestArguments, Service service,
       Error error) throws RequestArgumentProcessingException {
     if (!requestArguments.containsKey("redirect_uris")) {
-      if (service.getServiceContext().getCallBack() != null) {
+      ServiceContextSnapshot context = service.getServiceContext().getSnapshot();
+      if (context.getCallBack() != null) {
         requestArguments.put("redirect_uris",
-            new ArrayList<String>(service.getServiceContext().getCallBack().values()));
+            new ArrayList<String>(context.getCallBack().values()));
       } else {
-        requestArguments.put("redirect_uris", service.getServiceContext().getRedirectUris());
+        List<String> uris = context.getRedirectUris();
+        requestArguments.put("redirect_uris", uris == null ? null : new ArrayList<String>(uris));
       }
     }
   }
@@ -16,11 +16,8 @@
 
 package org.oidc.service.base.processor;
 
-import com.auth0.msg.Key;
 import com.google.common.base.Strings;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -36,9 +33,12 @@ import org.oidc.msg.ErrorType;
 import org.oidc.msg.InvalidClaimException;
 import org.oidc.msg.ParameterVerification;
 import org.oidc.msg.SerializationException;
-import org.oidc.msg.oidc.RequestObject;
 import org.oidc.service.Service;
 import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.base.ServiceContextSnapshot;
+import org.oidc.service.data.FileRequestObjectStore;
+import org.oidc.service.data.RequestObjectCache;
+import org.oidc.service.data.RequestObjectStore;
 import org.oidc.service.util.ServiceUtil;
 
 /**
@@ -62,9 +62,21 @@ import org.oidc.service.util.ServiceUtil;
  * <p>
  * 'sig_kid' - Additional argument for searching the key from key jar.
  * </p>
+ * 
+ * <p>
+ * Request objects passed by reference are stored with the {@link RequestObjectStore} of the
+ * service context. If the service context has a {@link RequestObjectCache}, identical signed
+ * request objects are signed and stored only once, under a name derived from their content.
+ * </p>
  */
 public class AddRequestObject extends AbstractRequestArgumentProcessor {
 
+  /** The source for the random request object filenames. */
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  /** The store used when none is set to the service context. */
+  private static final RequestObjectStore DEFAULT_STORE = new FileRequestObjectStore();
+
   {
     postParamVerDefs.put("request_method", ParameterVerification.SINGLE_OPTIONAL_STRING.getValue());
     postParamVerDefs.put("request_object_signing_alg",
@@ -81,100 +93,44 @@ public class AddRequestObject extends AbstractRequestArgumentProcessor {
     if (!"request".equals(requestMethod) && !"request_uri".equals(requestMethod)) {
       return;
     }
-    String alg;
-    if (service.getPostConstructorArgs().containsKey("request_object_signing_alg")) {
-      alg = (String) service.getPostConstructorArgs().get("request_object_signing_alg");
-    } else {
-      alg = ServiceUtil.getAlgorithmFromBehavior(service, "request_object_signing_alg", 
-          "RS256");
-    }
-    Key signingKey = null;
-    if (!"none".equals(alg)) {
-      if (service.getPostConstructorArgs().containsKey("key")) {
-        signingKey = (Key) service.getPostConstructorArgs().get("key");
-      } else {
-        String keyType = service.getServiceContext().getKeyJar().algorithmToKeytypeForJWS(alg);
-        String kid = service.getPostConstructorArgs().containsKey("sig_kid")
-            ? (String) service.getPostConstructorArgs().get("sig_kid")
-            : null;
-        Map<String, String> args = new HashMap<String, String>();
-        args.put("alg", alg);
-        List<Key> keys = service.getServiceContext().getKeyJar().getSigningKey(keyType, "", kid,
-            args);
-        if (keys == null || keys.size() == 0) {
-          error.getDetails().add(new ErrorDetails("key", ErrorType.MISSING_REQUIRED_VALUE));
-          throw new RequestArgumentProcessingException(error);
-        }
-        signingKey = keys.get(0);
-      }
-    }
-    String encAlg;
-    if (service.getPostConstructorArgs().containsKey("request_object_encryption_alg")) {
-      encAlg = (String) service.getPostConstructorArgs().get("request_object_encryption_alg");
-    } else {
-      encAlg = ServiceUtil.getAlgorithmFromBehavior(service, "request_object_encryption_alg", null);
+    RequestObjectSigner signer = RequestObjectSigner.forService(service, error);
+    ServiceContextSnapshot context = service.getServiceContext().getSnapshot();
+    // Encrypted objects are not cached, the cache is keyed by the signing key only
+    RequestObjectCache cache = signer.isEncrypted() ? null : context.getRequestObjectCache();
+    String contentHash = null;
+    if (cache != null) {
+      Map<String, Object> requestObjectClaims = new HashMap<String, Object>(requestArguments);
+      requestObjectClaims.remove("request");
+      requestObjectClaims.remove("request_uri");
+      contentHash = RequestObjectCache.hash(requestObjectClaims, signer.getAlg(),
+          signer.getIssuer(), signer.getClientId());
     }
-    Key keyTransportKey = null;
-    String encEnc = null;
-    if (encAlg != null) {
-      if (service.getPostConstructorArgs().containsKey("keytransport_key")) {
-        keyTransportKey = (Key) service.getPostConstructorArgs().get("keytransport_key");
-      } else {
-        String keyType = service.getServiceContext().getKeyJar().algorithmToKeytypeForJWE(alg);
-        Map<String, String> args = new HashMap<String, String>();
-        args.put("alg", alg);
-        // For ECDH family we locate our own key
-        String keyOwner = alg.startsWith("ECDH") ? "" : service.getServiceContext().getIssuer();
-        List<Key> keys = service.getServiceContext().getKeyJar().getEncryptKey(keyType, keyOwner,
-            null, args);
-        if (keys == null || keys.size() == 0) {
-          error.getDetails()
-              .add(new ErrorDetails("keytransport_key", ErrorType.MISSING_REQUIRED_VALUE));
-          throw new RequestArgumentProcessingException(error);
-        }
-        keyTransportKey = keys.get(0);
-      }
-      if (service.getPostConstructorArgs().containsKey("request_object_encryption_enc")) {
-        encEnc = (String) service.getPostConstructorArgs().get("request_object_encryption_enc");
-      } else {
-        encEnc = ServiceUtil.getAlgorithmFromBehavior(service, "request_object_encryption_enc",
-            null);
-      }
-      if (encEnc == null) {
-        error.getDetails().add(
-            new ErrorDetails("request_object_encryption_enc", ErrorType.MISSING_REQUIRED_VALUE));
+    String requestObjectJwt = contentHash == null ? null
+        : cache.get(signer.getSigningKey(), contentHash);
+    boolean cached = requestObjectJwt != null;
+    if (!cached) {
+      try {
+        requestObjectJwt = signer.sign(requestArguments);
+      } catch (SerializationException e) {
+        error.getDetails().add(new ErrorDetails(requestMethod, ErrorType.VALUE_NOT_ALLOWED, 
+            "Not able to form jwt", e));
         throw new RequestArgumentProcessingException(error);
       }
-    }
-    // Form request object
-    Map<String, Object> requestObjectRequestArguments = new HashMap<String, Object>(
-        requestArguments);
-    // Ensure absence of request and request_uri parameters
-    requestObjectRequestArguments.remove("request");
-    requestObjectRequestArguments.remove("request_uri");
-    RequestObject requestObject = new RequestObject(requestObjectRequestArguments);
-    String requestObjectJwt;
-    try {
-      requestObjectJwt = requestObject.toJwt(signingKey, alg, keyTransportKey, encAlg, encEnc,
-          service.getServiceContext().getKeyJar(), service.getServiceContext().getIssuer(),
-          service.getServiceContext().getClientId());
-    } catch (SerializationException e) {
-      error.getDetails().add(new ErrorDetails(requestMethod, ErrorType.VALUE_NOT_ALLOWED, 
-          "Not able to form jwt", e));
-      throw new RequestArgumentProcessingException(error);
+      if (contentHash != null) {
+        cache.put(signer.getSigningKey(), contentHash, requestObjectJwt);
+      }
     }
     if ("request".equals(requestMethod)) {
       requestArguments.put("request", requestObjectJwt);
     } else {
       // is always request_uri
-      Object registeredUri = 
-          service.getServiceContext().getBehavior().getClaims().get("request_uris");
+      Object registeredUri = context.getBehavior().getClaims().get("request_uris");
       String filename;
       if (registeredUri != null && registeredUri instanceof List && 
           !Strings.isNullOrEmpty(((List<String>) registeredUri).get(0))) {
         String registeredUriStr = ((List<String>) registeredUri).get(0);
         try {
-          filename = ServiceUtil.getFilenameFromWebname(service.getServiceContext().getBaseUrl(),
+          filename = ServiceUtil.getFilenameFromWebname(context.getBaseUrl(),
               registeredUriStr);
         } catch (ValueException e) {
           error.getDetails().add(new ErrorDetails("request_uri", 
@@ -183,9 +139,7 @@ public class AddRequestObject extends AbstractRequestArgumentProcessor {
         }
         requestArguments.put("request_uri", registeredUriStr);
       } else {
-        byte[] randomBytes = new byte[10];
-        new SecureRandom(randomBytes);
-        String requestDirectory = service.getServiceContext().getRequestsDirectory();
+        String requestDirectory = context.getRequestsDirectory();
         String uriBase;
         try {
           uriBase = service.getServiceContext().generateRequestUris(requestDirectory).get(0);
@@ -194,51 +148,31 @@ public class AddRequestObject extends AbstractRequestArgumentProcessor {
               "Could not build the base URL for the request_uris", e));
           throw new RequestArgumentProcessingException(error);
         }
-        String directory = uriBase.substring(service.getServiceContext().getBaseUrl().length());
-        createDirectoryIfNotExist(directory, error);
-        filename = directory + "/" + Base64.encodeBase64URLSafeString(randomBytes) + ".jwt";
-        requestArguments.put("request_uri",
-            service.getServiceContext().getBaseUrl() + "/" + filename);
-      }
-      writeJwtToFile(filename, requestObjectJwt, error);
-    }
-  }
-  
-  protected static void createDirectoryIfNotExist(String filename, Error error) 
-      throws RequestArgumentProcessingException {
-    File file = new File(filename);
-    if (!file.exists()) {
-      if (!file.mkdir()) {
-        error.getDetails().add(new ErrorDetails("request_uri", ErrorType.VALUE_NOT_ALLOWED,
-            "Could not create a directory " + filename));
-        throw new RequestArgumentProcessingException(error);        
+        String directory = uriBase.substring(context.getBaseUrl().length());
+        String name;
+        if (contentHash != null) {
+          name = contentHash;
+        } else {
+          byte[] randomBytes = new byte[10];
+          RANDOM.nextBytes(randomBytes);
+          name = Base64.encodeBase64URLSafeString(randomBytes);
+        }
+        filename = directory + "/" + name + ".jwt";
+        requestArguments.put("request_uri", context.getBaseUrl() + "/" + filename);
       }
-    }
-  }
-  
-  protected static void writeJwtToFile(String filename, String jwt, Error error) 
-      throws RequestArgumentProcessingException {
-    File file = new File(filename);
-    if (file.exists()) {
-      if (!file.delete()) {
+      RequestObjectStore store = context.getRequestObjectStore() != null
+          ? context.getRequestObjectStore()
+          : DEFAULT_STORE;
+      try {
+        // an identical object is stored only once, a freshly signed one is not looked up first
+        if (!cached || !requestObjectJwt.equals(store.get(filename))) {
+          store.store(filename, requestObjectJwt);
+        }
+      } catch (IOException | RuntimeException e) {
         error.getDetails().add(new ErrorDetails("request_uri", ErrorType.VALUE_NOT_ALLOWED,
-            "Could not delete the existing file for JWT " + filename));
-        throw new RequestArgumentProcessingException(error);        
+            "Could not store JWT to " + filename, e));
+        throw new RequestArgumentProcessingException(error);
       }
     }
-    try {
-      file.createNewFile();
-    } catch (IOException e) {
-      error.getDetails().add(new ErrorDetails("request_uri", ErrorType.VALUE_NOT_ALLOWED,
-          "Could not create a file for JWT " + filename, e));
-      throw new RequestArgumentProcessingException(error);
-    }
-    try (FileWriter writer = new FileWriter(file)) {
-      writer.write(jwt);
-    } catch (IOException e) {
-      error.getDetails().add(new ErrorDetails("request_uri", ErrorType.VALUE_NOT_ALLOWED,
-          "Could not write JWT to file " + filename, e));
-      throw new RequestArgumentProcessingException(error);
-    }
   }
 }
@@ -21,7 +21,7 @@ import java.util.Map;
 import org.oidc.msg.Error;
 import org.oidc.service.Service;
 import org.oidc.service.base.RequestArgumentProcessingException;
-import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.ServiceContextSnapshot;
 
 /**
  * Class for adding response_type if not already set in request arguments. If response_type is not
@@ -34,7 +34,7 @@ public class AddResponseType extends AbstractRequestArgumentProcessor {
   @Override
   protected void processVerifiedArguments(Map<String, Object> requestArguments, Service service,
       Error error) throws RequestArgumentProcessingException {
-    ServiceContext context = service.getServiceContext();
+    ServiceContextSnapshot context = service.getServiceContext().getSnapshot();
     if (!requestArguments.containsKey("response_type") && context.getBehavior() != null
         && context.getBehavior().getClaims() != null) {
       String responseType = null;
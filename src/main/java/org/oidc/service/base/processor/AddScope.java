@@ -17,12 +17,12 @@
 package org.oidc.service.base.processor;
 
 import java.util.Map;
-import java.util.regex.Pattern;
 import org.oidc.msg.Error;
 import org.oidc.msg.ParameterVerificationDefinition;
 import org.oidc.msg.validator.ArrayClaimValidator;
 import org.oidc.service.Service;
 import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.util.TokenSet;
 
 /**
  * Class ensures scope arguments exists and has values openid. If needed, the scope value is created
@@ -44,7 +44,7 @@ public class AddScope extends AbstractRequestArgumentProcessor {
     } else {
       String spaceSeparatedScopes = (String) requestArguments.get("scope") == null ? ""
           : (String) requestArguments.get("scope");
-      if (!Pattern.compile("\\bopenid\\b").matcher(spaceSeparatedScopes).find()) {
+      if (!TokenSet.containsToken(spaceSeparatedScopes, "openid")) {
         spaceSeparatedScopes += spaceSeparatedScopes.length() > 0 ? " openid" : "openid";
         requestArguments.put("scope", spaceSeparatedScopes);
       }
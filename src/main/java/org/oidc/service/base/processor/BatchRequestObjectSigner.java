@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base.processor;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.oidc.msg.Error;
+import org.oidc.service.Service;
+import org.oidc.service.base.RequestArgumentProcessingException;
+
+/**
+ * Signs and optionally encrypts many request objects in parallel, for instance for generating
+ * login links in bulk. The keys are resolved once per batch with
+ * {@link RequestObjectSigner#forService(Service, Error)} and the objects are signed on a fork-join
+ * pool with a fixed parallelism.
+ */
+public class BatchRequestObjectSigner implements Closeable {
+
+  /** The pool the request objects are signed on. */
+  private final ForkJoinPool pool;
+
+  /**
+   * Constructor.
+   * 
+   * @param parallelism
+   *          the maximum number of request objects signed at the same time
+   */
+  public BatchRequestObjectSigner(int parallelism) {
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Signs the request objects with the keys resolved for the service.
+   * 
+   * @param service
+   *          the service, its post constructor arguments and service context are used for
+   *          resolving the keys
+   * @param claimSets
+   *          the claims of the request objects
+   * @return the request objects as JWTs, in the order of the claim sets. A future fails with a
+   *         {@link org.oidc.msg.SerializationException} if its object cannot be signed.
+   * @throws RequestArgumentProcessingException
+   *           if the keys cannot be resolved
+   */
+  public List<Future<String>> sign(Service service, List<Map<String, Object>> claimSets)
+      throws RequestArgumentProcessingException {
+    return sign(RequestObjectSigner.forService(service, new Error()), claimSets);
+  }
+
+  /**
+   * Signs the request objects with the given signer.
+   * 
+   * @param signer
+   *          the signer with the resolved keys
+   * @param claimSets
+   *          the claims of the request objects
+   * @return the request objects as JWTs, in the order of the claim sets. A future fails with a
+   *         {@link org.oidc.msg.SerializationException} if its object cannot be signed.
+   */
+  public List<Future<String>> sign(final RequestObjectSigner signer,
+      List<Map<String, Object>> claimSets) {
+    List<Future<String>> futures = new ArrayList<Future<String>>(claimSets.size());
+    for (final Map<String, Object> claims : claimSets) {
+      futures.add(pool.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          return signer.sign(claims);
+        }
+      }));
+    }
+    return futures;
+  }
+
+  /**
+   * Stops the pool after the submitted request objects are signed.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+}
@@ -18,13 +18,13 @@ package org.oidc.service.base.processor;
 
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 import org.oidc.msg.DataLocation;
 import org.oidc.msg.Error;
 import org.oidc.msg.ParameterVerification;
 import org.oidc.service.Service;
 import org.oidc.service.base.RequestArgumentProcessingException;
-import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.ServiceContextSnapshot;
+import org.oidc.service.util.TokenSet;
 
 /**
  * Class for picking redirect uri. If value is defined already in request arguments, nothing is
@@ -54,7 +54,7 @@ public class PickRedirectUri extends AbstractRequestArgumentProcessor {
     if (requestArguments.containsKey("redirect_uri")) {
       return;
     }
-    ServiceContext context = service.getServiceContext();
+    ServiceContextSnapshot context = service.getServiceContext().getSnapshot();
     if (context.getCallBack() == null) {
       if (context.getRedirectUris() != null && !context.getRedirectUris().isEmpty()) {
         requestArguments.put("redirect_uri", context.getRedirectUris().get(0));
@@ -77,7 +77,7 @@ public class PickRedirectUri extends AbstractRequestArgumentProcessor {
       // We resolve the redirect uri by default response type
       responseType = "code";
     }
-    if (Pattern.compile("\\bcode\\b").matcher(responseType).find()
+    if (TokenSet.containsToken(responseType, "code")
         && context.getCallBack().get(DataLocation.QUERY_STRING) != null) {
       requestArguments.put("redirect_uri", context.getCallBack().get(DataLocation.QUERY_STRING));
     } else if (context.getCallBack().get(DataLocation.FRAGMENT) != null) {
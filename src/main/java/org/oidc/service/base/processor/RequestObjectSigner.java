@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base.processor;
+
+import com.auth0.msg.Key;
+import com.auth0.msg.KeyJar;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.oidc.common.ServiceName;
+import org.oidc.msg.Error;
+import org.oidc.msg.ErrorDetails;
+import org.oidc.msg.ErrorType;
+import org.oidc.msg.SerializationException;
+import org.oidc.msg.oidc.RequestObject;
+import org.oidc.service.Service;
+import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.base.ServiceContextSnapshot;
+import org.oidc.service.metrics.ServiceEventListener;
+import org.oidc.service.metrics.ServiceEventType;
+import org.oidc.service.metrics.ServiceEvents;
+import org.oidc.service.util.ServiceUtil;
+
+/**
+ * Signs and optionally encrypts request objects with keys and algorithms resolved once. The keys
+ * are resolved from the post constructor arguments of a service and its key jar, as documented in
+ * {@link AddRequestObject}. A signer is immutable and can be used for any number of request
+ * objects from any number of threads, see {@link BatchRequestObjectSigner}.
+ */
+public class RequestObjectSigner {
+
+  /** The key jar of the client. */
+  private final KeyJar keyJar;
+
+  /** The signing key, null for alg none. */
+  private final Key signingKey;
+
+  /** The signing algorithm. */
+  private final String alg;
+
+  /** The key transport key, null if not encrypted. */
+  private final Key keyTransportKey;
+
+  /** The key transport algorithm, null if not encrypted. */
+  private final String encAlg;
+
+  /** The content encryption algorithm, null if not encrypted. */
+  private final String encEnc;
+
+  /** The issuer the request objects are meant for. */
+  private final String issuer;
+
+  /** The client id. */
+  private final String clientId;
+
+  /** The name of the service the objects are signed for, used in the events. */
+  private final ServiceName serviceName;
+
+  /**
+   * Constructor.
+   * 
+   * @param keyJar
+   *          the key jar of the client
+   * @param signingKey
+   *          the signing key, null for alg none
+   * @param alg
+   *          the signing algorithm
+   * @param keyTransportKey
+   *          the key transport key, null if not encrypted
+   * @param encAlg
+   *          the key transport algorithm, null if not encrypted
+   * @param encEnc
+   *          the content encryption algorithm, null if not encrypted
+   * @param issuer
+   *          the issuer the request objects are meant for
+   * @param clientId
+   *          the client id
+   * @param serviceName
+   *          the name of the service the objects are signed for, used in the events
+   */
+  public RequestObjectSigner(KeyJar keyJar, Key signingKey, String alg, Key keyTransportKey,
+      String encAlg, String encEnc, String issuer, String clientId, ServiceName serviceName) {
+    this.keyJar = keyJar;
+    this.signingKey = signingKey;
+    this.alg = alg;
+    this.keyTransportKey = keyTransportKey;
+    this.encAlg = encAlg;
+    this.encEnc = encEnc;
+    this.issuer = issuer;
+    this.clientId = clientId;
+    this.serviceName = serviceName;
+  }
+
+  /**
+   * Resolves the keys and algorithms for the request objects of the service.
+   * 
+   * @param service
+   *          the service, its post constructor arguments and service context are used
+   * @param error
+   *          the error the details are added to if the keys cannot be resolved
+   * @return the signer
+   * @throws RequestArgumentProcessingException
+   *           if a signing or key transport key or the content encryption algorithm is missing
+   */
+  public static RequestObjectSigner forService(Service service, Error error)
+      throws RequestArgumentProcessingException {
+    Map<String, Object> args = service.getPostConstructorArgs();
+    ServiceContextSnapshot context = service.getServiceContext().getSnapshot();
+    ServiceEventListener listener = ServiceEvents.getListener();
+    String issuer = context.getIssuer();
+    String alg;
+    if (args.containsKey("request_object_signing_alg")) {
+      alg = (String) args.get("request_object_signing_alg");
+    } else {
+      alg = ServiceUtil.getAlgorithmFromBehavior(service, "request_object_signing_alg", 
+          "RS256");
+    }
+    Key signingKey = null;
+    if (!"none".equals(alg)) {
+      if (args.containsKey("key")) {
+        signingKey = (Key) args.get("key");
+      } else {
+        String keyType = context.getKeyJar().algorithmToKeytypeForJWS(alg);
+        String kid = args.containsKey("sig_kid") ? (String) args.get("sig_kid") : null;
+        Map<String, String> keyArgs = new HashMap<String, String>();
+        keyArgs.put("alg", alg);
+        long start = listener != null ? System.nanoTime() : 0L;
+        List<Key> keys = context.getKeyJar().getSigningKey(keyType, "", kid, keyArgs);
+        if (listener != null) {
+          ServiceEvents.emit(listener, ServiceEventType.KEY_LOOKUP, service.getServiceName(),
+              issuer, start, keys != null && !keys.isEmpty(), alg);
+        }
+        if (keys == null || keys.size() == 0) {
+          error.getDetails().add(new ErrorDetails("key", ErrorType.MISSING_REQUIRED_VALUE));
+          throw new RequestArgumentProcessingException(error);
+        }
+        signingKey = keys.get(0);
+      }
+    }
+    String encAlg;
+    if (args.containsKey("request_object_encryption_alg")) {
+      encAlg = (String) args.get("request_object_encryption_alg");
+    } else {
+      encAlg = ServiceUtil.getAlgorithmFromBehavior(service, "request_object_encryption_alg", null);
+    }
+    Key keyTransportKey = null;
+    String encEnc = null;
+    if (encAlg != null) {
+      if (args.containsKey("keytransport_key")) {
+        keyTransportKey = (Key) args.get("keytransport_key");
+      } else {
+        String keyType = context.getKeyJar().algorithmToKeytypeForJWE(alg);
+        Map<String, String> keyArgs = new HashMap<String, String>();
+        keyArgs.put("alg", alg);
+        // For ECDH family we locate our own key
+        String keyOwner = alg.startsWith("ECDH") ? "" : context.getIssuer();
+        long start = listener != null ? System.nanoTime() : 0L;
+        List<Key> keys = context.getKeyJar().getEncryptKey(keyType, keyOwner, null, keyArgs);
+        if (listener != null) {
+          ServiceEvents.emit(listener, ServiceEventType.KEY_LOOKUP, service.getServiceName(),
+              issuer, start, keys != null && !keys.isEmpty(), alg);
+        }
+        if (keys == null || keys.size() == 0) {
+          error.getDetails()
+              .add(new ErrorDetails("keytransport_key", ErrorType.MISSING_REQUIRED_VALUE));
+          throw new RequestArgumentProcessingException(error);
+        }
+        keyTransportKey = keys.get(0);
+      }
+      if (args.containsKey("request_object_encryption_enc")) {
+        encEnc = (String) args.get("request_object_encryption_enc");
+      } else {
+        encEnc = ServiceUtil.getAlgorithmFromBehavior(service, "request_object_encryption_enc",
+            null);
+      }
+      if (encEnc == null) {
+        error.getDetails().add(
+            new ErrorDetails("request_object_encryption_enc", ErrorType.MISSING_REQUIRED_VALUE));
+        throw new RequestArgumentProcessingException(error);
+      }
+    }
+    return new RequestObjectSigner(context.getKeyJar(), signingKey, alg, keyTransportKey, encAlg,
+        encEnc, context.getIssuer(), context.getClientId(), service.getServiceName());
+  }
+
+  /**
+   * Signs, and encrypts if configured, a request object. The request and request_uri claims are
+   * left out.
+   * 
+   * @param claims
+   *          the claims of the request object, not modified
+   * @return the request object as JWT
+   * @throws SerializationException
+   *           if the request object cannot be signed or encrypted
+   */
+  public String sign(Map<String, Object> claims) throws SerializationException {
+    Map<String, Object> requestObjectClaims = new HashMap<String, Object>(claims);
+    // Ensure absence of request and request_uri parameters
+    requestObjectClaims.remove("request");
+    requestObjectClaims.remove("request_uri");
+    RequestObject requestObject = new RequestObject(requestObjectClaims);
+    ServiceEventListener listener = ServiceEvents.getListener();
+    long start = listener != null ? System.nanoTime() : 0L;
+    try {
+      String jwt = requestObject.toJwt(signingKey, alg, keyTransportKey, encAlg, encEnc, keyJar,
+          issuer, clientId);
+      if (listener != null) {
+        ServiceEvents.emit(listener, ServiceEventType.JWT_SIGNING, serviceName, issuer, start,
+            true, alg);
+      }
+      return jwt;
+    } catch (SerializationException e) {
+      if (listener != null) {
+        ServiceEvents.emit(listener, ServiceEventType.JWT_SIGNING, serviceName, issuer, start,
+            false, alg);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Whether the request objects are encrypted.
+   * 
+   * @return true if encrypted, false if only signed
+   */
+  public boolean isEncrypted() {
+    return encAlg != null;
+  }
+
+  public Key getSigningKey() {
+    return signingKey;
+  }
+
+  public String getAlg() {
+    return alg;
+  }
+
+  public String getIssuer() {
+    return issuer;
+  }
+
+  public String getClientId() {
+    return clientId;
+  }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link RequestObjectStore} writing the request objects to files on a background thread, so that
+ * the request thread does not wait for the file system. The files are written as in
+ * {@link FileRequestObjectStore}: to a temporary file that is moved over the target.
+ *
+ * <p>
+ * The writer takes the queued objects in batches. All the temporary files of a batch are written
+ * first, then forced to the storage device if requested, and only then moved in place, so that a
+ * single batch costs one round of synchronization instead of one per object.
+ * </p>
+ *
+ * <p>
+ * The objects are served from memory while they are queued, and from a bounded cache of recently
+ * stored or read objects after that, so that the provider fetching a request_uri right after the
+ * authorization request does not depend on the write having completed. Write failures are counted
+ * and reported by the next {@link #flush()}. As the request_uri of an object may already have been
+ * sent to the provider, an object that could not be written is kept in the cache of recent objects
+ * as well, and served from memory until it is evicted. If the writer thread stops, the objects
+ * still queued are failed and the later calls fail fast instead of waiting for it.
+ * </p>
+ */
+public class AsyncFileRequestObjectStore implements RequestObjectStore, Closeable {
+
+  /** The queued objects that are not yet written, keyed by filename. */
+  private final ConcurrentMap<String, String> pending = new ConcurrentHashMap<String, String>();
+
+  /** The recently written, failed or read objects, keyed by filename. */
+  private final Cache<String, String> recent;
+
+  /** The queue of writes and flush markers for the writer thread. */
+  private final BlockingQueue<Write> queue;
+
+  /** The maximum number of objects written in one batch. */
+  private final int maxBatchSize;
+
+  /** Whether the files are forced to the storage device before they are moved in place. */
+  private final boolean sync;
+
+  /** The background writer. */
+  private final Thread writer;
+
+  /** The first write failure since the previous flush. */
+  private final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+  /** The number of failed writes. */
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /** The number of written batches. */
+  private final AtomicLong batchCount = new AtomicLong();
+
+  /** Whether the store has been closed. */
+  private volatile boolean closed;
+
+  /** The reason the writer thread stopped, null while it is running. */
+  private volatile IOException stopped;
+
+  /**
+   * Constructor.
+   * 
+   * @param queueCapacity
+   *          the maximum number of queued objects, storing blocks when the queue is full
+   * @param maxBatchSize
+   *          the maximum number of objects written in one batch
+   * @param cacheSize
+   *          the maximum number of recently stored or read objects kept in memory
+   * @param sync
+   *          whether the files are forced to the storage device before they are moved in place
+   */
+  public AsyncFileRequestObjectStore(int queueCapacity, int maxBatchSize, long cacheSize,
+      boolean sync) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be positive");
+    }
+    this.queue = new LinkedBlockingQueue<Write>(queueCapacity);
+    this.maxBatchSize = maxBatchSize;
+    this.sync = sync;
+    this.recent = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeQueued();
+      }
+    }, "request-object-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Queues the request object to be written. It can be read with {@link #get(String)} immediately.
+   * 
+   * @throws IOException
+   *           if the store is closed or the thread is interrupted while waiting for queue space
+   */
+  @Override
+  public void store(String filename, String jwt) throws IOException {
+    if (closed) {
+      throw new IOException("The request object store is closed");
+    }
+    Path target = Paths.get(filename).toAbsolutePath();
+    pending.put(filename, jwt);
+    try {
+      enqueue(new Write(filename, target, jwt, null));
+      checkWriter();
+    } catch (IOException e) {
+      pending.remove(filename, jwt);
+      throw e;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String get(String filename) throws IOException {
+    String jwt = pending.get(filename);
+    if (jwt == null) {
+      jwt = recent.getIfPresent(filename);
+    }
+    if (jwt == null) {
+      jwt = new FileRequestObjectStore().get(filename);
+      if (jwt != null) {
+        recent.put(filename, jwt);
+      }
+    }
+    return jwt;
+  }
+
+  /**
+   * Waits until the objects queued before this call are written.
+   * 
+   * @throws IOException
+   *           if a write failed since the previous flush, the writer thread has stopped or the
+   *           thread was interrupted
+   */
+  public void flush() throws IOException {
+    CountDownLatch latch = new CountDownLatch(1);
+    enqueue(new Write(null, null, null, latch));
+    checkWriter();
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the writes", e);
+    }
+    IOException e = failure.getAndSet(null);
+    if (e != null) {
+      throw e;
+    }
+    checkWriter();
+  }
+
+  /**
+   * Writes the queued objects and stops the writer thread.
+   * 
+   * @throws IOException
+   *           if a write failed since the previous flush
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      flush();
+    } finally {
+      writer.interrupt();
+    }
+  }
+
+  /**
+   * Get the number of queued objects not yet written.
+   * 
+   * @return the number of pending objects
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Get the number of objects that could not be written.
+   * 
+   * @return the number of failed writes
+   */
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  /**
+   * Get the number of batches written.
+   * 
+   * @return the number of batches
+   */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  private void enqueue(Write write) throws IOException {
+    try {
+      queue.put(write);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for queue space", e);
+    }
+  }
+
+  /**
+   * Fails fast if the writer thread has stopped. The writes queued after it stopped are failed, so
+   * that no flush waits for them.
+   */
+  private void checkWriter() throws IOException {
+    IOException e = stopped;
+    if (e != null) {
+      List<Write> remaining = new ArrayList<Write>();
+      queue.drainTo(remaining);
+      abandon(remaining);
+      throw e;
+    }
+  }
+
+  private void writeQueued() {
+    List<Write> batch = new ArrayList<Write>(maxBatchSize);
+    Throwable cause = null;
+    try {
+      while (true) {
+        try {
+          batch.add(queue.take());
+        } catch (InterruptedException e) {
+          return;
+        }
+        queue.drainTo(batch, maxBatchSize - 1);
+        writeBatch(batch);
+        batch.clear();
+      }
+    } catch (RuntimeException | Error e) {
+      cause = e;
+      throw e;
+    } finally {
+      // set before draining, so that a write queued after the drain sees it in checkWriter
+      stopped = new IOException("The request object writer has stopped", cause);
+      List<Write> remaining = new ArrayList<Write>(batch);
+      queue.drainTo(remaining);
+      abandon(remaining);
+    }
+  }
+
+  /**
+   * Fails the writes that will not be written and releases the flushes waiting for them.
+   */
+  private void abandon(List<Write> writes) {
+    for (Write write : writes) {
+      if (write.flushed != null) {
+        write.flushed.countDown();
+      } else if (keepInMemory(write)) {
+        failedCount.incrementAndGet();
+        failure.compareAndSet(null, new IOException("Could not write the request object "
+            + write.filename + ", the writer has stopped"));
+      }
+    }
+  }
+
+  private void writeBatch(List<Write> batch) {
+    List<Path> temporaries = new ArrayList<Path>(batch.size());
+    for (Write write : batch) {
+      Path temporary = null;
+      if (write.filename != null) {
+        try {
+          temporary = FileRequestObjectStore.writeTemporary(write.target, write.jwt, false);
+        } catch (IOException | RuntimeException e) {
+          fail(write, e);
+        }
+      }
+      temporaries.add(temporary);
+    }
+    if (sync) {
+      for (int i = 0; i < batch.size(); i++) {
+        if (temporaries.get(i) != null) {
+          try {
+            FileRequestObjectStore.force(temporaries.get(i));
+          } catch (IOException | RuntimeException e) {
+            fail(batch.get(i), e);
+            temporaries.set(i, null);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      Write write = batch.get(i);
+      if (temporaries.get(i) != null) {
+        try {
+          FileRequestObjectStore.moveInPlace(temporaries.get(i), write.target);
+          recent.put(write.filename, write.jwt);
+          pending.remove(write.filename, write.jwt);
+        } catch (IOException | RuntimeException e) {
+          fail(write, e);
+        }
+      } else if (write.flushed != null) {
+        write.flushed.countDown();
+      }
+    }
+    batchCount.incrementAndGet();
+  }
+
+  private void fail(Write write, Exception e) {
+    keepInMemory(write);
+    failedCount.incrementAndGet();
+    failure.compareAndSet(null, new IOException("Could not write the request object "
+        + write.filename, e));
+  }
+
+  /**
+   * Moves an object that will not be written from the pending ones to the recent ones, so that it
+   * can still be served to the provider.
+   * 
+   * @return false if the object was no longer pending
+   */
+  private boolean keepInMemory(Write write) {
+    recent.put(write.filename, write.jwt);
+    return pending.remove(write.filename, write.jwt);
+  }
+
+  /**
+   * A queued request object, or a flush marker if the filename is null.
+   */
+  private static final class Write {
+
+    private final String filename;
+
+    private final Path target;
+
+    private final String jwt;
+
+    private final CountDownLatch flushed;
+
+    private Write(String filename, Path target, String jwt, CountDownLatch flushed) {
+      this.filename = filename;
+      this.target = target;
+      this.jwt = jwt;
+      this.flushed = flushed;
+    }
+  }
+}
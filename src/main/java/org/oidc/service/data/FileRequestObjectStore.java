@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link RequestObjectStore} writing the request objects to files on the calling thread. The
+ * filename is used as the path of the file, the missing parent directories are created. Each object
+ * is written to a temporary file in the same directory which is then moved over the target, so that
+ * a reader never sees a partially written object.
+ */
+public class FileRequestObjectStore implements RequestObjectStore {
+
+  /** Whether the files are forced to the storage device before they are moved in place. */
+  private final boolean sync;
+
+  /**
+   * Constructor. The files are not forced to the storage device.
+   */
+  public FileRequestObjectStore() {
+    this(false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param sync
+   *          whether the files are forced to the storage device before they are moved in place
+   */
+  public FileRequestObjectStore(boolean sync) {
+    this.sync = sync;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void store(String filename, String jwt) throws IOException {
+    Path target = Paths.get(filename).toAbsolutePath();
+    moveInPlace(writeTemporary(target, jwt, sync), target);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String get(String filename) throws IOException {
+    try {
+      return new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes the request object into a new temporary file in the directory of the target, creating
+   * the directory if needed.
+   * 
+   * @param target
+   *          the absolute path of the request object
+   * @param jwt
+   *          the request object
+   * @param sync
+   *          whether the file is forced to the storage device
+   * @return the path of the temporary file
+   * @throws IOException
+   *           if the file cannot be written
+   */
+  static Path writeTemporary(Path target, String jwt, boolean sync) throws IOException {
+    Path directory = target.getParent();
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(jwt.getBytes(StandardCharsets.UTF_8));
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      if (sync) {
+        channel.force(true);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(temporary);
+      throw e;
+    }
+    return temporary;
+  }
+
+  /**
+   * Forces the content of a file written earlier to the storage device.
+   * 
+   * @param path
+   *          the file
+   * @throws IOException
+   *           if the file cannot be forced
+   */
+  static void force(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+  }
+
+  /**
+   * Moves the temporary file over the target, atomically if supported by the file system.
+   * 
+   * @param temporary
+   *          the temporary file
+   * @param target
+   *          the path of the request object
+   * @throws IOException
+   *           if the file cannot be moved, in which case the temporary file is deleted
+   */
+  static void moveInPlace(Path temporary, Path target) throws IOException {
+    try {
+      try {
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(temporary);
+      throw e;
+    }
+  }
+}
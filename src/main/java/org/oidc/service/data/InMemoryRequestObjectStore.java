@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.common.ValueException;
+import org.oidc.service.util.ServiceUtil;
+
+/**
+ * A {@link RequestObjectStore} keeping the request objects in memory, so that they can be served
+ * for their request_uri without a file system. The objects expire after a fixed time from storing
+ * them, and the number of kept objects is bounded.
+ *
+ * <p>
+ * If a persistent store is given, the objects are also written to it and read from it after they
+ * have been evicted from memory. Without one, nothing is left to clean up after the objects expire.
+ * </p>
+ */
+public class InMemoryRequestObjectStore implements RequestObjectStore {
+
+  /** The request objects, keyed by filename. */
+  private final Cache<String, String> objects;
+
+  /** The persistent store, null if the objects are only kept in memory. */
+  private final RequestObjectStore persistentStore;
+
+  /**
+   * Constructor.
+   * 
+   * @param maximumSize
+   *          the maximum number of request objects kept
+   * @param ttl
+   *          the time a request object is kept for
+   * @param unit
+   *          the unit of the time
+   */
+  public InMemoryRequestObjectStore(long maximumSize, long ttl, TimeUnit unit) {
+    this(maximumSize, ttl, unit, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param maximumSize
+   *          the maximum number of request objects kept in memory
+   * @param ttl
+   *          the time a request object is kept in memory for
+   * @param unit
+   *          the unit of the time
+   * @param persistentStore
+   *          the store the objects are also written to, null if not used
+   */
+  public InMemoryRequestObjectStore(long maximumSize, long ttl, TimeUnit unit,
+      RequestObjectStore persistentStore) {
+    this(maximumSize, ttl, unit, persistentStore, Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param maximumSize
+   *          the maximum number of request objects kept in memory
+   * @param ttl
+   *          the time a request object is kept in memory for
+   * @param unit
+   *          the unit of the time
+   * @param persistentStore
+   *          the store the objects are also written to, null if not used
+   * @param ticker
+   *          the time source for the expiration
+   */
+  InMemoryRequestObjectStore(long maximumSize, long ttl, TimeUnit unit,
+      RequestObjectStore persistentStore, Ticker ticker) {
+    this.objects = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl, unit)
+        .ticker(ticker).build();
+    this.persistentStore = persistentStore;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void store(String filename, String jwt) throws IOException {
+    if (persistentStore != null) {
+      persistentStore.store(filename, jwt);
+    }
+    objects.put(filename, jwt);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String get(String filename) throws IOException {
+    String jwt = objects.getIfPresent(filename);
+    if (jwt == null && persistentStore != null) {
+      jwt = persistentStore.get(filename);
+    }
+    return jwt;
+  }
+
+  /**
+   * Gets a stored request object by its request_uri. Only the objects under the requests directory
+   * are served: request_uris resolving outside of it, or having empty, '.' or '..' segments or
+   * backslashes in their path, are not accepted.
+   * 
+   * @param baseUrl
+   *          the base URL of the client, as in the service context
+   * @param requestsDirectory
+   *          the directory of the request objects, as in the service context
+   * @param requestUri
+   *          the request_uri of the request object
+   * @return the request object, null if not existing or the request_uri is not a request object
+   *         under the base URL and the requests directory
+   * @throws IOException
+   *           if the request object cannot be read from the persistent store
+   */
+  public String getByRequestUri(String baseUrl, String requestsDirectory, String requestUri)
+      throws IOException {
+    String filename;
+    try {
+      filename = ServiceUtil.getFilenameFromWebname(baseUrl, requestUri);
+    } catch (ValueException e) {
+      return null;
+    }
+    return isInDirectory(requestsDirectory, filename) ? get(filename) : null;
+  }
+
+  /**
+   * Checks that the filename names a file under the directory. The request object filenames are
+   * built with a leading separator, which is ignored here as it is in the request_uri.
+   */
+  private static boolean isInDirectory(String directory, String filename) {
+    String relative = filename.startsWith("/") ? filename.substring(1) : filename;
+    if (relative.isEmpty() || relative.indexOf('\\') >= 0) {
+      return false;
+    }
+    for (String segment : relative.split("/", -1)) {
+      if (segment.isEmpty() || ".".equals(segment) || "..".equals(segment)) {
+        return false;
+      }
+    }
+    try {
+      Path root = Paths.get("/").toAbsolutePath();
+      Path base = root.resolve(directory.startsWith("/") ? directory.substring(1) : directory)
+          .normalize();
+      Path path = root.resolve(relative).normalize();
+      return path.startsWith(base) && path.getNameCount() > base.getNameCount();
+    } catch (InvalidPathException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Removes a request object from memory, for instance after it has been served.
+   * 
+   * @param filename
+   *          the name of the request object
+   */
+  public void remove(String filename) {
+    objects.invalidate(filename);
+  }
+
+  /**
+   * Get the number of request objects in memory, including the expired ones not yet removed.
+   * 
+   * @return the number of request objects
+   */
+  public long size() {
+    return objects.size();
+  }
+}
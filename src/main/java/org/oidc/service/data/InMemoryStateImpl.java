@@ -17,9 +17,13 @@
 package org.oidc.service.data;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.codec.binary.Base64;
 import org.oidc.common.MessageType;
@@ -30,6 +34,9 @@ import org.oidc.msg.oidc.AuthenticationResponse;
 import org.oidc.msg.oidc.IDToken;
 import org.oidc.msg.oidc.OpenIDSchema;
 import org.oidc.msg.oidc.RefreshAccessTokenRequest;
+import org.oidc.service.metrics.ServiceEventListener;
+import org.oidc.service.metrics.ServiceEventType;
+import org.oidc.service.metrics.ServiceEvents;
 
 /** In memory implementation of State database. */
 public class InMemoryStateImpl implements State {
@@ -38,12 +45,25 @@ public class InMemoryStateImpl implements State {
   private Map<String, StateRecord> records = new HashMap<String, StateRecord>();
   /** Maps nonce values to state values. */
   private Map<String, String> nonceToState = new HashMap<String, String>();
+  /** Maps the issuer and sid of the verified ID tokens to state values. */
+  private Map<String, Set<String>> sidToStates = new HashMap<String, Set<String>>();
+  /** Maps the issuer and sub of the verified ID tokens to state values. */
+  private Map<String, Set<String>> subToStates = new HashMap<String, Set<String>>();
 
   @Override
   public StateRecord getState(String stateKey) {
     return records.get(stateKey);
   }
 
+  /**
+   * Get the number of state records, e.g. for following the size of the database under load.
+   * 
+   * @return The number of state records.
+   */
+  public int getRecordCount() {
+    return records.size();
+  }
+
   /**
    * Verify message instance is of expected type.
    * 
@@ -73,19 +93,38 @@ public class InMemoryStateImpl implements State {
 
   @Override
   public boolean storeItem(Message message, String stateKey, MessageType messageType) {
+    ServiceEventListener listener = ServiceEvents.getListener();
+    long start = listener != null ? System.nanoTime() : 0L;
     StateRecord record = records.get(stateKey);
-    if (record == null || !verifyMessageType(message, messageType)) {
-      return false;
+    boolean stored = false;
+    if (record != null && verifyMessageType(message, messageType)) {
+      Object previous = record.getClaims().put(messageType.name(), message);
+      if (MessageType.VERIFIED_IDTOKEN.equals(messageType)) {
+        updateIndex(previous, stateKey, record, false);
+        updateIndex(message, stateKey, record, true);
+      }
+      stored = true;
     }
-    record.getClaims().put(messageType.name(), message);
-    return true;
+    if (listener != null) {
+      ServiceEvents.emit(listener, ServiceEventType.STATE_STORE, null,
+          record != null ? (String) record.getClaims().get("iss") : null, start, stored,
+          "storeItem " + messageType);
+    }
+    return stored;
   }
 
   @Override
   public Message getItem(String stateKey, MessageType messageType) {
-    return records.get(stateKey) != null
-        ? (Message) records.get(stateKey).getClaims().get(messageType.name())
-        : null;
+    ServiceEventListener listener = ServiceEvents.getListener();
+    long start = listener != null ? System.nanoTime() : 0L;
+    StateRecord record = records.get(stateKey);
+    Message item = record != null ? (Message) record.getClaims().get(messageType.name()) : null;
+    if (listener != null) {
+      ServiceEvents.emit(listener, ServiceEventType.STATE_STORE, null,
+          record != null ? (String) record.getClaims().get("iss") : null, start, item != null,
+          "getItem " + messageType);
+    }
+    return item;
   }
 
   @Override
@@ -139,8 +178,98 @@ public class InMemoryStateImpl implements State {
     }
     Map<String, Object> claims = new HashMap<String, Object>();
     claims.put("iss", issuer);
+    claims.put(StateRecord.CREATED_AT, System.currentTimeMillis() / 1000);
     records.put(state, new StateRecord(claims));
     return state;
   }
 
+  @Override
+  public List<String> getStateKeysBySid(String issuer, String sid) {
+    return getIndexed(sidToStates, issuer, sid);
+  }
+
+  @Override
+  public List<String> getStateKeysBySub(String issuer, String sub) {
+    return getIndexed(subToStates, issuer, sub);
+  }
+
+  @Override
+  public boolean removeStateRecord(String stateKey) {
+    StateRecord record = records.remove(stateKey);
+    if (record == null) {
+      return false;
+    }
+    updateIndex(record.getClaims().get(MessageType.VERIFIED_IDTOKEN.name()), stateKey, record,
+        false);
+    for (MessageType messageType : new MessageType[] { MessageType.AUTHORIZATION_REQUEST,
+        MessageType.VERIFIED_IDTOKEN }) {
+      Object item = record.getClaims().get(messageType.name());
+      if (item instanceof Message) {
+        Object nonce = ((Message) item).getClaims().get("nonce");
+        if (nonce != null && stateKey.equals(nonceToState.get(nonce))) {
+          nonceToState.remove(nonce);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds or removes the index entries of the verified ID token for the state.
+   * 
+   * @param idToken
+   *          The verified ID token, ignored if not a message.
+   * @param stateKey
+   *          The key of the state the ID token is stored to.
+   * @param record
+   *          The state record, its issuer is used if the ID token has none.
+   * @param add
+   *          Whether the entries are added, otherwise they are removed.
+   */
+  private void updateIndex(Object idToken, String stateKey, StateRecord record, boolean add) {
+    if (!(idToken instanceof Message)) {
+      return;
+    }
+    Map<String, Object> claims = ((Message) idToken).getClaims();
+    Object issuer = claims.get("iss") != null ? claims.get("iss") : record.getClaims().get("iss");
+    updateIndex(sidToStates, issuer, claims.get("sid"), stateKey, add);
+    updateIndex(subToStates, issuer, claims.get("sub"), stateKey, add);
+  }
+
+  private static void updateIndex(Map<String, Set<String>> index, Object issuer, Object value,
+      String stateKey, boolean add) {
+    if (issuer == null || value == null) {
+      return;
+    }
+    String key = toIndexKey(issuer.toString(), value.toString());
+    Set<String> stateKeys = index.get(key);
+    if (add) {
+      if (stateKeys == null) {
+        stateKeys = new LinkedHashSet<String>();
+        index.put(key, stateKeys);
+      }
+      stateKeys.add(stateKey);
+    } else if (stateKeys != null) {
+      stateKeys.remove(stateKey);
+      if (stateKeys.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+
+  private static List<String> getIndexed(Map<String, Set<String>> index, String issuer,
+      String value) {
+    if (issuer == null || value == null) {
+      return Collections.emptyList();
+    }
+    Set<String> stateKeys = index.get(toIndexKey(issuer, value));
+    return stateKeys == null ? Collections.<String>emptyList()
+        : new ArrayList<String>(stateKeys);
+  }
+
+  /** The issuer is a URL and cannot contain a space, so the key is unambiguous. */
+  private static String toIndexKey(String issuer, String value) {
+    return issuer + " " + value;
+  }
+
 }
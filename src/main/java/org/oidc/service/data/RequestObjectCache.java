@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Caches signed request objects by the hash of their content, so that identical request objects
+ * are signed, and stored for their request_uri, only once.
+ *
+ * <p>
+ * The content hash is computed from the claims serialized as JSON with the map entries ordered by
+ * key, the signing algorithm, the issuer and the client id. The signed objects are cached per
+ * signing key instance, so that a new key never gets an object signed with the previous one. The
+ * hash is URL safe and is also used as the name of the stored request object.
+ * </p>
+ */
+public class RequestObjectCache {
+
+  /** The mapper producing the canonical form of the claims. */
+  private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  /** The cache key used for the unsigned request objects. */
+  private static final Object NO_KEY = new Object();
+
+  /** The signed objects keyed by content hash, per signing key instance. */
+  private final Cache<Object, Cache<String, String>> signed = CacheBuilder.newBuilder()
+      .weakKeys().build();
+
+  /** The maximum number of cached objects per signing key. */
+  private final long maximumSize;
+
+  /**
+   * Constructor.
+   * 
+   * @param maximumSize
+   *          the maximum number of cached objects per signing key
+   */
+  public RequestObjectCache(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Computes the content hash of a request object.
+   * 
+   * @param claims
+   *          the claims of the request object
+   * @param alg
+   *          the signing algorithm
+   * @param issuer
+   *          the issuer the object is meant for
+   * @param clientId
+   *          the client id
+   * @return the URL safe content hash, or null if the claims cannot be serialized
+   */
+  public static String hash(Map<String, Object> claims, String alg, String issuer,
+      String clientId) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+      digest.update(CANONICAL_MAPPER.writeValueAsBytes(claims));
+    } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+      return null;
+    }
+    for (String value : new String[] { alg, issuer, clientId }) {
+      // the separator keeps the values from running into each other
+      digest.update((byte) 0);
+      if (value != null) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return Base64.encodeBase64URLSafeString(digest.digest());
+  }
+
+  /**
+   * Gets a signed request object.
+   * 
+   * @param signingKey
+   *          the signing key instance, null if the object is not signed
+   * @param contentHash
+   *          the content hash of the object
+   * @return the signed object, or null if not cached
+   */
+  public String get(Object signingKey, String contentHash) {
+    Cache<String, String> objects = signed.getIfPresent(signingKey == null ? NO_KEY : signingKey);
+    return objects == null ? null : objects.getIfPresent(contentHash);
+  }
+
+  /**
+   * Caches a signed request object.
+   * 
+   * @param signingKey
+   *          the signing key instance, null if the object is not signed
+   * @param contentHash
+   *          the content hash of the object
+   * @param jwt
+   *          the signed object
+   */
+  public void put(Object signingKey, String contentHash, String jwt) {
+    try {
+      signed.get(signingKey == null ? NO_KEY : signingKey,
+          new Callable<Cache<String, String>>() {
+            @Override
+            public Cache<String, String> call() {
+              return CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+            }
+          }).put(contentHash, jwt);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not create the cache for the key", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import java.io.IOException;
+
+/**
+ * Contract for storing the request objects passed by reference, i.e. with the request_uri
+ * parameter, so that they can be served to the provider. Can be implemented by developers using
+ * file systems, in-memory or DB.
+ */
+public interface RequestObjectStore {
+
+  /**
+   * Stores a request object, replacing any existing one with the same name.
+   * 
+   * @param filename
+   *          the name of the request object, as resolved from its request_uri
+   * @param jwt
+   *          the request object
+   * @throws IOException
+   *           if the request object cannot be stored
+   */
+  void store(String filename, String jwt) throws IOException;
+
+  /**
+   * Gets a stored request object.
+   * 
+   * @param filename
+   *          the name of the request object, as resolved from its request_uri
+   * @return the request object, null if not existing
+   * @throws IOException
+   *           if the request object cannot be read
+   */
+  String get(String filename) throws IOException;
+}
@@ -145,4 +145,39 @@ public interface State {
    * @return stateKey(i.e. state) value keying the newly created StateRecord
    **/
   String createStateRecord(String issuer, String state);
+
+  /**
+   * Finds the states whose verified ID token was issued by the issuer for the given session. The
+   * lookup uses an index maintained when {@link MessageType#VERIFIED_IDTOKEN} items are stored, so
+   * it does not depend on the number of records.
+   * 
+   * @param issuer
+   *          the issuer of the ID token
+   * @param sid
+   *          the session ID (sid) claim of the ID token
+   * @return the keys of the matching states, empty if none
+   **/
+  List<String> getStateKeysBySid(String issuer, String sid);
+
+  /**
+   * Finds the states whose verified ID token was issued by the issuer for the given subject. The
+   * lookup uses an index maintained when {@link MessageType#VERIFIED_IDTOKEN} items are stored, so
+   * it does not depend on the number of records.
+   * 
+   * @param issuer
+   *          the issuer of the ID token
+   * @param sub
+   *          the subject (sub) claim of the ID token
+   * @return the keys of the matching states, empty if none
+   **/
+  List<String> getStateKeysBySub(String issuer, String sub);
+
+  /**
+   * Removes the StateRecord, together with its index entries and its nonce mappings.
+   * 
+   * @param stateKey
+   *          the key that identifies the State object
+   * @return true if the record existed, false otherwise
+   **/
+  boolean removeStateRecord(String stateKey);
 }
\ No newline at end of file
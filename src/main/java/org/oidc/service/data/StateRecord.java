@@ -25,6 +25,9 @@ import org.oidc.msg.ParameterVerification;
 /** State Record in State dbase implementation. */
 public class StateRecord extends AbstractMessage {
 
+  /** The claim for the creation time of the record in seconds, if known by the state database. */
+  public static final String CREATED_AT = "__created_at";
+
   { // Set parameter requirements for state record.
     paramVerDefs.put("iss", ParameterVerification.SINGLE_REQUIRED_STRING.getValue());
     paramVerDefs.put(MessageType.AUTHORIZATION_REQUEST.name(),
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the count, outcome, size and latency histogram of calls. The histogram has log-linear
+ * buckets with eight sub-buckets per power of two, so a recorded latency is known within 12.5%.
+ *
+ * <p>
+ * A recorder must only be written by a single thread at a time, which makes recording lock-free
+ * and free of contended atomic operations. It can be read from any thread with
+ * {@link #snapshot()}. Use one recorder per thread and {@link CallStatistics#merge} for
+ * multi-threaded recording.
+ * </p>
+ */
+public class CallRecorder {
+
+  /** The values, laid out as described in {@link CallStatistics}. */
+  private final AtomicLongArray values = new AtomicLongArray(CallStatistics.LENGTH);
+
+  /**
+   * Records a single call.
+   * 
+   * @param durationNanos
+   *          The duration of the call in nanoseconds.
+   * @param success
+   *          Whether the call was successful.
+   * @param size
+   *          The size of the call, or a negative value if not known.
+   */
+  public void record(long durationNanos, boolean success, int size) {
+    add(CallStatistics.COUNT, 1);
+    if (!success) {
+      add(CallStatistics.ERRORS, 1);
+    }
+    if (durationNanos < 0) {
+      durationNanos = 0;
+    }
+    add(CallStatistics.TOTAL_NANOS, durationNanos);
+    if (durationNanos > values.get(CallStatistics.MAX_NANOS)) {
+      values.lazySet(CallStatistics.MAX_NANOS, durationNanos);
+    }
+    if (size >= 0) {
+      add(CallStatistics.SIZED, 1);
+      add(CallStatistics.TOTAL_SIZE, size);
+    }
+    add(CallStatistics.FIRST_BUCKET + CallStatistics.bucketIndex(durationNanos), 1);
+  }
+
+  /**
+   * Takes a snapshot of the recorded values. The snapshot is not atomic, a call recorded
+   * concurrently may be partly visible.
+   * 
+   * @return The statistics recorded so far.
+   */
+  public CallStatistics snapshot() {
+    long[] copy = new long[CallStatistics.LENGTH];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = values.get(i);
+    }
+    return new CallStatistics(copy);
+  }
+
+  private void add(int index, long delta) {
+    // single writer, an ordered store is enough for the readers
+    values.lazySet(index, values.get(index) + delta);
+  }
+}
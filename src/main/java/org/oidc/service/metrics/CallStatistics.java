@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+/**
+ * An immutable snapshot of the statistics recorded by one or more {@link CallRecorder}s.
+ */
+public final class CallStatistics {
+
+  /** Statistics without any calls. */
+  public static final CallStatistics EMPTY = new CallStatistics(new long[CallStatistics.LENGTH]);
+
+  /** The number of sub-buckets per power of two, must be a power of two. */
+  private static final int SUB_BUCKETS = 8;
+
+  /** The number of bits needed for the sub-bucket index. */
+  private static final int SUB_BUCKET_BITS = 3;
+
+  /** The number of histogram buckets, covering all non-negative long values. */
+  static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  static final int COUNT = 0;
+  static final int ERRORS = 1;
+  static final int TOTAL_NANOS = 2;
+  static final int MAX_NANOS = 3;
+  static final int SIZED = 4;
+  static final int TOTAL_SIZE = 5;
+  static final int FIRST_BUCKET = 6;
+  static final int LENGTH = FIRST_BUCKET + BUCKET_COUNT;
+
+  /** The values, indexed by the constants above. */
+  private final long[] values;
+
+  /**
+   * Constructor.
+   * 
+   * @param values
+   *          The values, not copied.
+   */
+  CallStatistics(long[] values) {
+    this.values = values;
+  }
+
+  /**
+   * Get the histogram bucket for the given value.
+   * 
+   * @param value
+   *          The non-negative value.
+   * @return The bucket index.
+   */
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Get the highest value that falls into the given histogram bucket.
+   * 
+   * @param index
+   *          The bucket index.
+   * @return The highest value of the bucket.
+   */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+    long lowerBound = (SUB_BUCKETS + subBucket) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+
+  /**
+   * Combines these statistics with the other ones.
+   * 
+   * @param other
+   *          The statistics to combine with.
+   * @return New statistics covering the calls of both.
+   */
+  public CallStatistics merge(CallStatistics other) {
+    long[] merged = new long[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      merged[i] = i == MAX_NANOS ? Math.max(values[i], other.values[i])
+          : values[i] + other.values[i];
+    }
+    return new CallStatistics(merged);
+  }
+
+  public long getCount() {
+    return values[COUNT];
+  }
+
+  public long getErrorCount() {
+    return values[ERRORS];
+  }
+
+  public long getSuccessCount() {
+    return values[COUNT] - values[ERRORS];
+  }
+
+  public long getTotalNanos() {
+    return values[TOTAL_NANOS];
+  }
+
+  public long getMaxNanos() {
+    return values[MAX_NANOS];
+  }
+
+  /**
+   * Get the mean duration of the calls.
+   * 
+   * @return The mean duration in nanoseconds, or 0 if no calls were recorded.
+   */
+  public long getMeanNanos() {
+    return values[COUNT] == 0 ? 0 : values[TOTAL_NANOS] / values[COUNT];
+  }
+
+  public long getTotalSize() {
+    return values[TOTAL_SIZE];
+  }
+
+  /**
+   * Get the mean size of the calls whose size is known.
+   * 
+   * @return The mean size, or 0 if no sizes were recorded.
+   */
+  public long getMeanSize() {
+    return values[SIZED] == 0 ? 0 : values[TOTAL_SIZE] / values[SIZED];
+  }
+
+  /**
+   * Get the duration at the given percentile. The result is the upper bound of the histogram
+   * bucket containing the percentile, capped by the maximum recorded duration.
+   * 
+   * @param percentile
+   *          The percentile between 0 and 100.
+   * @return The duration in nanoseconds, or 0 if no calls were recorded.
+   */
+  public long getPercentileNanos(double percentile) {
+    long count = values[COUNT];
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(Math.max(0.0, Math.min(100.0, percentile)) / 100.0 * count);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += values[FIRST_BUCKET + i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), values[MAX_NANOS]);
+      }
+    }
+    return values[MAX_NANOS];
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", errors=" + getErrorCount() + ", mean=" + getMeanNanos()
+        + "ns, p50=" + getPercentileNanos(50) + "ns, p99=" + getPercentileNanos(99) + "ns, max="
+        + getMaxNanos() + "ns, meanSize=" + getMeanSize();
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.oidc.common.ServiceName;
+
+/**
+ * A reference {@link ServiceMetrics} implementation keeping the statistics in memory. Every thread
+ * records into its own {@link CallRecorder}s, so recording never contends with other threads. The
+ * getters merge the recorders of all threads.
+ */
+public class InMemoryServiceMetrics implements ServiceMetrics {
+
+  /** The slot used for services without a name. */
+  private static final int UNNAMED_SERVICE = ServiceName.values().length;
+
+  /** The number of measured operations per service. */
+  private static final int OPERATIONS = ServiceOperation.values().length;
+
+  /** The recorders of every thread that has recorded something. */
+  private final List<ThreadRecorders> allRecorders = new CopyOnWriteArrayList<ThreadRecorders>();
+
+  /** The recorders of the current thread. */
+  private final ThreadLocal<ThreadRecorders> recorders = new ThreadLocal<ThreadRecorders>() {
+    @Override
+    protected ThreadRecorders initialValue() {
+      ThreadRecorders threadRecorders = new ThreadRecorders();
+      allRecorders.add(threadRecorders);
+      return threadRecorders;
+    }
+  };
+
+  /** Whether the measurements are recorded. */
+  private volatile boolean enabled = true;
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public void recordServiceCall(ServiceName serviceName, ServiceOperation operation,
+      long durationNanos, boolean success, int size) {
+    recorders.get().getServiceRecorder(serviceName, operation).record(durationNanos, success,
+        size);
+  }
+
+  @Override
+  public void recordProcessorCall(String processorName, long durationNanos, boolean success) {
+    recorders.get().getProcessorRecorder(processorName).record(durationNanos, success, -1);
+  }
+
+  /**
+   * Get the statistics of a service operation, merged over all threads.
+   * 
+   * @param serviceName
+   *          The name of the service, null for services without a name.
+   * @param operation
+   *          The operation.
+   * @return The statistics, never null.
+   */
+  public CallStatistics getServiceStatistics(ServiceName serviceName, ServiceOperation operation) {
+    int slot = serviceSlot(serviceName, operation);
+    CallStatistics statistics = CallStatistics.EMPTY;
+    for (ThreadRecorders threadRecorders : allRecorders) {
+      CallRecorder recorder = threadRecorders.services.get(slot);
+      if (recorder != null) {
+        statistics = statistics.merge(recorder.snapshot());
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Get the statistics of a request argument processor, merged over all threads.
+   * 
+   * @param processorName
+   *          The name of the processor.
+   * @return The statistics, never null.
+   */
+  public CallStatistics getProcessorStatistics(String processorName) {
+    CallStatistics statistics = CallStatistics.EMPTY;
+    for (ThreadRecorders threadRecorders : allRecorders) {
+      CallRecorder recorder = threadRecorders.processors.get(processorName);
+      if (recorder != null) {
+        statistics = statistics.merge(recorder.snapshot());
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Get the names of the processors that have been recorded.
+   * 
+   * @return The processor names in alphabetical order.
+   */
+  public Set<String> getProcessorNames() {
+    Set<String> names = new TreeSet<String>();
+    for (ThreadRecorders threadRecorders : allRecorders) {
+      names.addAll(threadRecorders.processors.keySet());
+    }
+    return names;
+  }
+
+  private static int serviceSlot(ServiceName serviceName, ServiceOperation operation) {
+    int service = serviceName == null ? UNNAMED_SERVICE : serviceName.ordinal();
+    return service * OPERATIONS + operation.ordinal();
+  }
+
+  /**
+   * The recorders written by a single thread.
+   */
+  private static class ThreadRecorders {
+
+    private final AtomicReferenceArray<CallRecorder> services =
+        new AtomicReferenceArray<CallRecorder>((UNNAMED_SERVICE + 1) * OPERATIONS);
+
+    private final ConcurrentHashMap<String, CallRecorder> processors =
+        new ConcurrentHashMap<String, CallRecorder>();
+
+    private CallRecorder getServiceRecorder(ServiceName serviceName, ServiceOperation operation) {
+      int slot = serviceSlot(serviceName, operation);
+      CallRecorder recorder = services.get(slot);
+      if (recorder == null) {
+        recorder = new CallRecorder();
+        services.set(slot, recorder);
+      }
+      return recorder;
+    }
+
+    private CallRecorder getProcessorRecorder(String processorName) {
+      CallRecorder recorder = processors.get(processorName);
+      if (recorder == null) {
+        recorder = new CallRecorder();
+        processors.put(processorName, recorder);
+      }
+      return recorder;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import org.oidc.common.ServiceName;
+
+/**
+ * The default {@link ServiceMetrics} that records nothing.
+ */
+public final class NoopServiceMetrics implements ServiceMetrics {
+
+  /** The singleton instance. */
+  public static final NoopServiceMetrics INSTANCE = new NoopServiceMetrics();
+
+  private NoopServiceMetrics() {
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return false;
+  }
+
+  @Override
+  public void recordServiceCall(ServiceName serviceName, ServiceOperation operation,
+      long durationNanos, boolean success, int size) {
+  }
+
+  @Override
+  public void recordProcessorCall(String processorName, long durationNanos, boolean success) {
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import org.oidc.common.ServiceName;
+
+/**
+ * A timed operation of the OIDC services, delivered to the {@link ServiceEventListener} registered
+ * in {@link ServiceEvents}. The start time is taken from {@link System#nanoTime()}, so that events
+ * can be correlated with other events recorded from the same JVM.
+ */
+public final class ServiceEvent {
+
+  /** The type of the event. */
+  private final ServiceEventType type;
+
+  /** The name of the service, null if the operation is not tied to a service. */
+  private final ServiceName serviceName;
+
+  /** The issuer the operation was run for, may be null. */
+  private final String issuer;
+
+  /** The start time in nanoseconds. */
+  private final long startNanos;
+
+  /** The duration in nanoseconds. */
+  private final long durationNanos;
+
+  /** Whether the operation was successful. */
+  private final boolean success;
+
+  /** Additional type-specific information, e.g. the algorithm or the item type, may be null. */
+  private final String detail;
+
+  /**
+   * Constructor.
+   * 
+   * @param type
+   *          The type of the event.
+   * @param serviceName
+   *          The name of the service, null if the operation is not tied to a service.
+   * @param issuer
+   *          The issuer the operation was run for, may be null.
+   * @param startNanos
+   *          The start time in nanoseconds.
+   * @param durationNanos
+   *          The duration in nanoseconds.
+   * @param success
+   *          Whether the operation was successful.
+   * @param detail
+   *          Additional type-specific information, may be null.
+   */
+  public ServiceEvent(ServiceEventType type, ServiceName serviceName, String issuer,
+      long startNanos, long durationNanos, boolean success, String detail) {
+    this.type = type;
+    this.serviceName = serviceName;
+    this.issuer = issuer;
+    this.startNanos = startNanos;
+    this.durationNanos = durationNanos;
+    this.success = success;
+    this.detail = detail;
+  }
+
+  public ServiceEventType getType() {
+    return type;
+  }
+
+  public ServiceName getServiceName() {
+    return serviceName;
+  }
+
+  public String getIssuer() {
+    return issuer;
+  }
+
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  public boolean isSuccess() {
+    return success;
+  }
+
+  public String getDetail() {
+    return detail;
+  }
+
+  @Override
+  public String toString() {
+    return type + " service=" + serviceName + " issuer=" + issuer + " success=" + success
+        + " duration=" + durationNanos + "ns" + (detail == null ? "" : " detail=" + detail);
+  }
+}
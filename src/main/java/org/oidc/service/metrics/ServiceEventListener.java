@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+/**
+ * Receives the {@link ServiceEvent}s of the OIDC services. The listener is called synchronously on
+ * the thread that ran the operation, so it must be thread-safe, cheap and must not throw.
+ * 
+ * <p>
+ * On Java 11 and newer, a listener can commit every event as a custom jdk.jfr.Event, which makes
+ * the OIDC operations visible in flight recordings next to the GC and lock events.
+ * </p>
+ */
+public interface ServiceEventListener {
+
+  /**
+   * Called when an operation has completed.
+   * 
+   * @param event
+   *          The completed operation.
+   */
+  public void onEvent(ServiceEvent event);
+}
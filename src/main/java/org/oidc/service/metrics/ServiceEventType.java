@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+/**
+ * The types of {@link ServiceEvent}s.
+ */
+public enum ServiceEventType {
+
+  /** Building the request message and the HTTP arguments of a service. */
+  REQUEST_CONSTRUCTION,
+
+  /** Deserializing and verifying the response of a service. */
+  RESPONSE_PARSING,
+
+  /** Signing, and optionally encrypting, a JWT. */
+  JWT_SIGNING,
+
+  /** Decoding and verifying a JWT or a message carrying one. */
+  JWT_VERIFICATION,
+
+  /** Storing or reading an item in the state database. */
+  STATE_STORE,
+
+  /** Looking up keys from the key jar. */
+  KEY_LOOKUP;
+}
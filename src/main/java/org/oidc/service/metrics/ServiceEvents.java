@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import org.oidc.common.ServiceName;
+
+/**
+ * The JVM-wide registration point for the {@link ServiceEventListener}. Like flight recorder
+ * events, the events are global rather than per service or context. When no listener is
+ * registered, the instrumented operations cost a single volatile read: they neither read the clock
+ * nor allocate events.
+ */
+public final class ServiceEvents {
+
+  /** The registered listener, null if none. */
+  private static volatile ServiceEventListener listener;
+
+  private ServiceEvents() {
+  }
+
+  /**
+   * Get the registered listener. Instrumented code reads it once per operation and skips the
+   * timing if it is null.
+   * 
+   * @return The registered listener, or null if none.
+   */
+  public static ServiceEventListener getListener() {
+    return listener;
+  }
+
+  /**
+   * Registers the listener, replacing the previous one.
+   * 
+   * @param eventListener
+   *          The listener, or null to stop delivering events.
+   */
+  public static void setListener(ServiceEventListener eventListener) {
+    listener = eventListener;
+  }
+
+  /**
+   * Delivers an event for an operation started at the given time and ending now.
+   * 
+   * @param eventListener
+   *          The listener read before the operation started, must not be null.
+   * @param type
+   *          The type of the event.
+   * @param serviceName
+   *          The name of the service, may be null.
+   * @param issuer
+   *          The issuer the operation was run for, may be null.
+   * @param startNanos
+   *          The start time of the operation from {@link System#nanoTime()}.
+   * @param success
+   *          Whether the operation was successful.
+   * @param detail
+   *          Additional type-specific information, may be null.
+   */
+  public static void emit(ServiceEventListener eventListener, ServiceEventType type,
+      ServiceName serviceName, String issuer, long startNanos, boolean success, String detail) {
+    eventListener.onEvent(new ServiceEvent(type, serviceName, issuer, startNanos,
+        System.nanoTime() - startNanos, success, detail));
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import org.oidc.common.ServiceName;
+
+/**
+ * A sink for the latency, outcome and size of the service calls and the request argument
+ * processors run by them. Implementations are called on the request threads and must be
+ * thread-safe and cheap.
+ */
+public interface ServiceMetrics {
+
+  /**
+   * Whether the measurements are recorded. If false, the services do not read the clock and never
+   * call the record methods.
+   * 
+   * @return True if the measurements are recorded, false otherwise.
+   */
+  public boolean isEnabled();
+
+  /**
+   * Records a single service operation.
+   * 
+   * @param serviceName
+   *          The name of the service, may be null for services without a name.
+   * @param operation
+   *          The operation that was run.
+   * @param durationNanos
+   *          The duration of the operation in nanoseconds.
+   * @param success
+   *          Whether the operation completed without an exception.
+   * @param size
+   *          The size of the request or the response in characters, or -1 if not known.
+   */
+  public void recordServiceCall(ServiceName serviceName, ServiceOperation operation,
+      long durationNanos, boolean success, int size);
+
+  /**
+   * Records a single request argument processor run.
+   * 
+   * @param processorName
+   *          The name of the processor, i.e. its simple class name.
+   * @param durationNanos
+   *          The duration of the processing in nanoseconds.
+   * @param success
+   *          Whether the processor completed without an exception.
+   */
+  public void recordProcessorCall(String processorName, long durationNanos, boolean success);
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+/**
+ * The operations of a {@link org.oidc.service.Service} that are measured by {@link ServiceMetrics}.
+ */
+public enum ServiceOperation {
+
+  /** Building the request message and the HTTP arguments. */
+  GET_REQUEST_PARAMETERS,
+
+  /** Deserializing and verifying the response. */
+  PARSE_RESPONSE,
+
+  /** Updating the service context and state from the response. */
+  UPDATE_SERVICE_CONTEXT;
+}
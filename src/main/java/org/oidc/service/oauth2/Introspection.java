@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import java.util.Map;
+
+import org.oidc.common.ClientAuthenticationMethod;
+import org.oidc.common.EndpointName;
+import org.oidc.common.HttpMethod;
+import org.oidc.common.MissingRequiredAttributeException;
+import org.oidc.common.SerializationType;
+import org.oidc.common.ServiceName;
+import org.oidc.common.ValueException;
+import org.oidc.msg.InvalidClaimException;
+import org.oidc.msg.Message;
+import org.oidc.msg.oauth2.TokenIntrospectionRequest;
+import org.oidc.msg.oauth2.TokenIntrospectionResponse;
+import org.oidc.service.AbstractAuthenticatedService;
+import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.base.ServiceConfig;
+import org.oidc.service.base.ServiceContext;
+import org.oidc.service.data.State;
+
+/**
+ * OAUTH2 token introspection service, see https://tools.ietf.org/html/rfc7662. The token to
+ * introspect is given in the token request argument. If an {@link IntrospectionCache} is set, the
+ * responses given to {@link #updateServiceContextForToken(Message, String)} are cached for their
+ * token after verification, and {@link #getCachedResult(String)} can be used before building a new
+ * request.
+ */
+public class Introspection extends AbstractAuthenticatedService {
+
+  /** The cache for the introspection results, null if not used. */
+  private IntrospectionCache cache;
+
+  /**
+   * Constructor.
+   * 
+   * @param serviceContext service context shared by services, must not be null
+   * @param state state database, not used by this service
+   * @param serviceConfig service specific configuration
+   *          
+   */
+  public Introspection(ServiceContext serviceContext, State state, ServiceConfig serviceConfig) {
+    super(serviceContext, state, serviceConfig);
+    serviceName = ServiceName.INTROSPECTION;
+    endpointName = EndpointName.INTROSPECTION;
+    requestMessage = new TokenIntrospectionRequest();
+    responseMessage = new TokenIntrospectionResponse();
+    isSynchronous = true;
+    expectedResponseClass = TokenIntrospectionResponse.class;
+  }
+
+  @Override
+  protected ServiceConfig getDefaultServiceConfig() {
+    ServiceConfig defaultConfig = new ServiceConfig();
+    defaultConfig.setDefaultAuthenticationMethod(ClientAuthenticationMethod.CLIENT_SECRET_BASIC);
+    defaultConfig.setHttpMethod(HttpMethod.POST);
+    defaultConfig.setSerializationType(SerializationType.URL_ENCODED);
+    defaultConfig.setDeSerializationType(SerializationType.JSON);
+    return defaultConfig;
+  }
+
+  /**
+   * Get the cache for the introspection results.
+   * 
+   * @return The cache, or null if not used.
+   */
+  public IntrospectionCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Set the cache for the introspection results. The cache can be shared between the
+   * introspection services of different threads.
+   * 
+   * @param cache
+   *          The cache, or null if not used.
+   */
+  public void setCache(IntrospectionCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Get the cached introspection result for the token, without an introspection request.
+   * 
+   * @param token
+   *          The token to introspect.
+   * @return The cached result, or null if no cache is set or the token is not cached.
+   */
+  public IntrospectionCache.Entry getCachedResult(String token) {
+    return cache != null ? cache.get(token) : null;
+  }
+
+  /** The claims of the response are copied to the cache, the message itself is not kept. */
+  @Override
+  protected boolean retainsResponseMessage() {
+    return false;
+  }
+
+  /**
+   * Verifies the response to the introspection of the given token, and caches it for the token if
+   * a cache is set. The token is given explicitly, as the service may have built requests for
+   * other tokens after the one the response belongs to.
+   * 
+   * @param response
+   *          The introspection response.
+   * @param token
+   *          The token of the request the response belongs to.
+   * @throws MissingRequiredAttributeException
+   *           If the response is missing a required attribute.
+   * @throws ValueException
+   *           If the response is not a valid introspection response.
+   * @throws InvalidClaimException
+   *           If the response contains invalid claims.
+   */
+  public void updateServiceContextForToken(Message response, String token)
+      throws MissingRequiredAttributeException, ValueException, InvalidClaimException {
+    updateServiceContext(response);
+    if (cache != null) {
+      cache.put(token, response.getClaims());
+    }
+  }
+
+  /**
+   * Nothing is stored to the service context. The response is cached only if given to
+   * {@link #updateServiceContextForToken(Message, String)}, as its token is not known here.
+   */
+  @Override
+  protected void doUpdateServiceContext(Message response, String stateKey)
+      throws MissingRequiredAttributeException, InvalidClaimException {
+  }
+
+  @Override
+  protected Message doConstructRequest(Map<String, Object> requestArguments)
+      throws RequestArgumentProcessingException {
+    return new TokenIntrospectionRequest(requestArguments);
+  }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Caches the verified results of token introspection (RFC 7662) by the SHA-256 hash of the token,
+ * so that resource servers seeing the same token many times only introspect it once. The tokens
+ * themselves are never kept in memory.
+ *
+ * <p>
+ * Results for active tokens are cached for the configured time, but never beyond the expiration
+ * time (exp) of the token. Results for inactive tokens are cached for a separate, usually shorter,
+ * time. Concurrent lookups of the same uncached token are coalesced into a single introspection
+ * with {@link #getOrIntrospect(String, Introspector)}.
+ * </p>
+ */
+public class IntrospectionCache {
+
+  /** The cached results, keyed by the hash of the token. */
+  private final Cache<String, Entry> entries;
+
+  /** The introspections in progress, keyed by the hash of the token. */
+  private final ConcurrentMap<String, FutureTask<Entry>> inFlight =
+      new ConcurrentHashMap<String, FutureTask<Entry>>();
+
+  /** The time the result of an active token is cached for at most, in nanoseconds. */
+  private final long activeTtl;
+
+  /** The time the result of an inactive token is cached for, in nanoseconds. */
+  private final long inactiveTtl;
+
+  /** The time source for the expiration. */
+  private final Ticker ticker;
+
+  /** The number of lookups that waited for an introspection started by another thread. */
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  /** The number of introspections done via {@link #getOrIntrospect(String, Introspector)}. */
+  private final AtomicLong introspectionCount = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param maximumSize
+   *          The maximum number of cached results.
+   * @param activeTtl
+   *          The time the result of an active token is cached for at most.
+   * @param inactiveTtl
+   *          The time the result of an inactive token is cached for.
+   * @param unit
+   *          The unit of the times.
+   */
+  public IntrospectionCache(long maximumSize, long activeTtl, long inactiveTtl, TimeUnit unit) {
+    this(maximumSize, activeTtl, inactiveTtl, unit, Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maximumSize
+   *          The maximum number of cached results.
+   * @param activeTtl
+   *          The time the result of an active token is cached for at most.
+   * @param inactiveTtl
+   *          The time the result of an inactive token is cached for.
+   * @param unit
+   *          The unit of the times.
+   * @param ticker
+   *          The time source for the expiration.
+   */
+  IntrospectionCache(long maximumSize, long activeTtl, long inactiveTtl, TimeUnit unit,
+      Ticker ticker) {
+    if (activeTtl < 0 || inactiveTtl < 0) {
+      throw new IllegalArgumentException("The cache times cannot be negative");
+    }
+    this.activeTtl = unit.toNanos(activeTtl);
+    this.inactiveTtl = unit.toNanos(inactiveTtl);
+    this.ticker = ticker;
+    this.entries = CacheBuilder.newBuilder().maximumSize(maximumSize)
+        .expireAfterWrite(Math.max(this.activeTtl, this.inactiveTtl), TimeUnit.NANOSECONDS)
+        .ticker(ticker).build();
+  }
+
+  /**
+   * Get the cached result for the token.
+   * 
+   * @param token
+   *          The introspected token.
+   * @return The cached result, or null if the token is not cached or its result has expired.
+   */
+  public Entry get(String token) {
+    return getByKey(hash(token));
+  }
+
+  /**
+   * Caches the verified introspection response for the token.
+   * 
+   * @param token
+   *          The introspected token.
+   * @param claims
+   *          The claims of the verified introspection response.
+   * @return The cached result, or null if the response was for an active token that has already
+   *         expired and was therefore not cached.
+   */
+  public Entry put(String token, Map<String, Object> claims) {
+    return putByKey(hash(token), claims);
+  }
+
+  /**
+   * Get the cached result for the token, or introspects the token if it's not cached. If another
+   * thread is already introspecting the same token, waits for its result instead of introspecting
+   * the token again.
+   * 
+   * @param token
+   *          The token to introspect.
+   * @param introspector
+   *          The introspector used if the result is not cached.
+   * @return The result for the token.
+   * @throws ExecutionException
+   *           If the introspection failed, the cause is the exception thrown by the introspector.
+   * @throws InterruptedException
+   *           If the thread was interrupted while waiting for another thread to introspect.
+   */
+  public Entry getOrIntrospect(final String token, final Introspector introspector)
+      throws ExecutionException, InterruptedException {
+    final String key = hash(token);
+    Entry entry = getByKey(key);
+    if (entry != null) {
+      return entry;
+    }
+    FutureTask<Entry> task = new FutureTask<Entry>(new Callable<Entry>() {
+      @Override
+      public Entry call() throws Exception {
+        introspectionCount.incrementAndGet();
+        Map<String, Object> claims = introspector.introspect(token);
+        Entry introspected = putByKey(key, claims);
+        // an already expired token is not cached, and is reported as inactive to the caller
+        return introspected != null ? introspected : new Entry(claims, false, 0);
+      }
+    });
+    FutureTask<Entry> existing = inFlight.putIfAbsent(key, task);
+    if (existing == null) {
+      try {
+        task.run();
+      } finally {
+        inFlight.remove(key, task);
+      }
+      existing = task;
+    } else {
+      coalescedCount.incrementAndGet();
+    }
+    return existing.get();
+  }
+
+  /**
+   * Removes the cached result for the token, e.g. after the token has been revoked.
+   * 
+   * @param token
+   *          The token whose result is removed.
+   */
+  public void invalidate(String token) {
+    entries.invalidate(hash(token));
+  }
+
+  /**
+   * Get the number of cached results, including the expired ones not yet removed.
+   * 
+   * @return The number of cached results.
+   */
+  public long size() {
+    return entries.size();
+  }
+
+  /**
+   * Get the number of lookups that waited for an introspection started by another thread.
+   * 
+   * @return The number of coalesced lookups.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+
+  /**
+   * Get the number of introspections done via {@link #getOrIntrospect(String, Introspector)}.
+   * 
+   * @return The number of introspections.
+   */
+  public long getIntrospectionCount() {
+    return introspectionCount.get();
+  }
+
+  /**
+   * Calculates the cache key for the token.
+   * 
+   * @param token
+   *          The token.
+   * @return The URL safe SHA-256 hash of the token.
+   */
+  public static String hash(String token) {
+    if (token == null) {
+      throw new IllegalArgumentException("The token cannot be null");
+    }
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(token.getBytes(StandardCharsets.UTF_8));
+      return Base64.encodeBase64URLSafeString(digest);
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Entry getByKey(String key) {
+    Entry entry = entries.getIfPresent(key);
+    if (entry != null && ticker.read() - entry.expiresAt >= 0) {
+      entries.asMap().remove(key, entry);
+      return null;
+    }
+    return entry;
+  }
+
+  private Entry putByKey(String key, Map<String, Object> claims) {
+    if (claims == null) {
+      throw new IllegalArgumentException("The claims cannot be null");
+    }
+    Object active = claims.get("active");
+    boolean isActive = Boolean.TRUE.equals(active) || "true".equals(active);
+    long ttl = inactiveTtl;
+    if (isActive) {
+      ttl = activeTtl;
+      long expiresAt = getExpiresAt(claims.get("exp"));
+      if (expiresAt != -1) {
+        ttl = Math.min(ttl, TimeUnit.MILLISECONDS.toNanos(expiresAt - System.currentTimeMillis()));
+      }
+      if (ttl <= 0) {
+        entries.invalidate(key);
+        return null;
+      }
+    }
+    Entry entry = new Entry(claims, isActive, ticker.read() + ttl);
+    entries.put(key, entry);
+    return entry;
+  }
+
+  /** Converts the exp claim, either seconds since the epoch or a date, into milliseconds. */
+  private static long getExpiresAt(Object exp) {
+    if (exp instanceof Date) {
+      return ((Date) exp).getTime();
+    }
+    if (exp instanceof Number) {
+      return ((Number) exp).longValue() * 1000;
+    }
+    return -1;
+  }
+
+  /**
+   * Introspects a token that is not cached, typically by sending the request built by the
+   * {@link Introspection} service and parsing its response.
+   */
+  public interface Introspector {
+
+    /**
+     * Introspects the token.
+     * 
+     * @param token
+     *          The token to introspect.
+     * @return The claims of the verified introspection response.
+     * @throws Exception
+     *           If the token could not be introspected.
+     */
+    public Map<String, Object> introspect(String token) throws Exception;
+  }
+
+  /**
+   * A cached introspection result.
+   */
+  public static final class Entry {
+
+    /** The claims of the introspection response. */
+    private final Map<String, Object> claims;
+
+    /** Whether the token was active. */
+    private final boolean active;
+
+    /** The ticker value after which the entry has expired. */
+    private final long expiresAt;
+
+    private Entry(Map<String, Object> claims, boolean active, long expiresAt) {
+      this.claims = Collections.unmodifiableMap(new HashMap<String, Object>(claims));
+      this.active = active;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Get the claims of the introspection response.
+     * 
+     * @return The unmodifiable claims.
+     */
+    public Map<String, Object> getClaims() {
+      return claims;
+    }
+
+    /**
+     * Whether the token was active when it was introspected.
+     * 
+     * @return True if the token was active, false otherwise.
+     */
+    public boolean isActive() {
+      return active;
+    }
+  }
+}
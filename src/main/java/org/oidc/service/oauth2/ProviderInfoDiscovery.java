@@ -19,6 +19,7 @@ package org.oidc.service.oauth2;
 import java.io.IOException;
 import java.security.KeyException;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.Map;
 
 import org.oidc.common.EndpointName;
@@ -42,12 +43,22 @@ import org.oidc.service.util.Constants;
 import com.auth0.jwt.exceptions.oicmsg_exceptions.ImportException;
 import com.auth0.jwt.exceptions.oicmsg_exceptions.JWKException;
 import com.auth0.jwt.exceptions.oicmsg_exceptions.ValueError;
-import com.auth0.msg.KeyJar;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 
 public class ProviderInfoDiscovery extends AbstractService {
 
+  /**
+   * The endpoints published in the authorization server metadata, keyed by the claim name.
+   */
+  public static final Map<String, EndpointName> ENDPOINT_CLAIMS = ImmutableMap
+      .<String, EndpointName>builder()
+      .put("authorization_endpoint", EndpointName.AUTHORIZATION)
+      .put("registration_endpoint", EndpointName.REGISTRATION)
+      .put("token_endpoint", EndpointName.TOKEN)
+      .put("revocation_endpoint", EndpointName.REVOCATION)
+      .put("introspection_endpoint", EndpointName.INTROSPECTION).build();
+
   public ProviderInfoDiscovery(ServiceContext serviceContext, State state,
       ServiceConfig serviceConfig) {
     super(serviceContext, state, serviceConfig);
@@ -88,8 +99,7 @@ public class ProviderInfoDiscovery extends AbstractService {
     } else {
       issuer = ctxIssuer.replaceAll("/\\s*$", "");
     }
-    if (getServiceContext().getAllow() != null
-        && getServiceContext().isAllowed(Constants.ALLOW_PARAM_ISSUER_MISMATCH)) {
+    if (getServiceContext().getSnapshot().isAllowed(Constants.ALLOW_PARAM_ISSUER_MISMATCH)) {
       // mismatches are allowed, nothing to check
     } else {
       if (!issuer.equals(pcrIssuer)) {
@@ -97,37 +107,63 @@ public class ProviderInfoDiscovery extends AbstractService {
             "Provider info issuer mismatch " + pcrIssuer + " != " + issuer);
       }
     }
-    getServiceContext().setIssuer(pcrIssuer);
-    getServiceContext().setProviderConfigurationResponse((ASConfigurationResponse) response);
+    // all the results are published with a single snapshot, readers see either none or all
+    ServiceContext.Update update = getServiceContext().beginUpdate();
+    update.setIssuer(pcrIssuer);
+    update.setProviderConfigurationResponse((ASConfigurationResponse) response);
 
-    for (String pcrKey : pcrClaims.keySet()) {
-      EndpointName endpointName = getEndpointName(pcrKey);
-      if (endpointName != null) {
-        getServiceContext().getEndpoints().put(endpointName, (String) pcrClaims.get(pcrKey));
+    Map<EndpointName, String> endpoints = new EnumMap<EndpointName, String>(EndpointName.class);
+    endpoints.putAll(getServiceContext().getSnapshot().getEndpoints());
+    for (Map.Entry<String, EndpointName> entry : getEndpointClaims().entrySet()) {
+      Object endpoint = pcrClaims.get(entry.getKey());
+      if (endpoint != null) {
+        endpoints.put(entry.getValue(), (String) endpoint);
       }
     }
+    update.setEndpoints(endpoints);
 
-    KeyJar keyJar = (getServiceContext().getKeyJar() == null) ? new KeyJar()
-        : getServiceContext().getKeyJar();
-    
+    // the keys are loaded to a copy of the key jar, the published one is not modified
     try {
-      keyJar.loadKeys(response.getClaims(), issuer, false);
+      update.getModifiableKeyJar().loadKeys(response.getClaims(), issuer, false);
     } catch (KeyException | ImportException | IOException | JWKException | ValueError e) {
       throw new InvalidClaimException(
           String.format("Unable to load keys by jwks or jwks_uri value, '%s'", e.getMessage()));
     }
     // TODO: find out what kind of checks are needed at this point
-    getServiceContext().setKeyJar(keyJar);
-    
+    prepareUpdate(response, update);
+    update.publish();
+  }
+
+  /**
+   * Add the changes of a subclass to the update publishing the provider configuration. Called
+   * after the issuer, the endpoints and the keys have been set to the update. Does nothing by
+   * default.
+   * 
+   * @param response
+   *          The provider configuration response.
+   * @param update
+   *          The update to add the changes to.
+   * @throws MissingRequiredAttributeException
+   *           If a required attribute is missing.
+   * @throws InvalidClaimException
+   *           If a claim of the response is not acceptable.
+   */
+  protected void prepareUpdate(Message response, ServiceContext.Update update)
+      throws MissingRequiredAttributeException, InvalidClaimException {
+  }
+
+  /**
+   * Get the endpoints read from the provider configuration, keyed by the claim name. Subclasses
+   * supporting other endpoints return their own table, built once per class.
+   * 
+   * @return The endpoint names keyed by the claim name.
+   */
+  protected Map<String, EndpointName> getEndpointClaims() {
+    return ENDPOINT_CLAIMS;
   }
 
   protected EndpointName getEndpointName(String key) {
-    return ImmutableMap.<String, EndpointName>builder()
-        .put("authorization_endpoint", EndpointName.AUTHORIZATION)
-        .put("registration_endpoint", EndpointName.REGISTRATION)
-        .put("token_endpoint", EndpointName.TOKEN)
-        .put("revocation_endpoint", EndpointName.REVOCATION)
-        .put("introspection_endpoint", EndpointName.INTROSPECTION).build().get(key);
+    return getEndpointClaims().get(key);
   }
 
   /**
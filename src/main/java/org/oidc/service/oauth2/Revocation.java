@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.oidc.common.ClientAuthenticationMethod;
+import org.oidc.common.EndpointName;
+import org.oidc.common.HttpMethod;
+import org.oidc.common.MissingRequiredAttributeException;
+import org.oidc.common.SerializationType;
+import org.oidc.common.ServiceName;
+import org.oidc.common.UnsupportedSerializationTypeException;
+import org.oidc.common.ValueException;
+import org.oidc.msg.InvalidClaimException;
+import org.oidc.msg.Message;
+import org.oidc.msg.SerializationException;
+import org.oidc.msg.oauth2.ResponseMessage;
+import org.oidc.msg.oauth2.TokenRevocationRequest;
+import org.oidc.service.AbstractAuthenticatedService;
+import org.oidc.service.base.HttpArguments;
+import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.base.ServiceConfig;
+import org.oidc.service.base.ServiceContext;
+import org.oidc.service.data.State;
+
+/**
+ * OAUTH2 token revocation service, see https://tools.ietf.org/html/rfc7009. The token to revoke is
+ * given in the token request argument, and optionally its type in the token_type_hint argument.
+ * The requests can either be sent by the caller, or queued to a {@link RevocationQueue} with
+ * {@link #revokeAsync(RevocationQueue, String, String)}. If an {@link IntrospectionCache} is set,
+ * the cached introspection result of the token is invalidated when the revocation is queued and
+ * again when it has been accepted, so that a result cached in between is not served.
+ */
+public class Revocation extends AbstractAuthenticatedService {
+
+  /** The cache of introspection results invalidated for the revoked tokens, null if not used. */
+  private IntrospectionCache introspectionCache;
+
+  /**
+   * Constructor.
+   * 
+   * @param serviceContext service context shared by services, must not be null
+   * @param state state database, not used by this service
+   * @param serviceConfig service specific configuration
+   *          
+   */
+  public Revocation(ServiceContext serviceContext, State state, ServiceConfig serviceConfig) {
+    super(serviceContext, state, serviceConfig);
+    serviceName = ServiceName.REVOCATION;
+    endpointName = EndpointName.REVOCATION;
+    requestMessage = new TokenRevocationRequest();
+    responseMessage = new ResponseMessage();
+    isSynchronous = true;
+    expectedResponseClass = ResponseMessage.class;
+  }
+
+  @Override
+  protected ServiceConfig getDefaultServiceConfig() {
+    ServiceConfig defaultConfig = new ServiceConfig();
+    defaultConfig.setDefaultAuthenticationMethod(ClientAuthenticationMethod.CLIENT_SECRET_BASIC);
+    defaultConfig.setHttpMethod(HttpMethod.POST);
+    defaultConfig.setSerializationType(SerializationType.URL_ENCODED);
+    defaultConfig.setDeSerializationType(SerializationType.JSON);
+    return defaultConfig;
+  }
+
+  /**
+   * Get the cache of introspection results invalidated for the revoked tokens.
+   * 
+   * @return The cache, or null if not used.
+   */
+  public IntrospectionCache getIntrospectionCache() {
+    return introspectionCache;
+  }
+
+  /**
+   * Set the cache of introspection results invalidated for the revoked tokens.
+   * 
+   * @param introspectionCache
+   *          The cache, or null if not used.
+   */
+  public void setIntrospectionCache(IntrospectionCache introspectionCache) {
+    this.introspectionCache = introspectionCache;
+  }
+
+  /**
+   * Builds the revocation request for the token and queues it without waiting for it to be sent.
+   * The cached introspection result of the token is invalidated right away, and again when the
+   * endpoint has accepted the request.
+   * 
+   * @param queue
+   *          The queue sending the request.
+   * @param token
+   *          The token to revoke.
+   * @param tokenTypeHint
+   *          The type of the token, access_token or refresh_token, or null if not known.
+   * @return True if the request was queued, false if the queue is full.
+   * @throws RequestArgumentProcessingException
+   *           If the request arguments are not valid.
+   * @throws UnsupportedSerializationTypeException
+   *           If the configured serialization type is not supported.
+   * @throws SerializationException
+   *           If the request cannot be serialized.
+   */
+  public boolean revokeAsync(RevocationQueue queue, String token, String tokenTypeHint)
+      throws RequestArgumentProcessingException, UnsupportedSerializationTypeException,
+      SerializationException {
+    Map<String, Object> requestArguments = new HashMap<String, Object>();
+    requestArguments.put("token", token);
+    if (tokenTypeHint != null) {
+      requestArguments.put("token_type_hint", tokenTypeHint);
+    }
+    HttpArguments httpArguments = getRequestParameters(requestArguments);
+    invalidateIntrospection(token);
+    if (introspectionCache == null) {
+      return queue.submit(httpArguments);
+    }
+    final IntrospectionCache cache = introspectionCache;
+    final String revokedToken = token;
+    return queue.submit(httpArguments, new RevocationQueue.Callback() {
+      @Override
+      public void revoked(HttpArguments request) {
+        cache.invalidate(revokedToken);
+      }
+    });
+  }
+
+  /**
+   * Verifies the response to the revocation of the given token, and invalidates the cached
+   * introspection result of the token. The token is given explicitly, as the service may have
+   * built requests for other tokens after the one the response belongs to.
+   * 
+   * @param response
+   *          The revocation response.
+   * @param token
+   *          The token of the request the response belongs to.
+   * @throws MissingRequiredAttributeException
+   *           If the response is missing a required attribute.
+   * @throws ValueException
+   *           If the response is not a valid revocation response.
+   * @throws InvalidClaimException
+   *           If the response contains invalid claims.
+   */
+  public void updateServiceContextForToken(Message response, String token)
+      throws MissingRequiredAttributeException, ValueException, InvalidClaimException {
+    updateServiceContext(response);
+    invalidateIntrospection(token);
+  }
+
+  /** The response has no contents to keep. */
+  @Override
+  protected boolean retainsResponseMessage() {
+    return false;
+  }
+
+  /**
+   * Nothing is stored to the service context. The introspection result is invalidated only if the
+   * response is given to {@link #updateServiceContextForToken(Message, String)}, as its token is
+   * not known here.
+   */
+  @Override
+  protected void doUpdateServiceContext(Message response, String stateKey)
+      throws MissingRequiredAttributeException, InvalidClaimException {
+  }
+
+  @Override
+  protected Message doConstructRequest(Map<String, Object> requestArguments)
+      throws RequestArgumentProcessingException {
+    return new TokenRevocationRequest(requestArguments);
+  }
+
+  private void invalidateIntrospection(String token) {
+    if (introspectionCache != null && token != null) {
+      introspectionCache.invalidate(token);
+    }
+  }
+}
@@ -0,0 +1,633 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import com.google.common.base.Ticker;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.oidc.service.base.HttpArguments;
+
+/**
+ * Sends token revocation requests (RFC 7009) on a background thread, so that revoking many tokens,
+ * e.g. on a mass logout, does not block the request threads. The requests are built by
+ * {@link Revocation} and handed over with {@link #submit(HttpArguments)}, the HTTP calls are done
+ * by the {@link Sender}.
+ *
+ * <p>
+ * The queued requests are grouped by their endpoint. Each endpoint has its own rate limit, a token
+ * bucket refilled at the configured rate that holds at most one batch worth of permits, and the
+ * requests of an endpoint are handed to the sender in batches so that it can reuse its connection.
+ * Failed requests are retried with exponential backoff until the maximum number of attempts, after
+ * which they are counted as failed. A {@link Callback} given with a request is told when the
+ * request has been accepted by the endpoint.
+ * </p>
+ */
+public class RevocationQueue implements Closeable {
+
+  /** The number of complete seconds the drain rate is averaged over. */
+  private static final int RATE_WINDOW_SECONDS = 10;
+
+  /** The number of one second rate buckets, the complete seconds of the window and the current. */
+  private static final int RATE_BUCKETS = RATE_WINDOW_SECONDS + 1;
+
+  /** The maximum number of doublings of the retry backoff. */
+  private static final int MAX_BACKOFF_DOUBLINGS = 10;
+
+  /** Guards all the mutable state below. */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** Signaled when requests are submitted or the queue is closed. */
+  private final Condition workAvailable = lock.newCondition();
+
+  /** Signaled when the queue becomes empty. */
+  private final Condition drained = lock.newCondition();
+
+  /** The queued requests and the rate limits, by endpoint. */
+  private final Map<String, Endpoint> endpoints = new LinkedHashMap<String, Endpoint>();
+
+  /** The failed requests waiting for their next attempt, earliest first. */
+  private final PriorityQueue<Item> retries = new PriorityQueue<Item>(16, new Comparator<Item>() {
+    @Override
+    public int compare(Item first, Item second) {
+      return Long.compare(first.notBefore - second.notBefore, 0);
+    }
+  });
+
+  /** The sender of the requests. */
+  private final Sender sender;
+
+  /** The maximum number of queued requests, including the ones waiting for a retry. */
+  private final int queueCapacity;
+
+  /** The maximum number of requests handed to the sender at once. */
+  private final int maxBatchSize;
+
+  /** The rate limit of a single endpoint, in permits per nanosecond. */
+  private final double permitsPerNano;
+
+  /** The maximum number of attempts for a single request. */
+  private final int maxAttempts;
+
+  /** The backoff before the first retry, in nanoseconds. */
+  private final long initialBackoff;
+
+  /** The background sender thread. */
+  private final Thread worker;
+
+  /** The latest exception thrown by the sender. */
+  private final AtomicReference<Exception> lastFailure = new AtomicReference<Exception>();
+
+  /** The time source. */
+  private final Ticker ticker;
+
+  /** The revoked requests per second, for the drain rate. */
+  private final long[] rateCounts = new long[RATE_BUCKETS];
+
+  /** The second each of the rate buckets is for. */
+  private final long[] rateSeconds = new long[RATE_BUCKETS];
+
+  /** The number of queued, retrying and in-flight requests. */
+  private int depth;
+
+  private long submittedCount;
+
+  private long revokedCount;
+
+  private long failedCount;
+
+  private long retryCount;
+
+  private long batchCount;
+
+  /** Whether the queue has been closed. */
+  private boolean closed;
+
+  /**
+   * Constructor.
+   * 
+   * @param sender
+   *          The sender of the requests.
+   * @param queueCapacity
+   *          The maximum number of queued requests, including the ones waiting for a retry.
+   * @param maxBatchSize
+   *          The maximum number of requests handed to the sender at once.
+   * @param permitsPerSecond
+   *          The maximum rate of requests sent to a single endpoint.
+   * @param maxAttempts
+   *          The maximum number of attempts for a single request.
+   * @param initialBackoff
+   *          The time before the first retry, doubled for every further retry.
+   * @param unit
+   *          The unit of the backoff time.
+   */
+  public RevocationQueue(Sender sender, int queueCapacity, int maxBatchSize,
+      double permitsPerSecond, int maxAttempts, long initialBackoff, TimeUnit unit) {
+    this(sender, queueCapacity, maxBatchSize, permitsPerSecond, maxAttempts, initialBackoff, unit,
+        Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param sender
+   *          The sender of the requests.
+   * @param queueCapacity
+   *          The maximum number of queued requests, including the ones waiting for a retry.
+   * @param maxBatchSize
+   *          The maximum number of requests handed to the sender at once.
+   * @param permitsPerSecond
+   *          The maximum rate of requests sent to a single endpoint.
+   * @param maxAttempts
+   *          The maximum number of attempts for a single request.
+   * @param initialBackoff
+   *          The time before the first retry, doubled for every further retry.
+   * @param unit
+   *          The unit of the backoff time.
+   * @param ticker
+   *          The time source for the rate limits, the backoff and the drain rate.
+   */
+  RevocationQueue(Sender sender, int queueCapacity, int maxBatchSize, double permitsPerSecond,
+      int maxAttempts, long initialBackoff, TimeUnit unit, Ticker ticker) {
+    if (sender == null) {
+      throw new IllegalArgumentException("The sender cannot be null");
+    }
+    if (queueCapacity < 1 || maxBatchSize < 1 || maxAttempts < 1) {
+      throw new IllegalArgumentException(
+          "The queue capacity, batch size and attempts must be positive");
+    }
+    if (!(permitsPerSecond > 0) || initialBackoff < 0) {
+      throw new IllegalArgumentException(
+          "The rate must be positive and the backoff cannot be negative");
+    }
+    this.sender = sender;
+    this.queueCapacity = queueCapacity;
+    this.maxBatchSize = maxBatchSize;
+    this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = unit.toNanos(initialBackoff);
+    this.ticker = ticker;
+    this.worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sendQueued();
+      }
+    }, "token-revocation-sender");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  /**
+   * Queues the revocation request without waiting.
+   * 
+   * @param request
+   *          The revocation request, as built by {@link Revocation}. Its URL is the endpoint.
+   * @return True if the request was queued, false if the queue is full.
+   * @throws IllegalStateException
+   *           If the queue has been closed.
+   */
+  public boolean submit(HttpArguments request) {
+    return submit(request, null);
+  }
+
+  /**
+   * Queues the revocation request without waiting.
+   * 
+   * @param request
+   *          The revocation request, as built by {@link Revocation}. Its URL is the endpoint.
+   * @param callback
+   *          The callback told when the endpoint has accepted the request, null if not needed.
+   * @return True if the request was queued, false if the queue is full.
+   * @throws IllegalStateException
+   *           If the queue has been closed.
+   */
+  public boolean submit(HttpArguments request, Callback callback) {
+    if (request == null || request.getUrl() == null) {
+      throw new IllegalArgumentException("The request and its URL cannot be null");
+    }
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("The revocation queue is closed");
+      }
+      if (depth >= queueCapacity) {
+        return false;
+      }
+      Endpoint endpoint = endpoints.get(request.getUrl());
+      if (endpoint == null) {
+        endpoint = new Endpoint(request.getUrl(), maxBatchSize, ticker.read());
+        endpoints.put(request.getUrl(), endpoint);
+      }
+      endpoint.ready.add(new Item(endpoint, request, callback));
+      depth++;
+      submittedCount++;
+      workAvailable.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until all the queued requests have either been revoked or have failed.
+   * 
+   * @param timeout
+   *          The maximum time to wait.
+   * @param unit
+   *          The unit of the timeout.
+   * @return True if the queue is empty, false if the timeout elapsed first.
+   * @throws InterruptedException
+   *           If the thread was interrupted while waiting.
+   */
+  public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+    long remaining = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (depth > 0) {
+        if (remaining <= 0) {
+          return false;
+        }
+        remaining = drained.awaitNanos(remaining);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops accepting requests and stops the sender thread once the batch being sent is done. The
+   * requests still queued are not sent, use {@link #awaitDrained(long, TimeUnit)} before closing to
+   * send them.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      workAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      worker.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Get the number of requests that are queued, waiting for a retry or being sent.
+   * 
+   * @return The queue depth.
+   */
+  public int getDepth() {
+    lock.lock();
+    try {
+      return depth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of requests revoked per second, averaged over the last ten complete seconds.
+   * 
+   * @return The drain rate.
+   */
+  public double getDrainRate() {
+    long second = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+    long total = 0;
+    lock.lock();
+    try {
+      for (int i = 0; i < RATE_BUCKETS; i++) {
+        // the current second is not complete yet, it's not counted
+        if (rateSeconds[i] < second && second - rateSeconds[i] <= RATE_WINDOW_SECONDS) {
+          total += rateCounts[i];
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return (double) total / RATE_WINDOW_SECONDS;
+  }
+
+  /**
+   * Get the number of submitted requests.
+   * 
+   * @return The number of submitted requests.
+   */
+  public long getSubmittedCount() {
+    lock.lock();
+    try {
+      return submittedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of requests accepted by the endpoint.
+   * 
+   * @return The number of revoked requests.
+   */
+  public long getRevokedCount() {
+    lock.lock();
+    try {
+      return revokedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of requests that failed on every attempt.
+   * 
+   * @return The number of failed requests.
+   */
+  public long getFailedCount() {
+    lock.lock();
+    try {
+      return failedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of retries scheduled after failed attempts.
+   * 
+   * @return The number of retries.
+   */
+  public long getRetryCount() {
+    lock.lock();
+    try {
+      return retryCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of batches handed to the sender.
+   * 
+   * @return The number of batches.
+   */
+  public long getBatchCount() {
+    lock.lock();
+    try {
+      return batchCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the latest exception thrown by the sender or a callback.
+   * 
+   * @return The latest exception, or null if none has been thrown.
+   */
+  public Exception getLastFailure() {
+    return lastFailure.get();
+  }
+
+  private void sendQueued() {
+    List<List<Item>> batches = new ArrayList<List<Item>>();
+    while (true) {
+      lock.lock();
+      try {
+        while (batches.isEmpty()) {
+          if (closed) {
+            return;
+          }
+          long waitNanos = collectBatches(ticker.read(), batches);
+          if (!batches.isEmpty()) {
+            break;
+          }
+          if (waitNanos == Long.MAX_VALUE) {
+            workAvailable.await();
+          } else {
+            workAvailable.awaitNanos(waitNanos);
+          }
+        }
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+      for (List<Item> batch : batches) {
+        sendBatch(batch);
+      }
+      batches.clear();
+    }
+  }
+
+  /**
+   * Takes the batches that can be sent now, within the rate limits of their endpoints.
+   * 
+   * @return The time until the next request can be sent, Long.MAX_VALUE if nothing is queued.
+   */
+  private long collectBatches(long now, List<List<Item>> batches) {
+    while (!retries.isEmpty() && retries.peek().notBefore - now <= 0) {
+      Item item = retries.poll();
+      item.endpoint.ready.add(item);
+    }
+    long waitNanos = retries.isEmpty() ? Long.MAX_VALUE : retries.peek().notBefore - now;
+    for (Endpoint endpoint : endpoints.values()) {
+      if (endpoint.ready.isEmpty()) {
+        continue;
+      }
+      endpoint.refill(now, permitsPerNano, maxBatchSize);
+      int size = Math.min(endpoint.ready.size(), (int) endpoint.permits);
+      if (size == 0) {
+        waitNanos = Math.min(waitNanos, (long) Math.ceil((1 - endpoint.permits) / permitsPerNano));
+        continue;
+      }
+      endpoint.permits -= size;
+      List<Item> batch = new ArrayList<Item>(size);
+      for (int i = 0; i < size; i++) {
+        batch.add(endpoint.ready.poll());
+      }
+      batches.add(batch);
+    }
+    return Math.max(waitNanos, 1);
+  }
+
+  private void sendBatch(List<Item> batch) {
+    List<HttpArguments> requests = new ArrayList<HttpArguments>(batch.size());
+    for (Item item : batch) {
+      requests.add(item.request);
+    }
+    List<HttpArguments> failed;
+    try {
+      failed = sender.send(batch.get(0).endpoint.url, requests);
+    } catch (Exception e) {
+      lastFailure.set(e);
+      failed = requests;
+    }
+    Set<HttpArguments> failedSet = Collections
+        .newSetFromMap(new IdentityHashMap<HttpArguments, Boolean>());
+    if (failed != null) {
+      failedSet.addAll(failed);
+    }
+    // the callbacks are done before the requests are counted, so they are done once drained
+    for (Item item : batch) {
+      if (item.callback != null && !failedSet.contains(item.request)) {
+        try {
+          item.callback.revoked(item.request);
+        } catch (RuntimeException e) {
+          lastFailure.set(e);
+        }
+      }
+    }
+    long now = ticker.read();
+    lock.lock();
+    try {
+      batchCount++;
+      for (Item item : batch) {
+        if (!failedSet.contains(item.request)) {
+          revokedCount++;
+          recordRevoked(now);
+          depth--;
+        } else if (++item.attempts >= maxAttempts) {
+          failedCount++;
+          depth--;
+        } else {
+          retryCount++;
+          int doublings = Math.min(item.attempts - 1, MAX_BACKOFF_DOUBLINGS);
+          item.notBefore = now + (initialBackoff << doublings);
+          retries.add(item);
+        }
+      }
+      if (depth == 0) {
+        drained.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void recordRevoked(long now) {
+    long second = TimeUnit.NANOSECONDS.toSeconds(now);
+    int index = (int) (second % RATE_BUCKETS);
+    if (rateSeconds[index] != second) {
+      rateSeconds[index] = second;
+      rateCounts[index] = 0;
+    }
+    rateCounts[index]++;
+  }
+
+  /**
+   * Sends the revocation requests, typically with an HTTP client that reuses its connection to the
+   * endpoint. The requests are sent by a single background thread.
+   */
+  public interface Sender {
+
+    /**
+     * Sends a batch of revocation requests to the same endpoint.
+     * 
+     * @param endpoint
+     *          The revocation endpoint.
+     * @param requests
+     *          The requests to send.
+     * @return The requests that failed and should be retried, null or empty if all the tokens
+     *         were revoked.
+     * @throws Exception
+     *           If the batch could not be sent, all its requests are retried.
+     */
+    public List<HttpArguments> send(String endpoint, List<HttpArguments> requests)
+        throws Exception;
+  }
+
+  /**
+   * Told about the requests accepted by the endpoint, e.g. for invalidating the cached data of the
+   * revoked token. Called on the sender thread, outside of the locks of the queue, before the
+   * request is counted as revoked.
+   */
+  public interface Callback {
+
+    /**
+     * Called when the endpoint has accepted the revocation request.
+     * 
+     * @param request
+     *          The revocation request.
+     */
+    public void revoked(HttpArguments request);
+  }
+
+  /** The queued requests and the rate limit of an endpoint. */
+  private static final class Endpoint {
+
+    private final String url;
+
+    private final ArrayDeque<Item> ready = new ArrayDeque<Item>();
+
+    /** The available permits of the token bucket. */
+    private double permits;
+
+    /** The time the permits were last refilled. */
+    private long refilledAt;
+
+    private Endpoint(String url, int permits, long now) {
+      this.url = url;
+      this.permits = permits;
+      this.refilledAt = now;
+    }
+
+    private void refill(long now, double permitsPerNano, int capacity) {
+      permits = Math.min(capacity, permits + (now - refilledAt) * permitsPerNano);
+      refilledAt = now;
+    }
+  }
+
+  /** A queued request. */
+  private static final class Item {
+
+    private final Endpoint endpoint;
+
+    private final HttpArguments request;
+
+    /** The callback told when the request is accepted, null if not used. */
+    private final Callback callback;
+
+    /** The number of failed attempts. */
+    private int attempts;
+
+    /** The time before which the request is not retried. */
+    private long notBefore;
+
+    private Item(Endpoint endpoint, HttpArguments request, Callback callback) {
+      this.endpoint = endpoint;
+      this.request = request;
+      this.callback = callback;
+    }
+  }
+}
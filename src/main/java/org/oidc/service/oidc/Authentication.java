@@ -16,9 +16,14 @@
 
 package org.oidc.service.oidc;
 
+import com.google.common.base.Strings;
+
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.oidc.common.EndpointName;
 import org.oidc.common.HttpMethod;
@@ -28,6 +33,7 @@ import org.oidc.common.SerializationType;
 import org.oidc.common.ServiceName;
 import org.oidc.msg.InvalidClaimException;
 import org.oidc.msg.Message;
+import org.oidc.msg.SerializationException;
 import org.oidc.msg.oidc.AuthenticationRequest;
 import org.oidc.msg.oidc.AuthenticationResponse;
 import org.oidc.msg.oidc.IDToken;
@@ -37,6 +43,8 @@ import org.oidc.service.base.RequestArgumentProcessingException;
 import org.oidc.service.base.RequestArgumentProcessor;
 import org.oidc.service.base.ServiceConfig;
 import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.ServiceContextSnapshot;
+import org.oidc.service.base.VerificationFailures;
 import org.oidc.service.base.processor.AddClientId;
 import org.oidc.service.base.processor.AddNonce;
 import org.oidc.service.base.processor.AddRequestObject;
@@ -47,12 +55,35 @@ import org.oidc.service.base.processor.PickRedirectUri;
 import org.oidc.service.base.processor.StoreAuthenticationRequest;
 import org.oidc.service.base.processor.StoreNonce;
 import org.oidc.service.data.State;
+import org.oidc.service.data.StateRecord;
+import org.oidc.service.util.ServiceUtil;
 
 /**
  * OIDC provider authentication service.
  */
 public class Authentication extends AbstractService {
 
+  /** The pre-constructors whose arguments are resolved into the request template. */
+  private static final Set<Class<?>> TEMPLATE_PRE_CONSTRUCTORS = new HashSet<Class<?>>(
+      Arrays.<Class<?>>asList(AddClientId.class, PickRedirectUri.class, AddResponseType.class,
+          AddScope.class));
+
+  /** The pre-constructors that are run on every request when the request template is used. */
+  private static final Set<Class<?>> PER_REQUEST_PRE_CONSTRUCTORS = new HashSet<Class<?>>(
+      Arrays.<Class<?>>asList(AddState.class, AddNonce.class));
+
+  /** Whether the static part of the requests is cached in a request template. */
+  private boolean requestTemplateEnabled;
+
+  /** The latest request template, null if none has been resolved. */
+  private AuthenticationRequestTemplate requestTemplate;
+
+  /** The request template used for the request being constructed, null if not used. */
+  private AuthenticationRequestTemplate activeRequestTemplate;
+
+  /** The maximum age of a state accepted in a response, in seconds, 0 for no limit. */
+  private long maxStateAge;
+
   /**
    * Constructor.
    * 
@@ -71,6 +102,65 @@ public class Authentication extends AbstractService {
     expectedResponseClass = AuthenticationResponse.class;
   }
 
+  /**
+   * Get the maximum age of a state accepted in a response.
+   * 
+   * @return The maximum age in seconds, 0 for no limit.
+   */
+  public long getMaxStateAge() {
+    return maxStateAge;
+  }
+
+  /**
+   * Set the maximum age of a state accepted in a response. The age is only known for the states
+   * whose record has the {@link StateRecord#CREATED_AT} claim.
+   * 
+   * @param maxStateAge
+   *          The maximum age in seconds, 0 for no limit.
+   */
+  public void setMaxStateAge(long maxStateAge) {
+    this.maxStateAge = maxStateAge;
+  }
+
+  /**
+   * Whether the static part of the requests is cached in a request template.
+   * 
+   * @return True if the request template is used, false otherwise.
+   */
+  public boolean isRequestTemplateEnabled() {
+    return requestTemplateEnabled;
+  }
+
+  /**
+   * Set whether the static part of the requests is cached in a request template. The template
+   * holds the arguments added by {@link AddClientId}, {@link PickRedirectUri},
+   * {@link AddResponseType} and {@link AddScope}, and their URL encoded form. It is resolved again
+   * whenever the service context, the endpoint or the caller supplied values for those arguments
+   * change, so that only the state, the nonce and the other per-request claims are serialized for
+   * every request. The template is only used if the pre-constructors are a subset of the default
+   * ones.
+   *
+   * <p>
+   * Changes made in place to the messages published in the service context, such as the claims of
+   * the behavior, are not detected. The template must be cleared with
+   * {@link #clearRequestTemplate()} after such changes.
+   * </p>
+   * 
+   * @param requestTemplateEnabled
+   *          Whether the request template is used.
+   */
+  public void setRequestTemplateEnabled(boolean requestTemplateEnabled) {
+    this.requestTemplateEnabled = requestTemplateEnabled;
+    clearRequestTemplate();
+  }
+
+  /**
+   * Clears the request template, it's resolved again for the next request.
+   */
+  public void clearRequestTemplate() {
+    requestTemplate = null;
+  }
+
   @Override
   protected ServiceConfig getDefaultServiceConfig() {
     ServiceConfig defaultConfig = new ServiceConfig();
@@ -86,6 +176,38 @@ public class Authentication extends AbstractService {
     return defaultConfig;
   }
 
+  /**
+   * Rejects the responses whose state is missing, differs from the given state key, is not found
+   * from the state database or is too old, before the response is deserialized or its ID token
+   * verified. The state is the only value in a forged callback the client can check cheaply.
+   */
+  @Override
+  protected void preValidateResponse(String responseBody, String urlInfo, String stateKey)
+      throws InvalidClaimException {
+    if (urlInfo == null) {
+      return;
+    }
+    String responseState = ServiceUtil.getUrlEncodedParameter(urlInfo, "state");
+    if (Strings.isNullOrEmpty(responseState)) {
+      throw VerificationFailures.invalidClaim("The response has no valid state");
+    }
+    if (!Strings.isNullOrEmpty(stateKey) && !stateKey.equals(responseState)) {
+      throw VerificationFailures.invalidClaim("The state in the response is not the expected one");
+    }
+    StateRecord record = getState().getState(responseState);
+    if (record == null) {
+      throw VerificationFailures.invalidClaim("The state in the response is unknown");
+    }
+    Object createdAt = record.getClaims().get(StateRecord.CREATED_AT);
+    if (maxStateAge > 0 && createdAt instanceof Number) {
+      long now = System.currentTimeMillis() / 1000;
+      if (now > ((Number) createdAt).longValue() + maxStateAge
+          + getServiceContext().getClockSkew()) {
+        throw VerificationFailures.invalidClaim("The state in the response has expired");
+      }
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   protected void doUpdateServiceContext(Message response, String stateKey)
@@ -94,9 +216,8 @@ public class Authentication extends AbstractService {
       IDToken idToken = ((AuthenticationResponse) response).getVerifiedIdToken();
       if (!stateKey
           .equals(getState().getStateKeyByNonce((String) idToken.getClaims().get("nonce")))) {
-        throw new InvalidClaimException(
-            String.format("nonce '%s' in the id token is not matching state record '%s'",
-                (String) idToken.getClaims().get("nonce"), stateKey));
+        throw VerificationFailures.invalidClaim("nonce '" + idToken.getClaims().get("nonce")
+            + "' in the id token is not matching state record '" + stateKey + "'");
       }
       getState().storeItem(idToken, stateKey, MessageType.VERIFIED_IDTOKEN);
     }
@@ -113,6 +234,75 @@ public class Authentication extends AbstractService {
     return httpArguments;
   }
 
+  @Override
+  protected Message constructRequest(Map<String, Object> requestArguments)
+      throws RequestArgumentProcessingException {
+    activeRequestTemplate = requestTemplateEnabled ? resolveRequestTemplate(requestArguments)
+        : null;
+    if (activeRequestTemplate != null) {
+      requestArguments.putAll(activeRequestTemplate.getClaims());
+    }
+    return super.constructRequest(requestArguments);
+  }
+
+  /**
+   * Resolves the request template for the request arguments, reusing the latest one if it still
+   * applies.
+   * 
+   * @param requestArguments
+   *          The request arguments.
+   * @return The template, or null if a template cannot be used for the request.
+   * @throws RequestArgumentProcessingException
+   *           If the pre-constructors resolved into the template fail.
+   */
+  private AuthenticationRequestTemplate resolveRequestTemplate(
+      Map<String, Object> requestArguments) throws RequestArgumentProcessingException {
+    String endpoint = getEndpoint();
+    if (endpoint == null || preConstructors == null) {
+      return null;
+    }
+    for (RequestArgumentProcessor processor : preConstructors) {
+      if (!TEMPLATE_PRE_CONSTRUCTORS.contains(processor.getClass())
+          && !PER_REQUEST_PRE_CONSTRUCTORS.contains(processor.getClass())) {
+        return null;
+      }
+    }
+    long version = getServiceContext().getSnapshot().getVersion();
+    AuthenticationRequestTemplate template = requestTemplate;
+    if (template != null && template.matches(version, endpoint, requestArguments)) {
+      return template;
+    }
+    Map<String, Object> inputs = AuthenticationRequestTemplate.getInputs(requestArguments);
+    if (inputs == null) {
+      return null;
+    }
+    Map<String, Object> claims = new LinkedHashMap<String, Object>(inputs);
+    for (RequestArgumentProcessor processor : preConstructors) {
+      if (TEMPLATE_PRE_CONSTRUCTORS.contains(processor.getClass())) {
+        processor.processRequestArguments(claims, this);
+      }
+    }
+    template = AuthenticationRequestTemplate.create(version, endpoint, inputs, claims);
+    requestTemplate = template;
+    return template;
+  }
+
+  @Override
+  protected boolean isPreConstructorNeeded(RequestArgumentProcessor processor,
+      Map<String, Object> requestArguments) {
+    return activeRequestTemplate == null
+        || !TEMPLATE_PRE_CONSTRUCTORS.contains(processor.getClass());
+  }
+
+  @Override
+  protected String serializeGetRequest(String endpoint, Message request)
+      throws SerializationException {
+    AuthenticationRequestTemplate template = activeRequestTemplate;
+    activeRequestTemplate = null;
+    String url = template != null ? template.serialize(request) : null;
+    return url != null ? url : super.serializeGetRequest(endpoint, request);
+  }
+
   @Override
   protected Message doConstructRequest(Map<String, Object> requestArguments)
       throws RequestArgumentProcessingException {
@@ -125,21 +315,21 @@ public class Authentication extends AbstractService {
       return responseMessage;
     }
     AuthenticationResponse response = (AuthenticationResponse) responseMessage;
-    response.setKeyJar(getServiceContext().getKeyJar());
-    response.setIssuer(getServiceContext().getIssuer());
-    response.setClientId(getServiceContext().getClientId());
-    response.setSkew(getServiceContext().getClockSkew());
-    if (getServiceContext().getBehavior() != null
-        && getServiceContext().getBehavior().getClaims() != null) {
-      response.setSigAlg((String) getServiceContext().getBehavior().getClaims()
+    ServiceContextSnapshot context = getServiceContext().getSnapshot();
+    response.setKeyJar(context.getKeyJar());
+    response.setIssuer(context.getIssuer());
+    response.setClientId(context.getClientId());
+    response.setSkew(context.getClockSkew());
+    if (context.getBehavior() != null && context.getBehavior().getClaims() != null) {
+      response.setSigAlg((String) context.getBehavior().getClaims()
           .get("id_token_signed_response_alg"));
-      response.setEncAlg((String) getServiceContext().getBehavior().getClaims()
+      response.setEncAlg((String) context.getBehavior().getClaims()
           .get("id_token_encrypted_response_alg"));
-      response.setEncEnc((String) getServiceContext().getBehavior().getClaims()
+      response.setEncEnc((String) context.getBehavior().getClaims()
           .get("id_token_encrypted_response_enc"));
     }
-    if (getServiceContext().getAllow().get("missing_kid") != null) {
-      response.setAllowMissingKid(getServiceContext().getAllow().get("missing_kid"));
+    if (context.getAllow().get("missing_kid") != null) {
+      response.setAllowMissingKid(context.getAllow().get("missing_kid"));
     }
     return responseMessage;
   }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.oidc.msg.Message;
+
+/**
+ * The precomputed, URL encoded static part of the authentication requests sent by an
+ * {@link Authentication} service. It holds the request arguments resolved from the service context
+ * by the pre-constructors that don't depend on the individual request, such as client_id,
+ * redirect_uri, response_type and scope.
+ *
+ * <p>
+ * A template is valid for a single version of the service context, a single endpoint and a single
+ * set of caller supplied values for the arguments read by those pre-constructors. Changes made in
+ * place to the messages published in the context do not change its version, and are therefore not
+ * seen by an existing template.
+ * </p>
+ */
+final class AuthenticationRequestTemplate {
+
+  /** The request arguments read by the pre-constructors resolved into the template. */
+  static final List<String> INPUTS = Collections.unmodifiableList(
+      Arrays.asList("client_id", "redirect_uri", "response_mode", "response_type", "scope"));
+
+  /** The version of the service context the template was resolved from. */
+  private final long version;
+
+  /** The endpoint of the requests. */
+  private final String endpoint;
+
+  /** The caller supplied values of the inputs the template was resolved with. */
+  private final Map<String, Object> inputs;
+
+  /** The resolved request arguments. */
+  private final Map<String, Object> claims;
+
+  /** The endpoint followed by the URL encoded resolved request arguments. */
+  private final String urlPrefix;
+
+  private AuthenticationRequestTemplate(long version, String endpoint, Map<String, Object> inputs,
+      Map<String, Object> claims, String urlPrefix) {
+    this.version = version;
+    this.endpoint = endpoint;
+    this.inputs = inputs;
+    this.claims = claims;
+    this.urlPrefix = urlPrefix;
+  }
+
+  /**
+   * Creates a template.
+   * 
+   * @param version
+   *          The version of the service context the arguments were resolved from.
+   * @param endpoint
+   *          The endpoint of the requests.
+   * @param inputs
+   *          The caller supplied values of the inputs, as returned by {@link #getInputs(Map)}.
+   * @param claims
+   *          The request arguments resolved from the inputs.
+   * @return The template, or null if a resolved argument is not a string.
+   */
+  static AuthenticationRequestTemplate create(long version, String endpoint,
+      Map<String, Object> inputs, Map<String, Object> claims) {
+    StringBuilder urlPrefix = new StringBuilder(endpoint).append('?');
+    boolean first = true;
+    for (Map.Entry<String, Object> claim : claims.entrySet()) {
+      if (!(claim.getValue() instanceof String)) {
+        return null;
+      }
+      if (!first) {
+        urlPrefix.append('&');
+      }
+      first = false;
+      urlPrefix.append(encode(claim.getKey())).append('=')
+          .append(encode((String) claim.getValue()));
+    }
+    return new AuthenticationRequestTemplate(version, endpoint, inputs,
+        Collections.unmodifiableMap(new LinkedHashMap<String, Object>(claims)),
+        urlPrefix.toString());
+  }
+
+  /**
+   * Picks the caller supplied values of the inputs from the request arguments.
+   * 
+   * @param requestArguments
+   *          The request arguments.
+   * @return The values of the inputs, or null if an input has a value that is not a string.
+   */
+  static Map<String, Object> getInputs(Map<String, Object> requestArguments) {
+    Map<String, Object> inputs = new LinkedHashMap<String, Object>();
+    for (String name : INPUTS) {
+      Object value = requestArguments.get(name);
+      if (value instanceof String) {
+        inputs.put(name, value);
+      } else if (value != null || requestArguments.containsKey(name)) {
+        return null;
+      }
+    }
+    return inputs;
+  }
+
+  /**
+   * Checks whether the template applies to a request.
+   * 
+   * @param version
+   *          The current version of the service context.
+   * @param endpoint
+   *          The endpoint of the request.
+   * @param requestArguments
+   *          The request arguments.
+   * @return True if the template was resolved for the same context, endpoint and inputs.
+   */
+  boolean matches(long version, String endpoint, Map<String, Object> requestArguments) {
+    if (version != this.version || !this.endpoint.equals(endpoint)) {
+      return false;
+    }
+    for (String name : INPUTS) {
+      Object value = requestArguments.get(name);
+      if (value == null ? requestArguments.containsKey(name) || inputs.containsKey(name)
+          : !value.equals(inputs.get(name))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the resolved request arguments.
+   * 
+   * @return The unmodifiable resolved request arguments.
+   */
+  Map<String, Object> getClaims() {
+    return claims;
+  }
+
+  /**
+   * Serializes the request to a URL by appending its remaining claims to the precomputed prefix.
+   * 
+   * @param request
+   *          The request message, constructed with the resolved request arguments.
+   * @return The URL, or null if the claims of the request no longer contain the resolved
+   *         arguments or a remaining claim is not a string. The request must then be serialized
+   *         as a whole.
+   */
+  String serialize(Message request) {
+    StringBuilder url = new StringBuilder(urlPrefix.length() + 256).append(urlPrefix);
+    int resolved = 0;
+    boolean separator = !claims.isEmpty();
+    for (Map.Entry<String, Object> claim : request.getClaims().entrySet()) {
+      Object value = claim.getValue();
+      Object resolvedValue = claims.get(claim.getKey());
+      if (resolvedValue != null) {
+        if (!resolvedValue.equals(value)) {
+          return null;
+        }
+        resolved++;
+      } else if (value instanceof String) {
+        if (separator) {
+          url.append('&');
+        }
+        separator = true;
+        url.append(encode(claim.getKey())).append('=').append(encode((String) value));
+      } else {
+        return null;
+      }
+    }
+    return resolved == claims.size() ? url.toString() : null;
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is not supported", e);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.msg.DeserializationException;
+import org.oidc.msg.InvalidClaimException;
+import org.oidc.msg.Message;
+import org.oidc.msg.oidc.LogoutToken;
+import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.ServiceContextSnapshot;
+import org.oidc.service.data.State;
+
+/**
+ * Handles the logout tokens sent by the OP to the back-channel logout URI of the client, see
+ * https://openid.net/specs/openid-connect-backchannel-1_0.html. The logout token is validated and
+ * the states of the sessions it identifies are removed from the {@link State} database.
+ *
+ * <p>
+ * The sessions are found by the sid and sub claims of their verified ID tokens, with the index the
+ * {@link State} maintains for them, so the cost of a logout depends on the number of sessions of
+ * the user rather than on the total number of states.
+ * </p>
+ */
+public class BackChannelLogoutHandler {
+
+  /** The event type of a back-channel logout in the events claim. */
+  public static final String BACKCHANNEL_LOGOUT_EVENT =
+      "http://schemas.openid.net/event/backchannel-logout";
+
+  /** The maximum number of remembered logout token identifiers. */
+  private static final int MAX_SEEN_TOKENS = 10000;
+
+  /**
+   * The time a logout token identifier is remembered for, in minutes. Older logout tokens are
+   * rejected, as their replays could not be detected.
+   */
+  private static final int SEEN_TOKEN_MINUTES = 60;
+
+  /** The service context of the client, for the issuer, client ID, keys and clock skew. */
+  private final ServiceContext serviceContext;
+
+  /** The state database the sessions are removed from. */
+  private final State state;
+
+  /** The identifiers (jti) of the recently handled logout tokens, for detecting replays. */
+  private final Cache<String, Boolean> seenTokens = CacheBuilder.newBuilder()
+      .maximumSize(MAX_SEEN_TOKENS).expireAfterWrite(SEEN_TOKEN_MINUTES, TimeUnit.MINUTES).build();
+
+  /**
+   * Constructor.
+   * 
+   * @param serviceContext
+   *          service context of the client, must not be null
+   * @param state
+   *          state database of the client, must not be null
+   */
+  public BackChannelLogoutHandler(ServiceContext serviceContext, State state) {
+    if (serviceContext == null || state == null) {
+      throw new IllegalArgumentException("The service context and state cannot be null");
+    }
+    this.serviceContext = serviceContext;
+    this.state = state;
+  }
+
+  /**
+   * Verifies the signed logout token and removes the states of the sessions it identifies.
+   * 
+   * @param logoutToken
+   *          The logout_token parameter of the back-channel logout request.
+   * @return The keys of the removed states.
+   * @throws DeserializationException
+   *           If the logout token cannot be parsed or its signature cannot be verified.
+   * @throws InvalidClaimException
+   *           If the logout token is not valid.
+   */
+  public List<String> logout(String logoutToken)
+      throws DeserializationException, InvalidClaimException {
+    if (logoutToken == null || logoutToken.isEmpty()) {
+      throw new InvalidClaimException("The logout token is missing");
+    }
+    return logout(parseLogoutToken(logoutToken));
+  }
+
+  /**
+   * Validates the claims of the parsed logout token and removes the states of the sessions it
+   * identifies. If the token has both sid and sub, only the sessions matching both are removed.
+   * 
+   * @param logoutToken
+   *          The logout token, with its signature already verified.
+   * @return The keys of the removed states.
+   * @throws InvalidClaimException
+   *           If the logout token is not valid.
+   */
+  public List<String> logout(Message logoutToken) throws InvalidClaimException {
+    if (!logoutToken.verify()) {
+      throw new InvalidClaimException("The logout token has unexpected contents: "
+          + logoutToken.getError().getDetails());
+    }
+    Map<String, Object> claims = logoutToken.getClaims();
+    ServiceContextSnapshot context = serviceContext.getSnapshot();
+    String issuer = context.getIssuer();
+    if (issuer == null || !issuer.equals(claims.get("iss"))) {
+      throw new InvalidClaimException(
+          "Unexpected issuer in the logout token: " + claims.get("iss"));
+    }
+    if (!containsAudience(claims.get("aud"), context.getClientId())) {
+      throw new InvalidClaimException("The logout token is not issued for this client");
+    }
+    verifyIssuedAt(claims.get("iat"), context.getClockSkew());
+    Object events = claims.get("events");
+    if (!(events instanceof Map) || !((Map<?, ?>) events).containsKey(BACKCHANNEL_LOGOUT_EVENT)) {
+      throw new InvalidClaimException("The logout token has no back-channel logout event");
+    }
+    if (claims.containsKey("nonce")) {
+      throw new InvalidClaimException("The logout token must not contain a nonce");
+    }
+    String sid = claims.get("sid") != null ? claims.get("sid").toString() : null;
+    String sub = claims.get("sub") != null ? claims.get("sub").toString() : null;
+    if (sid == null && sub == null) {
+      throw new InvalidClaimException("The logout token contains neither sid nor sub");
+    }
+    Object jti = claims.get("jti");
+    if (jti == null || jti.toString().isEmpty()) {
+      throw new InvalidClaimException("The logout token has no jti");
+    }
+    if (seenTokens.asMap().putIfAbsent(jti.toString(), Boolean.TRUE) != null) {
+      throw new InvalidClaimException("The logout token has already been used");
+    }
+
+    List<String> stateKeys;
+    if (sid != null) {
+      stateKeys = state.getStateKeysBySid(issuer, sid);
+      if (sub != null) {
+        stateKeys.retainAll(state.getStateKeysBySub(issuer, sub));
+      }
+    } else {
+      stateKeys = state.getStateKeysBySub(issuer, sub);
+    }
+    List<String> removed = new ArrayList<String>(stateKeys.size());
+    for (String stateKey : stateKeys) {
+      if (state.removeStateRecord(stateKey)) {
+        removed.add(stateKey);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Parses the logout token and verifies its signature with the keys of the issuer.
+   * 
+   * @param logoutToken
+   *          The logout token as a JWT.
+   * @return The parsed logout token.
+   * @throws DeserializationException
+   *           If the logout token cannot be parsed or its signature cannot be verified.
+   */
+  protected Message parseLogoutToken(String logoutToken) throws DeserializationException {
+    ServiceContextSnapshot context = serviceContext.getSnapshot();
+    LogoutToken token = new LogoutToken();
+    token.fromJwt(logoutToken, context.getKeyJar(), context.getIssuer());
+    return token;
+  }
+
+  private static boolean containsAudience(Object aud, String clientId) {
+    if (clientId == null || aud == null) {
+      return false;
+    }
+    if (aud instanceof Collection) {
+      return ((Collection<?>) aud).contains(clientId);
+    }
+    return clientId.equals(aud);
+  }
+
+  private static void verifyIssuedAt(Object iat, long clockSkew) throws InvalidClaimException {
+    long issuedAt;
+    if (iat instanceof Date) {
+      issuedAt = ((Date) iat).getTime() / 1000;
+    } else if (iat instanceof Number) {
+      issuedAt = ((Number) iat).longValue();
+    } else {
+      throw new InvalidClaimException("The logout token has no valid iat");
+    }
+    long now = System.currentTimeMillis() / 1000;
+    if (issuedAt > now + clockSkew) {
+      throw new InvalidClaimException("The logout token is issued in the future");
+    }
+    if (issuedAt < now - clockSkew - TimeUnit.MINUTES.toSeconds(SEEN_TOKEN_MINUTES)) {
+      throw new InvalidClaimException("The logout token is too old");
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.oidc.common.MissingRequiredAttributeException;
+import org.oidc.msg.oidc.ProviderConfigurationResponse;
+import org.oidc.msg.oidc.RegistrationRequest;
+import org.oidc.msg.oidc.RegistrationResponse;
+import org.oidc.service.util.ServiceUtil;
+import org.oidc.service.util.TokenSet;
+
+/**
+ * Matches client preferences against the capabilities of a single provider, see {@link
+ * ProviderInfoDiscovery#matchPreferences(ProviderConfigurationResponse, RegistrationResponse)}.
+ *
+ * <p>
+ * The supported values of the provider are converted into hash sets once, when the matcher is
+ * created. The response types are matched as {@link TokenSet}s, regardless of the order of their
+ * tokens. The matching results are cached by the values of the matched preferences, so that
+ * registering many clients with the same preferences against the same provider only matches them
+ * once. Matchers are shared by the content of the matched provider capabilities, so a
+ * configuration refilled by a later discovery gets a new matcher, while the clients of the same
+ * provider configuration share one.
+ * </p>
+ */
+public class PreferenceMatcher {
+
+  /** The maximum number of cached results per provider. */
+  private static final int MAX_RESULTS = 256;
+
+  /** The maximum number of shared matchers. */
+  private static final int MAX_MATCHERS = 1024;
+
+  /** The matchers, keyed by the values of the matched provider capabilities. */
+  private static final Cache<Map<String, Object>, PreferenceMatcher> MATCHERS =
+      CacheBuilder.newBuilder().maximumSize(MAX_MATCHERS).build();
+
+  /** The preference whose values are space separated token sets. */
+  private static final String RESPONSE_TYPES = "response_types";
+
+  /** Marker for a capability the provider did not publish and has no default for. */
+  private static final Object ANY = new Object();
+
+  /**
+   * The capabilities of the provider keyed by the preference name. The values are sets for the
+   * list capabilities, {@link #ANY} for unknown ones and the value itself otherwise.
+   */
+  private final Map<String, Object> capabilities;
+
+  /** The cached results, keyed by the matched preferences. */
+  private final Cache<Map<String, Object>, Result> results;
+
+  /**
+   * Constructor.
+   * 
+   * @param pcr
+   *          The provider configuration.
+   */
+  public PreferenceMatcher(ProviderConfigurationResponse pcr) {
+    this(pcr.getClaims());
+  }
+
+  private PreferenceMatcher(Map<String, Object> providerClaims) {
+    capabilities = new HashMap<String, Object>();
+    for (Entry<String, String> entry : ProviderInfoDiscovery.PREFERENCE_TO_PROVIDER.entrySet()) {
+      String preferenceKey = entry.getKey();
+      Object providerValue = providerClaims.get(entry.getValue());
+      if (providerValue == null) {
+        providerValue = ProviderInfoDiscovery.PROVIDER_DEFAULT.containsKey(preferenceKey)
+            ? ProviderInfoDiscovery.PROVIDER_DEFAULT.get(preferenceKey)
+            : ANY;
+      } else if (providerValue instanceof List) {
+        Set<Object> supported = new HashSet<Object>();
+        for (Object item : (List<?>) providerValue) {
+          supported.add(canonical(preferenceKey, item));
+        }
+        providerValue = supported;
+      }
+      capabilities.put(preferenceKey, providerValue);
+    }
+    results = CacheBuilder.newBuilder().maximumSize(MAX_RESULTS).build();
+  }
+
+  /**
+   * Get the shared matcher for the current content of the provider configuration.
+   * 
+   * @param pcr
+   *          The provider configuration.
+   * @return The matcher, created on first use.
+   */
+  public static PreferenceMatcher forProvider(ProviderConfigurationResponse pcr) {
+    final Map<String, Object> key = new HashMap<String, Object>();
+    for (String providerKey : ProviderInfoDiscovery.PREFERENCE_TO_PROVIDER.values()) {
+      Object value = pcr.getClaims().get(providerKey);
+      if (value != null) {
+        // copy the lists, the key must not change while cached
+        key.put(providerKey, value instanceof List ? new ArrayList<Object>((List<?>) value)
+            : value);
+      }
+    }
+    try {
+      return MATCHERS.get(key, new Callable<PreferenceMatcher>() {
+        @Override
+        public PreferenceMatcher call() {
+          return new PreferenceMatcher(key);
+        }
+      });
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not build the preference matcher", e.getCause());
+    }
+  }
+
+  /**
+   * Matches the preferences against the capabilities of the provider.
+   * 
+   * @param preferences
+   *          The client preferences.
+   * @return The result of the matching, possibly cached.
+   */
+  public Result match(RegistrationRequest preferences) {
+    Map<String, Object> key = new HashMap<String, Object>();
+    for (String preferenceKey : ProviderInfoDiscovery.PREFERENCE_TO_PROVIDER.keySet()) {
+      Object value = preferences.getClaims().get(preferenceKey);
+      if (!ServiceUtil.nullOrEmptyStringOrList(value)) {
+        // copy the lists, the key must not change while cached
+        key.put(preferenceKey, value instanceof List ? new ArrayList<Object>((List<?>) value)
+            : value);
+      }
+    }
+    Result result = results.getIfPresent(key);
+    if (result == null) {
+      result = doMatch(key);
+      results.put(key, result);
+    }
+    return result;
+  }
+
+  private Result doMatch(Map<String, Object> preferences) {
+    Map<String, Object> matched = new LinkedHashMap<String, Object>();
+    List<String> unmatched = new ArrayList<String>();
+    for (String preferenceKey : ProviderInfoDiscovery.PREFERENCE_TO_PROVIDER.keySet()) {
+      Object preferenceValue = preferences.get(preferenceKey);
+      if (preferenceValue == null) {
+        continue;
+      }
+      Object value = matchValue(preferenceKey, preferenceValue, capabilities.get(preferenceKey));
+      if (value == null) {
+        unmatched.add(preferenceKey);
+      } else {
+        matched.put(preferenceKey, value);
+      }
+    }
+    return new Result(matched, unmatched);
+  }
+
+  /**
+   * Converts the response types into token sets, so that they match regardless of the order of
+   * their tokens. Other values are returned as such.
+   */
+  private static Object canonical(String preferenceKey, Object value) {
+    if (RESPONSE_TYPES.equals(preferenceKey) && value instanceof String) {
+      return TokenSet.parse((String) value);
+    }
+    return value;
+  }
+
+  private static Object matchValue(String preferenceKey, Object preferenceValue,
+      Object capability) {
+    if (capability == ANY) {
+      return preferenceValue;
+    }
+    if (capability instanceof Set) {
+      Set<?> supported = (Set<?>) capability;
+      if (preferenceValue instanceof List) {
+        List<Object> list = new ArrayList<Object>();
+        for (Object item : (List<?>) preferenceValue) {
+          if (supported.contains(canonical(preferenceKey, item))) {
+            list.add(item);
+          }
+        }
+        return list.isEmpty() ? null : list;
+      }
+      return supported.contains(canonical(preferenceKey, preferenceValue)) ? preferenceValue
+          : null;
+    }
+    if (preferenceValue instanceof List) {
+      return ((List<?>) preferenceValue).contains(capability) ? capability : null;
+    }
+    return preferenceValue.equals(capability) ? capability : null;
+  }
+
+  /**
+   * The result of matching the client preferences against the provider capabilities.
+   */
+  public static final class Result {
+
+    /** The matched values keyed by the preference name, in the order of the preferences. */
+    private final Map<String, Object> matched;
+
+    /** The preferences that could not be matched. */
+    private final List<String> unmatched;
+
+    private Result(Map<String, Object> matched, List<String> unmatched) {
+      this.matched = Collections.unmodifiableMap(matched);
+      this.unmatched = Collections.unmodifiableList(unmatched);
+    }
+
+    /**
+     * Get the matched values.
+     * 
+     * @return The matched values keyed by the preference name. The list values are shared between
+     *         the users of the result and must not be modified.
+     */
+    public Map<String, Object> getMatched() {
+      return matched;
+    }
+
+    /**
+     * Get the preferences that could not be matched.
+     * 
+     * @return The names of the preferences that could not be matched.
+     */
+    public List<String> getUnmatched() {
+      return unmatched;
+    }
+
+    /**
+     * Adds the matched values and the remaining client preferences to the behavior.
+     * 
+     * @param preferences
+     *          The client preferences.
+     * @param behavior
+     *          The behavior to add the values to.
+     * @throws MissingRequiredAttributeException
+     *           If a preference could not be matched and the behavior has no value for it.
+     */
+    public void applyTo(RegistrationRequest preferences, RegistrationResponse behavior)
+        throws MissingRequiredAttributeException {
+      for (Entry<String, Object> entry : matched.entrySet()) {
+        Object value = entry.getValue();
+        behavior.addClaim(entry.getKey(),
+            value instanceof List ? new ArrayList<Object>((List<?>) value) : value);
+      }
+      for (String preferenceKey : unmatched) {
+        if (!behavior.getClaims().containsKey(preferenceKey)) {
+          throw new MissingRequiredAttributeException("Could not match prefence " + preferenceKey);
+        }
+      }
+      for (Entry<String, Object> entry : preferences.getClaims().entrySet()) {
+        if (ServiceUtil.nullOrEmptyStringOrList(entry.getValue())
+            || behavior.getClaims().containsKey(entry.getKey())) {
+          continue;
+        }
+        // Note that behaviour may not be valid message as not all client preferences are
+        // validated and PCR claims might be list even though request only allows single values.
+        behavior.getClaims().put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+}
@@ -16,10 +16,8 @@
 
 package org.oidc.service.oidc;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.oidc.common.EndpointName;
 import org.oidc.common.MissingRequiredAttributeException;
@@ -32,7 +30,6 @@ import org.oidc.msg.oidc.RegistrationResponse;
 import org.oidc.service.base.ServiceConfig;
 import org.oidc.service.base.ServiceContext;
 import org.oidc.service.data.State;
-import org.oidc.service.util.ServiceUtil;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -70,6 +67,19 @@ public class ProviderInfoDiscovery extends org.oidc.service.oauth2.ProviderInfoD
       .put("token_endpoint_auth_method", "client_secret_basic")
       .put("id_token_signed_response_alg", "RS256").build();
 
+  /**
+   * The endpoints published in the provider configuration, keyed by the claim name.
+   */
+  public static final Map<String, EndpointName> ENDPOINT_CLAIMS = ImmutableMap
+      .<String, EndpointName>builder()
+      .put("authorization_endpoint", EndpointName.AUTHORIZATION)
+      .put("registration_endpoint", EndpointName.REGISTRATION)
+      .put("token_endpoint", EndpointName.TOKEN)
+      .put("userinfo_endpoint", EndpointName.USER_INFO)
+      .put("end_session_endpoint", EndpointName.END_SESSION)
+      .put("revocation_endpoint", EndpointName.REVOCATION)
+      .put("introspection_endpoint", EndpointName.INTROSPECTION).build();
+
   public ProviderInfoDiscovery(ServiceContext serviceContext, State state,
       ServiceConfig serviceConfig) {
     super(serviceContext, state, serviceConfig);
@@ -81,14 +91,9 @@ public class ProviderInfoDiscovery extends org.oidc.service.oauth2.ProviderInfoD
 
   /** {@inheritDoc} */
   @Override
-  protected void doUpdateServiceContext(Message response, String stateKey)
+  protected void prepareUpdate(Message response, ServiceContext.Update update)
       throws MissingRequiredAttributeException, InvalidClaimException {
-    super.doUpdateServiceContext(response, stateKey);
-
-    if (getServiceContext().getBehavior() == null) {
-      getServiceContext().setBehavior(new RegistrationResponse());
-    }
-    matchPreferences((ProviderConfigurationResponse) response);
+    matchPreferences((ProviderConfigurationResponse) response, update);
 
     // TODO: the OAuth2 super-class uses KeyJar.loadKeys() -method, but it's functionality is not yet clear
     // TODO: Python has a configuration parameter 'pre_load_keys' for actually downloading the keys
@@ -101,81 +106,50 @@ public class ProviderInfoDiscovery extends org.oidc.service.oauth2.ProviderInfoD
    * Configuration information. If the Provider has left some claims out, defaults specified in the
    * standard will be used.
    * 
-   * @param response
+   * <p>
+   * The matched values are added to a copy of the current behavior, which is then set to the
+   * update. The current behavior is not modified, and the new one is published together with the
+   * rest of the provider configuration.
+   * </p>
+   * 
+   * @param pcr
+   *          The provider configuration.
+   * @param update
+   *          The update to set the new behavior to.
+   * @throws MissingRequiredAttributeException
+   */
+  protected void matchPreferences(ProviderConfigurationResponse pcr,
+      ServiceContext.Update update) throws MissingRequiredAttributeException {
+    RegistrationResponse current = update.getBehavior();
+    RegistrationResponse behavior = current == null ? new RegistrationResponse()
+        : new RegistrationResponse(new HashMap<String, Object>(current.getClaims()));
+    matchPreferences(pcr, behavior);
+    update.setBehavior(behavior);
+  }
+
+  /**
+   * Match the clients preferences against what the provider can do, and add the results to the
+   * given behavior. The matching is done with the {@link PreferenceMatcher} shared by all the
+   * clients of the provider configuration.
+   * 
+   * @param pcr
+   *          The provider configuration.
+   * @param behavior
+   *          The behavior to add the results to.
    * @throws MissingRequiredAttributeException
+   *           If a preference cannot be matched.
    */
-  protected void matchPreferences(ProviderConfigurationResponse pcr)
-      throws MissingRequiredAttributeException {
+  protected void matchPreferences(ProviderConfigurationResponse pcr,
+      RegistrationResponse behavior) throws MissingRequiredAttributeException {
     RegistrationRequest preferences = this.getServiceContext().getClientPreferences();
     if (preferences == null) {
       return;
     }
-    for (Entry<String, String> entry : PREFERENCE_TO_PROVIDER.entrySet()) {
-      String preferenceKey = entry.getKey();
-      String providerKey = entry.getValue();
-      Object preferenceValue = preferences.getClaims().get(preferenceKey);
-      if (ServiceUtil.nullOrEmptyStringOrList(preferenceValue)) {
-        continue;
-      }
-      Object providerValue = pcr.getClaims().get(providerKey);
-      if (providerValue == null) {
-        if (PROVIDER_DEFAULT.containsKey(preferenceKey)) {
-          providerValue = PROVIDER_DEFAULT.get(preferenceKey);
-        } else {
-          // TODO: log "no info from provider & no default"
-          providerValue = preferenceValue;
-        }
-      }
-      if (providerValue instanceof List) {
-        if (preferenceValue instanceof List) {
-          List<Object> list = new ArrayList<Object>();
-          for (Object item : (List<?>) preferenceValue) {
-            if (((List<?>) providerValue).contains(item)) {
-              list.add(item);
-            }
-          }
-          if (!list.isEmpty()) {
-            this.getServiceContext().getBehavior().addClaim(preferenceKey, list);
-          }
-        } else {
-          if (((List<?>) providerValue).contains(preferenceValue)) {
-            this.getServiceContext().getBehavior().addClaim(preferenceKey, preferenceValue);
-          }
-        }
-      } else {
-        if (preferenceValue instanceof List) {
-          if (((List<?>) preferenceValue).contains(providerValue)) {
-            this.getServiceContext().getBehavior().addClaim(preferenceKey, providerValue);
-          }
-        } else {
-          if (preferenceValue.equals(providerValue)) {
-            this.getServiceContext().getBehavior().addClaim(preferenceKey, providerValue);
-          }
-        }
-      }
-      if (!getServiceContext().getBehavior().getClaims().containsKey(preferenceKey)) {
-        throw new MissingRequiredAttributeException("Could not match prefence " + preferenceKey);
-      }
-    }
-    for (Entry<String, Object> entry : getServiceContext().getClientPreferences().getClaims()
-        .entrySet()) {
-      if (ServiceUtil.nullOrEmptyStringOrList(entry.getValue())
-          || getServiceContext().getBehavior().getClaims().containsKey(entry.getKey())) {
-        continue;
-      }
-      // Note that behaviour may not be valid message as not all client preferences are validated
-      // and PCR claims might be list even though request only allows single values.
-      getServiceContext().getBehavior().getClaims().put(entry.getKey(), entry.getValue());
-    }
+    PreferenceMatcher.forProvider(pcr).match(preferences).applyTo(preferences, behavior);
   }
 
   @Override
-  protected EndpointName getEndpointName(String key) {
-    return ImmutableMap.<String, EndpointName>builder()
-        .put("authorization_endpoint", EndpointName.AUTHORIZATION)
-        .put("registration_endpoint", EndpointName.REGISTRATION)
-        .put("token_endpoint", EndpointName.TOKEN)
-        .put("end_session_endpoint", EndpointName.END_SESSION)
-        .put("userinfo_endpoint", EndpointName.USER_INFO).build().get(key);
+  protected Map<String, EndpointName> getEndpointClaims() {
+    return ENDPOINT_CLAIMS;
   }
 }
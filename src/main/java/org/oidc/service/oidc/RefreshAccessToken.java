@@ -28,6 +28,8 @@ import org.oidc.msg.oidc.IDToken;
 import org.oidc.msg.oidc.RefreshAccessTokenRequest;
 import org.oidc.service.base.ServiceConfig;
 import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.ServiceContextSnapshot;
+import org.oidc.service.base.VerificationFailures;
 import org.oidc.service.data.State;
 
 /**
@@ -60,9 +62,8 @@ public class RefreshAccessToken extends org.oidc.service.oauth2.RefreshAccessTok
       IDToken idToken = ((AccessTokenResponse) responseMessage).getVerifiedIdToken();
       if (!stateKey
           .equals(getState().getStateKeyByNonce((String) idToken.getClaims().get("nonce")))) {
-        throw new InvalidClaimException(
-            String.format("nonce '%s' in the id token is not matching state record '%s'",
-                (String) idToken.getClaims().get("nonce"), stateKey));
+        throw VerificationFailures.invalidClaim("nonce '" + idToken.getClaims().get("nonce")
+            + "' in the id token is not matching state record '" + stateKey + "'");
       }
       getState().storeItem(idToken, stateKey, MessageType.VERIFIED_IDTOKEN);
     }
@@ -79,30 +80,30 @@ public class RefreshAccessToken extends org.oidc.service.oauth2.RefreshAccessTok
       return responseMessage;
     }
     AccessTokenResponse response = (AccessTokenResponse) responseMessage;
-    response.setKeyJar(getServiceContext().getKeyJar());
-    response.setIssuer(getServiceContext().getIssuer());
-    response.setClientId(getServiceContext().getClientId());
-    response.setSkew(getServiceContext().getClockSkew());
-    if (getServiceContext().getBehavior() != null
-        && getServiceContext().getBehavior().getClaims() != null) {
-      response.setSigAlg((String) getServiceContext().getBehavior().getClaims()
+    ServiceContextSnapshot context = getServiceContext().getSnapshot();
+    response.setKeyJar(context.getKeyJar());
+    response.setIssuer(context.getIssuer());
+    response.setClientId(context.getClientId());
+    response.setSkew(context.getClockSkew());
+    if (context.getBehavior() != null && context.getBehavior().getClaims() != null) {
+      response.setSigAlg((String) context.getBehavior().getClaims()
           .get("id_token_signed_response_alg"));
-      response.setEncAlg((String) getServiceContext().getBehavior().getClaims()
+      response.setEncAlg((String) context.getBehavior().getClaims()
           .get("id_token_encrypted_response_alg"));
-      response.setEncEnc((String) getServiceContext().getBehavior().getClaims()
+      response.setEncEnc((String) context.getBehavior().getClaims()
           .get("id_token_encrypted_response_enc"));
     }
-    if (getServiceContext().getAllow().get("missing_kid") != null) {
-      response.setAllowMissingKid(getServiceContext().getAllow().get("missing_kid"));
+    if (context.getAllow().get("missing_kid") != null) {
+      response.setAllowMissingKid(context.getAllow().get("missing_kid"));
     }
     return responseMessage;
   }
 
   @Override
   public ClientAuthenticationMethod getDefaultAuthenticationMethod() {
-    if (getServiceContext().getBehavior().getClaims().get("token_endpoint_auth_method") != null) {
-      String method = (String) getServiceContext().getBehavior().getClaims()
-          .get("token_endpoint_auth_method");
+    String method = (String) getServiceContext().getSnapshot()
+        .getBehaviorClaim("token_endpoint_auth_method");
+    if (method != null) {
       ClientAuthenticationMethod parsedMethod = ClientAuthenticationMethod.fromClaimValue(method);
       // We fallback to default method if value is not valid
       return parsedMethod != null ? parsedMethod : defaultAuthenticationMethod;
@@ -75,7 +75,7 @@ public class Registration extends AbstractService {
     defaultConfig.setHttpMethod(HttpMethod.POST);
     defaultConfig.setSerializationType(SerializationType.JSON);
     defaultConfig.setDeSerializationType(SerializationType.JSON);
-    defaultConfig.setEndpoint(serviceContext.getEndpoints().get(endpointName));
+    defaultConfig.setEndpoint(serviceContext.getSnapshot().getEndpoints().get(endpointName));
     defaultConfig.setPreConstructors((List<RequestArgumentProcessor>) Arrays.asList(
         (RequestArgumentProcessor) new AddClientBehaviourPreference(), new AddRedirectUris(),
         new AddRequestUri(), new AddPostLogoutRedirectUris(), new AddJwksUriOrJwks()));
@@ -91,9 +91,11 @@ public class Registration extends AbstractService {
     if (!response.getClaims().containsKey("token_endpoint_auth_method")) {
       response.getClaims().put("token_endpoint_auth_method", "client_secret_basic");
     }
-    getServiceContext().setClientId((String) response.getClaims().get("client_id"));
+    // all the results are published with a single snapshot, readers see either none or all
+    ServiceContext.Update update = getServiceContext().beginUpdate();
+    update.setClientId((String) response.getClaims().get("client_id"));
     String clientSecret = (String) response.getClaims().get("client_secret");
-    getServiceContext().setClientSecret(clientSecret);
+    update.setClientSecret(clientSecret);
     if (!Strings.isNullOrEmpty(clientSecret)) {
       try {
         KeyBundle bundle = new KeyBundle();
@@ -101,29 +103,29 @@ public class Registration extends AbstractService {
         bundle.append(new SYMKey("ver", clientSecret));
         bundle.append(new SYMKey("enc", clientSecret));
         bundle.append(new SYMKey("dec", clientSecret));
-        getServiceContext().getKeyJar().addKeyBundle("", bundle);
+        update.getModifiableKeyJar().addKeyBundle("", bundle);
       } catch (ImportException | IOException | JWKException | ValueError e) {
         throw new InvalidClaimException("Could not store the client secret to the key jar", e);
       }
     }
-    getServiceContext()
-        .setClientSecretExpiresAt((Date) response.getClaims().get("client_secret_expires_at"));
-    getServiceContext()
-        .setRegistrationAccessToken((String) response.getClaims().get("registration_access_token"));
-    getServiceContext().setRegistrationResponse((RegistrationResponse) response);
+    update.setClientSecretExpiresAt((Date) response.getClaims().get("client_secret_expires_at"));
+    update.setRegistrationAccessToken(
+        (String) response.getClaims().get("registration_access_token"));
+    update.setRegistrationResponse((RegistrationResponse) response);
     responseMessage = response;
     // if behavior is already populated (for instance by ProviderInfoDiscovery), then include all
     // its existing values to the registration response message
-    if (getServiceContext().getBehavior() != null) {
-      for (String behaviorKey : getServiceContext().getBehavior().getClaims().keySet()) {
+    RegistrationResponse behavior = update.getBehavior();
+    if (behavior != null) {
+      for (String behaviorKey : behavior.getClaims().keySet()) {
         if (!response.getClaims().containsKey(behaviorKey)) {
-          response.getClaims().put(behaviorKey, 
-              getServiceContext().getBehavior().getClaims().get(behaviorKey));
+          response.getClaims().put(behaviorKey, behavior.getClaims().get(behaviorKey));
         }
       }
     }
     // and finally store the registration response as the behavior
-    getServiceContext().setBehavior((RegistrationResponse) response);
+    update.setBehavior((RegistrationResponse) response);
+    update.publish();
   }
 
   @Override
@@ -43,6 +43,7 @@ import org.oidc.service.base.RequestArgumentProcessingException;
 import org.oidc.service.base.RequestArgumentProcessor;
 import org.oidc.service.base.ServiceConfig;
 import org.oidc.service.base.ServiceContext;
+import org.oidc.service.base.ServiceContextSnapshot;
 import org.oidc.service.base.processor.ExtendUserInfoRequestArguments;
 import org.oidc.service.data.State;
 
@@ -106,19 +107,19 @@ public class UserInfo extends AbstractService {
       return responseMessage;
     }
     OpenIDSchema response = (OpenIDSchema) responseMessage;
-    response.setKeyJar(getServiceContext().getKeyJar());
-    response.setIssuer(getServiceContext().getIssuer());
-    if (getServiceContext().getBehavior() != null
-        && getServiceContext().getBehavior().getClaims() != null) {
-      response.setSigAlg((String) getServiceContext().getBehavior().getClaims()
+    ServiceContextSnapshot context = getServiceContext().getSnapshot();
+    response.setKeyJar(context.getKeyJar());
+    response.setIssuer(context.getIssuer());
+    if (context.getBehavior() != null && context.getBehavior().getClaims() != null) {
+      response.setSigAlg((String) context.getBehavior().getClaims()
           .get("userinfo_signed_response_alg"));
-      response.setEncAlg((String) getServiceContext().getBehavior().getClaims()
+      response.setEncAlg((String) context.getBehavior().getClaims()
           .get("userinfo_encrypted_response_alg"));
-      response.setEncEnc((String) getServiceContext().getBehavior().getClaims()
+      response.setEncEnc((String) context.getBehavior().getClaims()
           .get("userinfo_encrypted_response_enc"));
     }
-    if (getServiceContext().getAllow().get("missing_kid") != null) {
-      response.setAllowMissingKid(getServiceContext().getAllow().get("missing_kid"));
+    if (context.getAllow().get("missing_kid") != null) {
+      response.setAllowMissingKid(context.getAllow().get("missing_kid"));
     }
     return responseMessage;
   }
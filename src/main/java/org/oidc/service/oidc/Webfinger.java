@@ -53,6 +53,9 @@ import org.oidc.service.util.URIUtil;
  */
 public class Webfinger extends AbstractService {
 
+  /** The cache for the resolved issuers, null if not used. */
+  private WebfingerCache cache;
+
   /**
    * Constructor.
    * 
@@ -85,6 +88,60 @@ public class Webfinger extends AbstractService {
     return defaultConfig;
   }
 
+  /**
+   * Get the cache for the resolved issuers.
+   * 
+   * @return The cache, or null if not used.
+   */
+  public WebfingerCache getCache() {
+    return cache;
+  }
+
+  /**
+   * Set the cache for the resolved issuers. The cache can be shared between the Webfinger services
+   * of different clients. The results are stored by {@link #updateServiceContextForResource}.
+   * 
+   * @param cache
+   *          The cache, or null if not used.
+   */
+  public void setCache(WebfingerCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Resolves the issuer for the resource from the cache, without a Webfinger request. If the issuer
+   * of the host of the resource is cached, it is set to the service context.
+   * 
+   * @param resource
+   *          The resource, as given to the request parameters.
+   * @return True if the issuer was set from the cache, false if the Webfinger request is needed.
+   * @throws RequestArgumentProcessingException
+   *           If the resource is not valid or the cache knows that its host has no issuer.
+   */
+  public boolean resolveIssuerFromCache(String resource)
+      throws RequestArgumentProcessingException {
+    if (cache == null) {
+      return false;
+    }
+    String host = getHost(normalizeResource(resource));
+    WebfingerCache.Entry entry = cache.get(host);
+    if (entry == null) {
+      return false;
+    }
+    if (!entry.isResolved()) {
+      throw new RequestArgumentProcessingException(new ErrorDetails(Constants.WEBFINGER_RESOURCE,
+          ErrorType.VALUE_NOT_ALLOWED, "No issuer was found for the host " + host));
+    }
+    serviceContext.setIssuer(entry.getIssuer());
+    return true;
+  }
+
+  /** Only the issuer link is copied from the response, the message itself is not kept. */
+  @Override
+  protected boolean retainsResponseMessage() {
+    return false;
+  }
+
   /** {@inheritDoc} */
   @Override
   protected void doUpdateServiceContext(Message response, String stateKey)
@@ -93,9 +150,58 @@ public class Webfinger extends AbstractService {
       throw new UnsupportedOperationException(
           "stateKey is not supported to update service context" + " for the WebFinger service");
     }
+    String issuer = findIssuer(response);
+    if (issuer != null) {
+      serviceContext.setIssuer(issuer);
+    }
+  }
+
+  /**
+   * Update the service context with the response to the request for the given resource, and store
+   * the result to the cache for the host of the resource. The resource is given explicitly, as the
+   * service may have built other requests after the one the response belongs to.
+   * 
+   * @param response
+   *          The response message.
+   * @param resource
+   *          The resource of the request the response belongs to, as given to the request
+   *          parameters.
+   * @throws MissingRequiredAttributeException
+   *           If the response is missing a required attribute.
+   * @throws ValueException
+   *           If the response is not a valid Webfinger response.
+   * @throws InvalidClaimException
+   *           If the response contains invalid claims.
+   * @throws RequestArgumentProcessingException
+   *           If the resource is not valid.
+   */
+  public void updateServiceContextForResource(Message response, String resource)
+      throws MissingRequiredAttributeException, ValueException, InvalidClaimException,
+      RequestArgumentProcessingException {
+    String host = getHost(normalizeResource(resource));
+    updateServiceContext(response);
+    if (cache != null) {
+      String issuer = findIssuer(response);
+      if (issuer != null) {
+        cache.putIssuer(host, issuer);
+      } else {
+        cache.putUnresolvable(host);
+      }
+    }
+  }
+
+  /**
+   * Find the issuer from the links of the response.
+   * 
+   * @param response
+   *          The response message.
+   * @return The href of the first issuer link, or null if there is none.
+   * @throws InvalidClaimException
+   *           If the issuer uses http and it's not allowed.
+   */
+  private String findIssuer(Message response) throws InvalidClaimException {
     @SuppressWarnings("unchecked")
     List<Link> links = (List<Link>) response.getClaims().get(Constants.WEBFINGER_LINKS);
-
     for (Link link : links) {
       String rel = (String) link.getClaims().get("rel");
       if (!Strings.isNullOrEmpty(rel) && rel.equals(Constants.OIDC_ISSUER)) {
@@ -106,12 +212,12 @@ public class Webfinger extends AbstractService {
               || !serviceConfig.isShouldAllowNonStandardIssuer())) {
             throw new InvalidClaimException("http link not allowed: " + href);
           }
-          serviceContext.setIssuer(href);
           // pick the first one
-          break;
+          return href;
         }
       }
     }
+    return null;
   }
 
   /**
@@ -126,6 +232,19 @@ public class Webfinger extends AbstractService {
    */
   protected String getEndpointWithoutQuery(String resource)
       throws RequestArgumentProcessingException {
+    return String.format(Constants.WEB_FINGER_URL, getHost(resource));
+  }
+
+  /**
+   * Get the host and port from the normalized resource.
+   * 
+   * @param resource
+   *          The normalized resource.
+   * @return The host, including the port if any.
+   * @throws RequestArgumentProcessingException
+   *           If the host cannot be found from the resource.
+   */
+  protected String getHost(String resource) throws RequestArgumentProcessingException {
     String host = null;
     Error error = new Error();
     if (resource.startsWith("http")) {
@@ -177,22 +296,15 @@ public class Webfinger extends AbstractService {
     if (!error.getDetails().isEmpty() || host == null) {
       throw new RequestArgumentProcessingException(error);
     }
-    return String.format(Constants.WEB_FINGER_URL, host);
+    return host;
   }
 
   public HttpArguments finalizeGetRequestParameters(HttpArguments httpArguments,
       Map<String, Object> requestArguments) throws RequestArgumentProcessingException {
-    String resource;
     Error error = new Error();
-    try {
-      resource = URIUtil.normalizeUrl((String) requestArguments.get(Constants.WEBFINGER_RESOURCE));
-      requestArguments.put(Constants.WEBFINGER_RESOURCE, resource);
-    } catch (ValueException e) {
-      ErrorDetails details = new ErrorDetails(Constants.WEBFINGER_RESOURCE,
-          ErrorType.VALUE_NOT_ALLOWED, "Could not normalize the URI", e);
-      error.getDetails().add(details);
-      throw new RequestArgumentProcessingException(error);
-    }
+    String resource = normalizeResource(
+        (String) requestArguments.get(Constants.WEBFINGER_RESOURCE));
+    requestArguments.put(Constants.WEBFINGER_RESOURCE, resource);
     String endpoint = getEndpointWithoutQuery(resource);
     try {
       httpArguments.setUrl(endpoint + "?" + requestMessage.toUrlEncoded());
@@ -205,6 +317,27 @@ public class Webfinger extends AbstractService {
     return httpArguments;
   }
 
+  /**
+   * Normalizes the resource.
+   * 
+   * @param resource
+   *          The resource to normalize.
+   * @return The normalized resource.
+   * @throws RequestArgumentProcessingException
+   *           If the resource cannot be normalized.
+   */
+  protected String normalizeResource(String resource) throws RequestArgumentProcessingException {
+    try {
+      return URIUtil.normalizeUrl(resource);
+    } catch (ValueException e) {
+      Error error = new Error();
+      ErrorDetails details = new ErrorDetails(Constants.WEBFINGER_RESOURCE,
+          ErrorType.VALUE_NOT_ALLOWED, "Could not normalize the URI", e);
+      error.getDetails().add(details);
+      throw new RequestArgumentProcessingException(error);
+    }
+  }
+
   @Override
   protected Message doConstructRequest(Map<String, Object> requestArguments)
       throws RequestArgumentProcessingException {
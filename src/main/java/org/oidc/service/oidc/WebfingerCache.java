@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of Webfinger issuer discovery by the host of the normalized resource. Most
+ * users share a handful of domains, so once the issuer of a host is known the discovery for the
+ * other users of that host can skip the Webfinger request entirely.
+ *
+ * <p>
+ * Both resolved issuers and hosts without an issuer are cached, the latter for a separate, usually
+ * shorter, time. The number of cached hosts is bounded, the least recently used ones are evicted
+ * first.
+ * </p>
+ */
+public class WebfingerCache {
+
+  /** The cached results, keyed by lower case host. */
+  private final Cache<String, Entry> entries;
+
+  /** The time a resolved issuer is cached for, in nanoseconds. */
+  private final long issuerTtl;
+
+  /** The time a host without an issuer is cached for, in nanoseconds. */
+  private final long negativeTtl;
+
+  /** The time source for the expiration. */
+  private final Ticker ticker;
+
+  /**
+   * Constructor.
+   *
+   * @param maximumSize
+   *          The maximum number of cached hosts.
+   * @param issuerTtl
+   *          The time a resolved issuer is cached for.
+   * @param negativeTtl
+   *          The time a host without an issuer is cached for.
+   * @param unit
+   *          The unit of the times.
+   */
+  public WebfingerCache(long maximumSize, long issuerTtl, long negativeTtl, TimeUnit unit) {
+    this(maximumSize, issuerTtl, negativeTtl, unit, Ticker.systemTicker());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maximumSize
+   *          The maximum number of cached hosts.
+   * @param issuerTtl
+   *          The time a resolved issuer is cached for.
+   * @param negativeTtl
+   *          The time a host without an issuer is cached for.
+   * @param unit
+   *          The unit of the times.
+   * @param ticker
+   *          The time source for the expiration.
+   */
+  WebfingerCache(long maximumSize, long issuerTtl, long negativeTtl, TimeUnit unit,
+      Ticker ticker) {
+    if (issuerTtl < 0 || negativeTtl < 0) {
+      throw new IllegalArgumentException("The cache times cannot be negative");
+    }
+    this.issuerTtl = unit.toNanos(issuerTtl);
+    this.negativeTtl = unit.toNanos(negativeTtl);
+    this.ticker = ticker;
+    this.entries = CacheBuilder.newBuilder().maximumSize(maximumSize)
+        .expireAfterWrite(Math.max(this.issuerTtl, this.negativeTtl), TimeUnit.NANOSECONDS)
+        .ticker(ticker).build();
+  }
+
+  /**
+   * Get the cached result for the host.
+   * 
+   * @param host
+   *          The host of the normalized resource, including the port if any.
+   * @return The cached result, or null if the host is not cached or its result has expired.
+   */
+  public Entry get(String host) {
+    String key = toKey(host);
+    Entry entry = entries.getIfPresent(key);
+    if (entry != null && ticker.read() - entry.expiresAt >= 0) {
+      entries.asMap().remove(key, entry);
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Caches the issuer resolved for the host.
+   * 
+   * @param host
+   *          The host of the normalized resource, including the port if any.
+   * @param issuer
+   *          The issuer href from the Webfinger response.
+   */
+  public void putIssuer(String host, String issuer) {
+    if (issuer == null) {
+      throw new IllegalArgumentException("The issuer cannot be null");
+    }
+    entries.put(toKey(host), new Entry(issuer, ticker.read() + issuerTtl));
+  }
+
+  /**
+   * Caches that no issuer could be resolved for the host.
+   * 
+   * @param host
+   *          The host of the normalized resource, including the port if any.
+   */
+  public void putUnresolvable(String host) {
+    entries.put(toKey(host), new Entry(null, ticker.read() + negativeTtl));
+  }
+
+  /**
+   * Removes the cached result for the host.
+   * 
+   * @param host
+   *          The host of the normalized resource, including the port if any.
+   */
+  public void invalidate(String host) {
+    entries.invalidate(toKey(host));
+  }
+
+  /**
+   * Get the number of cached hosts, including the ones with expired results not yet removed.
+   * 
+   * @return The number of cached hosts.
+   */
+  public long size() {
+    return entries.size();
+  }
+
+  private static String toKey(String host) {
+    if (host == null) {
+      throw new IllegalArgumentException("The host cannot be null");
+    }
+    return host.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * A cached discovery result.
+   */
+  public static final class Entry {
+
+    /** The resolved issuer, null if the host has no issuer. */
+    private final String issuer;
+
+    /** The ticker value after which the entry has expired. */
+    private final long expiresAt;
+
+    private Entry(String issuer, long expiresAt) {
+      this.issuer = issuer;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Get the resolved issuer.
+     * 
+     * @return The issuer href, or null if no issuer could be resolved for the host.
+     */
+    public String getIssuer() {
+      return issuer;
+    }
+
+    /**
+     * Whether an issuer was resolved for the host.
+     * 
+     * @return True if the issuer is known, false if the host has no issuer.
+     */
+    public boolean isResolved() {
+      return issuer != null;
+    }
+  }
+}
@@ -22,7 +22,6 @@ import com.google.common.base.Strings;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashMap;
@@ -36,14 +35,20 @@ import org.oidc.msg.DeserializationException;
 import org.oidc.msg.InvalidClaimException;
 import org.oidc.msg.Message;
 import org.oidc.msg.SerializationException;
+import org.oidc.msg.oidc.RegistrationResponse;
 import org.oidc.service.Service;
 import org.oidc.service.base.InvalidConfigurationPropertyException;
 import org.oidc.service.base.RequestArgumentProcessor;
+import org.oidc.service.base.RequestArgumentProcessorRegistry;
 
 /**
  * This class has utility methods for various services
  **/
 public class ServiceUtil {
+
+  /** The shared mapper for parsing JSON, thread-safe once configured. */
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
   /**
    * Pick out the reference or query part from a URL.
    *
@@ -55,19 +60,52 @@ public class ServiceUtil {
     if (Strings.isNullOrEmpty(url)) {
       throw new IllegalArgumentException("null or empty url");
     }
-    String queryOrReference = null;
-
-    URL urlObject = new URL(url);
-    String query = urlObject.getQuery();
-    String reference = urlObject.getRef();
+    return UrlEncodedParser.getQueryOrFragment(url);
+  }
 
-    if (!Strings.isNullOrEmpty(query)) {
-      queryOrReference = query;
-    } else {
-      queryOrReference = reference;
+  /**
+   * Finds the value of a parameter in a URL encoded string with a single scan, without parsing the
+   * other parameters. The value is decoded only if it contains encoded characters. If the
+   * parameter is repeated, the first value is returned.
+   *
+   * @param urlEncoded
+   *          the URL encoded parameters, e.g. the query or the fragment of a URL
+   * @param name
+   *          the name of the parameter, which must not need encoding
+   * @return the decoded value, an empty string if the parameter has no value, or null if the
+   *         parameter is not found or its value is not properly encoded
+   */
+  public static String getUrlEncodedParameter(String urlEncoded, String name) {
+    if (urlEncoded == null) {
+      return null;
     }
+    int length = urlEncoded.length();
+    int nameLength = name.length();
+    int start = 0;
+    while (start < length) {
+      int end = urlEncoded.indexOf('&', start);
+      if (end < 0) {
+        end = length;
+      }
+      if (end - start >= nameLength && urlEncoded.startsWith(name, start)) {
+        if (end - start == nameLength) {
+          return "";
+        }
+        if (urlEncoded.charAt(start + nameLength) == '=') {
+          return decodeUrlEncodedValue(urlEncoded, start + nameLength + 1, end);
+        }
+      }
+      start = end + 1;
+    }
+    return null;
+  }
 
-    return queryOrReference;
+  private static String decodeUrlEncodedValue(String urlEncoded, int start, int end) {
+    try {
+      return UrlEncodedParser.decode(urlEncoded, start, end);
+    } catch (DeserializationException e) {
+      return null;
+    }
   }
 
   /**
@@ -96,35 +134,20 @@ public class ServiceUtil {
   }
 
   /**
-   * Constructs a {@link RequestArgumentProcessor} from its given fully qualified class name. The
-   * class is expected to have an accessible constructor without arguments.
+   * Resolves a {@link RequestArgumentProcessor} for its given name with the default
+   * {@link RequestArgumentProcessorRegistry}. Names without a registered factory are expected to
+   * be fully qualified class names of classes with an accessible constructor without arguments.
    * 
    * @param processorName
    *          The fully qualified class name of the processor.
-   * @return A constructed object of the given class name.
+   * @return The processor for the given name, shared if the processor is stateless.
    * @throws InvalidConfigurationPropertyException
    *           If the class is not found or it's not an instance of the
    *           {@link RequestArgumentProcessor} interface.
    */
   public static RequestArgumentProcessor getRequestArgumentProcessor(String processorName)
       throws InvalidConfigurationPropertyException {
-    Object object;
-    try {
-      Class<?> rawClass = Class.forName(processorName);
-      object = rawClass.newInstance();
-    } catch (ClassNotFoundException e) {
-      throw new InvalidConfigurationPropertyException("Could not find a class for " + processorName,
-          e);
-    } catch (InstantiationException | IllegalAccessException e) {
-      throw new InvalidConfigurationPropertyException(
-          "Could not instantiate the class for " + processorName, e);
-    }
-    if (object instanceof RequestArgumentProcessor) {
-      return (RequestArgumentProcessor) object;
-    } else {
-      throw new InvalidConfigurationPropertyException(
-          "Incompatible class type for " + processorName);
-    }
+    return RequestArgumentProcessorRegistry.getDefault().getProcessor(processorName);
   }
 
   /**
@@ -165,8 +188,7 @@ public class ServiceUtil {
   public static Map<String, Object> parseJsonStringToMap(String json) throws DeserializationException {
     Map<String, Object> map;
     try {
-      ObjectMapper objectMapper = new ObjectMapper();
-      map = objectMapper.readValue(json, new TypeReference<HashMap<String, Object>>() {
+      map = OBJECT_MAPPER.readValue(json, new TypeReference<HashMap<String, Object>>() {
       });
     } catch (IOException e) {
       throw new DeserializationException("Could not deserialize the JSON from " + json, e);
@@ -206,9 +228,9 @@ public class ServiceUtil {
    */
   public static String getAlgorithmFromBehavior(Service service, String claim, 
       String defaultValue) {
-    if (service.getServiceContext().getBehavior() != null && service.getServiceContext()
-        .getBehavior().getClaims().containsKey(claim)) {
-      return (String) service.getServiceContext().getBehavior().getClaims().get(claim);
+    RegistrationResponse behavior = service.getServiceContext().getSnapshot().getBehavior();
+    if (behavior != null && behavior.getClaims().containsKey(claim)) {
+      return (String) behavior.getClaims().get(claim);
     } else {
       return defaultValue;
     }
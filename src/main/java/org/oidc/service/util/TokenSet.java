@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of tokens from a space separated response type. The standard tokens are
+ * represented by a bit mask over a fixed vocabulary, so that membership, equality and hashing cost
+ * a few operations regardless of the order or the number of the tokens. Any other tokens are kept
+ * as a sorted array, so that the set still does not depend on the order of its tokens. The most
+ * recently parsed strings are cached, so that parsing a value seen before costs a single map
+ * lookup.
+ *
+ * <p>
+ * The vocabulary is fixed to the standard response types and scopes, nothing is ever added to it.
+ * The sets therefore do not depend on the values parsed before, e.g. on the non-standard tokens
+ * published by the providers. Values of arbitrary tokens, such as the scopes requested by the
+ * caller, do not need to be parsed at all: {@link #containsToken(String, String)} scans them
+ * without allocating anything.
+ * </p>
+ */
+public final class TokenSet {
+
+  /** The maximum number of parsed strings cached. */
+  private static final int MAX_PARSED = 1024;
+
+  /** The standard tokens, indexed by their bit in the mask. */
+  private static final String[] TOKENS = { "openid", "code", "id_token", "token", "none",
+      "profile", "email", "address", "phone", "offline_access" };
+
+  /** The indexes of the standard tokens. */
+  private static final Map<String, Integer> INDEXES = new HashMap<String, Integer>();
+
+  /** The tokens of a set that has only standard tokens. */
+  private static final String[] NO_OTHERS = new String[0];
+
+  /** The sets recently parsed from strings, keyed by the string. */
+  private static final Cache<String, TokenSet> PARSED = CacheBuilder.newBuilder()
+      .maximumSize(MAX_PARSED).build();
+
+  static {
+    for (int i = 0; i < TOKENS.length; i++) {
+      INDEXES.put(TOKENS[i], i);
+    }
+  }
+
+  /** The empty set. */
+  public static final TokenSet EMPTY = new TokenSet(0L, NO_OTHERS);
+
+  /** The bit mask of the standard tokens. */
+  private final long bits;
+
+  /** The other tokens in alphabetical order. */
+  private final String[] others;
+
+  /** The canonical string form, computed on first use. */
+  private String canonical;
+
+  private TokenSet(long bits, String[] others) {
+    this.bits = bits;
+    this.others = others;
+  }
+
+  private static int indexOf(String token) {
+    Integer index = INDEXES.get(token);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * Get the number of tokens in the fixed vocabulary.
+   * 
+   * @return The size of the vocabulary.
+   */
+  static int getVocabularySize() {
+    return INDEXES.size();
+  }
+
+  /**
+   * Parses a space separated response type. Repeated and empty tokens are ignored.
+   * 
+   * @param spaceSeparated
+   *          The space separated tokens, must not be null.
+   * @return The set of the tokens.
+   */
+  public static TokenSet parse(String spaceSeparated) {
+    TokenSet set = PARSED.getIfPresent(spaceSeparated);
+    if (set != null) {
+      return set;
+    }
+    long bits = 0L;
+    TreeSet<String> others = null;
+    int length = spaceSeparated.length();
+    int start = 0;
+    while (start < length) {
+      int end = spaceSeparated.indexOf(' ', start);
+      if (end < 0) {
+        end = length;
+      }
+      if (end > start) {
+        String token = spaceSeparated.substring(start, end);
+        int index = indexOf(token);
+        if (index >= 0) {
+          bits |= 1L << index;
+        } else {
+          if (others == null) {
+            others = new TreeSet<String>();
+          }
+          others.add(token);
+        }
+      }
+      start = end + 1;
+    }
+    if (bits == 0L && others == null) {
+      set = EMPTY;
+    } else {
+      set = new TokenSet(bits, others == null ? NO_OTHERS : others.toArray(NO_OTHERS));
+    }
+    PARSED.put(spaceSeparated, set);
+    return set;
+  }
+
+  /**
+   * Checks whether a space separated value contains the token. The value is scanned token by
+   * token without allocating or interning anything, e.g. "openid" is not found from "x-openid".
+   * 
+   * @param spaceSeparated
+   *          The space separated tokens, may be null.
+   * @param token
+   *          The token to look for.
+   * @return True if the value contains the token, false otherwise.
+   */
+  public static boolean containsToken(String spaceSeparated, String token) {
+    if (spaceSeparated == null) {
+      return false;
+    }
+    int length = spaceSeparated.length();
+    int tokenLength = token.length();
+    int start = 0;
+    while (start < length) {
+      int end = spaceSeparated.indexOf(' ', start);
+      if (end < 0) {
+        end = length;
+      }
+      if (end - start == tokenLength && spaceSeparated.startsWith(token, start)) {
+        return true;
+      }
+      start = end + 1;
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the set contains the token.
+   * 
+   * @param token
+   *          The token.
+   * @return True if the token is in the set, false otherwise.
+   */
+  public boolean contains(String token) {
+    int index = indexOf(token);
+    if (index >= 0) {
+      return (bits & (1L << index)) != 0L;
+    }
+    return others.length > 0 && Arrays.binarySearch(others, token) >= 0;
+  }
+
+  /**
+   * Checks whether the set contains all the tokens of the other set.
+   * 
+   * @param other
+   *          The other set.
+   * @return True if the other set is a subset of this set, false otherwise.
+   */
+  public boolean containsAll(TokenSet other) {
+    if ((bits & other.bits) != other.bits) {
+      return false;
+    }
+    for (String token : other.others) {
+      if (Arrays.binarySearch(others, token) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of tokens in the set.
+   * 
+   * @return The number of tokens.
+   */
+  public int size() {
+    return Long.bitCount(bits) + others.length;
+  }
+
+  /**
+   * Whether the set is empty.
+   * 
+   * @return True if the set has no tokens, false otherwise.
+   */
+  public boolean isEmpty() {
+    return bits == 0L && others.length == 0;
+  }
+
+  /**
+   * Get the tokens of the set.
+   * 
+   * @return The tokens in alphabetical order.
+   */
+  public List<String> getTokens() {
+    List<String> tokens = new ArrayList<String>(size());
+    long remaining = bits;
+    while (remaining != 0L) {
+      tokens.add(TOKENS[Long.numberOfTrailingZeros(remaining)]);
+      remaining &= remaining - 1;
+    }
+    Collections.addAll(tokens, others);
+    Collections.sort(tokens);
+    return tokens;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof TokenSet && ((TokenSet) obj).bits == bits
+        && Arrays.equals(((TokenSet) obj).others, others);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (int) (bits ^ (bits >>> 32)) + Arrays.hashCode(others);
+  }
+
+  /**
+   * Get the canonical form of the set.
+   * 
+   * @return The tokens in alphabetical order, separated by single spaces.
+   */
+  @Override
+  public String toString() {
+    String result = canonical;
+    if (result == null) {
+      StringBuilder builder = new StringBuilder();
+      for (String token : getTokens()) {
+        if (builder.length() > 0) {
+          builder.append(' ');
+        }
+        builder.append(token);
+      }
+      result = builder.toString();
+      canonical = result;
+    }
+    return result;
+  }
+}
@@ -17,53 +17,265 @@
 package org.oidc.service.util;
 
 import com.google.common.base.Strings;
+import org.apache.commons.validator.routines.DomainValidator;
+import org.apache.commons.validator.routines.InetAddressValidator;
 import org.apache.commons.validator.routines.RegexValidator;
 import org.oidc.common.ValueException;
 import org.apache.commons.validator.routines.UrlValidator;
 
+/**
+ * Utilities for normalizing the user input given for discovery.
+ *
+ * <p>
+ * The scheme check used to rewrite the input with regular expressions and to build new validators
+ * on every call. It now parses the rewritten input by hand in a single pass over its scheme,
+ * authority, path and query, and only falls back to the shared {@link UrlValidator} for input the
+ * parser does not cover (non-ASCII characters, user info, IPv6 literals, dot segments and the file
+ * scheme). Both paths give the same result as the original implementation.
+ * </p>
+ */
 public class URIUtil {
 
+  /** The schemes accepted as an authority by the validator, see {@link #URL_VALIDATOR}. */
+  private static final String[] SCHEMES = { "http", "https", "acct", "device", "mailto" };
+
+  /** The validator used for the input not covered by the parser. */
+  private static final UrlValidator URL_VALIDATOR = new UrlValidator(SCHEMES,
+      new RegexValidator(SCHEMES, true), UrlValidator.ALLOW_ALL_SCHEMES);
+
+  /** The domain validator used by {@link #URL_VALIDATOR}. */
+  private static final DomainValidator DOMAIN_VALIDATOR = DomainValidator.getInstance(false);
+
+  /** The IP address validator used by {@link #URL_VALIDATOR}. */
+  private static final InetAddressValidator INET_ADDRESS_VALIDATOR = InetAddressValidator
+      .getInstance();
+
+  /** The largest valid port number. */
+  private static final int MAX_PORT = 0xFFFF;
+
+  /** The result of the parser when the input must be checked by the validator. */
+  private static final int UNDECIDED = -1;
+
   private static boolean hasScheme(String url) {
     if (Strings.isNullOrEmpty(url)) {
       throw new IllegalArgumentException("null or empty url");
     }
     if (url.contains("tel:")) {
-      String pattern = "tel:\\+[0-9]{10,12}";
-      return url.matches(pattern);
-    }
-    // allows underscores, otherwise urlvalidator fails
-    url = url.replace("_", "-");
-    url = url.replaceFirst("@", ".");
-    url = url.replaceFirst(".jp", ".com");
-    if (url.contains("acct:")) {
-      url = url.replaceFirst("acct:", "acct://");
-    } else if (url.contains("device:")) {
-      url = url.replaceFirst("device:", "device://");
-    } else if (url.contains("mailto:")) {
-      url = url.replaceFirst("mailto:", "mailto://");
-    }
-    String[] regexs = { "http", "https", "acct", "device", "mailto" };
-    RegexValidator validator = new RegexValidator(regexs, true);
-    UrlValidator urlValidator = new UrlValidator(regexs, validator, UrlValidator.ALLOW_ALL_SCHEMES);
-    return urlValidator.isValid(url);
+      return isTelephoneNumber(url);
+    }
+    String rewritten = rewrite(url);
+    int result = parse(rewritten);
+    if (result == UNDECIDED) {
+      return URL_VALIDATOR.isValid(rewritten);
+    }
+    return result == 1;
   }
 
-  private static boolean isAcctSchemeAssumed(String url) throws ValueException {
-    if (url.contains("@")) {
-      String[] hostArr = url.split("@");
-      if (hostArr != null && hostArr.length > 0) {
-        String host = hostArr[hostArr.length - 1];
-        if (!Strings.isNullOrEmpty(host)) {
-          return !(host.contains(":") || host.contains("/") || host.contains("?"));
-        } else {
-          return false;
+  /**
+   * Checks whether the url matches tel:\+[0-9]{10,12}.
+   */
+  private static boolean isTelephoneNumber(String url) {
+    if (url.length() < 15 || url.length() > 17 || !url.startsWith("tel:+")) {
+      return false;
+    }
+    for (int i = 5; i < url.length(); i++) {
+      char c = url.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Rewrites the url so that the validator accepts the non-URL forms of the input: underscores are
+   * replaced with dashes, the first at sign with a dot, the first "jp" preceded by any character
+   * with ".com" and the first acct:, device: or mailto: is followed by two slashes.
+   */
+  private static String rewrite(String url) {
+    StringBuilder builder = new StringBuilder(url.length() + 3);
+    boolean atReplaced = false;
+    int jpIndex = -1;
+    for (int i = 0; i < url.length(); i++) {
+      char c = url.charAt(i);
+      if (c == '_') {
+        c = '-';
+      } else if (c == '@' && !atReplaced) {
+        c = '.';
+        atReplaced = true;
+      }
+      if (jpIndex == -1 && i > 0 && c == 'p' && url.charAt(i - 1) == 'j' && i > 1
+          && !isLineTerminator(url.charAt(i - 2))) {
+        jpIndex = i - 2;
+      }
+      builder.append(c);
+    }
+    if (jpIndex != -1) {
+      builder.replace(jpIndex, jpIndex + 3, ".com");
+    }
+    int index;
+    if ((index = builder.indexOf("acct:")) != -1) {
+      builder.insert(index + 5, "//");
+    } else if ((index = builder.indexOf("device:")) != -1) {
+      builder.insert(index + 7, "//");
+    } else if ((index = builder.indexOf("mailto:")) != -1) {
+      builder.insert(index + 7, "//");
+    }
+    return builder.toString();
+  }
+
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /**
+   * Parses the rewritten url with the same rules as the validator.
+   * 
+   * @return 1 if valid, 0 if not valid, {@link #UNDECIDED} if it must be checked by the validator.
+   */
+  private static int parse(String url) {
+    int length = url.length();
+    for (int i = 0; i < length; i++) {
+      char c = url.charAt(i);
+      if (c < 0x20 || c > 0x7e) {
+        return UNDECIDED;
+      }
+    }
+    // scheme
+    int pos = 0;
+    while (pos < length && ":/?#".indexOf(url.charAt(pos)) == -1) {
+      pos++;
+    }
+    if (pos == 0 || pos == length || url.charAt(pos) != ':' || !isAlpha(url.charAt(0))) {
+      return 0;
+    }
+    for (int i = 1; i < pos; i++) {
+      char c = url.charAt(i);
+      if (!isAlpha(c) && !isDigit(c) && c != '+' && c != '-' && c != '.') {
+        return 0;
+      }
+    }
+    if (pos == 4 && url.startsWith("file")) {
+      return UNDECIDED;
+    }
+    // authority
+    pos++;
+    if (!url.startsWith("//", pos)) {
+      return 0;
+    }
+    pos += 2;
+    int authorityStart = pos;
+    while (pos < length && "/?#".indexOf(url.charAt(pos)) == -1) {
+      char c = url.charAt(pos);
+      if (!isAlpha(c) && !isDigit(c) && c != '-' && c != '.' && c != ':') {
+        // user info or an IPv6 literal
+        return UNDECIDED;
+      }
+      pos++;
+    }
+    int colon = -1;
+    for (pos = authorityStart; pos < length && "/?#".indexOf(url.charAt(pos)) == -1; pos++) {
+      char c = url.charAt(pos);
+      if (c == ':') {
+        if (colon != -1) {
+          return 0;
         }
-      } else {
-        throw new ValueException("could not properly split host");
+        colon = pos;
+      } else if (colon != -1 && !isDigit(c)) {
+        return 0;
       }
-    } else {
+    }
+    if (!isSchemeName(url, authorityStart, pos)) {
+      String host = colon == -1 ? url.substring(authorityStart, pos)
+          : url.substring(authorityStart, colon);
+      if (!DOMAIN_VALIDATOR.isValid(host) && !INET_ADDRESS_VALIDATOR.isValidInet4Address(host)) {
+        return 0;
+      }
+    }
+    if (colon != -1) {
+      int port = 0;
+      for (int i = colon + 1; i < pos; i++) {
+        port = port * 10 + url.charAt(i) - '0';
+        if (port > MAX_PORT) {
+          return 0;
+        }
+      }
+    }
+    // path
+    int pathStart = pos;
+    while (pos < length && url.charAt(pos) != '?' && url.charAt(pos) != '#') {
+      char c = url.charAt(pos);
+      if (!isAlpha(c) && !isDigit(c) && "-_:@&?=+,.!/~*'%$;()".indexOf(c) == -1) {
+        return 0;
+      }
+      if (c == '/' && pos > pathStart && url.charAt(pos - 1) == '/') {
+        return 0;
+      }
+      if (c == '.' && url.charAt(pos - 1) == '/' && isDotSegment(url, pos)) {
+        return UNDECIDED;
+      }
+      pos++;
+    }
+    if (pos > pathStart && url.charAt(pathStart) != '/') {
+      return 0;
+    }
+    // query, the fragment is not checked
+    if (pos < length && url.charAt(pos) == '?') {
+      while (pos < length && url.charAt(pos) != '#') {
+        if (url.charAt(pos) == ' ') {
+          return 0;
+        }
+        pos++;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Whether the authority between the given indexes is accepted by the authority validator.
+   */
+  private static boolean isSchemeName(String url, int start, int end) {
+    for (String scheme : SCHEMES) {
+      if (scheme.length() == end - start && url.startsWith(scheme, start)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether the path segment starting at the given index is . or ..
+   */
+  private static boolean isDotSegment(String url, int index) {
+    int end = index + 1;
+    if (end < url.length() && url.charAt(end) == '.') {
+      end++;
+    }
+    return end == url.length() || "/?#".indexOf(url.charAt(end)) != -1;
+  }
+
+  private static boolean isAlpha(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isAcctSchemeAssumed(String url) throws ValueException {
+    int end = url.length();
+    if (url.indexOf('@') == -1) {
       return false;
     }
+    // trailing empty parts are ignored, as in String.split
+    while (end > 0 && url.charAt(end - 1) == '@') {
+      end--;
+    }
+    if (end == 0) {
+      throw new ValueException("could not properly split host");
+    }
+    String host = url.substring(url.lastIndexOf('@', end - 1) + 1, end);
+    return !(host.contains(":") || host.contains("/") || host.contains("?"));
   }
 
   public static String normalizeUrl(String url) throws ValueException {
@@ -75,6 +287,7 @@ public class URIUtil {
       url = "https://" + url;
     }
 
-    return url.split("#")[0];
+    int fragment = url.indexOf('#');
+    return fragment == -1 ? url : url.substring(0, fragment);
   }
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+import org.oidc.msg.DeserializationException;
+
+/**
+ * Parses URL encoded responses in a single pass over the response string, without {@link
+ * java.net.URL} objects or split arrays. The names and values are handed to a
+ * {@link ParameterHandler} as they are found. A value without any encoded characters is handed
+ * out as a substring of the input, the others are decoded straight from the input.
+ */
+public final class UrlEncodedParser {
+
+  /** Receives the parameters found by {@link UrlEncodedParser#parse}. */
+  public interface ParameterHandler {
+
+    /**
+     * Handles a single parameter.
+     * 
+     * @param name
+     *          The decoded name of the parameter, never empty.
+     * @param value
+     *          The decoded value of the parameter, empty if the parameter has no value.
+     * @throws DeserializationException
+     *           If the parameter is not acceptable.
+     */
+    void parameter(String name, String value) throws DeserializationException;
+  }
+
+  private UrlEncodedParser() {
+  }
+
+  /**
+   * Picks the query of the URL, or its fragment if the query is empty. The URL must have a
+   * scheme, otherwise it's only checked as far as needed for finding the query and the fragment.
+   * 
+   * @param url
+   *          The URL, leading and trailing white space is ignored as by {@link java.net.URL}.
+   * @return The query or the fragment, null if the URL has neither.
+   * @throws MalformedURLException
+   *           If the URL has no scheme.
+   */
+  public static String getQueryOrFragment(String url) throws MalformedURLException {
+    int start = 0;
+    int end = url.length();
+    while (start < end && url.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && url.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (!hasScheme(url, start, end)) {
+      throw new MalformedURLException("no protocol: " + url);
+    }
+    int fragment = -1;
+    int query = -1;
+    for (int i = start; i < end; i++) {
+      char c = url.charAt(i);
+      if (c == '#') {
+        fragment = i;
+        break;
+      }
+      if (c == '?' && query < 0) {
+        query = i;
+      }
+    }
+    int queryEnd = fragment < 0 ? end : fragment;
+    if (query >= 0 && query + 1 < queryEnd) {
+      return url.substring(query + 1, queryEnd);
+    }
+    return fragment < 0 ? null : url.substring(fragment + 1, end);
+  }
+
+  /**
+   * Parses the URL encoded parameters. Empty segments and segments without a name are skipped.
+   * 
+   * @param form
+   *          The URL encoded parameters, e.g. a query, a fragment or a form body.
+   * @param handler
+   *          The handler receiving the parameters in their order in the input.
+   * @throws DeserializationException
+   *           If a name or a value is not properly encoded, or if the handler rejects a parameter.
+   */
+  public static void parse(CharSequence form, ParameterHandler handler)
+      throws DeserializationException {
+    parse(form, 0, form.length(), handler);
+  }
+
+  /**
+   * Parses the URL encoded parameters in the given range of the input.
+   * 
+   * @param form
+   *          The input containing URL encoded parameters.
+   * @param start
+   *          The index of the first character of the parameters.
+   * @param end
+   *          The index after the last character of the parameters.
+   * @param handler
+   *          The handler receiving the parameters in their order in the input.
+   * @throws DeserializationException
+   *           If a name or a value is not properly encoded, or if the handler rejects a parameter.
+   */
+  public static void parse(CharSequence form, int start, int end, ParameterHandler handler)
+      throws DeserializationException {
+    int segmentStart = start;
+    while (segmentStart < end) {
+      int separator = -1;
+      int segmentEnd = segmentStart;
+      while (segmentEnd < end) {
+        char c = form.charAt(segmentEnd);
+        if (c == '&') {
+          break;
+        }
+        if (c == '=' && separator < 0) {
+          separator = segmentEnd;
+        }
+        segmentEnd++;
+      }
+      int nameEnd = separator < 0 ? segmentEnd : separator;
+      if (nameEnd > segmentStart) {
+        String name = decode(form, segmentStart, nameEnd);
+        String value = separator < 0 ? "" : decode(form, separator + 1, segmentEnd);
+        handler.parameter(name, value);
+      }
+      segmentStart = segmentEnd + 1;
+    }
+  }
+
+  /**
+   * Decodes a URL encoded name or value in the given range of the input. Plus signs are decoded
+   * to spaces and the percent-encoded bytes as UTF-8.
+   * 
+   * @param input
+   *          The input.
+   * @param start
+   *          The index of the first character.
+   * @param end
+   *          The index after the last character.
+   * @return The decoded string.
+   * @throws DeserializationException
+   *           If a percent-encoding is truncated or not hexadecimal.
+   */
+  public static String decode(CharSequence input, int start, int end)
+      throws DeserializationException {
+    boolean plain = true;
+    for (int i = start; i < end && plain; i++) {
+      char c = input.charAt(i);
+      plain = c != '%' && c != '+' && c < 0x80;
+    }
+    if (plain) {
+      return input.subSequence(start, end).toString();
+    }
+    byte[] bytes = new byte[end - start];
+    int length = 0;
+    for (int i = start; i < end; i++) {
+      char c = input.charAt(i);
+      if (c == '+') {
+        bytes[length++] = ' ';
+      } else if (c == '%') {
+        if (i + 2 >= end) {
+          throw new DeserializationException("Truncated percent-encoding");
+        }
+        int high = Character.digit(input.charAt(i + 1), 16);
+        int low = Character.digit(input.charAt(i + 2), 16);
+        if (high < 0 || low < 0) {
+          throw new DeserializationException("Invalid percent-encoding");
+        }
+        bytes[length++] = (byte) ((high << 4) | low);
+        i += 2;
+      } else if (c < 0x80) {
+        bytes[length++] = (byte) c;
+      } else {
+        // raw non-ASCII characters are not expected, leave them to the generic decoder
+        return decodeGeneric(input.subSequence(start, end).toString());
+      }
+    }
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private static String decodeGeneric(String value) throws DeserializationException {
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (IllegalArgumentException e) {
+      throw new DeserializationException("Invalid percent-encoding", e);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is not supported", e);
+    }
+  }
+
+  /**
+   * Checks that the URL starts with a scheme, i.e. a letter followed by letters, digits, '+',
+   * '-' or '.' and terminated by ':'.
+   */
+  private static boolean hasScheme(String url, int start, int end) {
+    if (start >= end || !isAsciiLetter(url.charAt(start))) {
+      return false;
+    }
+    for (int i = start + 1; i < end; i++) {
+      char c = url.charAt(i);
+      if (c == ':') {
+        return true;
+      }
+      if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isAsciiLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+}
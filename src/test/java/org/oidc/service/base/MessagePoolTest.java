@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.msg.Message;
+import org.oidc.msg.oauth2.ResponseMessage;
+
+/**
+ * Unit tests for {@link MessagePool}.
+ */
+public class MessagePoolTest {
+
+  private MessageFactory factory;
+
+  @Before
+  public void setup() {
+    factory = new MessageFactory() {
+      @Override
+      public Message newMessage() {
+        return new ResponseMessage();
+      }
+    };
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullFactory() {
+    new MessagePool(null, 1);
+  }
+
+  @Test
+  public void testReleasedMessageIsReusedAndCleared() {
+    MessagePool pool = new MessagePool(factory, 2, false);
+    Message message = pool.acquire();
+    message.getClaims().put("access_token", "mockToken");
+    pool.release(message);
+    Assert.assertEquals(1, pool.getAvailableCount());
+    Message reused = pool.acquire();
+    Assert.assertSame(message, reused);
+    Assert.assertTrue(reused.getClaims().isEmpty());
+    Assert.assertEquals(1, pool.getCreatedCount());
+    Assert.assertEquals(1, pool.getReusedCount());
+    Assert.assertEquals(-1, pool.getOutstandingCount());
+  }
+
+  @Test
+  public void testCapacityIsBounded() {
+    MessagePool pool = new MessagePool(factory, 1, false);
+    Message first = pool.acquire();
+    Message second = pool.acquire();
+    Assert.assertNotSame(first, second);
+    pool.release(first);
+    pool.release(second);
+    Assert.assertEquals(1, pool.getAvailableCount());
+    Assert.assertSame(first, pool.acquire());
+    Assert.assertEquals(0, pool.getAvailableCount());
+  }
+
+  @Test
+  public void testLeakDetection() {
+    MessagePool pool = new MessagePool(factory, 4, true);
+    Message released = pool.acquire();
+    Message retained = pool.acquire();
+    Message leaked = pool.acquire();
+    Assert.assertEquals(3, pool.getOutstandingCount());
+    pool.release(released);
+    pool.retain(retained);
+    Assert.assertEquals(1, pool.getOutstandingCount());
+    Assert.assertEquals(1, pool.getLeaks().size());
+    Assert.assertEquals(MessagePoolTest.class.getName(),
+        pool.getLeaks().get(0).getStackTrace()[1].getClassName());
+    pool.release(leaked);
+    Assert.assertEquals(0, pool.getOutstandingCount());
+  }
+
+  @Test
+  public void testDoubleReleaseIgnoredWithLeakDetection() {
+    MessagePool pool = new MessagePool(factory, 4, true);
+    Message message = pool.acquire();
+    pool.release(message);
+    pool.release(message);
+    pool.release(new ResponseMessage());
+    Assert.assertEquals(1, pool.getAvailableCount());
+  }
+
+  @Test
+  public void testDoubleAndForeignReleaseIgnored() {
+    MessagePool pool = new MessagePool(factory, 4, false);
+    Message message = pool.acquire();
+    pool.release(message);
+    pool.release(message);
+    pool.release(new ResponseMessage());
+    Assert.assertEquals(1, pool.getAvailableCount());
+    Assert.assertSame(message, pool.acquire());
+    Assert.assertNotSame(message, pool.acquire());
+  }
+
+  @Test
+  public void testRetainedMessageIsNotReleased() {
+    MessagePool pool = new MessagePool(factory, 4, false);
+    Message message = pool.acquire();
+    message.getClaims().put("access_token", "mockToken");
+    pool.retain(message);
+    pool.release(message);
+    Assert.assertEquals(0, pool.getAvailableCount());
+    Assert.assertEquals("mockToken", message.getClaims().get("access_token"));
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.service.Service;
+import org.oidc.service.base.processor.AddScope;
+import org.oidc.service.base.processor.AddState;
+import org.oidc.service.util.ServiceUtil;
+
+/**
+ * Unit tests for {@link RequestArgumentProcessorRegistry}.
+ */
+public class RequestArgumentProcessorRegistryTest {
+
+  private RequestArgumentProcessorRegistry registry;
+
+  @Before
+  public void setup() {
+    registry = new RequestArgumentProcessorRegistry();
+  }
+
+  @Test
+  public void testBuiltInsAreShared() throws Exception {
+    RequestArgumentProcessorRegistry.registerBuiltIns(registry);
+    Assert.assertTrue(registry.isRegistered(AddScope.class.getName()));
+    RequestArgumentProcessor processor = registry.getProcessor(AddScope.class.getName());
+    Assert.assertTrue(processor instanceof AddScope);
+    Assert.assertSame(processor, registry.getProcessor(AddScope.class.getName()));
+  }
+
+  @Test
+  public void testDefaultRegistry() throws Exception {
+    Assert.assertTrue(RequestArgumentProcessorRegistry.getDefault()
+        .isRegistered(AddState.class.getName()));
+    Assert.assertSame(RequestArgumentProcessorRegistry.getDefault()
+        .getProcessor(AddState.class.getName()),
+        ServiceUtil.getRequestArgumentProcessor(AddState.class.getName()));
+  }
+
+  @Test
+  public void testStatefulFactoryCreatesNewInstances() throws Exception {
+    registry.register(new MockFactory("mock", false));
+    RequestArgumentProcessor processor = registry.getProcessor("mock");
+    Assert.assertTrue(processor instanceof MockProcessor);
+    Assert.assertNotSame(processor, registry.getProcessor("mock"));
+  }
+
+  @Test
+  public void testRegisterReplacesSingleton() throws Exception {
+    registry.register(new MockFactory("mock", true));
+    RequestArgumentProcessor processor = registry.getProcessor("mock");
+    Assert.assertSame(processor, registry.getProcessor("mock"));
+    registry.register(new MockFactory("mock", true));
+    Assert.assertNotSame(processor, registry.getProcessor("mock"));
+  }
+
+  @Test
+  public void testReflectionFallback() throws Exception {
+    Assert.assertFalse(registry.isRegistered(MockProcessor.class.getName()));
+    RequestArgumentProcessor processor = registry.getProcessor(MockProcessor.class.getName());
+    Assert.assertTrue(processor instanceof MockProcessor);
+    Assert.assertNotSame(processor, registry.getProcessor(MockProcessor.class.getName()));
+  }
+
+  @Test(expected = InvalidConfigurationPropertyException.class)
+  public void testUnknownClass() throws Exception {
+    registry.getProcessor("org.oidc.service.base.processor.NotExisting");
+  }
+
+  @Test(expected = InvalidConfigurationPropertyException.class)
+  public void testIncompatibleClass() throws Exception {
+    registry.getProcessor(String.class.getName());
+  }
+
+  @Test(expected = InvalidConfigurationPropertyException.class)
+  public void testNullName() throws Exception {
+    registry.getProcessor(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullFactory() {
+    registry.register(null);
+  }
+
+  public static class MockProcessor implements RequestArgumentProcessor {
+
+    @Override
+    public void processRequestArguments(Map<String, Object> requestArguments, Service service)
+        throws RequestArgumentProcessingException {
+    }
+  }
+
+  private static class MockFactory implements RequestArgumentProcessorFactory {
+
+    private final String name;
+
+    private final boolean stateless;
+
+    MockFactory(String name, boolean stateless) {
+      this.name = name;
+      this.stateless = stateless;
+    }
+
+    @Override
+    public String getProcessorName() {
+      return name;
+    }
+
+    @Override
+    public RequestArgumentProcessor newProcessor() {
+      return new MockProcessor();
+    }
+
+    @Override
+    public boolean isStateless() {
+      return stateless;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.oidc.common.ClientAuthenticationMethod;
+import org.oidc.common.HttpMethod;
+import org.oidc.common.ServiceName;
+import org.oidc.msg.DeserializationException;
+import org.oidc.service.base.processor.AddJwksUriOrJwks;
+import org.oidc.service.base.processor.AddState;
+
+/**
+ * Unit tests for {@link ServiceConfigSnapshot}.
+ */
+public class ServiceConfigSnapshotTest {
+
+  private static final String BUNDLE = "{ \"authorization\": { "
+      + "\"name\": \"AUTHORIZATION\", \"endpoint\": \"https://op.example.com/authz\", "
+      + "\"http_method\": \"GET\", \"allow_http\": true, "
+      + "\"pre_constructors\": [ \"org.oidc.service.base.processor.AddState\" ], "
+      + "\"pre_construct\": { \"scope\": [ \"openid\", \"email\" ], \"max_age\": 60, "
+      + "\"big\": 12345678901234567890, \"ratio\": 0.5, \"flag\": false, \"none\": null, "
+      + "\"nested\": { \"key\": \"value\" } } }, "
+      + "\"registration\": { \"default_authn_method\": \"client_secret_basic\", "
+      + "\"post_constructors\": [ \"org.oidc.service.base.processor.AddJwksUriOrJwks\" ], "
+      + "\"request_params\": { \"token_endpoint_auth_method\": \"private_key_jwt\" } } }";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path source;
+
+  private Path snapshot;
+
+  @Before
+  public void setup() throws IOException {
+    source = folder.getRoot().toPath().resolve("services.json");
+    snapshot = folder.getRoot().toPath().resolve("services.snapshot");
+    Files.write(source, BUNDLE.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testLoadWritesSnapshot() throws Exception {
+    Map<String, ServiceConfig> configs = ServiceConfigSnapshot.load(source, snapshot);
+    Assert.assertTrue(Files.exists(snapshot));
+    assertBundle(configs);
+    Map<String, ServiceConfig> read = ServiceConfigSnapshot.read(snapshot,
+        ServiceConfigSnapshot.digest(Files.readAllBytes(source)));
+    assertBundle(read);
+    Assert.assertEquals(configs.get("authorization").getPreConstructorArgs(),
+        read.get("authorization").getPreConstructorArgs());
+    Assert.assertEquals(configs.get("registration").getRequestParameters(),
+        read.get("registration").getRequestParameters());
+    Assert.assertNull(read.get("registration").getPreConstructors());
+    Assert.assertNull(read.get("registration").getPreConstructorArgs());
+    Assert.assertEquals(assertBundle(ServiceConfigSnapshot.load(source, snapshot)).size(), 2);
+  }
+
+  @Test
+  public void testChangedSourceIsParsedAgain() throws Exception {
+    ServiceConfigSnapshot.load(source, snapshot);
+    byte[] oldDigest = ServiceConfigSnapshot.digest(Files.readAllBytes(source));
+    Files.write(source, "{ \"token\": { \"endpoint\": \"https://op.example.com/token\" } }"
+        .getBytes(StandardCharsets.UTF_8));
+    Assert.assertNull(ServiceConfigSnapshot.read(snapshot,
+        ServiceConfigSnapshot.digest(Files.readAllBytes(source))));
+    Map<String, ServiceConfig> configs = ServiceConfigSnapshot.load(source, snapshot);
+    Assert.assertEquals(1, configs.size());
+    Assert.assertEquals("https://op.example.com/token", configs.get("token").getEndpoint());
+    Assert.assertNull(ServiceConfigSnapshot.read(snapshot, oldDigest));
+    Assert.assertEquals(1, ServiceConfigSnapshot.read(snapshot, null).size());
+  }
+
+  @Test
+  public void testCorruptSnapshotIsRebuilt() throws Exception {
+    ServiceConfigSnapshot.load(source, snapshot);
+    byte[] bytes = Files.readAllBytes(snapshot);
+    Files.write(snapshot, Arrays.copyOf(bytes, bytes.length / 2));
+    try {
+      ServiceConfigSnapshot.read(snapshot, null);
+      Assert.fail("Truncated snapshot was read");
+    } catch (IOException e) {
+      // expected
+    }
+    assertBundle(ServiceConfigSnapshot.load(source, snapshot));
+    Assert.assertArrayEquals(bytes, Files.readAllBytes(snapshot));
+  }
+
+  @Test
+  public void testFlippedStringByteIsRebuilt() throws Exception {
+    assertFlippedByteIsRebuilt("https://op.example.com/authz");
+  }
+
+  @Test
+  public void testFlippedNumberByteIsRebuilt() throws Exception {
+    assertFlippedByteIsRebuilt("12345678901234567890");
+  }
+
+  @Test
+  public void testOtherVersionIsIgnored() throws Exception {
+    try (OutputStream stream = Files.newOutputStream(snapshot)) {
+      DataOutputStream out = new DataOutputStream(stream);
+      out.writeInt(ServiceConfigSnapshot.MAGIC);
+      out.writeInt(ServiceConfigSnapshot.VERSION + 1);
+      out.flush();
+    }
+    Assert.assertNull(ServiceConfigSnapshot.read(snapshot, null));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotSnapshot() throws Exception {
+    Files.write(snapshot, BUNDLE.getBytes(StandardCharsets.UTF_8));
+    ServiceConfigSnapshot.read(snapshot, null);
+  }
+
+  @Test
+  public void testMissingSnapshot() throws Exception {
+    Assert.assertNull(ServiceConfigSnapshot.read(snapshot, null));
+  }
+
+  @Test
+  public void testYamlSource() throws Exception {
+    Path yaml = folder.getRoot().toPath().resolve("services.yml");
+    Files.write(yaml, ("---\nuserinfo:\n  endpoint: \"https://op.example.com/userinfo\"\n"
+        + "  post_constructors:\n  - \"org.oidc.service.base.processor.AddState\"\n")
+        .getBytes(StandardCharsets.UTF_8));
+    Map<String, ServiceConfig> configs = ServiceConfigSnapshot.load(yaml, snapshot);
+    Assert.assertEquals("https://op.example.com/userinfo", configs.get("userinfo").getEndpoint());
+    Assert.assertTrue(configs.get("userinfo").getPostConstructors().get(0) instanceof AddState);
+    Assert.assertEquals(1, ServiceConfigSnapshot.read(snapshot, null).size());
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testInvalidSource() throws Exception {
+    Files.write(source, "{ \"token\": { \"http_method\": \"NOT_EXISTING\" } }"
+        .getBytes(StandardCharsets.UTF_8));
+    ServiceConfigSnapshot.load(source, snapshot);
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testUnverifiedSource() throws Exception {
+    Files.write(source, "{ \"token\": { \"endpoint\": [ \"https://op.example.com/token\" ] } }"
+        .getBytes(StandardCharsets.UTF_8));
+    ServiceConfigSnapshot.load(source, snapshot);
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testSourceEntryNotObject() throws Exception {
+    Files.write(source, "{ \"token\": \"https://op.example.com/token\" }"
+        .getBytes(StandardCharsets.UTF_8));
+    ServiceConfigSnapshot.load(source, snapshot);
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testSourceNotObject() throws Exception {
+    Files.write(source, "[ 1, 2 ]".getBytes(StandardCharsets.UTF_8));
+    ServiceConfigSnapshot.load(source, snapshot);
+  }
+
+  private void assertFlippedByteIsRebuilt(String value) throws Exception {
+    ServiceConfigSnapshot.load(source, snapshot);
+    byte[] bytes = Files.readAllBytes(snapshot);
+    byte[] corrupt = bytes.clone();
+    int index = new String(corrupt, StandardCharsets.ISO_8859_1).indexOf(value);
+    Assert.assertTrue(index > 0);
+    corrupt[index + 1] = 'x';
+    Files.write(snapshot, corrupt);
+    try {
+      ServiceConfigSnapshot.read(snapshot, null);
+      Assert.fail("Corrupt snapshot was read");
+    } catch (IOException e) {
+      // expected
+    }
+    assertBundle(ServiceConfigSnapshot.load(source, snapshot));
+    Assert.assertArrayEquals(bytes, Files.readAllBytes(snapshot));
+  }
+
+  private Map<String, ServiceConfig> assertBundle(Map<String, ServiceConfig> configs) {
+    Assert.assertEquals(Arrays.asList("authorization", "registration"),
+        Arrays.asList(configs.keySet().toArray()));
+    ServiceConfig authorization = configs.get("authorization");
+    Assert.assertEquals(ServiceName.AUTHORIZATION, authorization.getServiceName());
+    Assert.assertEquals("https://op.example.com/authz", authorization.getEndpoint());
+    Assert.assertEquals(HttpMethod.GET, authorization.getHttpMethod());
+    Assert.assertTrue(authorization.isShouldAllowHttp());
+    Assert.assertFalse(authorization.isShouldAllowNonStandardIssuer());
+    Assert.assertTrue(authorization.getPreConstructors().get(0) instanceof AddState);
+    Assert.assertNull(authorization.getPostConstructors());
+    Map<String, Object> args = authorization.getPreConstructorArgs();
+    Assert.assertEquals(Arrays.asList("openid", "email"), args.get("scope"));
+    Assert.assertEquals(60, args.get("max_age"));
+    Assert.assertEquals(0.5, args.get("ratio"));
+    Assert.assertEquals(Boolean.FALSE, args.get("flag"));
+    Assert.assertTrue(args.containsKey("none"));
+    Assert.assertEquals("value", ((Map<?, ?>) args.get("nested")).get("key"));
+    ServiceConfig registration = configs.get("registration");
+    Assert.assertEquals(ClientAuthenticationMethod.CLIENT_SECRET_BASIC,
+        registration.getDefaultAuthenticationMethod());
+    Assert.assertTrue(registration.getPostConstructors().get(0) instanceof AddJwksUriOrJwks);
+    Assert.assertEquals("private_key_jwt",
+        registration.getRequestParameters().get("token_endpoint_auth_method"));
+    return configs;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import com.google.common.base.Ticker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.EndpointName;
+import org.oidc.common.ValueException;
+import org.oidc.msg.oauth2.ASConfigurationResponse;
+import org.oidc.service.base.ServiceContextRegistry.TenantLoader;
+
+/**
+ * Unit tests for {@link ServiceContextRegistry}.
+ */
+public class ServiceContextRegistryTest {
+
+  private static final String ISSUER = "https://op.example.com";
+
+  private AtomicInteger loads;
+
+  private AtomicLong nanos;
+
+  private Ticker ticker;
+
+  private TenantLoader loader;
+
+  @Before
+  public void setup() {
+    loads = new AtomicInteger();
+    nanos = new AtomicLong();
+    ticker = new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    };
+    loader = new TenantLoader() {
+      @Override
+      public ServiceContext load(String issuer, String clientId) throws Exception {
+        loads.incrementAndGet();
+        if ("broken".equals(clientId)) {
+          throw new IllegalStateException("mock failure");
+        }
+        ServiceContext context = new ServiceContext();
+        context.setClientId(clientId);
+        return context;
+      }
+    };
+  }
+
+  @Test
+  public void testLazyLoadOnce() throws Exception {
+    ServiceContextRegistry registry = new ServiceContextRegistry(loader, 1000000, 1,
+        TimeUnit.HOURS, ticker);
+    Assert.assertNull(registry.getIfPresent(ISSUER, "client1"));
+    ServiceContext context = registry.get(ISSUER, "client1");
+    Assert.assertSame(context, registry.get(ISSUER, "client1"));
+    Assert.assertEquals("client1", context.getClientId());
+    Assert.assertEquals(ISSUER, context.getIssuer());
+    Assert.assertEquals(1, loads.get());
+    Assert.assertNotSame(context, registry.get(ISSUER, "client2"));
+    Assert.assertEquals(2, registry.size());
+  }
+
+  @Test(expected = ValueException.class)
+  public void testLoadFailure() throws Exception {
+    new ServiceContextRegistry(loader, 1000000, 1, TimeUnit.HOURS, ticker).get(ISSUER, "broken");
+  }
+
+  @Test
+  public void testSharedProvider() throws Exception {
+    ServiceContextRegistry registry = new ServiceContextRegistry(loader, 1000000, 1,
+        TimeUnit.HOURS, ticker);
+    ServiceContext first = registry.get(ISSUER, "client1");
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("issuer", ISSUER);
+    ASConfigurationResponse configuration = new ASConfigurationResponse(claims);
+    first.setProviderConfigurationResponse(configuration);
+    Map<EndpointName, String> endpoints = new HashMap<EndpointName, String>(first.getEndpoints());
+    endpoints.put(EndpointName.TOKEN, ISSUER + "/token");
+    first.setEndpoints(endpoints);
+    registry.publishProvider(first);
+
+    ServiceContext second = registry.get(ISSUER, "client2");
+    Assert.assertSame(configuration, second.getProviderConfigurationResponse());
+    Assert.assertEquals(ISSUER + "/token", second.getEndpoints().get(EndpointName.TOKEN));
+    Assert.assertSame(configuration, registry.getProviderConfiguration(ISSUER));
+    Assert.assertNull(registry.get("https://other.example.com", "client1")
+        .getProviderConfigurationResponse());
+  }
+
+  @Test
+  public void testIdleEviction() throws Exception {
+    ServiceContextRegistry registry = new ServiceContextRegistry(loader, 1000000, 10,
+        TimeUnit.MINUTES, ticker);
+    registry.get(ISSUER, "client1");
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(11));
+    registry.cleanUp();
+    Assert.assertNull(registry.getIfPresent(ISSUER, "client1"));
+    registry.get(ISSUER, "client1");
+    Assert.assertEquals(2, loads.get());
+    Assert.assertEquals(1, registry.getEvictionCount());
+  }
+
+  @Test
+  public void testWeightBudget() throws Exception {
+    ServiceContextRegistry registry = new ServiceContextRegistry(loader, 50000, 1,
+        TimeUnit.HOURS, ticker);
+    for (int i = 0; i < 200; i++) {
+      registry.get(ISSUER, "client" + i);
+    }
+    registry.cleanUp();
+    Assert.assertTrue(registry.size() <= 50000 / 2048);
+    Assert.assertTrue(registry.getEvictionCount() > 0);
+  }
+}
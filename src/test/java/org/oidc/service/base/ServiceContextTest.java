@@ -19,6 +19,7 @@ package org.oidc.service.base;
 import com.auth0.jwt.exceptions.oicmsg_exceptions.ImportException;
 import com.auth0.msg.KeyJar;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -28,6 +29,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.oidc.common.EndpointName;
 import org.oidc.common.ValueException;
 import org.oidc.msg.InvalidClaimException;
 import org.oidc.msg.oidc.ProviderConfigurationResponse;
@@ -71,6 +73,118 @@ public class ServiceContextTest {
     Assert.assertTrue(requestUris.get(0).startsWith("baseUrl/url/"));
   }
 
+  @Test
+  public void testSnapshotIsReusedUntilChanged() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setIssuer("issuer");
+    ServiceContextSnapshot snapshot = serviceContext.getSnapshot();
+    Assert.assertSame(snapshot, serviceContext.getSnapshot());
+    Assert.assertEquals("issuer", snapshot.getIssuer());
+    serviceContext.setIssuer("issuer2");
+    ServiceContextSnapshot updated = serviceContext.getSnapshot();
+    Assert.assertNotSame(snapshot, updated);
+    Assert.assertTrue(updated.getVersion() > snapshot.getVersion());
+    Assert.assertEquals("issuer", snapshot.getIssuer());
+    Assert.assertEquals("issuer2", updated.getIssuer());
+  }
+
+  @Test
+  public void testSnapshotCollectionsAreCopied() {
+    ServiceContext serviceContext = new ServiceContext();
+    List<String> redirectUris = new ArrayList<String>(Arrays.asList("https://example.com/cb"));
+    serviceContext.setRedirectUris(redirectUris);
+    Map<EndpointName, String> endpoints = new HashMap<EndpointName, String>();
+    endpoints.put(EndpointName.TOKEN, "https://example.com/token");
+    serviceContext.setEndpoints(endpoints);
+    ServiceContextSnapshot snapshot = serviceContext.getSnapshot();
+    redirectUris.add("https://example.com/cb2");
+    endpoints.put(EndpointName.USER_INFO, "https://example.com/userinfo");
+    Assert.assertEquals(1, snapshot.getRedirectUris().size());
+    Assert.assertEquals(1, snapshot.getEndpoints().size());
+    Assert.assertEquals("https://example.com/token",
+        snapshot.getEndpoints().get(EndpointName.TOKEN));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSnapshotCollectionsAreUnmodifiable() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setRedirectUris(Arrays.asList("https://example.com/cb"));
+    serviceContext.getSnapshot().getRedirectUris().add("https://example.com/cb2");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGettersAreUnmodifiable() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.getAllow().put("mockKey", true);
+  }
+
+  @Test
+  public void testGettersDoNotInvalidateSnapshot() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setRedirectUris(Arrays.asList("https://example.com/cb"));
+    ServiceContextSnapshot snapshot = serviceContext.getSnapshot();
+    serviceContext.getAllow();
+    serviceContext.getRedirectUris();
+    serviceContext.getCallBack();
+    serviceContext.getPostLogoutRedirectUris();
+    serviceContext.getEndpoints();
+    Assert.assertSame(snapshot, serviceContext.getSnapshot());
+  }
+
+  @Test
+  public void testSetAllowed() {
+    ServiceContext serviceContext = new ServiceContext();
+    ServiceContextSnapshot snapshot = serviceContext.getSnapshot();
+    Map<String, Boolean> allow = serviceContext.getAllow();
+    serviceContext.setAllowed("mockKey", true);
+    Assert.assertTrue(serviceContext.getSnapshot().isAllowed("mockKey"));
+    Assert.assertTrue(serviceContext.isAllowed("mockKey"));
+    Assert.assertFalse(snapshot.isAllowed("mockKey"));
+    Assert.assertFalse(allow.containsKey("mockKey"));
+  }
+
+  @Test
+  public void testUpdateIsPublishedAtOnce() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setIssuer("https://old.example.com");
+    ServiceContextSnapshot snapshot = serviceContext.getSnapshot();
+    ServiceContext.Update update = serviceContext.beginUpdate();
+    update.setIssuer("https://example.com");
+    update.setClientId("mockClient");
+    Map<EndpointName, String> endpoints = new HashMap<EndpointName, String>();
+    endpoints.put(EndpointName.TOKEN, "https://example.com/token");
+    update.setEndpoints(endpoints);
+    Assert.assertEquals("https://example.com", update.getIssuer());
+    Assert.assertSame(snapshot, serviceContext.getSnapshot());
+    Assert.assertEquals("https://old.example.com", serviceContext.getIssuer());
+    Assert.assertNull(serviceContext.getClientId());
+
+    update.publish();
+    ServiceContextSnapshot published = serviceContext.getSnapshot();
+    Assert.assertEquals(snapshot.getVersion() + 1, published.getVersion());
+    Assert.assertEquals("https://example.com", published.getIssuer());
+    Assert.assertEquals("mockClient", published.getClientId());
+    Assert.assertEquals("https://example.com/token",
+        published.getEndpoints().get(EndpointName.TOKEN));
+    Assert.assertEquals("https://old.example.com", snapshot.getIssuer());
+  }
+
+  @Test
+  public void testUpdateKeepsValuesNotSet() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setIssuer("https://example.com");
+    serviceContext.setClientId("mockClient");
+    ServiceContext.Update update = serviceContext.beginUpdate();
+    update.setClientSecret("mockSecret");
+    Assert.assertEquals("mockClient", update.getClientId());
+    Assert.assertNotSame(serviceContext.getKeyJar(), update.getModifiableKeyJar());
+    update.publish();
+    Assert.assertEquals("https://example.com", serviceContext.getIssuer());
+    Assert.assertEquals("mockClient", serviceContext.getClientId());
+    Assert.assertEquals("mockSecret", serviceContext.getSnapshot().getClientSecret());
+    Assert.assertSame(update.getKeyJar(), serviceContext.getKeyJar());
+  }
+
   protected ProviderConfigurationResponse initializeMinimalConfiguration(String issuer) {
     Map<String, Object> claims = new HashMap<>();
     claims.put(Constants.ISSUER, issuer);
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.oidc.common.ValueException;
+import org.oidc.msg.DeserializationException;
+import org.oidc.msg.InvalidClaimException;
+import org.oidc.service.data.InMemoryStateImpl;
+import org.oidc.service.oidc.Authentication;
+
+/**
+ * Unit tests for {@link VerificationFailures}.
+ */
+public class VerificationFailuresTest {
+
+  private final boolean initialMode = VerificationFailures.isStackless();
+
+  @After
+  public void tearDown() {
+    VerificationFailures.setStackless(initialMode);
+  }
+
+  @Test
+  public void testStackTracesCapturedByDefault() {
+    VerificationFailures.setStackless(false);
+    Assert.assertTrue(VerificationFailures.invalidClaim("claim").getStackTrace().length > 0);
+    Assert.assertTrue(VerificationFailures.deserialization("json").getStackTrace().length > 0);
+    Assert.assertTrue(VerificationFailures.value("value").getStackTrace().length > 0);
+    Assert.assertEquals(InvalidClaimException.class,
+        VerificationFailures.invalidClaim("claim").getClass());
+  }
+
+  @Test
+  public void testStackless() {
+    VerificationFailures.setStackless(true);
+    InvalidClaimException invalidClaim = VerificationFailures.invalidClaim("claim");
+    DeserializationException deserialization = VerificationFailures.deserialization("json");
+    ValueException value = VerificationFailures.value("value");
+    Assert.assertEquals(0, invalidClaim.getStackTrace().length);
+    Assert.assertEquals(0, deserialization.getStackTrace().length);
+    Assert.assertEquals(0, value.getStackTrace().length);
+    Assert.assertEquals("value", value.getMessage());
+    Assert.assertNotSame(VerificationFailures.value("value"), value);
+  }
+
+  @Test
+  public void testServiceRejectionIsStackless() throws Exception {
+    VerificationFailures.setStackless(true);
+    Authentication service = new Authentication(new ServiceContext(), new InMemoryStateImpl(),
+        null);
+    try {
+      service.updateServiceContext(null, "state");
+      Assert.fail("Null response was accepted");
+    } catch (ValueException e) {
+      Assert.assertEquals(0, e.getStackTrace().length);
+    }
+  }
+}
@@ -36,6 +36,8 @@ import org.oidc.msg.DeserializationException;
 import org.oidc.msg.oidc.RegistrationResponse;
 import org.oidc.msg.oidc.RequestObject;
 import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.data.RequestObjectCache;
+import org.oidc.service.data.RequestObjectStore;
 import org.oidc.testutil.KeyUtil;
 
 /**
@@ -114,6 +116,35 @@ public class AddRequestObjectTest extends BaseRequestArgumentProcessorTest<AddRe
         .contains(System.getProperty("java.io.tmpdir")));
   }
 
+  @Test
+  public void testStoreIsOnlyReadForCachedObjects() throws Exception {
+    final Map<String, String> stored = new HashMap<String, String>();
+    final List<String> reads = new ArrayList<String>();
+    service.getServiceContext().setRequestObjectStore(new RequestObjectStore() {
+      @Override
+      public void store(String filename, String jwt) {
+        stored.put(filename, jwt);
+      }
+
+      @Override
+      public String get(String filename) {
+        reads.add(filename);
+        return stored.get(filename);
+      }
+    });
+    service.getServiceContext().setRequestObjectCache(new RequestObjectCache(10));
+    service.getPostConstructorArgs().put("request_method", "request_uri");
+    Map<String, Object> arguments = new HashMap<String, Object>(requestArguments);
+    processor.processRequestArguments(arguments, service);
+    Assert.assertEquals(1, stored.size());
+    Assert.assertTrue(reads.isEmpty());
+    Map<String, Object> repeated = new HashMap<String, Object>(requestArguments);
+    processor.processRequestArguments(repeated, service);
+    Assert.assertEquals(arguments.get("request_uri"), repeated.get("request_uri"));
+    Assert.assertEquals(1, stored.size());
+    Assert.assertEquals(1, reads.size());
+  }
+
   @Test
   public void testAddRequestObject()
       throws RequestArgumentProcessingException, DeserializationException, IllegalArgumentException,
@@ -70,4 +70,11 @@ public class AddScopeTest extends BaseRequestArgumentProcessorTest<AddScope> {
         Pattern.compile("\\bprofile\\b").matcher((String) requestArguments.get("scope")).find());
   }
 
+  @Test
+  public void testScopeIsMatchedByToken() throws RequestArgumentProcessingException {
+    requestArguments.put("scope", "x-openid");
+    processor.processRequestArguments(requestArguments, service);
+    Assert.assertEquals("x-openid openid", (String) requestArguments.get("scope"));
+  }
+
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.base.processor;
+
+import com.auth0.msg.KeyJar;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.ServiceName;
+
+/**
+ * Unit tests for {@link BatchRequestObjectSigner}.
+ */
+public class BatchRequestObjectSignerTest {
+
+  private BatchRequestObjectSigner batchSigner;
+
+  @Before
+  public void setup() {
+    batchSigner = new BatchRequestObjectSigner(4);
+  }
+
+  @After
+  public void tearDown() {
+    batchSigner.close();
+  }
+
+  @Test
+  public void testSignInOrder() throws Exception {
+    RequestObjectSigner signer = new RequestObjectSigner(new KeyJar(), null, "none", null, null,
+        null, "https://op.example.com", "mockClient", ServiceName.AUTHORIZATION);
+    List<Map<String, Object>> claimSets = new ArrayList<Map<String, Object>>();
+    for (int i = 0; i < 20; i++) {
+      Map<String, Object> claims = new HashMap<String, Object>();
+      claims.put("state", "mockState" + i);
+      claims.put("request_uri", "https://example.com/request");
+      claimSets.add(claims);
+    }
+    List<Future<String>> futures = batchSigner.sign(signer, claimSets);
+    Assert.assertEquals(20, futures.size());
+    for (int i = 0; i < 20; i++) {
+      String payload = new String(Base64.decodeBase64(futures.get(i).get().split("\\.")[1]),
+          StandardCharsets.UTF_8);
+      Assert.assertTrue(payload.contains("\"mockState" + i + "\""));
+      Assert.assertFalse(payload.contains("request_uri"));
+      Assert.assertTrue(claimSets.get(i).containsKey("request_uri"));
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link AsyncFileRequestObjectStore}.
+ */
+public class AsyncFileRequestObjectStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private AsyncFileRequestObjectStore store;
+
+  @Before
+  public void setup() {
+    store = new AsyncFileRequestObjectStore(16, 4, 2, true);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    store.close();
+  }
+
+  @Test
+  public void testStoredObjectsAreWrittenAndServed() throws IOException {
+    for (int i = 0; i < 10; i++) {
+      store.store(filename(i), "mockJwt" + i);
+      Assert.assertEquals("mockJwt" + i, store.get(filename(i)));
+    }
+    store.flush();
+    Assert.assertEquals(0, store.getPendingCount());
+    Assert.assertTrue(store.getBatchCount() > 0);
+    FileRequestObjectStore files = new FileRequestObjectStore();
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals("mockJwt" + i, files.get(filename(i)));
+      // served from the files after the recent ones are evicted
+      Assert.assertEquals("mockJwt" + i, store.get(filename(i)));
+    }
+    Assert.assertNull(store.get(filename(10)));
+  }
+
+  @Test
+  public void testFailureIsReportedByFlush() throws IOException {
+    File file = folder.newFile("notADirectory");
+    store.store(new File(file, "request.jwt").getPath(), "mockJwt");
+    try {
+      store.flush();
+      Assert.fail("The failed write was not reported");
+    } catch (IOException e) {
+      Assert.assertEquals(1, store.getFailedCount());
+      Assert.assertEquals(0, store.getPendingCount());
+    }
+    // reported only once
+    store.flush();
+    // still served to the provider
+    Assert.assertEquals("mockJwt", store.get(new File(file, "request.jwt").getPath()));
+  }
+
+  @Test
+  public void testObjectInReadOnlyDirectoryIsServedFromMemory() throws IOException {
+    File directory = folder.newFolder("readOnly");
+    Assume.assumeTrue(directory.setWritable(false));
+    // e.g. root can write to any directory
+    Assume.assumeFalse(directory.canWrite());
+    String filename = new File(directory, "request.jwt").getPath();
+    store.store(filename, "mockJwt");
+    try {
+      store.flush();
+      Assert.fail("The failed write was not reported");
+    } catch (IOException e) {
+      Assert.assertEquals(1, store.getFailedCount());
+      Assert.assertEquals(0, store.getPendingCount());
+    }
+    Assert.assertFalse(new File(filename).exists());
+    Assert.assertEquals("mockJwt", store.get(filename));
+  }
+
+  @Test
+  public void testRuntimeFailureIsReportedByFlush() throws IOException {
+    // the root has no parent directory to write the temporary file to
+    store.store(File.listRoots()[0].getPath(), "mockJwt");
+    try {
+      store.flush();
+      Assert.fail("The failed write was not reported");
+    } catch (IOException e) {
+      Assert.assertEquals(1, store.getFailedCount());
+      Assert.assertEquals(0, store.getPendingCount());
+    }
+    // the writer is still running
+    store.store(filename(0), "mockJwt");
+    store.flush();
+    Assert.assertEquals("mockJwt", new FileRequestObjectStore().get(filename(0)));
+  }
+
+  @Test(timeout = 10000)
+  public void testFlushFailsFastAfterWriterStopped() throws IOException {
+    store.close();
+    try {
+      store.flush();
+      Assert.fail("The stopped writer was not reported");
+    } catch (IOException e) {
+      Assert.assertEquals(0, store.getPendingCount());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testStoreAfterClose() throws IOException {
+    store.close();
+    store.store(filename(0), "mockJwt");
+  }
+
+  private String filename(int index) {
+    return new File(folder.getRoot(), "requests/request" + index + ".jwt").getPath();
+  }
+}
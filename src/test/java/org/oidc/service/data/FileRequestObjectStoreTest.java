@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link FileRequestObjectStore}.
+ */
+public class FileRequestObjectStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testStoreAndReplace() throws IOException {
+    FileRequestObjectStore store = new FileRequestObjectStore(true);
+    String filename = new File(folder.getRoot(), "requests/mock/request.jwt").getPath();
+    Assert.assertNull(store.get(filename));
+    store.store(filename, "mockJwt");
+    Assert.assertEquals("mockJwt", store.get(filename));
+    store.store(filename, "mockJwt2");
+    Assert.assertEquals("mockJwt2", store.get(filename));
+    // no temporary files are left behind
+    Assert.assertEquals(1, new File(folder.getRoot(), "requests/mock").list().length);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import com.google.common.base.Ticker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link InMemoryRequestObjectStore}.
+ */
+public class InMemoryRequestObjectStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private AtomicLong nanos;
+
+  private Ticker ticker;
+
+  @Before
+  public void setup() {
+    nanos = new AtomicLong();
+    ticker = new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    };
+  }
+
+  @Test
+  public void testObjectsExpire() throws IOException {
+    InMemoryRequestObjectStore store = new InMemoryRequestObjectStore(10, 60, TimeUnit.SECONDS,
+        null, ticker);
+    store.store("/requests/mock/request.jwt", "mockJwt");
+    Assert.assertEquals("mockJwt", store.get("/requests/mock/request.jwt"));
+    Assert.assertEquals("mockJwt", store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests/mock/request.jwt"));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.org//requests/mock/request.jwt"));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    Assert.assertNull(store.get("/requests/mock/request.jwt"));
+  }
+
+  @Test
+  public void testSizeIsBounded() throws IOException {
+    InMemoryRequestObjectStore store = new InMemoryRequestObjectStore(2, 60, TimeUnit.SECONDS);
+    store.store("request1.jwt", "mockJwt1");
+    store.store("request2.jwt", "mockJwt2");
+    store.store("request3.jwt", "mockJwt3");
+    Assert.assertEquals(2, store.size());
+    store.remove("request3.jwt");
+    Assert.assertNull(store.get("request3.jwt"));
+  }
+
+  @Test
+  public void testPersistentStore() throws IOException {
+    InMemoryRequestObjectStore store = new InMemoryRequestObjectStore(10, 60, TimeUnit.SECONDS,
+        new FileRequestObjectStore(), ticker);
+    String filename = new File(folder.getRoot(), "request.jwt").getPath();
+    store.store(filename, "mockJwt");
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    Assert.assertEquals("mockJwt", store.get(filename));
+  }
+
+  @Test
+  public void testRequestUriOutsideRequestsDirectory() throws IOException {
+    InMemoryRequestObjectStore store = new InMemoryRequestObjectStore(10, 60, TimeUnit.SECONDS,
+        new FileRequestObjectStore(), ticker);
+    File secret = folder.newFile("secret.txt");
+    new FileRequestObjectStore().store(secret.getPath(), "mockSecret");
+    String absolute = secret.getAbsolutePath().replace('\\', '/');
+    Assert.assertEquals("mockSecret", store.get(absolute));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com/" + absolute));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests/../.." + absolute));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests/mock/../../.." + absolute));
+  }
+
+  @Test
+  public void testRequestUriWithUnsafeSegments() throws IOException {
+    InMemoryRequestObjectStore store = new InMemoryRequestObjectStore(10, 60, TimeUnit.SECONDS,
+        null, ticker);
+    store.store("/requests/mock/request.jwt", "mockJwt");
+    store.store("/requests/../request.jwt", "mockJwt");
+    store.store("/requests/mock\\..\\request.jwt", "mockJwt");
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests/../request.jwt"));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests/mock\\..\\request.jwt"));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests/./mock/request.jwt"));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests//mock/request.jwt"));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requests"));
+    Assert.assertNull(store.getByRequestUri("https://example.com", "requests",
+        "https://example.com//requestsmock/request.jwt"));
+    Assert.assertEquals("mockJwt", store.getByRequestUri("https://example.com", "/requests/",
+        "https://example.com//requests/mock/request.jwt"));
+  }
+}
@@ -26,6 +26,7 @@ import org.junit.Test;
 import org.oidc.common.MessageType;
 import org.oidc.msg.oidc.AuthenticationRequest;
 import org.oidc.msg.oidc.AuthenticationResponse;
+import org.oidc.msg.oidc.IDToken;
 
 /**
  * Unit tests for {@link InMemoryStateImpl}.
@@ -97,4 +98,52 @@ public class InMemoryStateImplTest {
     Assert.assertEquals(state, stateDb.getStateKeyByNonce("nonce"));
   }
 
+  @Test
+  public void testIndexBySidAndSub() throws Exception {
+    String other = stateDb.createStateRecord("issuer", null);
+    stateDb.storeItem(buildIdToken(null, "user", "session1"), state, MessageType.VERIFIED_IDTOKEN);
+    stateDb.storeItem(buildIdToken(null, "user", "session2"), other, MessageType.VERIFIED_IDTOKEN);
+    Assert.assertEquals(1, stateDb.getStateKeysBySid("issuer", "session1").size());
+    Assert.assertEquals(state, stateDb.getStateKeysBySid("issuer", "session1").get(0));
+    Assert.assertEquals(2, stateDb.getStateKeysBySub("issuer", "user").size());
+    Assert.assertTrue(stateDb.getStateKeysBySub("issuer2", "user").isEmpty());
+    Assert.assertTrue(stateDb.getStateKeysBySid("issuer", "session3").isEmpty());
+  }
+
+  @Test
+  public void testIndexUpdatedWhenIdTokenReplaced() throws Exception {
+    stateDb.storeItem(buildIdToken("op", "user", "session1"), state, MessageType.VERIFIED_IDTOKEN);
+    stateDb.storeItem(buildIdToken("op", "user", "session2"), state, MessageType.VERIFIED_IDTOKEN);
+    Assert.assertTrue(stateDb.getStateKeysBySid("op", "session1").isEmpty());
+    Assert.assertEquals(1, stateDb.getStateKeysBySid("op", "session2").size());
+    Assert.assertEquals(1, stateDb.getStateKeysBySub("op", "user").size());
+  }
+
+  @Test
+  public void testRemoveStateRecord() throws Exception {
+    AuthenticationRequest authenticationRequest = new AuthenticationRequest();
+    authenticationRequest.getClaims().put("nonce", "nonce");
+    stateDb.storeItem(authenticationRequest, state, MessageType.AUTHORIZATION_REQUEST);
+    stateDb.storeStateKeyForNonce("nonce", state);
+    stateDb.storeItem(buildIdToken(null, "user", "session1"), state, MessageType.VERIFIED_IDTOKEN);
+    Assert.assertEquals(1, stateDb.getRecordCount());
+    Assert.assertTrue(stateDb.removeStateRecord(state));
+    Assert.assertEquals(0, stateDb.getRecordCount());
+    Assert.assertNull(stateDb.getState(state));
+    Assert.assertNull(stateDb.getStateKeyByNonce("nonce"));
+    Assert.assertTrue(stateDb.getStateKeysBySid("issuer", "session1").isEmpty());
+    Assert.assertTrue(stateDb.getStateKeysBySub("issuer", "user").isEmpty());
+    Assert.assertFalse(stateDb.removeStateRecord(state));
+  }
+
+  private IDToken buildIdToken(String issuer, String sub, String sid) {
+    IDToken idToken = new IDToken();
+    if (issuer != null) {
+      idToken.getClaims().put("iss", issuer);
+    }
+    idToken.getClaims().put("sub", sub);
+    idToken.getClaims().put("sid", sid);
+    return idToken;
+  }
+
 }
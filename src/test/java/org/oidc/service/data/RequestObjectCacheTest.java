@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link RequestObjectCache}.
+ */
+public class RequestObjectCacheTest {
+
+  @Test
+  public void testHashIsIndependentOfClaimOrder() {
+    Map<String, Object> claims = new LinkedHashMap<String, Object>();
+    claims.put("response_type", "code");
+    claims.put("scope", Arrays.asList("openid", "email"));
+    Map<String, Object> reordered = new LinkedHashMap<String, Object>();
+    reordered.put("scope", Arrays.asList("openid", "email"));
+    reordered.put("response_type", "code");
+    String hash = RequestObjectCache.hash(claims, "RS256", "issuer", "client");
+    Assert.assertEquals(hash, RequestObjectCache.hash(reordered, "RS256", "issuer", "client"));
+    Assert.assertFalse(hash.equals(RequestObjectCache.hash(claims, "ES256", "issuer", "client")));
+    Assert.assertFalse(hash.equals(RequestObjectCache.hash(claims, "RS256", "issuer", null)));
+    reordered.put("state", "mockState");
+    Assert.assertFalse(hash.equals(RequestObjectCache.hash(reordered, "RS256", "issuer",
+        "client")));
+    Assert.assertTrue(hash.matches("[A-Za-z0-9_-]+"));
+  }
+
+  @Test
+  public void testObjectsAreCachedPerKey() {
+    RequestObjectCache cache = new RequestObjectCache(10);
+    Object key = new Object();
+    String hash = RequestObjectCache.hash(new HashMap<String, Object>(), "none", null, null);
+    Assert.assertNull(cache.get(key, hash));
+    cache.put(key, hash, "mockJwt");
+    cache.put(null, hash, "mockUnsignedJwt");
+    Assert.assertEquals("mockJwt", cache.get(key, hash));
+    Assert.assertEquals("mockUnsignedJwt", cache.get(null, hash));
+    Assert.assertNull(cache.get(new Object(), hash));
+  }
+}
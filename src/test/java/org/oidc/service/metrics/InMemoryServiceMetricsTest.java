@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.MissingRequiredAttributeException;
+import org.oidc.common.ServiceName;
+import org.oidc.msg.InvalidClaimException;
+import org.oidc.msg.Message;
+import org.oidc.msg.oauth2.ResponseMessage;
+import org.oidc.service.AbstractService;
+import org.oidc.service.Service;
+import org.oidc.service.base.HttpArguments;
+import org.oidc.service.base.RequestArgumentProcessingException;
+import org.oidc.service.base.RequestArgumentProcessor;
+import org.oidc.service.base.ServiceConfig;
+import org.oidc.service.base.ServiceContext;
+
+/**
+ * Unit tests for {@link InMemoryServiceMetrics}.
+ */
+public class InMemoryServiceMetricsTest {
+
+  private InMemoryServiceMetrics metrics;
+
+  @Before
+  public void setup() {
+    metrics = new InMemoryServiceMetrics();
+  }
+
+  @Test
+  public void testEmpty() {
+    CallStatistics statistics = metrics.getServiceStatistics(ServiceName.USER_INFO,
+        ServiceOperation.PARSE_RESPONSE);
+    Assert.assertEquals(0, statistics.getCount());
+    Assert.assertEquals(0, statistics.getPercentileNanos(99));
+    Assert.assertTrue(metrics.getProcessorNames().isEmpty());
+  }
+
+  @Test
+  public void testServiceCalls() {
+    for (int i = 1; i <= 100; i++) {
+      metrics.recordServiceCall(ServiceName.USER_INFO, ServiceOperation.PARSE_RESPONSE, i * 1000L,
+          i % 10 != 0, 200);
+    }
+    metrics.recordServiceCall(ServiceName.ACCESS_TOKEN, ServiceOperation.PARSE_RESPONSE, 5, true,
+        -1);
+    CallStatistics statistics = metrics.getServiceStatistics(ServiceName.USER_INFO,
+        ServiceOperation.PARSE_RESPONSE);
+    Assert.assertEquals(100, statistics.getCount());
+    Assert.assertEquals(10, statistics.getErrorCount());
+    Assert.assertEquals(90, statistics.getSuccessCount());
+    Assert.assertEquals(200, statistics.getMeanSize());
+    Assert.assertEquals(100000, statistics.getMaxNanos());
+    Assert.assertEquals(100000, statistics.getPercentileNanos(100));
+    long median = statistics.getPercentileNanos(50);
+    Assert.assertTrue(median >= 50000 && median <= 50000 * 1.125);
+    Assert.assertEquals(1, metrics.getServiceStatistics(ServiceName.ACCESS_TOKEN,
+        ServiceOperation.PARSE_RESPONSE).getCount());
+    Assert.assertEquals(0, metrics.getServiceStatistics(ServiceName.USER_INFO,
+        ServiceOperation.UPDATE_SERVICE_CONTEXT).getCount());
+  }
+
+  @Test
+  public void testMergesThreads() throws Exception {
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            metrics.recordProcessorCall("AddState", j, true);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(4000, metrics.getProcessorStatistics("AddState").getCount());
+    Assert.assertEquals(999, metrics.getProcessorStatistics("AddState").getMaxNanos());
+  }
+
+  @Test
+  public void testServiceRecordsOperationsAndProcessors() throws Exception {
+    MockService service = new MockService();
+    service.setMetrics(metrics);
+    service.getRequestParameters(new HashMap<String, Object>());
+    try {
+      service.updateServiceContext(null);
+      Assert.fail("Null response should be rejected");
+    } catch (Exception e) {
+      // expected
+    }
+    CallStatistics request = metrics.getServiceStatistics(ServiceName.USER_INFO,
+        ServiceOperation.GET_REQUEST_PARAMETERS);
+    Assert.assertEquals(1, request.getSuccessCount());
+    CallStatistics update = metrics.getServiceStatistics(ServiceName.USER_INFO,
+        ServiceOperation.UPDATE_SERVICE_CONTEXT);
+    Assert.assertEquals(1, update.getErrorCount());
+    Assert.assertEquals(1, metrics.getProcessorStatistics("MockProcessor").getCount());
+  }
+
+  @Test
+  public void testDisabledRecordsNothing() throws Exception {
+    MockService service = new MockService();
+    metrics.setEnabled(false);
+    service.setMetrics(metrics);
+    service.getRequestParameters(new HashMap<String, Object>());
+    Assert.assertEquals(0, metrics.getServiceStatistics(ServiceName.USER_INFO,
+        ServiceOperation.GET_REQUEST_PARAMETERS).getCount());
+    Assert.assertTrue(metrics.getProcessorNames().isEmpty());
+  }
+
+  protected static class MockProcessor implements RequestArgumentProcessor {
+
+    @Override
+    public void processRequestArguments(Map<String, Object> requestArguments, Service service)
+        throws RequestArgumentProcessingException {
+      requestArguments.put("mock", "value");
+    }
+  }
+
+  protected static class MockService extends AbstractService {
+
+    public MockService() {
+      super(new ServiceContext(), null, null);
+      serviceName = ServiceName.USER_INFO;
+      setPreConstructors(Arrays.<RequestArgumentProcessor>asList(new MockProcessor()));
+    }
+
+    @Override
+    protected void doUpdateServiceContext(Message response, String stateKey)
+        throws MissingRequiredAttributeException, InvalidClaimException {
+    }
+
+    @Override
+    public HttpArguments finalizeGetRequestParameters(HttpArguments httpArguments,
+        Map<String, Object> requestArguments) throws RequestArgumentProcessingException {
+      return httpArguments;
+    }
+
+    @Override
+    protected Message doConstructRequest(Map<String, Object> requestArguments)
+        throws RequestArgumentProcessingException {
+      return new ResponseMessage(requestArguments);
+    }
+
+    @Override
+    protected ServiceConfig getDefaultServiceConfig() {
+      return new ServiceConfig();
+    }
+  }
+}
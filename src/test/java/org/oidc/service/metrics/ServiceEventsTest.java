@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.MessageType;
+import org.oidc.common.ServiceName;
+import org.oidc.msg.oidc.AuthenticationRequest;
+import org.oidc.service.data.InMemoryStateImpl;
+import org.oidc.service.metrics.InMemoryServiceMetricsTest.MockService;
+
+/**
+ * Unit tests for {@link ServiceEvents} and the instrumented operations.
+ */
+public class ServiceEventsTest {
+
+  private List<ServiceEvent> events;
+
+  @Before
+  public void setup() {
+    events = new ArrayList<ServiceEvent>();
+    ServiceEvents.setListener(new ServiceEventListener() {
+      @Override
+      public void onEvent(ServiceEvent event) {
+        events.add(event);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    ServiceEvents.setListener(null);
+  }
+
+  @Test
+  public void testRequestConstruction() throws Exception {
+    MockService service = new MockService();
+    service.getServiceContext().setIssuer("https://op.example.com");
+    service.getRequestParameters(new HashMap<String, Object>());
+    Assert.assertEquals(1, events.size());
+    ServiceEvent event = events.get(0);
+    Assert.assertEquals(ServiceEventType.REQUEST_CONSTRUCTION, event.getType());
+    Assert.assertEquals(ServiceName.USER_INFO, event.getServiceName());
+    Assert.assertEquals("https://op.example.com", event.getIssuer());
+    Assert.assertTrue(event.isSuccess());
+    Assert.assertTrue(event.getDurationNanos() >= 0);
+  }
+
+  @Test
+  public void testStateStore() {
+    InMemoryStateImpl state = new InMemoryStateImpl();
+    String stateKey = state.createStateRecord("https://op.example.com", null);
+    Assert.assertTrue(
+        state.storeItem(new AuthenticationRequest(), stateKey, MessageType.AUTHORIZATION_REQUEST));
+    Assert.assertNull(state.getItem("unknown", MessageType.AUTHORIZATION_REQUEST));
+    Assert.assertEquals(2, events.size());
+    Assert.assertEquals(ServiceEventType.STATE_STORE, events.get(0).getType());
+    Assert.assertEquals("https://op.example.com", events.get(0).getIssuer());
+    Assert.assertTrue(events.get(0).isSuccess());
+    Assert.assertEquals("storeItem AUTHORIZATION_REQUEST", events.get(0).getDetail());
+    Assert.assertNull(events.get(1).getIssuer());
+    Assert.assertFalse(events.get(1).isSuccess());
+  }
+
+  @Test
+  public void testNoListener() throws Exception {
+    ServiceEvents.setListener(null);
+    new MockService().getRequestParameters(new HashMap<String, Object>());
+    Assert.assertTrue(events.isEmpty());
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import com.google.common.base.Ticker;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link IntrospectionCache}.
+ */
+public class IntrospectionCacheTest {
+
+  private AtomicLong nanos;
+
+  private IntrospectionCache cache;
+
+  @Before
+  public void setup() {
+    nanos = new AtomicLong();
+    cache = new IntrospectionCache(10, 300, 10, TimeUnit.SECONDS, new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+  }
+
+  @Test
+  public void testActiveTokenIsCachedUntilTtl() {
+    Assert.assertNull(cache.get("token"));
+    IntrospectionCache.Entry entry = cache.put("token", activeClaims(3600));
+    Assert.assertTrue(entry.isActive());
+    Assert.assertEquals("user01", cache.get("token").getClaims().get("sub"));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(299));
+    Assert.assertNotNull(cache.get("token"));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assert.assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void testTtlIsBoundedByExp() {
+    cache.put("token", activeClaims(30));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(25));
+    Assert.assertNotNull(cache.get("token"));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+    Assert.assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void testExpAsDate() {
+    Map<String, Object> claims = activeClaims(0);
+    claims.put("exp", new Date(System.currentTimeMillis() + 30000));
+    cache.put("token", claims);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+    Assert.assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void testExpiredTokenIsNotCached() {
+    cache.put("token", activeClaims(3600));
+    Assert.assertNull(cache.put("token", activeClaims(-10)));
+    Assert.assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void testInactiveTokenIsCachedShorter() {
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("active", false);
+    cache.put("token", claims);
+    Assert.assertFalse(cache.get("token").isActive());
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Assert.assertNull(cache.get("token"));
+  }
+
+  @Test
+  public void testTokensAreNotKept() {
+    String token = "2YotnFZFEjr1zCsicMWpAA";
+    cache.put(token, activeClaims(3600));
+    Assert.assertNull(cache.get(token.toLowerCase()));
+    Assert.assertFalse(IntrospectionCache.hash(token).contains(token));
+    cache.invalidate(token);
+    Assert.assertNull(cache.get(token));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testClaimsAreUnmodifiable() {
+    cache.put("token", activeClaims(3600)).getClaims().put("active", false);
+  }
+
+  @Test
+  public void testConcurrentLookupsAreCoalesced() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    final IntrospectionCache.Introspector introspector = new IntrospectionCache.Introspector() {
+      @Override
+      public Map<String, Object> introspect(String token) throws Exception {
+        calls.incrementAndGet();
+        started.countDown();
+        release.await();
+        return activeClaims(3600);
+      }
+    };
+    final IntrospectionCache.Entry[] results = new IntrospectionCache.Entry[4];
+    Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results[index] = cache.getOrIntrospect("token", introspector);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[i].start();
+      if (i == 0) {
+        started.await();
+      }
+    }
+    while (cache.getCoalescedCount() < threads.length - 1) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(1, calls.get());
+    Assert.assertEquals(1, cache.getIntrospectionCount());
+    for (IntrospectionCache.Entry result : results) {
+      Assert.assertSame(results[0], result);
+    }
+    Assert.assertSame(results[0], cache.getOrIntrospect("token", introspector));
+    Assert.assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testFailureIsNotCached() throws Exception {
+    IntrospectionCache.Introspector failing = new IntrospectionCache.Introspector() {
+      @Override
+      public Map<String, Object> introspect(String token) throws Exception {
+        throw new IllegalStateException("unavailable");
+      }
+    };
+    try {
+      cache.getOrIntrospect("token", failing);
+      Assert.fail("The failure was not thrown");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Assert.assertNull(cache.get("token"));
+    Assert.assertEquals(0, cache.size());
+  }
+
+  private static Map<String, Object> activeClaims(long expiresIn) {
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("active", true);
+    claims.put("sub", "user01");
+    claims.put("exp", System.currentTimeMillis() / 1000 + expiresIn);
+    return claims;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import com.auth0.msg.KeyJar;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.EndpointName;
+import org.oidc.common.HttpMethod;
+import org.oidc.common.ServiceName;
+import org.oidc.msg.oauth2.TokenIntrospectionRequest;
+import org.oidc.msg.oauth2.TokenIntrospectionResponse;
+import org.oidc.msg.oidc.RegistrationResponse;
+import org.oidc.service.BaseServiceTest;
+import org.oidc.service.base.ServiceContext;
+
+/**
+ * Unit tests for {@link Introspection}.
+ */
+public class IntrospectionTest extends BaseServiceTest<Introspection> {
+
+  private ServiceContext serviceContext;
+
+  private IntrospectionCache cache;
+
+  @Before
+  public void init() {
+    serviceContext = new ServiceContext();
+    serviceContext.setIssuer("https://www.example.com");
+    serviceContext.setKeyJar(new KeyJar());
+    serviceContext.setClientId("clientid_x");
+    serviceContext.setBehavior(new RegistrationResponse());
+    serviceContext.getBehavior().getClaims().put("token_endpoint_auth_method", "bearer_body");
+    service = new Introspection(serviceContext, null, null);
+    service.setEndpoint("https://www.example.com/introspect");
+    cache = new IntrospectionCache(10, 300, 10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testDefaults() {
+    Assert.assertEquals(ServiceName.INTROSPECTION, service.getServiceName());
+    Assert.assertEquals(EndpointName.INTROSPECTION, service.getEndpointName());
+    Assert.assertEquals(HttpMethod.POST, service.getHttpMethod());
+    Assert.assertTrue(service.getRequestMessage() instanceof TokenIntrospectionRequest);
+    Assert.assertEquals(TokenIntrospectionResponse.class, service.getExpectedResponseClass());
+  }
+
+  @Test
+  public void testResponseIsCached() throws Exception {
+    service.setCache(cache);
+    Assert.assertNull(service.getCachedResult("mockToken"));
+    Map<String, Object> args = new HashMap<String, Object>();
+    args.put("token", "mockToken");
+    service.getRequestParameters(args);
+    TokenIntrospectionResponse response = new TokenIntrospectionResponse();
+    response.addClaim("active", true);
+    response.addClaim("exp", System.currentTimeMillis() / 1000 + 60);
+    service.updateServiceContextForToken(response, "mockToken");
+    IntrospectionCache.Entry entry = service.getCachedResult("mockToken");
+    Assert.assertTrue(entry.isActive());
+    Assert.assertSame(entry, cache.get("mockToken"));
+  }
+
+  @Test
+  public void testNoCache() throws Exception {
+    Map<String, Object> args = new HashMap<String, Object>();
+    args.put("token", "mockToken");
+    service.getRequestParameters(args);
+    TokenIntrospectionResponse response = new TokenIntrospectionResponse();
+    response.addClaim("active", false);
+    service.updateServiceContextForToken(response, "mockToken");
+    Assert.assertNull(service.getCachedResult("mockToken"));
+  }
+
+  @Test
+  public void testInterleavedRequests() throws Exception {
+    service.setCache(cache);
+    Map<String, Object> args = new HashMap<String, Object>();
+    args.put("token", "firstToken");
+    service.getRequestParameters(args);
+    args = new HashMap<String, Object>();
+    args.put("token", "secondToken");
+    service.getRequestParameters(args);
+    TokenIntrospectionResponse first = new TokenIntrospectionResponse();
+    first.addClaim("active", true);
+    first.addClaim("exp", System.currentTimeMillis() / 1000 + 60);
+    service.updateServiceContextForToken(first, "firstToken");
+    Assert.assertTrue(service.getCachedResult("firstToken").isActive());
+    Assert.assertNull(service.getCachedResult("secondToken"));
+    TokenIntrospectionResponse second = new TokenIntrospectionResponse();
+    second.addClaim("active", false);
+    // without the token the response is not cached at all
+    service.updateServiceContext(second);
+    Assert.assertNull(service.getCachedResult("secondToken"));
+    Assert.assertTrue(service.getCachedResult("firstToken").isActive());
+    service.updateServiceContextForToken(second, "secondToken");
+    Assert.assertFalse(service.getCachedResult("secondToken").isActive());
+  }
+}
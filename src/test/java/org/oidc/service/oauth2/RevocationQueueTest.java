@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import com.google.common.base.Ticker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.oidc.common.HttpMethod;
+import org.oidc.service.base.HttpArguments;
+
+/**
+ * Unit tests for {@link RevocationQueue}.
+ */
+public class RevocationQueueTest {
+
+  private static final String ENDPOINT1 = "https://op1.example.com/revoke";
+
+  private static final String ENDPOINT2 = "https://op2.example.com/revoke";
+
+  private RevocationQueue queue;
+
+  @After
+  public void tearDown() {
+    if (queue != null) {
+      queue.close();
+    }
+  }
+
+  @Test
+  public void testBatchesArePerEndpoint() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> batches = new CopyOnWriteArrayList<String>();
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests)
+          throws Exception {
+        started.countDown();
+        release.await();
+        for (HttpArguments request : requests) {
+          Assert.assertEquals(endpoint, request.getUrl());
+        }
+        batches.add(endpoint + " " + requests.size());
+        return null;
+      }
+    }, 100, 10, 1000, 3, 1, TimeUnit.MILLISECONDS);
+    // the first request is taken alone, the rest is queued while the sender is blocked
+    Assert.assertTrue(queue.submit(request(ENDPOINT1)));
+    started.await();
+    for (int i = 0; i < 4; i++) {
+      Assert.assertTrue(queue.submit(request(ENDPOINT1)));
+      Assert.assertTrue(queue.submit(request(ENDPOINT2)));
+    }
+    Assert.assertEquals(9, queue.getDepth());
+    release.countDown();
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    Assert.assertEquals(0, queue.getDepth());
+    Assert.assertEquals(9, queue.getRevokedCount());
+    Assert.assertEquals(9, queue.getSubmittedCount());
+    Assert.assertEquals(3, queue.getBatchCount());
+    Assert.assertEquals(ENDPOINT1 + " 1", batches.get(0));
+    Assert.assertTrue(batches.contains(ENDPOINT1 + " 4"));
+    Assert.assertTrue(batches.contains(ENDPOINT2 + " 4"));
+  }
+
+  @Test
+  public void testRateIsLimitedPerEndpoint() throws Exception {
+    final List<Long> sent = Collections.synchronizedList(new ArrayList<Long>());
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests) {
+        for (int i = 0; i < requests.size(); i++) {
+          sent.add(System.nanoTime());
+        }
+        return null;
+      }
+    }, 100, 2, 20, 1, 0, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    for (int i = 0; i < 6; i++) {
+      queue.submit(request(ENDPOINT1));
+    }
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    // two permits at once, the remaining four at 20 per second
+    Assert.assertTrue(sent.get(5) - start >= TimeUnit.MILLISECONDS.toNanos(180));
+    Assert.assertTrue(queue.getBatchCount() >= 3);
+  }
+
+  @Test
+  public void testFailedRequestsAreRetried() throws Exception {
+    final List<HttpArguments> attempts = new CopyOnWriteArrayList<HttpArguments>();
+    final HttpArguments flaky = request(ENDPOINT1);
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests)
+          throws Exception {
+        attempts.addAll(requests);
+        if (requests.contains(flaky) && Collections.frequency(attempts, flaky) < 3) {
+          return Collections.singletonList(flaky);
+        }
+        return Collections.emptyList();
+      }
+    }, 100, 10, 1000, 3, 5, TimeUnit.MILLISECONDS);
+    queue.submit(flaky);
+    queue.submit(request(ENDPOINT1));
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    Assert.assertEquals(2, queue.getRevokedCount());
+    Assert.assertEquals(0, queue.getFailedCount());
+    Assert.assertEquals(2, queue.getRetryCount());
+    Assert.assertEquals(3, Collections.frequency(attempts, flaky));
+  }
+
+  @Test
+  public void testFailsAfterMaxAttempts() throws Exception {
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests)
+          throws Exception {
+        throw new IllegalStateException("unavailable");
+      }
+    }, 100, 10, 1000, 2, 1, TimeUnit.MILLISECONDS);
+    queue.submit(request(ENDPOINT1));
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    Assert.assertEquals(1, queue.getFailedCount());
+    Assert.assertEquals(1, queue.getRetryCount());
+    Assert.assertEquals(0, queue.getRevokedCount());
+    Assert.assertTrue(queue.getLastFailure() instanceof IllegalStateException);
+  }
+
+  @Test
+  public void testFullQueue() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests)
+          throws Exception {
+        release.await();
+        return null;
+      }
+    }, 2, 10, 1000, 1, 0, TimeUnit.MILLISECONDS);
+    Assert.assertTrue(queue.submit(request(ENDPOINT1)));
+    Assert.assertTrue(queue.submit(request(ENDPOINT1)));
+    Assert.assertFalse(queue.submit(request(ENDPOINT1)));
+    Assert.assertFalse(queue.awaitDrained(10, TimeUnit.MILLISECONDS));
+    release.countDown();
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDrainRateWindow() throws Exception {
+    final AtomicLong nanos = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(100500));
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests) {
+        return null;
+      }
+    }, 100, 10, 1000, 1, 0, TimeUnit.MILLISECONDS, new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(queue.submit(request(ENDPOINT1)));
+    }
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    // the current second is not counted
+    Assert.assertEquals(0.0, queue.getDrainRate(), 0.0);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assert.assertEquals(1.0, queue.getDrainRate(), 0.0);
+    // the tenth complete second is still counted, also after revoking in the current one
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(9));
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(queue.submit(request(ENDPOINT1)));
+    }
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    Assert.assertEquals(1.0, queue.getDrainRate(), 0.0);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assert.assertEquals(1.0, queue.getDrainRate(), 0.0);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Assert.assertEquals(0.0, queue.getDrainRate(), 0.0);
+  }
+
+  @Test
+  public void testCallbackForRevokedRequests() throws Exception {
+    final HttpArguments failing = request(ENDPOINT1);
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests) {
+        return requests.contains(failing) ? Collections.singletonList(failing) : null;
+      }
+    }, 10, 10, 1000, 1, 0, TimeUnit.MILLISECONDS);
+    final List<HttpArguments> revoked = new CopyOnWriteArrayList<HttpArguments>();
+    RevocationQueue.Callback callback = new RevocationQueue.Callback() {
+      @Override
+      public void revoked(HttpArguments request) {
+        revoked.add(request);
+      }
+    };
+    HttpArguments accepted = request(ENDPOINT1);
+    Assert.assertTrue(queue.submit(accepted, callback));
+    Assert.assertTrue(queue.submit(failing, callback));
+    Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    Assert.assertEquals(Collections.singletonList(accepted), revoked);
+    Assert.assertEquals(1, queue.getFailedCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosed() {
+    queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests) {
+        return null;
+      }
+    }, 2, 10, 1000, 1, 0, TimeUnit.MILLISECONDS);
+    queue.close();
+    queue.submit(request(ENDPOINT1));
+  }
+
+  private static HttpArguments request(String endpoint) {
+    return new HttpArguments(HttpMethod.POST, endpoint);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oauth2;
+
+import com.auth0.msg.KeyJar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.EndpointName;
+import org.oidc.common.HttpMethod;
+import org.oidc.common.ServiceName;
+import org.oidc.msg.oauth2.ResponseMessage;
+import org.oidc.msg.oidc.RegistrationResponse;
+import org.oidc.service.BaseServiceTest;
+import org.oidc.service.base.HttpArguments;
+import org.oidc.service.base.ServiceContext;
+
+/**
+ * Unit tests for {@link Revocation}.
+ */
+public class RevocationTest extends BaseServiceTest<Revocation> {
+
+  private static final String ENDPOINT = "https://www.example.com/revoke";
+
+  private ServiceContext serviceContext;
+
+  private IntrospectionCache cache;
+
+  @Before
+  public void init() {
+    serviceContext = new ServiceContext();
+    serviceContext.setIssuer("https://www.example.com");
+    serviceContext.setKeyJar(new KeyJar());
+    serviceContext.setClientId("clientid_x");
+    serviceContext.setBehavior(new RegistrationResponse());
+    serviceContext.getBehavior().getClaims().put("token_endpoint_auth_method", "bearer_body");
+    service = new Revocation(serviceContext, null, null);
+    service.setEndpoint(ENDPOINT);
+    cache = new IntrospectionCache(10, 300, 10, TimeUnit.SECONDS);
+    service.setIntrospectionCache(cache);
+  }
+
+  @Test
+  public void testDefaults() {
+    Assert.assertEquals(ServiceName.REVOCATION, service.getServiceName());
+    Assert.assertEquals(EndpointName.REVOCATION, service.getEndpointName());
+    Assert.assertEquals(HttpMethod.POST, service.getHttpMethod());
+  }
+
+  @Test
+  public void testRevokeAsync() throws Exception {
+    cache.put("mockToken", activeClaims());
+    final List<HttpArguments> sent = new ArrayList<HttpArguments>();
+    RevocationQueue queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests) {
+        sent.addAll(requests);
+        return null;
+      }
+    }, 10, 10, 1000, 1, 0, TimeUnit.MILLISECONDS);
+    try {
+      Assert.assertTrue(service.revokeAsync(queue, "mockToken", "access_token"));
+      Assert.assertNull(cache.get("mockToken"));
+      Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    } finally {
+      queue.close();
+    }
+    Assert.assertEquals(1, sent.size());
+    Assert.assertEquals(ENDPOINT, sent.get(0).getUrl());
+    Assert.assertEquals(HttpMethod.POST, sent.get(0).getHttpMethod());
+  }
+
+  @Test
+  public void testResponseInvalidatesIntrospection() throws Exception {
+    cache.put("mockToken", activeClaims());
+    Map<String, Object> args = new HashMap<String, Object>();
+    args.put("token", "mockToken");
+    service.getRequestParameters(args);
+    Assert.assertNotNull(cache.get("mockToken"));
+    service.updateServiceContextForToken(new ResponseMessage(), "mockToken");
+    Assert.assertNull(cache.get("mockToken"));
+  }
+
+  @Test
+  public void testInterleavedRequests() throws Exception {
+    cache.put("firstToken", activeClaims());
+    cache.put("secondToken", activeClaims());
+    Map<String, Object> args = new HashMap<String, Object>();
+    args.put("token", "firstToken");
+    service.getRequestParameters(args);
+    args = new HashMap<String, Object>();
+    args.put("token", "secondToken");
+    service.getRequestParameters(args);
+    service.updateServiceContext(new ResponseMessage());
+    Assert.assertNotNull(cache.get("firstToken"));
+    Assert.assertNotNull(cache.get("secondToken"));
+    service.updateServiceContextForToken(new ResponseMessage(), "firstToken");
+    Assert.assertNull(cache.get("firstToken"));
+    Assert.assertNotNull(cache.get("secondToken"));
+  }
+
+  @Test
+  public void testRevokeAsyncInvalidatesOnSuccess() throws Exception {
+    final CountDownLatch sending = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    RevocationQueue queue = new RevocationQueue(new RevocationQueue.Sender() {
+      @Override
+      public List<HttpArguments> send(String endpoint, List<HttpArguments> requests)
+          throws InterruptedException {
+        sending.countDown();
+        release.await();
+        return null;
+      }
+    }, 10, 10, 1000, 1, 0, TimeUnit.MILLISECONDS);
+    try {
+      Assert.assertTrue(service.revokeAsync(queue, "mockToken", null));
+      Assert.assertTrue(sending.await(5, TimeUnit.SECONDS));
+      // introspected again while the revocation is being sent
+      cache.put("mockToken", activeClaims());
+      release.countDown();
+      Assert.assertTrue(queue.awaitDrained(5, TimeUnit.SECONDS));
+    } finally {
+      queue.close();
+    }
+    Assert.assertNull(cache.get("mockToken"));
+  }
+
+  private static Map<String, Object> activeClaims() {
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("active", true);
+    return claims;
+  }
+}
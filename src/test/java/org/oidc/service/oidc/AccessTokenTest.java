@@ -76,7 +76,7 @@ public class AccessTokenTest extends BaseServiceTest<AccessToken> {
     serviceContext.getBehavior().getClaims().put("id_token_encrypted_response_alg", "RSA1_5");
     serviceContext.getBehavior().getClaims().put("id_token_encrypted_response_enc", "A128GCM");
     serviceContext.getBehavior().getClaims().put("token_endpoint_auth_method", "bearer_body");
-    serviceContext.getAllow().put("missing_kid", true);
+    serviceContext.setAllowed("missing_kid", true);
 
     AuthenticationResponse resp = new AuthenticationResponse();
     resp.addClaim("code", "authorizationcode");
@@ -185,7 +185,7 @@ public class AccessTokenTest extends BaseServiceTest<AccessToken> {
   public void testprepareMessageForVerificationNullInput() {
     AccessTokenResponse response = new AccessTokenResponse();
     serviceContext.setBehavior(null);
-    serviceContext.getAllow().put("missing_kid", null);
+    serviceContext.setAllowed("missing_kid", null);
     service.prepareMessageForVerification(response);
     // There is no simple way to test parameters are set except cobertura report
   }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oidc.msg.oidc.AuthenticationRequest;
+
+/**
+ * Unit tests for {@link AuthenticationRequestTemplate}.
+ */
+public class AuthenticationRequestTemplateTest {
+
+  private static final String ENDPOINT = "https://op.example.com/authorize";
+
+  private AuthenticationRequestTemplate createTemplate(Map<String, Object> inputs) {
+    Map<String, Object> claims = new LinkedHashMap<String, Object>(inputs);
+    claims.put("client_id", "client 1");
+    claims.put("redirect_uri", "https://rp.example.com/cb");
+    return AuthenticationRequestTemplate.create(1, ENDPOINT, inputs, claims);
+  }
+
+  @Test
+  public void testSerialize() {
+    Map<String, Object> inputs = new LinkedHashMap<String, Object>();
+    inputs.put("scope", "openid");
+    AuthenticationRequestTemplate template = createTemplate(inputs);
+    AuthenticationRequest request = new AuthenticationRequest();
+    request.getClaims().putAll(template.getClaims());
+    request.getClaims().put("state", "a&b");
+    Assert.assertEquals(ENDPOINT + "?scope=openid&client_id=client+1"
+        + "&redirect_uri=https%3A%2F%2Frp.example.com%2Fcb&state=a%26b",
+        template.serialize(request));
+  }
+
+  @Test
+  public void testSerializeChangedRequest() {
+    AuthenticationRequestTemplate template = createTemplate(new HashMap<String, Object>());
+    AuthenticationRequest request = new AuthenticationRequest();
+    request.getClaims().putAll(template.getClaims());
+    request.getClaims().put("max_age", 60);
+    Assert.assertNull(template.serialize(request));
+    request.getClaims().remove("max_age");
+    request.getClaims().put("client_id", "client2");
+    Assert.assertNull(template.serialize(request));
+    request.getClaims().remove("client_id");
+    Assert.assertNull(template.serialize(request));
+  }
+
+  @Test
+  public void testMatches() {
+    Map<String, Object> arguments = new HashMap<String, Object>();
+    arguments.put("scope", "openid");
+    arguments.put("state", "ignored");
+    AuthenticationRequestTemplate template = createTemplate(
+        AuthenticationRequestTemplate.getInputs(arguments));
+    Assert.assertTrue(template.matches(1, ENDPOINT, arguments));
+    Assert.assertFalse(template.matches(2, ENDPOINT, arguments));
+    Assert.assertFalse(template.matches(1, "https://op.example.com/other", arguments));
+    arguments.put("response_type", "code");
+    Assert.assertFalse(template.matches(1, ENDPOINT, arguments));
+    arguments.remove("response_type");
+    arguments.put("scope", "openid email");
+    Assert.assertFalse(template.matches(1, ENDPOINT, arguments));
+  }
+
+  @Test
+  public void testInputsMustBeStrings() {
+    Map<String, Object> arguments = new HashMap<String, Object>();
+    arguments.put("client_id", null);
+    Assert.assertNull(AuthenticationRequestTemplate.getInputs(arguments));
+    arguments.remove("client_id");
+    arguments.put("scope", 1);
+    Assert.assertNull(AuthenticationRequestTemplate.getInputs(arguments));
+  }
+}
@@ -18,6 +18,7 @@ package org.oidc.service.oidc;
 
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -28,7 +29,9 @@ import org.junit.Test;
 import org.oidc.common.HttpMethod;
 import org.oidc.common.MessageType;
 import org.oidc.common.MissingRequiredAttributeException;
+import org.oidc.common.SerializationType;
 import org.oidc.common.ValueException;
+import org.oidc.msg.DeserializationException;
 import org.oidc.msg.InvalidClaimException;
 import org.oidc.msg.Message;
 import org.oidc.msg.SerializationException;
@@ -41,6 +44,7 @@ import org.oidc.service.base.HttpArguments;
 import org.oidc.service.base.ServiceContext;
 import org.oidc.service.data.InMemoryStateImpl;
 import org.oidc.service.data.State;
+import org.oidc.service.data.StateRecord;
 
 import com.auth0.msg.KeyJar;
 
@@ -79,7 +83,7 @@ public class AuthenticationTest extends BaseServiceTest<Authentication> {
     serviceContext.getBehavior().getClaims().put("id_token_signed_response_alg", "RS256");
     serviceContext.getBehavior().getClaims().put("id_token_encrypted_response_alg", "RSA1_5");
     serviceContext.getBehavior().getClaims().put("id_token_encrypted_response_enc", "A128GCM");
-    serviceContext.getAllow().put("missing_kid", true);
+    serviceContext.setAllowed("missing_kid", true);
     map.clear();
     map.put("response_type", responseType);
     map.put("scope", scope);
@@ -104,6 +108,42 @@ public class AuthenticationTest extends BaseServiceTest<Authentication> {
     Assert.assertEquals(responseType, storedRequest.getClaims().get("response_type"));
   }
 
+  @Test
+  public void testHttpGetParametersWithRequestTemplate() throws Exception {
+    service.setRequestTemplateEnabled(true);
+    String first = service.getRequestParameters(new HashMap<String, Object>(map)).getUrl();
+    String firstState = (String) service.getRequestMessage().getClaims().get("state");
+    String second = service.getRequestParameters(new HashMap<String, Object>(map)).getUrl();
+    String secondState = (String) service.getRequestMessage().getClaims().get("state");
+    Assert.assertNotEquals(firstState, secondState);
+    for (String url : Arrays.asList(first, second)) {
+      Assert.assertTrue(url.startsWith(endpoint + "?client_id=" + clientId));
+      Assert.assertTrue(url.contains("scope=" + scope));
+      Assert.assertTrue(url.contains("response_type=" + responseType));
+      Assert.assertTrue(url.contains("redirect_uri=" + URLEncoder.encode(callback, "UTF-8")));
+      Assert.assertTrue(url.contains("nonce="));
+    }
+    Assert.assertTrue(first.contains("state=" + firstState));
+    Assert.assertTrue(second.contains("state=" + secondState));
+    AuthenticationRequest storedRequest = (AuthenticationRequest) state.getItem(secondState,
+        MessageType.AUTHORIZATION_REQUEST);
+    Assert.assertEquals(clientId, storedRequest.getClaims().get("client_id"));
+    Assert.assertEquals(callback, storedRequest.getClaims().get("redirect_uri"));
+  }
+
+  @Test
+  public void testRequestTemplateResolvedAgain() throws Exception {
+    service.setRequestTemplateEnabled(true);
+    service.getRequestParameters(new HashMap<String, Object>(map));
+    String otherCallback = "https://example.com/other";
+    serviceContext.setRedirectUris(Arrays.asList(otherCallback));
+    String url = service.getRequestParameters(new HashMap<String, Object>(map)).getUrl();
+    Assert.assertTrue(url.contains("redirect_uri=" + URLEncoder.encode(otherCallback, "UTF-8")));
+    map.put("scope", "openid email");
+    url = service.getRequestParameters(new HashMap<String, Object>(map)).getUrl();
+    Assert.assertTrue(url.contains("scope=openid+email"));
+  }
+
   @Test
   public void testHttpPostParameters() throws Exception {
     Map<String, Object> requestParameters = new HashMap<String, Object>();
@@ -173,10 +213,63 @@ public class AuthenticationTest extends BaseServiceTest<Authentication> {
   public void testprepareMessageForVerificationNullInput() {
     AuthenticationResponse response = new AuthenticationResponse();
     serviceContext.setBehavior(null);
-    serviceContext.getAllow().put("missing_kid", null);
+    serviceContext.setAllowed("missing_kid", null);
     service.prepareMessageForVerification(response);
     Assert.assertEquals(serviceContext.getIssuer(), response.getIssuer());
     Assert.assertEquals(serviceContext.getClientId(), response.getClientId());
   }
 
+  @Test
+  public void testParseResponseKnownState() throws Exception {
+    Message response = service.parseResponse(callback + "?code=abc&state=" + stateKey,
+        SerializationType.URL_ENCODED, stateKey);
+    Assert.assertNotNull(response);
+  }
+
+  @Test
+  public void testParseResponseDecodesParameters() throws Exception {
+    Message response = service.parseResponse(callback + "?code=a%2Bb+c&state=" + stateKey,
+        SerializationType.URL_ENCODED, stateKey);
+    Assert.assertEquals("a+b c", response.getClaims().get("code"));
+    Assert.assertEquals(stateKey, response.getClaims().get("state"));
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testParseResponseRepeatedParameter() throws Exception {
+    service.parseResponse(callback + "?code=abc&state=" + stateKey + "&code=def",
+        SerializationType.URL_ENCODED, stateKey);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testParseResponseUnknownState() throws Exception {
+    service.parseResponse(callback + "?code=abc&state=forged", SerializationType.URL_ENCODED, "");
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testParseResponseMissingState() throws Exception {
+    service.parseResponse(callback + "#code=abc", SerializationType.URL_ENCODED, "");
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testParseResponseUnexpectedState() throws Exception {
+    String otherStateKey = state.createStateRecord(issuer, null);
+    service.parseResponse(callback + "?code=abc&state=" + otherStateKey,
+        SerializationType.URL_ENCODED, stateKey);
+  }
+
+  @Test
+  public void testParseResponseExpiredState() throws Exception {
+    service.setMaxStateAge(600);
+    String url = callback + "?code=abc&state=" + stateKey;
+    Assert.assertNotNull(service.parseResponse(url, SerializationType.URL_ENCODED, stateKey));
+    state.getState(stateKey).getClaims().put(StateRecord.CREATED_AT,
+        System.currentTimeMillis() / 1000 - 3600);
+    try {
+      service.parseResponse(url, SerializationType.URL_ENCODED, stateKey);
+      Assert.fail("Expired state was accepted");
+    } catch (InvalidClaimException e) {
+      Assert.assertEquals(600, service.getMaxStateAge());
+    }
+  }
+
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.MessageType;
+import org.oidc.msg.InvalidClaimException;
+import org.oidc.msg.oidc.IDToken;
+import org.oidc.msg.oidc.LogoutToken;
+import org.oidc.service.base.ServiceContext;
+import org.oidc.service.data.InMemoryStateImpl;
+import org.oidc.service.data.State;
+
+/**
+ * Unit tests for {@link BackChannelLogoutHandler}.
+ */
+public class BackChannelLogoutHandlerTest {
+
+  private static final String ISSUER = "https://op.example.com";
+
+  private static final String CLIENT_ID = "client";
+
+  private State state;
+
+  private BackChannelLogoutHandler handler;
+
+  private String sessionState;
+
+  private String otherSessionState;
+
+  @Before
+  public void init() {
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setIssuer(ISSUER);
+    serviceContext.setClientId(CLIENT_ID);
+    state = new InMemoryStateImpl();
+    handler = new BackChannelLogoutHandler(serviceContext, state);
+    sessionState = storeSession("user", "session1");
+    otherSessionState = storeSession("user", "session2");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullState() {
+    new BackChannelLogoutHandler(new ServiceContext(), null);
+  }
+
+  @Test
+  public void testLogoutBySid() throws Exception {
+    List<String> removed = handler.logout(buildLogoutToken(null, "session1"));
+    Assert.assertEquals(Arrays.asList(sessionState), removed);
+    Assert.assertNull(state.getState(sessionState));
+    Assert.assertNotNull(state.getState(otherSessionState));
+  }
+
+  @Test
+  public void testLogoutBySub() throws Exception {
+    List<String> removed = handler.logout(buildLogoutToken("user", null));
+    Assert.assertEquals(2, removed.size());
+    Assert.assertNull(state.getState(sessionState));
+    Assert.assertNull(state.getState(otherSessionState));
+  }
+
+  @Test
+  public void testLogoutBySidAndOtherSub() throws Exception {
+    Assert.assertTrue(handler.logout(buildLogoutToken("other", "session1")).isEmpty());
+    Assert.assertNotNull(state.getState(sessionState));
+  }
+
+  @Test
+  public void testLogoutWithAudienceList() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().put("aud", Arrays.asList("another", CLIENT_ID));
+    token.getClaims().put("iat", new Date());
+    Assert.assertEquals(1, handler.logout(token).size());
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testWrongIssuer() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().put("iss", "https://other.example.com");
+    handler.logout(token);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testWrongAudience() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().put("aud", "another");
+    handler.logout(token);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testIssuedInFuture() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().put("iat", System.currentTimeMillis() / 1000 + 3600);
+    handler.logout(token);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testIssuedBeforeReplayWindow() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().put("iat", System.currentTimeMillis() / 1000 - 2 * 3600);
+    handler.logout(token);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testMissingJti() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().remove("jti");
+    handler.logout(token);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testMissingEvent() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().put("events", new HashMap<String, Object>());
+    handler.logout(token);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testNonceNotAllowed() throws Exception {
+    LogoutToken token = buildLogoutToken(null, "session1");
+    token.getClaims().put("nonce", "nonce");
+    handler.logout(token);
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testMissingSidAndSub() throws Exception {
+    handler.logout(buildLogoutToken(null, null));
+  }
+
+  @Test
+  public void testReplayedTokenRejected() throws Exception {
+    handler.logout(buildLogoutToken(null, "session1"));
+    try {
+      handler.logout(buildLogoutToken(null, "session1"));
+      Assert.fail("Replayed logout token was accepted");
+    } catch (InvalidClaimException e) {
+      Assert.assertNotNull(state.getState(otherSessionState));
+    }
+  }
+
+  @Test(expected = InvalidClaimException.class)
+  public void testMissingJwt() throws Exception {
+    handler.logout((String) null);
+  }
+
+  private String storeSession(String sub, String sid) {
+    String stateKey = state.createStateRecord(ISSUER, null);
+    IDToken idToken = new IDToken();
+    idToken.getClaims().put("iss", ISSUER);
+    idToken.getClaims().put("sub", sub);
+    idToken.getClaims().put("sid", sid);
+    state.storeItem(idToken, stateKey, MessageType.VERIFIED_IDTOKEN);
+    return stateKey;
+  }
+
+  private LogoutToken buildLogoutToken(String sub, String sid) {
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("iss", ISSUER);
+    claims.put("aud", CLIENT_ID);
+    claims.put("iat", System.currentTimeMillis() / 1000);
+    claims.put("jti", "jti-" + sub + "-" + sid);
+    Map<String, Object> events = new HashMap<String, Object>();
+    events.put(BackChannelLogoutHandler.BACKCHANNEL_LOGOUT_EVENT, new HashMap<String, Object>());
+    claims.put("events", events);
+    if (sub != null) {
+      claims.put("sub", sub);
+    }
+    if (sid != null) {
+      claims.put("sid", sid);
+    }
+    return new LogoutToken(claims);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.common.MissingRequiredAttributeException;
+import org.oidc.msg.oidc.ProviderConfigurationResponse;
+import org.oidc.msg.oidc.RegistrationRequest;
+import org.oidc.msg.oidc.RegistrationResponse;
+
+/**
+ * Unit tests for {@link PreferenceMatcher}.
+ */
+public class PreferenceMatcherTest {
+
+  private ProviderConfigurationResponse pcr;
+
+  @Before
+  public void setup() {
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("response_types_supported", Arrays.asList("code", "id_token", "code id_token"));
+    claims.put("id_token_signing_alg_values_supported", Arrays.asList("RS256", "ES256"));
+    claims.put("subject_types_supported", Arrays.asList("public"));
+    pcr = new ProviderConfigurationResponse(claims);
+  }
+
+  @Test
+  public void testMatchedValues() throws MissingRequiredAttributeException {
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.addClaim("response_types", Arrays.asList("code", "token"));
+    preferences.addClaim("id_token_signed_response_alg", "ES256");
+    preferences.addClaim("token_endpoint_auth_method", "client_secret_basic");
+    preferences.addClaim("userinfo_signed_response_alg", "RS256");
+    preferences.addClaim("client_name", "mockName");
+    RegistrationResponse behavior = new RegistrationResponse();
+    new PreferenceMatcher(pcr).match(preferences).applyTo(preferences, behavior);
+    Assert.assertEquals(Arrays.asList("code"), behavior.getClaims().get("response_types"));
+    Assert.assertEquals("ES256", behavior.getClaims().get("id_token_signed_response_alg"));
+    // default of the provider
+    Assert.assertEquals("client_secret_basic",
+        behavior.getClaims().get("token_endpoint_auth_method"));
+    // not published by the provider
+    Assert.assertEquals("RS256", behavior.getClaims().get("userinfo_signed_response_alg"));
+    Assert.assertEquals("mockName", behavior.getClaims().get("client_name"));
+  }
+
+  @Test(expected = MissingRequiredAttributeException.class)
+  public void testUnmatchedValue() throws MissingRequiredAttributeException {
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.addClaim("subject_type", "pairwise");
+    PreferenceMatcher.Result result = new PreferenceMatcher(pcr).match(preferences);
+    Assert.assertEquals(Arrays.asList("subject_type"), result.getUnmatched());
+    result.applyTo(preferences, new RegistrationResponse());
+  }
+
+  @Test
+  public void testUnmatchedValueInBehavior() throws MissingRequiredAttributeException {
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.addClaim("subject_type", "pairwise");
+    RegistrationResponse behavior = new RegistrationResponse();
+    behavior.addClaim("subject_type", "public");
+    new PreferenceMatcher(pcr).match(preferences).applyTo(preferences, behavior);
+    Assert.assertEquals("public", behavior.getClaims().get("subject_type"));
+  }
+
+  @Test
+  public void testResponseTypesMatchedRegardlessOfOrder() throws MissingRequiredAttributeException {
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.addClaim("response_types", Arrays.asList("id_token code", "code  token"));
+    RegistrationResponse behavior = new RegistrationResponse();
+    new PreferenceMatcher(pcr).match(preferences).applyTo(preferences, behavior);
+    Assert.assertEquals(Arrays.asList("id_token code"), behavior.getClaims().get("response_types"));
+  }
+
+  @Test
+  public void testNonStandardResponseTypesMatchedRegardlessOfOrder()
+      throws MissingRequiredAttributeException {
+    Map<String, Object> claims = new HashMap<String, Object>();
+    claims.put("response_types_supported", Arrays.asList("code x-custom"));
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.addClaim("response_types", Arrays.asList("x-custom code", "x-other code"));
+    RegistrationResponse behavior = new RegistrationResponse();
+    new PreferenceMatcher(new ProviderConfigurationResponse(claims)).match(preferences)
+        .applyTo(preferences, behavior);
+    Assert.assertEquals(Arrays.asList("x-custom code"), behavior.getClaims().get("response_types"));
+  }
+
+  @Test
+  public void testResultsAreCached() {
+    PreferenceMatcher matcher = PreferenceMatcher.forProvider(pcr);
+    Assert.assertSame(matcher, PreferenceMatcher.forProvider(pcr));
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.addClaim("response_types", Arrays.asList("code"));
+    preferences.addClaim("client_name", "mockName");
+    RegistrationRequest other = new RegistrationRequest();
+    other.addClaim("response_types", Arrays.asList("code"));
+    other.addClaim("client_name", "otherName");
+    Assert.assertSame(matcher.match(preferences), matcher.match(other));
+  }
+
+  @Test
+  public void testMatcherFollowsRefilledConfiguration() throws MissingRequiredAttributeException {
+    PreferenceMatcher matcher = PreferenceMatcher.forProvider(pcr);
+    Assert.assertSame(matcher,
+        PreferenceMatcher.forProvider(new ProviderConfigurationResponse(
+            new HashMap<String, Object>(pcr.getClaims()))));
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.addClaim("id_token_signed_response_alg", "PS256");
+    Assert.assertEquals(Arrays.asList("id_token_signed_response_alg"),
+        matcher.match(preferences).getUnmatched());
+    // refilled by a later discovery
+    pcr.getClaims().put("id_token_signing_alg_values_supported", Arrays.asList("PS256"));
+    Assert.assertNotSame(matcher, PreferenceMatcher.forProvider(pcr));
+    RegistrationResponse behavior = new RegistrationResponse();
+    PreferenceMatcher.forProvider(pcr).match(preferences).applyTo(preferences, behavior);
+    Assert.assertEquals("PS256", behavior.getClaims().get("id_token_signed_response_alg"));
+  }
+}
@@ -114,8 +114,7 @@ public class ProviderInfoDiscoveryTest extends BaseServiceTest<ProviderInfoDisco
     Assert.assertTrue(response.verify());
     Assert.assertNotNull(serviceContext.getKeyJar());
     Assert.assertFalse(serviceContext.getEndpoints().isEmpty());
-    // five expected because revocation_endpoint from the message is ignored as non-OIDC
-    Assert.assertTrue(serviceContext.getEndpoints().keySet().size() == 5);
+    Assert.assertTrue(serviceContext.getEndpoints().keySet().size() == 6);
     Assert.assertEquals("https://example.com/authorization",
         serviceContext.getEndpoints().get(EndpointName.AUTHORIZATION));
     Assert.assertEquals("https://example.com/token",
@@ -126,6 +125,8 @@ public class ProviderInfoDiscoveryTest extends BaseServiceTest<ProviderInfoDisco
         serviceContext.getEndpoints().get(EndpointName.REGISTRATION));
     Assert.assertEquals("https://example.com/end_session",
         serviceContext.getEndpoints().get(EndpointName.END_SESSION));
+    Assert.assertEquals("https://example.com/revocation",
+        serviceContext.getEndpoints().get(EndpointName.REVOCATION));
   }
   
   //TODO: Update test. Message is now verified in parse response.
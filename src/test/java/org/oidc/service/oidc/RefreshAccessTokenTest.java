@@ -75,7 +75,7 @@ public class RefreshAccessTokenTest extends BaseServiceTest<RefreshAccessToken>
     serviceContext.getBehavior().getClaims().put("id_token_encrypted_response_alg", "RSA1_5");
     serviceContext.getBehavior().getClaims().put("id_token_encrypted_response_enc", "A128GCM");
     serviceContext.getBehavior().getClaims().put("token_endpoint_auth_method", "bearer_body");
-    serviceContext.getAllow().put("missing_kid", true);
+    serviceContext.setAllowed("missing_kid", true);
 
     AccessTokenResponse resp = new AccessTokenResponse();
     resp.addClaim("refresh_token", "refreshtoken");
@@ -184,7 +184,7 @@ public class RefreshAccessTokenTest extends BaseServiceTest<RefreshAccessToken>
   public void testprepareMessageForVerificationNullInput() {
     AccessTokenResponse response = new AccessTokenResponse();
     serviceContext.setBehavior(null);
-    serviceContext.getAllow().put("missing_kid", null);
+    serviceContext.setAllowed("missing_kid", null);
     service.prepareMessageForVerification(response);
     // There is no simple way to test parameters are set except cobertura report
   }
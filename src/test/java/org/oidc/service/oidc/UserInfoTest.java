@@ -68,7 +68,7 @@ public class UserInfoTest extends BaseServiceTest<UserInfo> {
     serviceContext.getBehavior().getClaims().put("userinfo_signed_response_alg", "RS256");
     serviceContext.getBehavior().getClaims().put("userinfo_encrypted_response_alg", "RSA1_5");
     serviceContext.getBehavior().getClaims().put("userinfo_encrypted_response_enc", "A128GCM");
-    serviceContext.getAllow().put("missing_kid", true);
+    serviceContext.setAllowed("missing_kid", true);
     AuthenticationResponse resp = new AuthenticationResponse();
     resp.addClaim("access_token", "accesstoken");
     state.storeItem(resp, stateKey, MessageType.AUTHORIZATION_RESPONSE);
@@ -153,7 +153,7 @@ public class UserInfoTest extends BaseServiceTest<UserInfo> {
   public void testprepareMessageForVerificationNullInput() {
     OpenIDSchema response = new OpenIDSchema();
     serviceContext.setBehavior(null);
-    serviceContext.getAllow().put("missing_kid", null);
+    serviceContext.setAllowed("missing_kid", null);
     service.prepareMessageForVerification(response);
     // There is no simple way to test parameters are set except cobertura report
   }
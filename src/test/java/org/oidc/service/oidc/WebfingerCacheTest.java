@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.oidc;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link WebfingerCache}.
+ */
+public class WebfingerCacheTest {
+
+  private AtomicLong nanos;
+
+  private WebfingerCache cache;
+
+  @Before
+  public void setup() {
+    nanos = new AtomicLong();
+    cache = new WebfingerCache(2, 60, 10, TimeUnit.SECONDS, new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    });
+  }
+
+  @Test
+  public void testIssuerIsCachedUntilExpired() {
+    Assert.assertNull(cache.get("example.com"));
+    cache.putIssuer("Example.com", "https://example.com/op");
+    WebfingerCache.Entry entry = cache.get("example.com");
+    Assert.assertTrue(entry.isResolved());
+    Assert.assertEquals("https://example.com/op", entry.getIssuer());
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+    Assert.assertNotNull(cache.get("example.com"));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    Assert.assertNull(cache.get("example.com"));
+  }
+
+  @Test
+  public void testUnresolvableHostExpiresSooner() {
+    cache.putUnresolvable("example.com:8080");
+    WebfingerCache.Entry entry = cache.get("example.com:8080");
+    Assert.assertFalse(entry.isResolved());
+    Assert.assertNull(entry.getIssuer());
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Assert.assertNull(cache.get("example.com:8080"));
+  }
+
+  @Test
+  public void testSizeIsBounded() {
+    cache.putIssuer("a.example.com", "https://a.example.com");
+    cache.putIssuer("b.example.com", "https://b.example.com");
+    cache.putIssuer("c.example.com", "https://c.example.com");
+    Assert.assertEquals(2, cache.size());
+    Assert.assertNotNull(cache.get("c.example.com"));
+  }
+
+  @Test
+  public void testInvalidate() {
+    cache.putIssuer("example.com", "https://example.com/op");
+    cache.invalidate("example.com");
+    Assert.assertNull(cache.get("example.com"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullIssuer() {
+    cache.putIssuer("example.com", null);
+  }
+}
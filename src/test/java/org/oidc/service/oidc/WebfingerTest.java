@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -33,6 +34,8 @@ import org.oidc.msg.oidc.JsonResponseDescriptor;
 import org.oidc.msg.oidc.Link;
 import org.oidc.service.BaseServiceTest;
 import org.oidc.service.base.HttpArguments;
+import org.oidc.service.base.MessageFactory;
+import org.oidc.service.base.MessagePool;
 import org.oidc.service.base.RequestArgumentProcessingException;
 import org.oidc.service.base.ServiceConfig;
 import org.oidc.service.base.ServiceContext;
@@ -229,4 +232,101 @@ public class WebfingerTest extends BaseServiceTest<Webfinger> {
     Assert.assertTrue(webfinger.getServiceContext().getIssuer().equals(OP_BASEURL));
   }
 
+  @Test
+  public void testPooledResponseIsNotKeptByService() throws Exception {
+    MessagePool pool = new MessagePool(new MessageFactory() {
+      @Override
+      public Message newMessage() {
+        return new JsonResponseDescriptor();
+      }
+    }, 4, false);
+    String response = "{\"subject\":\"acct:foobar@example.org\"}";
+    Message template = service.getResponseMessage();
+    service.setResponseMessagePool(pool);
+    Message pooled = service.parseResponse(response);
+    Assert.assertNotSame(template, pooled);
+    Assert.assertSame(template, service.getResponseMessage());
+    service.releaseResponseMessage(pooled);
+    Assert.assertEquals(1, pool.getAvailableCount());
+
+    service.setResponseMessagePool(null);
+    Assert.assertSame(template, service.parseResponse(response));
+    Assert.assertTrue(pooled.getClaims().isEmpty());
+    Assert.assertSame(pooled, pool.acquire());
+  }
+
+  @Test
+  public void testIssuerResolvedFromCache() throws Exception {
+    ServiceContext serviceContext = new ServiceContext();
+    Webfinger webfinger = new Webfinger(serviceContext);
+    WebfingerCache cache = new WebfingerCache(10, 1, 1, TimeUnit.HOURS);
+    webfinger.setCache(cache);
+    Assert.assertFalse(webfinger.resolveIssuerFromCache("acct:bob@example.org"));
+    webfinger.getRequestParameters(buildArgsWithResource("acct:bob@example.org"));
+    Link link = new Link();
+    link.addClaim("rel", Constants.OIDC_ISSUER);
+    link.addClaim("href", OP_BASEURL);
+    JsonResponseDescriptor jrd = new JsonResponseDescriptor();
+    jrd.addClaim("links", Arrays.asList(link));
+    webfinger.updateServiceContextForResource(jrd, "acct:bob@example.org");
+    Assert.assertEquals(OP_BASEURL, cache.get("example.org").getIssuer());
+
+    ServiceContext otherContext = new ServiceContext();
+    Webfinger other = new Webfinger(otherContext);
+    other.setCache(cache);
+    Assert.assertTrue(other.resolveIssuerFromCache("alice@example.org"));
+    Assert.assertEquals(OP_BASEURL, otherContext.getIssuer());
+  }
+
+  @Test(expected = RequestArgumentProcessingException.class)
+  public void testUnresolvableHostFromCache() throws Exception {
+    Webfinger webfinger = new Webfinger(new ServiceContext());
+    WebfingerCache cache = new WebfingerCache(10, 1, 1, TimeUnit.HOURS);
+    webfinger.setCache(cache);
+    webfinger.getRequestParameters(buildArgsWithResource("acct:bob@example.org"));
+    webfinger.updateServiceContextForResource(buildMinimalJrd(), "acct:bob@example.org");
+    Assert.assertFalse(cache.get("example.org").isResolved());
+    webfinger.resolveIssuerFromCache("acct:alice@example.org");
+  }
+
+  @Test
+  public void testInterleavedRequestsCachedByTheirResource() throws Exception {
+    Webfinger webfinger = new Webfinger(new ServiceContext());
+    WebfingerCache cache = new WebfingerCache(10, 1, 1, TimeUnit.HOURS);
+    webfinger.setCache(cache);
+    webfinger.getRequestParameters(buildArgsWithResource("acct:bob@example.org"));
+    webfinger.getRequestParameters(buildArgsWithResource("acct:alice@example.com"));
+    Link link = new Link();
+    link.addClaim("rel", Constants.OIDC_ISSUER);
+    link.addClaim("href", OP_BASEURL);
+    JsonResponseDescriptor jrd = new JsonResponseDescriptor();
+    jrd.addClaim("links", Arrays.asList(link));
+    webfinger.updateServiceContextForResource(jrd, "acct:bob@example.org");
+    Assert.assertEquals(OP_BASEURL, cache.get("example.org").getIssuer());
+    Assert.assertNull(cache.get("example.com"));
+  }
+
+  @Test
+  public void testResponseWithoutResourceIsNotCached() throws Exception {
+    Webfinger webfinger = new Webfinger(new ServiceContext());
+    WebfingerCache cache = new WebfingerCache(10, 1, 1, TimeUnit.HOURS);
+    webfinger.setCache(cache);
+    webfinger.getRequestParameters(buildArgsWithResource("acct:bob@example.org"));
+    webfinger.updateServiceContext(buildMinimalJrd());
+    Assert.assertNull(cache.get("example.org"));
+  }
+
+  @Test
+  public void testEndpointFromOverriddenMethod() throws Exception {
+    Webfinger webfinger = new Webfinger(new ServiceContext()) {
+      @Override
+      protected String getEndpointWithoutQuery(String resource)
+          throws RequestArgumentProcessingException {
+        return "https://proxy.example.com/webfinger";
+      }
+    };
+    HttpArguments httpArguments = webfinger
+        .getRequestParameters(buildArgsWithResource("acct:bob@example.org"));
+    Assert.assertTrue(httpArguments.getUrl().startsWith("https://proxy.example.com/webfinger?"));
+  }
 }
@@ -64,6 +64,18 @@ public class ServiceUtilTest {
         + "7j69i60l5.653j0j7&sourceid=chrome&ie=UTF-8"));
   }
 
+  @Test
+  public void testGetUrlEncodedParameter() {
+    String query = "code=abc&xstate=wrong&state=a%2Bb+c&state=second&empty=&flag";
+    Assert.assertEquals("abc", ServiceUtil.getUrlEncodedParameter(query, "code"));
+    Assert.assertEquals("a+b c", ServiceUtil.getUrlEncodedParameter(query, "state"));
+    Assert.assertEquals("", ServiceUtil.getUrlEncodedParameter(query, "empty"));
+    Assert.assertEquals("", ServiceUtil.getUrlEncodedParameter(query, "flag"));
+    Assert.assertNull(ServiceUtil.getUrlEncodedParameter(query, "nonce"));
+    Assert.assertNull(ServiceUtil.getUrlEncodedParameter("state=%zz", "state"));
+    Assert.assertNull(ServiceUtil.getUrlEncodedParameter(null, "state"));
+  }
+
   @Test
   public void testGetUrlQueryReferenceWithQueryExcluded() throws Exception {
     String url = ServiceUtil.getUrlInfo("https://www.google.co.in/#q=geeks+for+geeks+java");
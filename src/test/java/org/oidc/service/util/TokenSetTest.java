@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.util;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TokenSet}.
+ */
+public class TokenSetTest {
+
+  @Test
+  public void testParse() {
+    TokenSet set = TokenSet.parse(" token  code id_token code");
+    Assert.assertEquals(3, set.size());
+    Assert.assertTrue(set.contains("code"));
+    Assert.assertTrue(set.contains("id_token"));
+    Assert.assertFalse(set.contains("openid"));
+    Assert.assertFalse(set.contains("never-interned-token"));
+    Assert.assertEquals(Arrays.asList("code", "id_token", "token"), set.getTokens());
+    Assert.assertEquals("code id_token token", set.toString());
+    Assert.assertSame(set, TokenSet.parse(" token  code id_token code"));
+  }
+
+  @Test
+  public void testEquality() {
+    TokenSet set = TokenSet.parse("code id_token");
+    Assert.assertEquals(set, TokenSet.parse("id_token code"));
+    Assert.assertEquals(set.hashCode(), TokenSet.parse("id_token code").hashCode());
+    Assert.assertNotEquals(set, TokenSet.parse("code"));
+    Assert.assertTrue(set.containsAll(TokenSet.parse("code")));
+    Assert.assertFalse(TokenSet.parse("code").containsAll(set));
+  }
+
+  @Test
+  public void testEmpty() {
+    Assert.assertSame(TokenSet.EMPTY, TokenSet.parse(""));
+    Assert.assertSame(TokenSet.EMPTY, TokenSet.parse("   "));
+    Assert.assertTrue(TokenSet.EMPTY.isEmpty());
+    Assert.assertEquals("", TokenSet.EMPTY.toString());
+  }
+
+  @Test
+  public void testContainsToken() {
+    Assert.assertTrue(TokenSet.containsToken("email openid profile", "openid"));
+    Assert.assertFalse(TokenSet.containsToken("email x-openid", "openid"));
+    Assert.assertFalse(TokenSet.containsToken("openidx", "openid"));
+    Assert.assertFalse(TokenSet.containsToken(null, "openid"));
+  }
+
+  @Test
+  public void testContainsTokenDoesNotIntern() {
+    int size = TokenSet.getVocabularySize();
+    Assert.assertTrue(TokenSet.containsToken("openid scan-test-1 scan-test-2", "scan-test-2"));
+    Assert.assertFalse(TokenSet.containsToken("openid scan-test-1", "scan-test-3"));
+    Assert.assertEquals(size, TokenSet.getVocabularySize());
+  }
+
+  @Test
+  public void testOtherTokensAreNotInterned() {
+    int size = TokenSet.getVocabularySize();
+    StringBuilder responseType = new StringBuilder("code");
+    for (int i = 100; i > 0; i--) {
+      responseType.append(" other-test-").append(i);
+    }
+    TokenSet set = TokenSet.parse(responseType.toString());
+    Assert.assertEquals(101, set.size());
+    Assert.assertTrue(set.contains("code"));
+    Assert.assertTrue(set.contains("other-test-1"));
+    Assert.assertFalse(set.contains("other-test-101"));
+    Assert.assertEquals(size, TokenSet.getVocabularySize());
+  }
+
+  @Test
+  public void testOtherTokensAreOrderIndependent() {
+    TokenSet set = TokenSet.parse("x-custom code y-custom");
+    Assert.assertEquals(set, TokenSet.parse("y-custom code x-custom x-custom"));
+    Assert.assertEquals(set.hashCode(), TokenSet.parse("y-custom code x-custom").hashCode());
+    Assert.assertNotEquals(set, TokenSet.parse("code x-custom"));
+    Assert.assertNotEquals(set, TokenSet.parse("code"));
+    Assert.assertTrue(set.containsAll(TokenSet.parse("x-custom code")));
+    Assert.assertFalse(TokenSet.parse("x-custom code").containsAll(set));
+    Assert.assertEquals("code x-custom y-custom", set.toString());
+    Assert.assertEquals(Arrays.asList("code", "x-custom", "y-custom"), set.getTokens());
+  }
+}
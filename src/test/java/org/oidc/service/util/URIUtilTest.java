@@ -16,6 +16,10 @@
 
 package org.oidc.service.util;
 
+import com.google.common.base.Strings;
+import java.util.Random;
+import org.apache.commons.validator.routines.RegexValidator;
+import org.apache.commons.validator.routines.UrlValidator;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -58,4 +62,114 @@ public class URIUtilTest {
     String normalizedUrl = URIUtil.normalizeUrl("acct:bob@example.com");
     Assert.assertTrue(normalizedUrl.equals("acct:bob@example.com"));
   }
+
+  @Test
+  public void testNormalizeUrlHttps() throws ValueException {
+    Assert.assertEquals("https://example.com:8080/joe?a=b",
+        URIUtil.normalizeUrl("https://example.com:8080/joe?a=b#fragment"));
+    Assert.assertEquals("https://example.com/joe", URIUtil.normalizeUrl("example.com/joe"));
+    Assert.assertEquals("https://example.com:8080", URIUtil.normalizeUrl("example.com:8080"));
+  }
+
+  @Test
+  public void testNormalizeUrlTel() throws ValueException {
+    Assert.assertEquals("tel:+1234567890", URIUtil.normalizeUrl("tel:+1234567890"));
+    Assert.assertEquals("https://tel:+123", URIUtil.normalizeUrl("tel:+123"));
+  }
+
+  /** Tokens the random urls of the differential test are built from. */
+  private static final String[] TOKENS = { "acct:", "device:", "mailto:", "tel:+", "http://",
+      "https://", "file://", "HTTPS:", "//", "/", "@", "@@", ":", ":8080", ":99999", "?", "?a=b",
+      "#", "#f", "_", ".", "..", "/./", "/../", ".jp", "jp", "example.com", "example", "foo.bar",
+      "bob", "p1", "127.0.0.1", "[::1]", "1234567890", "0", "-", " ", "%20", "!", "\n", "\u00e9",
+      "\u2028", "http", "user:pass@", "a", "Z", "~", "(", "*" };
+
+  @Test
+  public void testNormalizeUrlMatchesLegacyImplementation() {
+    Random random = new Random(42);
+    for (int i = 0; i < 50000; i++) {
+      StringBuilder builder = new StringBuilder();
+      int count = 1 + random.nextInt(6);
+      for (int j = 0; j < count; j++) {
+        builder.append(TOKENS[random.nextInt(TOKENS.length)]);
+      }
+      String url = builder.toString();
+      Assert.assertEquals("Result for '" + url + "'", legacyNormalize(url), normalize(url));
+    }
+  }
+
+  private static String normalize(String url) {
+    try {
+      return URIUtil.normalizeUrl(url);
+    } catch (Exception e) {
+      return e.getClass().getName();
+    }
+  }
+
+  private static String legacyNormalize(String url) {
+    try {
+      return legacyNormalizeUrl(url);
+    } catch (Exception e) {
+      return e.getClass().getName();
+    }
+  }
+
+  /**
+   * The implementation of {@link URIUtil#normalizeUrl(String)} before the hand-written parser,
+   * used as the oracle for the differential test.
+   */
+  private static String legacyNormalizeUrl(String url) throws ValueException {
+    if (legacyHasScheme(url)) {
+
+    } else if (legacyIsAcctSchemeAssumed(url)) {
+      url = "acct:" + url;
+    } else {
+      url = "https://" + url;
+    }
+
+    return url.split("#")[0];
+  }
+
+  private static boolean legacyHasScheme(String url) {
+    if (Strings.isNullOrEmpty(url)) {
+      throw new IllegalArgumentException("null or empty url");
+    }
+    if (url.contains("tel:")) {
+      String pattern = "tel:\\+[0-9]{10,12}";
+      return url.matches(pattern);
+    }
+    // allows underscores, otherwise urlvalidator fails
+    url = url.replace("_", "-");
+    url = url.replaceFirst("@", ".");
+    url = url.replaceFirst(".jp", ".com");
+    if (url.contains("acct:")) {
+      url = url.replaceFirst("acct:", "acct://");
+    } else if (url.contains("device:")) {
+      url = url.replaceFirst("device:", "device://");
+    } else if (url.contains("mailto:")) {
+      url = url.replaceFirst("mailto:", "mailto://");
+    }
+    String[] regexs = { "http", "https", "acct", "device", "mailto" };
+    RegexValidator validator = new RegexValidator(regexs, true);
+    UrlValidator urlValidator = new UrlValidator(regexs, validator, UrlValidator.ALLOW_ALL_SCHEMES);
+    return urlValidator.isValid(url);
+  }
+
+  private static boolean legacyIsAcctSchemeAssumed(String url) throws ValueException {
+    if (url.contains("@")) {
+      String[] hostArr = url.split("@");
+      if (hostArr != null && hostArr.length > 0) {
+        String host = hostArr[hostArr.length - 1];
+        if (!Strings.isNullOrEmpty(host)) {
+          return !(host.contains(":") || host.contains("/") || host.contains("?"));
+        } else {
+          return false;
+        }
+      } else {
+        throw new ValueException("could not properly split host");
+      }
+    } else {
+      return false;
+    }
+  }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.service.util;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.oidc.msg.DeserializationException;
+
+/**
+ * Unit tests for {@link UrlEncodedParser}.
+ */
+public class UrlEncodedParserTest {
+
+  @Test
+  public void testQueryIsPreferred() throws Exception {
+    Assert.assertEquals("code=abc&state=xyz",
+        UrlEncodedParser.getQueryOrFragment("https://rp.example.com/cb?code=abc&state=xyz#frag"));
+  }
+
+  @Test
+  public void testFragmentWithoutQuery() throws Exception {
+    Assert.assertEquals("code=abc?x",
+        UrlEncodedParser.getQueryOrFragment("https://rp.example.com/cb#code=abc?x"));
+  }
+
+  @Test
+  public void testFragmentWithEmptyQuery() throws Exception {
+    Assert.assertEquals("code=abc",
+        UrlEncodedParser.getQueryOrFragment(" https://rp.example.com/cb?#code=abc "));
+  }
+
+  @Test
+  public void testNoQueryOrFragment() throws Exception {
+    Assert.assertNull(UrlEncodedParser.getQueryOrFragment("https://rp.example.com/cb"));
+    Assert.assertNull(UrlEncodedParser.getQueryOrFragment("https://rp.example.com/cb?"));
+  }
+
+  @Test(expected = MalformedURLException.class)
+  public void testNoScheme() throws Exception {
+    UrlEncodedParser.getQueryOrFragment("code=abc&state=xyz");
+  }
+
+  @Test(expected = MalformedURLException.class)
+  public void testInvalidScheme() throws Exception {
+    UrlEncodedParser.getQueryOrFragment("1http://rp.example.com/cb?code=abc");
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    Assert.assertEquals("[a=1, b=, c=x=y, d= e]", parse("a=1&&b&c=x=y&=skipped&d=+e&"));
+  }
+
+  @Test
+  public void testParseRange() throws Exception {
+    final List<String> parameters = new ArrayList<>();
+    String url = "https://rp.example.com/cb?code=abc&state=xyz#ignored=1";
+    UrlEncodedParser.parse(url, url.indexOf('?') + 1, url.indexOf('#'),
+        new UrlEncodedParser.ParameterHandler() {
+          @Override
+          public void parameter(String name, String value) {
+            parameters.add(name + "=" + value);
+          }
+        });
+    Assert.assertEquals("[code=abc, state=xyz]", parameters.toString());
+  }
+
+  @Test
+  public void testDecode() throws Exception {
+    Assert.assertEquals("plain", UrlEncodedParser.decode("plain", 0, 5));
+    Assert.assertEquals("a b&c", UrlEncodedParser.decode("a+b%26c", 0, 7));
+    Assert.assertEquals("ä€", UrlEncodedParser.decode("%C3%a4%E2%82%AC", 0, 15));
+    Assert.assertEquals("ä x", UrlEncodedParser.decode("ä+x", 0, 3));
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testDecodeTruncated() throws Exception {
+    parse("a=%4");
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testDecodeNotHexadecimal() throws Exception {
+    parse("a=%zz");
+  }
+
+  @Test(expected = DeserializationException.class)
+  public void testHandlerRejection() throws Exception {
+    UrlEncodedParser.parse("a=1", new UrlEncodedParser.ParameterHandler() {
+      @Override
+      public void parameter(String name, String value) throws DeserializationException {
+        throw new DeserializationException("rejected " + name);
+      }
+    });
+  }
+
+  private static String parse(String form) throws DeserializationException {
+    final List<String> parameters = new ArrayList<>();
+    UrlEncodedParser.parse(form, new UrlEncodedParser.ParameterHandler() {
+      @Override
+      public void parameter(String name, String value) {
+        parameters.add(name + "=" + value);
+      }
+    });
+    return parameters.toString();
+  }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.testutil;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.oidc.service.metrics.CallRecorder;
+import org.oidc.service.metrics.CallStatistics;
+
+/**
+ * Runs a task at a fixed arrival rate and measures its latency without coordinated omission.
+ * Every iteration has an intended start time on a fixed schedule, and its response time is
+ * measured from that time rather than from the moment a worker got around to start it. When the
+ * system under test stalls, the iterations scheduled during the stall are started late and their
+ * waiting time is included in their response times, as it would be for independent users.
+ *
+ * <p>
+ * The response times and the service times (measured from the actual start) are recorded into
+ * the log-linear histograms of {@link CallRecorder}, one per worker thread. While running, the
+ * generator samples the throughput, the bytes allocated by the worker threads and an optional
+ * gauge, e.g. the size of the {@link org.oidc.service.data.State} database.
+ * </p>
+ */
+public class FixedRateLoadGenerator {
+
+  /** A single iteration of the load, e.g. a complete login flow. */
+  public interface Task {
+
+    /**
+     * Runs the iteration. An exception marks the iteration as failed.
+     * 
+     * @param iteration
+     *          The sequence number of the iteration, starting from zero.
+     */
+    void run(long iteration) throws Exception;
+  }
+
+  /** A value sampled while the load is running. */
+  public interface Gauge {
+
+    /**
+     * Reads the current value.
+     * 
+     * @return The value.
+     */
+    long read();
+  }
+
+  /** The task run on every arrival. */
+  private final Task task;
+
+  /** The time between two arrivals, in nanoseconds. */
+  private final long periodNanos;
+
+  /** The number of worker threads. */
+  private final int threads;
+
+  /** The gauge sampled while running, null if none. */
+  private Gauge gauge;
+
+  /** The time between two samples, in nanoseconds. */
+  private long sampleIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * Constructor.
+   * 
+   * @param task
+   *          The task run on every arrival.
+   * @param arrivalsPerSecond
+   *          The arrival rate.
+   * @param threads
+   *          The number of worker threads, which bounds the number of concurrent iterations.
+   */
+  public FixedRateLoadGenerator(Task task, double arrivalsPerSecond, int threads) {
+    if (task == null) {
+      throw new IllegalArgumentException("The task cannot be null");
+    }
+    if (arrivalsPerSecond <= 0 || threads < 1) {
+      throw new IllegalArgumentException("The rate and the number of threads must be positive");
+    }
+    this.task = task;
+    this.periodNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / arrivalsPerSecond));
+    this.threads = threads;
+  }
+
+  /**
+   * Sets the gauge sampled while running.
+   * 
+   * @param gauge
+   *          The gauge, null for none.
+   */
+  public void setGauge(Gauge gauge) {
+    this.gauge = gauge;
+  }
+
+  /**
+   * Sets the time between two samples.
+   * 
+   * @param interval
+   *          The interval.
+   * @param unit
+   *          The unit of the interval.
+   */
+  public void setSampleInterval(long interval, TimeUnit unit) {
+    sampleIntervalNanos = Math.max(1L, unit.toNanos(interval));
+  }
+
+  /**
+   * Runs the load. The iterations scheduled during the warmup are run but not recorded. The
+   * iterations scheduled during the measurement are all run, even if the workers fall behind the
+   * schedule, unless they are still not started once the measurement has overrun by its own
+   * length; those are reported as dropped.
+   * 
+   * @param warmup
+   *          The length of the warmup.
+   * @param duration
+   *          The length of the measurement.
+   * @param unit
+   *          The unit of the lengths.
+   * @return The report of the measurement.
+   * @throws InterruptedException
+   *           If interrupted while waiting for the workers.
+   */
+  public Report run(long warmup, long duration, TimeUnit unit) throws InterruptedException {
+    final long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+    final long measureNanos = startNanos + unit.toNanos(warmup);
+    final long endNanos = measureNanos + unit.toNanos(duration);
+    final long deadlineNanos = endNanos + unit.toNanos(duration);
+    final AtomicLong nextIteration = new AtomicLong();
+    final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker(nextIteration, startNanos, measureNanos, endNanos,
+          deadlineNanos, done);
+      worker.setName("load-" + i);
+      worker.setDaemon(true);
+      workers.add(worker);
+    }
+    for (Worker worker : workers) {
+      worker.start();
+    }
+
+    AllocationCounter allocations = new AllocationCounter();
+    List<Sample> samples = new ArrayList<Sample>();
+    long lastNanos = measureNanos;
+    long lastCount = 0;
+    long lastAllocated = -1;
+    long nextSampleNanos = measureNanos;
+    while (!done.await(Math.max(0L, nextSampleNanos - System.nanoTime()),
+        TimeUnit.NANOSECONDS)) {
+      long now = System.nanoTime();
+      long count = merge(workers, false).getCount();
+      long allocated = allocations.read(workers);
+      if (now > measureNanos) {
+        if (lastAllocated >= 0) {
+          samples.add(new Sample(now - measureNanos, count - lastCount, now - lastNanos,
+              allocated - lastAllocated, gauge != null ? gauge.read() : -1));
+        }
+        lastNanos = now;
+        lastCount = count;
+        lastAllocated = allocated;
+      }
+      nextSampleNanos = Math.max(now, measureNanos) + sampleIntervalNanos;
+    }
+    long elapsed = Math.max(1L, Math.max(endNanos, latestCompletion(workers)) - measureNanos);
+    CallStatistics responseTimes = merge(workers, false);
+    long firstMeasured = (measureNanos - startNanos + periodNanos - 1) / periodNanos;
+    long firstUnscheduled = (endNanos - startNanos + periodNanos - 1) / periodNanos;
+    long dropped = Math.max(0L, firstUnscheduled - firstMeasured - responseTimes.getCount());
+    return new Report(responseTimes, merge(workers, true), elapsed, dropped,
+        Collections.unmodifiableList(samples), firstFailure(workers));
+  }
+
+  private static CallStatistics merge(List<Worker> workers, boolean serviceTime) {
+    CallStatistics statistics = CallStatistics.EMPTY;
+    for (Worker worker : workers) {
+      statistics = statistics.merge(
+          serviceTime ? worker.serviceTimes.snapshot() : worker.responseTimes.snapshot());
+    }
+    return statistics;
+  }
+
+  private static long latestCompletion(List<Worker> workers) {
+    long latest = 0;
+    for (Worker worker : workers) {
+      latest = Math.max(latest, worker.lastCompletionNanos);
+    }
+    return latest;
+  }
+
+  private static Throwable firstFailure(List<Worker> workers) {
+    for (Worker worker : workers) {
+      if (worker.failure.get() != null) {
+        return worker.failure.get();
+      }
+    }
+    return null;
+  }
+
+  /** A worker claiming the iterations from the shared schedule. */
+  private class Worker extends Thread {
+
+    private final AtomicLong nextIteration;
+    private final long startNanos;
+    private final long measureNanos;
+    private final long endNanos;
+    private final long deadlineNanos;
+    private final CountDownLatch done;
+
+    /** The times from the intended start, recorded only by this worker. */
+    private final CallRecorder responseTimes = new CallRecorder();
+
+    /** The times from the actual start, recorded only by this worker. */
+    private final CallRecorder serviceTimes = new CallRecorder();
+
+    /** The first failure of this worker, if any. */
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private volatile long lastCompletionNanos;
+
+    Worker(AtomicLong nextIteration, long startNanos, long measureNanos, long endNanos,
+        long deadlineNanos, CountDownLatch done) {
+      this.nextIteration = nextIteration;
+      this.startNanos = startNanos;
+      this.measureNanos = measureNanos;
+      this.endNanos = endNanos;
+      this.deadlineNanos = deadlineNanos;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          long iteration = nextIteration.getAndIncrement();
+          long intendedNanos = startNanos + iteration * periodNanos;
+          if (intendedNanos >= endNanos) {
+            return;
+          }
+          long now = System.nanoTime();
+          while (now < intendedNanos) {
+            LockSupport.parkNanos(intendedNanos - now);
+            now = System.nanoTime();
+          }
+          if (now > deadlineNanos) {
+            // too far behind the schedule, the rest of it is reported as dropped
+            return;
+          }
+          boolean success = false;
+          try {
+            task.run(iteration);
+            success = true;
+          } catch (Exception e) {
+            failure.compareAndSet(null, e);
+          }
+          long completed = System.nanoTime();
+          if (intendedNanos >= measureNanos) {
+            responseTimes.record(completed - intendedNanos, success, -1);
+            serviceTimes.record(completed - now, success, -1);
+            lastCompletionNanos = completed;
+          }
+        }
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  /** Reads the bytes allocated by the worker threads, if supported by the JVM. */
+  private static class AllocationCounter {
+
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    /** The last value read for every worker, kept once the worker has terminated. */
+    private final Map<Long, Long> allocatedByThread = new HashMap<Long, Long>();
+
+    AllocationCounter() {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      threadBean = bean instanceof com.sun.management.ThreadMXBean
+          && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+              ? (com.sun.management.ThreadMXBean) bean
+              : null;
+    }
+
+    long read(List<Worker> workers) {
+      if (threadBean == null) {
+        return 0;
+      }
+      long allocated = 0;
+      for (Worker worker : workers) {
+        long threadAllocated = threadBean.getThreadAllocatedBytes(worker.getId());
+        if (threadAllocated >= 0) {
+          allocatedByThread.put(worker.getId(), threadAllocated);
+        }
+        Long last = allocatedByThread.get(worker.getId());
+        allocated += last != null ? last : 0L;
+      }
+      return allocated;
+    }
+  }
+
+  /** The values sampled over one interval of the measurement. */
+  public static final class Sample {
+
+    private final long elapsedNanos;
+    private final long completed;
+    private final long intervalNanos;
+    private final long allocatedBytes;
+    private final long gauge;
+
+    Sample(long elapsedNanos, long completed, long intervalNanos, long allocatedBytes,
+        long gauge) {
+      this.elapsedNanos = elapsedNanos;
+      this.completed = completed;
+      this.intervalNanos = intervalNanos;
+      this.allocatedBytes = allocatedBytes;
+      this.gauge = gauge;
+    }
+
+    /** The time from the start of the measurement to the end of the interval. */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /** The number of iterations completed in the interval. */
+    public long getCompleted() {
+      return completed;
+    }
+
+    /** The throughput of the interval, in iterations per second. */
+    public double getThroughput() {
+      return completed * 1e9 / intervalNanos;
+    }
+
+    /** The allocation rate of the worker threads in the interval, in bytes per second. */
+    public double getAllocationRate() {
+      return allocatedBytes * 1e9 / intervalNanos;
+    }
+
+    /** The value of the gauge at the end of the interval, -1 if no gauge was set. */
+    public long getGauge() {
+      return gauge;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("t=%.1fs, throughput=%.1f/s, allocation=%.1fMB/s, gauge=%d",
+          elapsedNanos / 1e9, getThroughput(), getAllocationRate() / (1024 * 1024), gauge);
+    }
+  }
+
+  /** The result of a measurement. */
+  public static final class Report {
+
+    private final CallStatistics responseTimes;
+    private final CallStatistics serviceTimes;
+    private final long elapsedNanos;
+    private final long dropped;
+    private final List<Sample> samples;
+    private final Throwable firstFailure;
+
+    Report(CallStatistics responseTimes, CallStatistics serviceTimes, long elapsedNanos,
+        long dropped, List<Sample> samples, Throwable firstFailure) {
+      this.responseTimes = responseTimes;
+      this.serviceTimes = serviceTimes;
+      this.elapsedNanos = elapsedNanos;
+      this.dropped = dropped;
+      this.samples = samples;
+      this.firstFailure = firstFailure;
+    }
+
+    /** The times from the intended start of the iterations, corrected for coordinated omission. */
+    public CallStatistics getResponseTimes() {
+      return responseTimes;
+    }
+
+    /** The times from the actual start of the iterations, as a closed-loop benchmark sees them. */
+    public CallStatistics getServiceTimes() {
+      return serviceTimes;
+    }
+
+    /** The throughput of the successful iterations over the measurement, per second. */
+    public double getThroughput() {
+      return responseTimes.getSuccessCount() * 1e9 / elapsedNanos;
+    }
+
+    /** The number of iterations scheduled for the measurement but never started. */
+    public long getDropped() {
+      return dropped;
+    }
+
+    /** The values sampled over the measurement. */
+    public List<Sample> getSamples() {
+      return samples;
+    }
+
+    /** The first exception thrown by the task, null if none. */
+    public Throwable getFirstFailure() {
+      return firstFailure;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder();
+      report.append(String.format("throughput=%.1f/s, dropped=%d%n", getThroughput(), dropped));
+      report.append("response time: ").append(format(responseTimes)).append('\n');
+      report.append("service time:  ").append(format(serviceTimes)).append('\n');
+      for (Sample sample : samples) {
+        report.append("  ").append(sample).append('\n');
+      }
+      return report.toString();
+    }
+
+    private static String format(CallStatistics statistics) {
+      return String.format("count=%d, errors=%d, p50=%.2fms, p90=%.2fms, p99=%.2fms, "
+          + "p99.9=%.2fms, max=%.2fms", statistics.getCount(), statistics.getErrorCount(),
+          statistics.getPercentileNanos(50) / 1e6, statistics.getPercentileNanos(90) / 1e6,
+          statistics.getPercentileNanos(99) / 1e6, statistics.getPercentileNanos(99.9) / 1e6,
+          statistics.getMaxNanos() / 1e6);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.testutil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link FixedRateLoadGenerator}.
+ */
+public class FixedRateLoadGeneratorTest {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRate() {
+    new FixedRateLoadGenerator(new CountingTask(), 0, 1);
+  }
+
+  @Test
+  public void testArrivalRate() throws Exception {
+    final CountingTask task = new CountingTask();
+    FixedRateLoadGenerator generator = new FixedRateLoadGenerator(task, 200, 2);
+    generator.setSampleInterval(100, TimeUnit.MILLISECONDS);
+    generator.setGauge(new FixedRateLoadGenerator.Gauge() {
+      @Override
+      public long read() {
+        return task.count.get();
+      }
+    });
+    FixedRateLoadGenerator.Report report = generator.run(100, 500, TimeUnit.MILLISECONDS);
+    Assert.assertEquals(100, report.getResponseTimes().getCount());
+    Assert.assertEquals(120, task.count.get());
+    Assert.assertEquals(0, report.getResponseTimes().getErrorCount());
+    Assert.assertEquals(0, report.getDropped());
+    Assert.assertTrue(report.getThroughput() > 150 && report.getThroughput() <= 201);
+    Assert.assertFalse(report.getSamples().isEmpty());
+    Assert.assertTrue(report.getSamples().get(0).getGauge() > 20);
+  }
+
+  @Test
+  public void testStallIncludedInResponseTimes() throws Exception {
+    FixedRateLoadGenerator.Task task = new FixedRateLoadGenerator.Task() {
+      @Override
+      public void run(long iteration) throws Exception {
+        if (iteration == 10) {
+          Thread.sleep(300);
+        }
+      }
+    };
+    FixedRateLoadGenerator generator = new FixedRateLoadGenerator(task, 100, 1);
+    FixedRateLoadGenerator.Report report = generator.run(0, 1, TimeUnit.SECONDS);
+    Assert.assertEquals(100, report.getResponseTimes().getCount());
+    Assert.assertTrue(report.getResponseTimes().getMaxNanos() >= TimeUnit.MILLISECONDS
+        .toNanos(300));
+    // the iterations scheduled during the stall waited for it
+    Assert.assertTrue(report.getResponseTimes().getPercentileNanos(90) > TimeUnit.MILLISECONDS
+        .toNanos(50));
+    Assert.assertTrue(report.getServiceTimes().getPercentileNanos(90) < TimeUnit.MILLISECONDS
+        .toNanos(50));
+  }
+
+  @Test
+  public void testFailuresCounted() throws Exception {
+    FixedRateLoadGenerator.Task task = new FixedRateLoadGenerator.Task() {
+      @Override
+      public void run(long iteration) throws Exception {
+        if (iteration % 2 == 1) {
+          throw new IllegalStateException("failure " + iteration);
+        }
+      }
+    };
+    FixedRateLoadGenerator.Report report = new FixedRateLoadGenerator(task, 100, 2).run(0, 200,
+        TimeUnit.MILLISECONDS);
+    Assert.assertEquals(20, report.getResponseTimes().getCount());
+    Assert.assertEquals(10, report.getResponseTimes().getErrorCount());
+    Assert.assertTrue(report.getFirstFailure() instanceof IllegalStateException);
+  }
+
+  private static class CountingTask implements FixedRateLoadGenerator.Task {
+
+    private final AtomicLong count = new AtomicLong();
+
+    @Override
+    public void run(long iteration) {
+      count.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.testutil;
+
+import com.auth0.msg.KeyJar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.oidc.common.HttpMethod;
+import org.oidc.common.SerializationType;
+import org.oidc.common.ServiceName;
+import org.oidc.msg.Message;
+import org.oidc.msg.oidc.RegistrationRequest;
+import org.oidc.service.AbstractService;
+import org.oidc.service.base.HttpArguments;
+import org.oidc.service.base.ServiceContext;
+import org.oidc.service.data.InMemoryStateImpl;
+import org.oidc.service.metrics.InMemoryServiceMetrics;
+import org.oidc.service.metrics.ServiceMetrics;
+import org.oidc.service.metrics.ServiceOperation;
+import org.oidc.service.oidc.AccessToken;
+import org.oidc.service.oidc.Authentication;
+import org.oidc.service.oidc.ProviderInfoDiscovery;
+import org.oidc.service.oidc.Registration;
+import org.oidc.service.oidc.UserInfo;
+
+/**
+ * A complete login of a new client against a {@link MockOpenIdProvider}: provider info discovery,
+ * dynamic registration, authentication, access token and userinfo requests. Meant to be run by the
+ * {@link FixedRateLoadGenerator} for measuring how many logins per second the client services can
+ * sustain.
+ *
+ * <p>
+ * Every worker thread keeps its own {@link InMemoryStateImpl}, as it is not thread-safe. The states
+ * are never removed, so {@link #getStateRecordCount()} grows with the number of logins.
+ * </p>
+ */
+public class LoginFlow implements FixedRateLoadGenerator.Task {
+
+  private static final String REDIRECT_URI = "https://rp.example.com/cb";
+
+  private final MockOpenIdProvider provider;
+
+  private final ServiceMetrics metrics;
+
+  /** The state databases of all worker threads. */
+  private final List<InMemoryStateImpl> states = new CopyOnWriteArrayList<InMemoryStateImpl>();
+
+  /** The state database of the current worker thread. */
+  private final ThreadLocal<InMemoryStateImpl> state = new ThreadLocal<InMemoryStateImpl>() {
+    @Override
+    protected InMemoryStateImpl initialValue() {
+      InMemoryStateImpl threadState = new InMemoryStateImpl();
+      states.add(threadState);
+      return threadState;
+    }
+  };
+
+  /**
+   * Constructor.
+   * 
+   * @param provider
+   *          The provider to log in to.
+   * @param metrics
+   *          The metrics set to every service, for the per-service statistics.
+   */
+  public LoginFlow(MockOpenIdProvider provider, ServiceMetrics metrics) {
+    this.provider = provider;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Get the number of state records in the state databases of all worker threads.
+   * 
+   * @return The number of state records.
+   */
+  public long getStateRecordCount() {
+    long count = 0;
+    for (InMemoryStateImpl threadState : states) {
+      count += threadState.getRecordCount();
+    }
+    return count;
+  }
+
+  @Override
+  public void run(long iteration) throws Exception {
+    login();
+  }
+
+  /**
+   * Runs a complete login of a new client.
+   * 
+   * @return The userinfo response of the login.
+   * @throws Exception
+   *           If any of the requests fails.
+   */
+  public Message login() throws Exception {
+    InMemoryStateImpl state = this.state.get();
+    ServiceContext serviceContext = new ServiceContext();
+    serviceContext.setIssuer(provider.getIssuer());
+    serviceContext.setKeyJar(new KeyJar());
+    serviceContext.setRedirectUris(Arrays.asList(REDIRECT_URI));
+    RegistrationRequest preferences = new RegistrationRequest();
+    preferences.getClaims().put("response_types", Arrays.asList("code"));
+    preferences.getClaims().put("token_endpoint_auth_method", "client_secret_basic");
+    preferences.getClaims().put("id_token_signed_response_alg", "RS256");
+    serviceContext.setClientPreferences(preferences);
+
+    ProviderInfoDiscovery discovery = new ProviderInfoDiscovery(serviceContext, state, null);
+    exchange(discovery, new HashMap<String, Object>(), null);
+
+    Registration registration = new Registration(serviceContext, state, null);
+    exchange(registration, new HashMap<String, Object>(), null);
+
+    Authentication authentication = new Authentication(serviceContext, state, null);
+    authentication.setMetrics(metrics);
+    Map<String, Object> authenticationArgs = new HashMap<String, Object>();
+    authenticationArgs.put("response_type", "code");
+    authenticationArgs.put("scope", "openid");
+    HttpArguments httpArguments = authentication.getRequestParameters(authenticationArgs);
+    String stateKey = (String) authentication.getRequestMessage().getClaims().get("state");
+    String location = redirect(httpArguments.getUrl());
+    Message response = authentication.parseResponse(location, SerializationType.URL_ENCODED,
+        stateKey);
+    authentication.updateServiceContext(response, stateKey);
+
+    Map<String, Object> stateArgs = new HashMap<String, Object>();
+    stateArgs.put("state", stateKey);
+    AccessToken accessToken = new AccessToken(serviceContext, state, null);
+    accessToken.setPreConstructorArgs(stateArgs);
+    exchange(accessToken, new HashMap<String, Object>(), stateKey);
+
+    UserInfo userInfo = new UserInfo(serviceContext, state, null);
+    userInfo.setPreConstructorArgs(stateArgs);
+    return exchange(userInfo, new HashMap<String, Object>(), stateKey);
+  }
+
+  /**
+   * Sends the request of the service to the provider and updates the service context with the
+   * response.
+   */
+  private Message exchange(AbstractService service, Map<String, Object> requestArguments,
+      String stateKey) throws Exception {
+    service.setMetrics(metrics);
+    HttpArguments httpArguments = service.getRequestParameters(requestArguments);
+    String body = send(httpArguments);
+    Message response = stateKey == null ? service.parseResponse(body)
+        : service.parseResponse(body, stateKey);
+    service.updateServiceContext(response, stateKey);
+    return response;
+  }
+
+  private static String send(HttpArguments httpArguments) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(httpArguments.getUrl())
+        .openConnection();
+    String authorization = httpArguments.getHeader().getAuthorization();
+    if (authorization != null) {
+      connection.setRequestProperty("Authorization", authorization);
+    }
+    if (HttpMethod.POST.equals(httpArguments.getHttpMethod())) {
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      String contentType = httpArguments.getHeader().getContentType();
+      connection.setRequestProperty("Content-Type",
+          SerializationType.URL_ENCODED.name().equals(contentType)
+              ? "application/x-www-form-urlencoded"
+              : "application/json");
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(httpArguments.getBody().getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int status = connection.getResponseCode();
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    String body = in == null ? "" : read(in);
+    if (status >= 500) {
+      throw new IOException("HTTP " + status + " from " + httpArguments.getUrl());
+    }
+    return body;
+  }
+
+  private static String redirect(String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setInstanceFollowRedirects(false);
+    int status = connection.getResponseCode();
+    String location = connection.getHeaderField("Location");
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (in != null) {
+      read(in);
+    }
+    if (status != 302 || location == null) {
+      throw new IOException("HTTP " + status + " from the authorization endpoint");
+    }
+    return location;
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    try {
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Runs the login flows against an in-process provider and prints the report.
+   * 
+   * @param args
+   *          The arrival rate per second, the number of worker threads, the measurement seconds,
+   *          the provider latency in milliseconds and the injected error rate, all optional.
+   */
+  public static void main(String[] args) throws Exception {
+    double rate = args.length > 0 ? Double.parseDouble(args[0]) : 100;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    long seconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+    long latency = args.length > 3 ? Long.parseLong(args[3]) : 0;
+    double errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+    try (MockOpenIdProvider provider = new MockOpenIdProvider(threads)) {
+      provider.setLatency(latency, latency / 2, TimeUnit.MILLISECONDS);
+      provider.setErrorRate(errorRate, 500);
+      provider.start();
+      InMemoryServiceMetrics metrics = new InMemoryServiceMetrics();
+      final LoginFlow flow = new LoginFlow(provider, metrics);
+      FixedRateLoadGenerator generator = new FixedRateLoadGenerator(flow, rate, threads);
+      generator.setGauge(new FixedRateLoadGenerator.Gauge() {
+        @Override
+        public long read() {
+          return flow.getStateRecordCount();
+        }
+      });
+      FixedRateLoadGenerator.Report report = generator.run(Math.min(10, seconds), seconds,
+          TimeUnit.SECONDS);
+      System.out.println(report);
+      for (ServiceName serviceName : Arrays.asList(ServiceName.PROVIDER_INFO_DISCOVERY,
+          ServiceName.REGISTRATION, ServiceName.AUTHORIZATION, ServiceName.ACCESS_TOKEN,
+          ServiceName.USER_INFO)) {
+        System.out.println(serviceName + " parse: "
+            + metrics.getServiceStatistics(serviceName, ServiceOperation.PARSE_RESPONSE));
+      }
+      if (report.getFirstFailure() != null) {
+        report.getFirstFailure().printStackTrace();
+      }
+    }
+  }
+}
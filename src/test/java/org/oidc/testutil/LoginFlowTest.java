@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.testutil;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.oidc.msg.Message;
+import org.oidc.msg.oidc.OpenIDSchema;
+import org.oidc.service.metrics.InMemoryServiceMetrics;
+
+/**
+ * Unit tests for {@link LoginFlow}.
+ */
+public class LoginFlowTest {
+
+  private MockOpenIdProvider provider;
+
+  @Before
+  public void setup() throws Exception {
+    provider = new MockOpenIdProvider(2);
+    provider.start();
+  }
+
+  @After
+  public void tearDown() {
+    provider.close();
+  }
+
+  @Test
+  public void testLogin() throws Exception {
+    LoginFlow flow = new LoginFlow(provider, new InMemoryServiceMetrics());
+    Message userInfo = flow.login();
+    Assert.assertTrue(userInfo instanceof OpenIDSchema);
+    Assert.assertNull(userInfo.getClaims().get("error"));
+    Assert.assertEquals(MockOpenIdProvider.SUBJECT, userInfo.getClaims().get("sub"));
+    Assert.assertEquals(1, flow.getStateRecordCount());
+  }
+}
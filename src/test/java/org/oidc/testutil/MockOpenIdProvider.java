@@ -0,0 +1,746 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.testutil;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * An embeddable OpenID Provider for driving the client services end to end from a single JVM,
+ * e.g. in load tests. It serves discovery, webfinger, JWKS, dynamic registration, authorization,
+ * token and userinfo endpoints on the loopback interface. The authorization endpoint consents
+ * automatically on behalf of a single mock user, and the ID tokens are signed with RS256 using the
+ * private key in src/test/resources.
+ *
+ * <p>
+ * The provider does only the checks needed for producing sensible responses: the client and its
+ * redirect URI must be registered and the authorization codes, refresh tokens and access tokens
+ * must have been issued by it. Client assertions are not verified. The latency of every response
+ * and the rate of injected server errors can be configured while the provider is running.
+ * </p>
+ *
+ * <p>
+ * The issuer uses the http scheme, so the services must be configured to allow it.
+ * </p>
+ */
+public class MockOpenIdProvider implements Closeable {
+
+  /** The private key the ID tokens are signed with. */
+  public static final String PRIVATE_KEY_FILE = "src/test/resources/rsa-private.pem";
+
+  /** The key ID of the signing key in the JWKS. */
+  public static final String KEY_ID = "mock-op-sig";
+
+  /** The subject of the user on whose behalf the authorization requests are consented to. */
+  public static final String SUBJECT = "mock-user";
+
+  public static final String DISCOVERY_PATH = "/.well-known/openid-configuration";
+  public static final String WEBFINGER_PATH = "/.well-known/webfinger";
+  public static final String JWKS_PATH = "/jwks";
+  public static final String REGISTRATION_PATH = "/registration";
+  public static final String AUTHORIZATION_PATH = "/authorization";
+  public static final String TOKEN_PATH = "/token";
+  public static final String USERINFO_PATH = "/userinfo";
+
+  /** The link relation of the issuer in the webfinger responses. */
+  private static final String WEBFINGER_ISSUER_REL = "http://openid.net/specs/connect/1.0/issuer";
+
+  /** The lifetime of the issued ID tokens and access tokens, in seconds. */
+  private static final long TOKEN_LIFETIME = 3600;
+
+  private static final String JSON = "application/json";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final HttpServer server;
+
+  private final ExecutorService executor;
+
+  private final String issuer;
+
+  private final RSAPrivateCrtKey signingKey;
+
+  private final byte[] discovery;
+
+  private final byte[] jwks;
+
+  /** The registered clients by client ID, the values are the registered client metadata. */
+  private final ConcurrentMap<String, Map<String, Object>> clients = new ConcurrentHashMap<>();
+
+  /** The parameters of the authorization requests by the codes issued for them. */
+  private final ConcurrentMap<String, Map<String, String>> codes = new ConcurrentHashMap<>();
+
+  /** The client IDs by the refresh tokens issued to them. */
+  private final ConcurrentMap<String, String> refreshTokens = new ConcurrentHashMap<>();
+
+  /** The scopes by the access tokens issued for them. */
+  private final ConcurrentMap<String, String> accessTokens = new ConcurrentHashMap<>();
+
+  /** The number of requests by endpoint path. */
+  private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+  private final AtomicLong injectedErrorCount = new AtomicLong();
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  private volatile long latencyMillis;
+
+  private volatile long latencyJitterMillis;
+
+  private volatile double errorRate;
+
+  private volatile int errorStatus = 500;
+
+  /**
+   * Constructor. The provider listens to an ephemeral port on the loopback interface and signs
+   * with the key in {@link #PRIVATE_KEY_FILE}.
+   * 
+   * @param threads
+   *          The number of threads serving the requests.
+   * @throws IOException
+   *           If the server cannot be bound or the key cannot be read.
+   */
+  public MockOpenIdProvider(int threads) throws IOException {
+    this(0, threads, PRIVATE_KEY_FILE);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param port
+   *          The port on the loopback interface, 0 for an ephemeral one.
+   * @param threads
+   *          The number of threads serving the requests.
+   * @param privateKeyFile
+   *          The PKCS#8 PEM file of the RSA key the ID tokens are signed with.
+   * @throws IOException
+   *           If the server cannot be bound or the key cannot be read.
+   */
+  public MockOpenIdProvider(int port, int threads, String privateKeyFile) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads must be positive");
+    }
+    signingKey = readPrivateKey(privateKeyFile);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+        threads * 4);
+    issuer = "http://127.0.0.1:" + server.getAddress().getPort();
+    discovery = mapper.writeValueAsBytes(buildDiscovery());
+    jwks = mapper.writeValueAsBytes(buildJwks());
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.createContext(DISCOVERY_PATH, new DiscoveryEndpoint());
+    server.createContext(WEBFINGER_PATH, new WebfingerEndpoint());
+    server.createContext(JWKS_PATH, new JwksEndpoint());
+    server.createContext(REGISTRATION_PATH, new RegistrationEndpoint());
+    server.createContext(AUTHORIZATION_PATH, new AuthorizationEndpoint());
+    server.createContext(TOKEN_PATH, new TokenEndpoint());
+    server.createContext(USERINFO_PATH, new UserInfoEndpoint());
+  }
+
+  /** Starts serving the requests. */
+  public void start() {
+    server.start();
+  }
+
+  /** Stops the server immediately, aborting the requests in progress. */
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Get the issuer, which is also the base URL of the endpoints.
+   * 
+   * @return The issuer.
+   */
+  public String getIssuer() {
+    return issuer;
+  }
+
+  /**
+   * Get the URL of an endpoint.
+   * 
+   * @param path
+   *          The path of the endpoint, e.g. {@link #TOKEN_PATH}.
+   * @return The URL of the endpoint.
+   */
+  public String getEndpoint(String path) {
+    return issuer + path;
+  }
+
+  /**
+   * Registers a client without the registration endpoint, e.g. for load tests that start from the
+   * authorization request.
+   * 
+   * @param clientId
+   *          The client ID.
+   * @param clientSecret
+   *          The client secret, or null if the client does not authenticate with a secret.
+   * @param redirectUris
+   *          The redirect URIs, null or empty for allowing any.
+   */
+  public void registerClient(String clientId, String clientSecret, List<String> redirectUris) {
+    Map<String, Object> metadata = new HashMap<>();
+    metadata.put("client_id", clientId);
+    if (clientSecret != null) {
+      metadata.put("client_secret", clientSecret);
+    }
+    if (redirectUris != null) {
+      metadata.put("redirect_uris", new ArrayList<>(redirectUris));
+    }
+    clients.put(clientId, metadata);
+  }
+
+  /**
+   * Sets the time every response is delayed with. The delay is the latency plus a random jitter
+   * between zero and the given maximum.
+   * 
+   * @param latency
+   *          The fixed delay.
+   * @param maxJitter
+   *          The maximum random delay on top of the fixed one.
+   * @param unit
+   *          The unit of the delays.
+   */
+  public void setLatency(long latency, long maxJitter, TimeUnit unit) {
+    latencyMillis = unit.toMillis(latency);
+    latencyJitterMillis = unit.toMillis(maxJitter);
+  }
+
+  /**
+   * Sets the rate of the requests that are answered with an injected error instead of the actual
+   * response.
+   * 
+   * @param errorRate
+   *          The rate between 0 and 1.
+   * @param errorStatus
+   *          The HTTP status code of the injected errors.
+   */
+  public void setErrorRate(double errorRate, int errorStatus) {
+    if (errorRate < 0 || errorRate > 1) {
+      throw new IllegalArgumentException("The error rate must be between 0 and 1");
+    }
+    this.errorRate = errorRate;
+    this.errorStatus = errorStatus;
+  }
+
+  /**
+   * Get the number of requests the endpoint has received, including the ones answered with an
+   * injected error.
+   * 
+   * @param path
+   *          The path of the endpoint.
+   * @return The number of requests.
+   */
+  public long getRequestCount(String path) {
+    AtomicLong count = requestCounts.get(path);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Get the number of requests answered with an injected error.
+   * 
+   * @return The number of injected errors.
+   */
+  public long getInjectedErrorCount() {
+    return injectedErrorCount.get();
+  }
+
+  /**
+   * Base class for the endpoints, applying the configured latency and error injection.
+   */
+  private abstract class Endpoint implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        String path = exchange.getHttpContext().getPath();
+        AtomicLong count = requestCounts.get(path);
+        if (count == null) {
+          requestCounts.putIfAbsent(path, new AtomicLong());
+          count = requestCounts.get(path);
+        }
+        count.incrementAndGet();
+        delay();
+        Map<String, String> params = parseForm(exchange.getRequestURI().getRawQuery());
+        if ("POST".equals(exchange.getRequestMethod())) {
+          String body = new String(readFully(exchange.getRequestBody()), StandardCharsets.UTF_8);
+          String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+          if (contentType != null && contentType.startsWith(JSON)) {
+            params.put("", body);
+          } else {
+            params.putAll(parseForm(body));
+          }
+        }
+        double rate = errorRate;
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+          injectedErrorCount.incrementAndGet();
+          sendError(exchange, errorStatus, "server_error", "Injected error");
+        } else {
+          serve(exchange, params);
+        }
+      } catch (RuntimeException | GeneralSecurityException e) {
+        sendError(exchange, 500, "server_error", String.valueOf(e.getMessage()));
+      } finally {
+        exchange.close();
+      }
+    }
+
+    /**
+     * Serves the request.
+     * 
+     * @param exchange
+     *          The exchange to send the response to.
+     * @param params
+     *          The query and form parameters, a JSON body under the empty name.
+     */
+    protected abstract void serve(HttpExchange exchange, Map<String, String> params)
+        throws IOException, GeneralSecurityException;
+
+    private void delay() {
+      long millis = latencyMillis;
+      long jitter = latencyJitterMillis;
+      if (jitter > 0) {
+        millis += ThreadLocalRandom.current().nextLong(jitter + 1);
+      }
+      if (millis > 0) {
+        try {
+          Thread.sleep(millis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private class DiscoveryEndpoint extends Endpoint {
+    @Override
+    protected void serve(HttpExchange exchange, Map<String, String> params) throws IOException {
+      send(exchange, 200, JSON, discovery);
+    }
+  }
+
+  private class JwksEndpoint extends Endpoint {
+    @Override
+    protected void serve(HttpExchange exchange, Map<String, String> params) throws IOException {
+      send(exchange, 200, "application/jwk-set+json", jwks);
+    }
+  }
+
+  private class WebfingerEndpoint extends Endpoint {
+    @Override
+    protected void serve(HttpExchange exchange, Map<String, String> params) throws IOException {
+      String resource = params.get("resource");
+      if (resource == null) {
+        sendError(exchange, 400, "invalid_request", "Missing resource");
+        return;
+      }
+      Map<String, Object> link = new LinkedHashMap<>();
+      link.put("rel", WEBFINGER_ISSUER_REL);
+      link.put("href", issuer);
+      Map<String, Object> response = new LinkedHashMap<>();
+      response.put("subject", resource);
+      response.put("links", Collections.singletonList(link));
+      sendJson(exchange, 200, response);
+    }
+  }
+
+  private class RegistrationEndpoint extends Endpoint {
+    @Override
+    protected void serve(HttpExchange exchange, Map<String, String> params) throws IOException {
+      String body = params.get("");
+      if (body == null) {
+        sendError(exchange, 400, "invalid_client_metadata", "Expected a JSON body");
+        return;
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, Object> metadata = mapper.readValue(body, Map.class);
+      String clientId = "client-" + newToken();
+      metadata.put("client_id", clientId);
+      metadata.put("client_secret", newToken());
+      metadata.put("client_id_issued_at", System.currentTimeMillis() / 1000);
+      metadata.put("client_secret_expires_at", 0);
+      clients.put(clientId, metadata);
+      sendJson(exchange, 201, metadata);
+    }
+  }
+
+  private class AuthorizationEndpoint extends Endpoint {
+    @Override
+    protected void serve(HttpExchange exchange, Map<String, String> params)
+        throws IOException, GeneralSecurityException {
+      String clientId = params.get("client_id");
+      Map<String, Object> client = clientId != null ? clients.get(clientId) : null;
+      String redirectUri = params.get("redirect_uri");
+      if (client == null || redirectUri == null) {
+        sendError(exchange, 400, "invalid_request", "Unknown client or missing redirect_uri");
+        return;
+      }
+      Object redirectUris = client.get("redirect_uris");
+      if (redirectUris instanceof List && !((List<?>) redirectUris).isEmpty()
+          && !((List<?>) redirectUris).contains(redirectUri)) {
+        sendError(exchange, 400, "invalid_request", "Unregistered redirect_uri");
+        return;
+      }
+      List<String> responseTypes = params.get("response_type") != null
+          ? Arrays.asList(params.get("response_type").split(" "))
+          : Collections.<String>emptyList();
+      Map<String, String> response = new LinkedHashMap<>();
+      String code = null;
+      String accessToken = null;
+      if (responseTypes.contains("code")) {
+        code = newToken();
+        codes.put(code, params);
+        response.put("code", code);
+      }
+      if (responseTypes.contains("token")) {
+        accessToken = newAccessToken(params.get("scope"));
+        response.put("access_token", accessToken);
+        response.put("token_type", "Bearer");
+        response.put("expires_in", String.valueOf(TOKEN_LIFETIME));
+      }
+      if (responseTypes.contains("id_token")) {
+        response.put("id_token", newIdToken(clientId, params.get("nonce"), code, accessToken));
+      }
+      if (response.isEmpty()) {
+        response.put("error", "unsupported_response_type");
+      }
+      if (params.get("state") != null) {
+        response.put("state", params.get("state"));
+      }
+      boolean fragment = !responseTypes.equals(Collections.singletonList("code"));
+      String location = redirectUri + (fragment ? "#" : redirectUri.contains("?") ? "&" : "?")
+          + toForm(response);
+      exchange.getResponseHeaders().set("Location", location);
+      send(exchange, 302, null, new byte[0]);
+    }
+  }
+
+  private class TokenEndpoint extends Endpoint {
+    @Override
+    protected void serve(HttpExchange exchange, Map<String, String> params)
+        throws IOException, GeneralSecurityException {
+      String clientId = authenticateClient(exchange, params);
+      if (clientId == null) {
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Basic");
+        sendError(exchange, 401, "invalid_client", "Client authentication failed");
+        return;
+      }
+      String grantType = params.get("grant_type");
+      String nonce = null;
+      String scope;
+      if ("authorization_code".equals(grantType)) {
+        Map<String, String> request = params.get("code") != null
+            ? codes.remove(params.get("code"))
+            : null;
+        if (request == null || !clientId.equals(request.get("client_id"))) {
+          sendError(exchange, 400, "invalid_grant", "Unknown authorization code");
+          return;
+        }
+        nonce = request.get("nonce");
+        scope = request.get("scope");
+      } else if ("refresh_token".equals(grantType)) {
+        String refreshToken = params.get("refresh_token");
+        if (refreshToken == null || !clientId.equals(refreshTokens.get(refreshToken))) {
+          sendError(exchange, 400, "invalid_grant", "Unknown refresh token");
+          return;
+        }
+        scope = params.get("scope");
+      } else {
+        sendError(exchange, 400, "unsupported_grant_type", "Unsupported grant type");
+        return;
+      }
+      String accessToken = newAccessToken(scope);
+      String refreshToken = newToken();
+      refreshTokens.put(refreshToken, clientId);
+      Map<String, Object> response = new LinkedHashMap<>();
+      response.put("access_token", accessToken);
+      response.put("token_type", "Bearer");
+      response.put("expires_in", TOKEN_LIFETIME);
+      response.put("refresh_token", refreshToken);
+      if (scope != null) {
+        response.put("scope", scope);
+      }
+      if (scope != null && Arrays.asList(scope.split(" ")).contains("openid")) {
+        response.put("id_token", newIdToken(clientId, nonce, null, accessToken));
+      }
+      exchange.getResponseHeaders().set("Cache-Control", "no-store");
+      sendJson(exchange, 200, response);
+    }
+  }
+
+  private class UserInfoEndpoint extends Endpoint {
+    @Override
+    protected void serve(HttpExchange exchange, Map<String, String> params) throws IOException {
+      String accessToken = params.get("access_token");
+      String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+      if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+        accessToken = authorization.substring(7).trim();
+      }
+      if (accessToken == null || !accessTokens.containsKey(accessToken)) {
+        exchange.getResponseHeaders().set("WWW-Authenticate",
+            "Bearer error=\"invalid_token\"");
+        sendError(exchange, 401, "invalid_token", "Unknown access token");
+        return;
+      }
+      Map<String, Object> response = new LinkedHashMap<>();
+      response.put("sub", SUBJECT);
+      response.put("name", "Mock User");
+      response.put("email", SUBJECT + "@example.com");
+      response.put("email_verified", true);
+      sendJson(exchange, 200, response);
+    }
+  }
+
+  /**
+   * Authenticates the client with client_secret_basic, client_secret_post or, without verifying
+   * it, a client assertion.
+   * 
+   * @return The client ID, or null if the client is not authenticated.
+   */
+  private String authenticateClient(HttpExchange exchange, Map<String, String> params)
+      throws UnsupportedEncodingException {
+    String clientId = params.get("client_id");
+    String secret = params.get("client_secret");
+    String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+    if (authorization != null && authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+      String credentials = new String(Base64.decodeBase64(authorization.substring(6).trim()),
+          StandardCharsets.UTF_8);
+      int separator = credentials.indexOf(':');
+      if (separator < 0) {
+        return null;
+      }
+      clientId = URLDecoder.decode(credentials.substring(0, separator), "UTF-8");
+      secret = URLDecoder.decode(credentials.substring(separator + 1), "UTF-8");
+    }
+    Map<String, Object> client = clientId != null ? clients.get(clientId) : null;
+    if (client == null) {
+      return null;
+    }
+    if (params.get("client_assertion") != null) {
+      return clientId;
+    }
+    Object registered = client.get("client_secret");
+    return registered == null || registered.equals(secret) ? clientId : null;
+  }
+
+  private String newAccessToken(String scope) {
+    String accessToken = newToken();
+    accessTokens.put(accessToken, scope != null ? scope : "");
+    return accessToken;
+  }
+
+  private String newToken() {
+    return Long.toHexString(sequence.incrementAndGet()) + "."
+        + Long.toHexString(ThreadLocalRandom.current().nextLong());
+  }
+
+  private String newIdToken(String clientId, String nonce, String code, String accessToken)
+      throws JsonProcessingException, GeneralSecurityException {
+    long now = System.currentTimeMillis() / 1000;
+    Map<String, Object> claims = new LinkedHashMap<>();
+    claims.put("iss", issuer);
+    claims.put("sub", SUBJECT);
+    claims.put("aud", clientId);
+    claims.put("iat", now);
+    claims.put("exp", now + TOKEN_LIFETIME);
+    claims.put("sid", "session-" + SUBJECT);
+    if (nonce != null) {
+      claims.put("nonce", nonce);
+    }
+    if (code != null) {
+      claims.put("c_hash", halfHash(code));
+    }
+    if (accessToken != null) {
+      claims.put("at_hash", halfHash(accessToken));
+    }
+    Map<String, Object> header = new LinkedHashMap<>();
+    header.put("alg", "RS256");
+    header.put("kid", KEY_ID);
+    header.put("typ", "JWT");
+    String signingInput = Base64.encodeBase64URLSafeString(mapper.writeValueAsBytes(header))
+        + "." + Base64.encodeBase64URLSafeString(mapper.writeValueAsBytes(claims));
+    Signature signature = Signature.getInstance("SHA256withRSA");
+    signature.initSign(signingKey);
+    signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+    return signingInput + "." + Base64.encodeBase64URLSafeString(signature.sign());
+  }
+
+  private static String halfHash(String value) throws GeneralSecurityException {
+    byte[] digest = MessageDigest.getInstance("SHA-256")
+        .digest(value.getBytes(StandardCharsets.US_ASCII));
+    return Base64.encodeBase64URLSafeString(Arrays.copyOf(digest, digest.length / 2));
+  }
+
+  private Map<String, Object> buildDiscovery() {
+    Map<String, Object> discovery = new LinkedHashMap<>();
+    discovery.put("issuer", issuer);
+    discovery.put("authorization_endpoint", getEndpoint(AUTHORIZATION_PATH));
+    discovery.put("token_endpoint", getEndpoint(TOKEN_PATH));
+    discovery.put("userinfo_endpoint", getEndpoint(USERINFO_PATH));
+    discovery.put("jwks_uri", getEndpoint(JWKS_PATH));
+    discovery.put("registration_endpoint", getEndpoint(REGISTRATION_PATH));
+    discovery.put("scopes_supported",
+        Arrays.asList("openid", "profile", "email", "offline_access"));
+    discovery.put("response_types_supported", Arrays.asList("code", "id_token", "id_token token",
+        "code id_token", "code token", "code id_token token"));
+    discovery.put("response_modes_supported", Arrays.asList("query", "fragment"));
+    discovery.put("grant_types_supported",
+        Arrays.asList("authorization_code", "implicit", "refresh_token"));
+    discovery.put("subject_types_supported", Arrays.asList("public"));
+    discovery.put("id_token_signing_alg_values_supported", Arrays.asList("RS256"));
+    discovery.put("token_endpoint_auth_methods_supported",
+        Arrays.asList("client_secret_basic", "client_secret_post", "private_key_jwt"));
+    discovery.put("claims_supported",
+        Arrays.asList("sub", "iss", "aud", "exp", "iat", "nonce", "name", "email"));
+    return discovery;
+  }
+
+  private Map<String, Object> buildJwks() {
+    Map<String, Object> key = new LinkedHashMap<>();
+    key.put("kty", "RSA");
+    key.put("use", "sig");
+    key.put("alg", "RS256");
+    key.put("kid", KEY_ID);
+    key.put("n", toBase64Url(signingKey.getModulus()));
+    key.put("e", toBase64Url(signingKey.getPublicExponent()));
+    return Collections.<String, Object>singletonMap("keys", Collections.singletonList(key));
+  }
+
+  private static String toBase64Url(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    if (bytes.length > 1 && bytes[0] == 0) {
+      bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+    return Base64.encodeBase64URLSafeString(bytes);
+  }
+
+  private static RSAPrivateCrtKey readPrivateKey(String file) throws IOException {
+    String pem = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.US_ASCII);
+    String encoded = pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+    try {
+      return (RSAPrivateCrtKey) KeyFactory.getInstance("RSA")
+          .generatePrivate(new PKCS8EncodedKeySpec(Base64.decodeBase64(encoded)));
+    } catch (GeneralSecurityException | ClassCastException e) {
+      throw new IOException("Could not read the RSA private key from " + file, e);
+    }
+  }
+
+  private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+    send(exchange, status, JSON, mapper.writeValueAsBytes(body));
+  }
+
+  private void sendError(HttpExchange exchange, int status, String error, String description)
+      throws IOException {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("error", error);
+    body.put("error_description", description);
+    sendJson(exchange, status, body);
+  }
+
+  private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+      throws IOException {
+    if (contentType != null) {
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+    }
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static Map<String, String> parseForm(String form) throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+    if (form == null || form.isEmpty()) {
+      return params;
+    }
+    for (String pair : form.split("&")) {
+      int separator = pair.indexOf('=');
+      String name = separator < 0 ? pair : pair.substring(0, separator);
+      String value = separator < 0 ? "" : pair.substring(separator + 1);
+      if (!name.isEmpty()) {
+        params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+      }
+    }
+    return params;
+  }
+
+  private static String toForm(Map<String, String> params) throws UnsupportedEncodingException {
+    StringBuilder form = new StringBuilder();
+    for (Map.Entry<String, String> param : params.entrySet()) {
+      if (form.length() > 0) {
+        form.append('&');
+      }
+      form.append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=')
+          .append(URLEncoder.encode(param.getValue(), "UTF-8"));
+    }
+    return form.toString();
+  }
+}
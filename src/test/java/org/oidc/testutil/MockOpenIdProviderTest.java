@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.oidc.testutil;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MockOpenIdProvider}.
+ */
+public class MockOpenIdProviderTest {
+
+  private static final String REDIRECT_URI = "https://rp.example.com/cb";
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private MockOpenIdProvider provider;
+
+  @Before
+  public void setup() throws Exception {
+    provider = new MockOpenIdProvider(4);
+    provider.registerClient("client", "secret", Arrays.asList(REDIRECT_URI));
+    provider.start();
+  }
+
+  @After
+  public void tearDown() {
+    provider.close();
+  }
+
+  @Test
+  public void testDiscoveryAndWebfinger() throws Exception {
+    Map<String, Object> discovery = getJson(
+        provider.getEndpoint(MockOpenIdProvider.DISCOVERY_PATH), 200);
+    Assert.assertEquals(provider.getIssuer(), discovery.get("issuer"));
+    Assert.assertEquals(provider.getEndpoint(MockOpenIdProvider.TOKEN_PATH),
+        discovery.get("token_endpoint"));
+    Map<String, Object> webfinger = getJson(provider.getEndpoint(MockOpenIdProvider.WEBFINGER_PATH
+        + "?resource=acct%3Afoo%40example.com"), 200);
+    Assert.assertEquals("acct:foo@example.com", webfinger.get("subject"));
+    Assert.assertEquals(1, provider.getRequestCount(MockOpenIdProvider.DISCOVERY_PATH));
+  }
+
+  @Test
+  public void testRegistration() throws Exception {
+    HttpURLConnection connection = post(
+        provider.getEndpoint(MockOpenIdProvider.REGISTRATION_PATH), "application/json",
+        "{\"redirect_uris\":[\"" + REDIRECT_URI + "\"]}", null);
+    Assert.assertEquals(201, connection.getResponseCode());
+    Map<String, Object> response = readJson(connection.getInputStream());
+    Assert.assertNotNull(response.get("client_id"));
+    Assert.assertNotNull(response.get("client_secret"));
+    Assert.assertEquals(Arrays.asList(REDIRECT_URI), response.get("redirect_uris"));
+  }
+
+  @Test
+  public void testCodeFlow() throws Exception {
+    Map<String, String> redirect = authorize("code");
+    Assert.assertEquals("xyz", redirect.get("state"));
+    String code = redirect.get("code");
+    Assert.assertNotNull(code);
+
+    String basic = "Basic " + Base64.encodeBase64String("client:secret".getBytes("UTF-8"));
+    HttpURLConnection connection = post(provider.getEndpoint(MockOpenIdProvider.TOKEN_PATH),
+        "application/x-www-form-urlencoded",
+        "grant_type=authorization_code&code=" + code + "&redirect_uri=" + REDIRECT_URI, basic);
+    Assert.assertEquals(200, connection.getResponseCode());
+    Map<String, Object> tokens = readJson(connection.getInputStream());
+    String idToken = (String) tokens.get("id_token");
+    Map<String, Object> claims = verifyIdToken(idToken);
+    Assert.assertEquals(provider.getIssuer(), claims.get("iss"));
+    Assert.assertEquals("client", claims.get("aud"));
+    Assert.assertEquals("n-0S6", claims.get("nonce"));
+
+    HttpURLConnection replay = post(provider.getEndpoint(MockOpenIdProvider.TOKEN_PATH),
+        "application/x-www-form-urlencoded",
+        "grant_type=authorization_code&code=" + code, basic);
+    Assert.assertEquals(400, replay.getResponseCode());
+
+    HttpURLConnection userInfo = (HttpURLConnection) new URL(
+        provider.getEndpoint(MockOpenIdProvider.USERINFO_PATH)).openConnection();
+    userInfo.setRequestProperty("Authorization", "Bearer " + tokens.get("access_token"));
+    Assert.assertEquals(200, userInfo.getResponseCode());
+    Assert.assertEquals(MockOpenIdProvider.SUBJECT,
+        readJson(userInfo.getInputStream()).get("sub"));
+  }
+
+  @Test
+  public void testImplicitFlow() throws Exception {
+    Map<String, String> redirect = authorize("id_token%20token");
+    Map<String, Object> claims = verifyIdToken(redirect.get("id_token"));
+    Assert.assertNotNull(claims.get("at_hash"));
+    Assert.assertNotNull(redirect.get("access_token"));
+  }
+
+  @Test
+  public void testInvalidClient() throws Exception {
+    HttpURLConnection connection = post(provider.getEndpoint(MockOpenIdProvider.TOKEN_PATH),
+        "application/x-www-form-urlencoded",
+        "grant_type=refresh_token&refresh_token=x&client_id=client&client_secret=wrong", null);
+    Assert.assertEquals(401, connection.getResponseCode());
+  }
+
+  @Test
+  public void testErrorInjectionAndLatency() throws Exception {
+    provider.setErrorRate(1.0, 503);
+    provider.setLatency(50, 0, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    Map<String, Object> error = getJson(provider.getEndpoint(MockOpenIdProvider.JWKS_PATH), 503);
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertEquals("server_error", error.get("error"));
+    Assert.assertEquals(1, provider.getInjectedErrorCount());
+    provider.setErrorRate(0, 500);
+    provider.setLatency(0, 0, TimeUnit.MILLISECONDS);
+    Map<String, Object> jwks = getJson(provider.getEndpoint(MockOpenIdProvider.JWKS_PATH), 200);
+    Assert.assertEquals(1, ((List<?>) jwks.get("keys")).size());
+  }
+
+  private Map<String, String> authorize(String responseType) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+        provider.getEndpoint(MockOpenIdProvider.AUTHORIZATION_PATH) + "?client_id=client"
+            + "&redirect_uri=" + REDIRECT_URI + "&response_type=" + responseType
+            + "&scope=openid&state=xyz&nonce=n-0S6").openConnection();
+    connection.setInstanceFollowRedirects(false);
+    Assert.assertEquals(302, connection.getResponseCode());
+    String location = connection.getHeaderField("Location");
+    Assert.assertTrue(location.startsWith(REDIRECT_URI));
+    Map<String, String> params = new HashMap<>();
+    for (String pair : location.substring(REDIRECT_URI.length() + 1).split("&")) {
+      String[] nameValue = pair.split("=", 2);
+      params.put(nameValue[0], URLDecoder.decode(nameValue[1], "UTF-8"));
+    }
+    return params;
+  }
+
+  private Map<String, Object> verifyIdToken(String idToken) throws Exception {
+    Map<String, Object> jwks = getJson(provider.getEndpoint(MockOpenIdProvider.JWKS_PATH), 200);
+    @SuppressWarnings("unchecked")
+    Map<String, Object> key = (Map<String, Object>) ((List<?>) jwks.get("keys")).get(0);
+    PublicKey publicKey = KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+        new BigInteger(1, Base64.decodeBase64((String) key.get("n"))),
+        new BigInteger(1, Base64.decodeBase64((String) key.get("e")))));
+    String[] parts = idToken.split("\\.");
+    Signature signature = Signature.getInstance("SHA256withRSA");
+    signature.initVerify(publicKey);
+    signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+    Assert.assertTrue(signature.verify(Base64.decodeBase64(parts[2])));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> claims = mapper.readValue(Base64.decodeBase64(parts[1]), Map.class);
+    return claims;
+  }
+
+  private Map<String, Object> getJson(String url, int expectedStatus) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    Assert.assertEquals(expectedStatus, connection.getResponseCode());
+    return readJson(expectedStatus < 400 ? connection.getInputStream()
+        : connection.getErrorStream());
+  }
+
+  private static HttpURLConnection post(String url, String contentType, String body,
+      String authorization) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", contentType);
+    if (authorization != null) {
+      connection.setRequestProperty("Authorization", authorization);
+    }
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    return connection;
+  }
+
+  private Map<String, Object> readJson(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    try {
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    @SuppressWarnings("unchecked")
+    Map<String, Object> json = mapper.readValue(out.toByteArray(), Map.class);
+    return json;
+  }
+}